@@ -0,0 +1,96 @@
+#ifdef DOUBLE_WORD
+/*
+ * Double-word arithmetic: a value is the unevaluated sum hi + lo of two fps
+ * with |lo| <= ulp(hi)/2, stored as (hi, lo). This doubles the digits of fp
+ * (double-double for 64bit floats, float-float with about 48 bits for 32bit
+ * ones) at the cost of about ten to twenty operations per multiplication.
+ * The algorithms are those of Joldes, Muller and Popescu (Tight and rigorous
+ * error bounds for basic building blocks of double-word arithmetic, 2017).
+ * They depend on every operation being rounded exactly as written, so
+ * programs that define DOUBLE_WORD are built without relaxed math (see
+ * ProgramSource.STRICT_MATH). Programs insert this file after their fp
+ * typedefs, see Fractal.insertDoubleWords().
+ */
+typedef fp2 dw;
+
+/* s + e = a + b exactly, if |a| >= |b| */
+inline dw fastTwoSum(const fp a, const fp b) {
+	fp s = a + b;
+	return (dw) (s, b - (s - a));
+}
+
+/* s + e = a + b exactly */
+inline dw twoSum(const fp a, const fp b) {
+	fp s = a + b;
+	fp t = s - a;
+	return (dw) (s, (a - (s - t)) + (b - t));
+}
+
+/* p + e = a * b exactly */
+inline dw twoProd(const fp a, const fp b) {
+	fp p = a * b;
+	return (dw) (p, fma(a, b, -p));
+}
+
+inline dw dwAdd(const dw a, const dw b) {
+	dw s = twoSum(a.x, b.x);
+	dw t = twoSum(a.y, b.y);
+	s = fastTwoSum(s.x, s.y + t.x);
+	return fastTwoSum(s.x, t.y + s.y);
+}
+
+inline dw dwAddFp(const dw a, const fp b) {
+	dw s = twoSum(a.x, b);
+	return fastTwoSum(s.x, a.y + s.y);
+}
+
+inline dw dwMul(const dw a, const dw b) {
+	dw p = twoProd(a.x, b.x);
+	return fastTwoSum(p.x, p.y + fma(a.y, b.x, fma(a.x, b.y, a.y * b.y)));
+}
+
+inline dw dwMulFp(const dw a, const fp b) {
+	dw p = twoProd(a.x, b);
+	return fastTwoSum(p.x, fma(a.y, b, p.y));
+}
+
+inline dw dwSqr(const dw a) {
+	dw p = twoProd(a.x, a.x);
+	return fastTwoSum(p.x, p.y + fma(2 * a.x, a.y, a.y * a.y));
+}
+
+inline dw dwDiv(const dw a, const dw b) {
+	fp t = a.x / b.x;
+	dw r = dwMulFp(b, t);
+	return fastTwoSum(t, ((a.x - r.x) + (a.y - r.y)) / b.x);
+}
+
+/* complex double-words are stored as (re.hi, re.lo, im.hi, im.lo) */
+inline fp4 dwcMul(const fp4 a, const fp4 b) {
+	return (fp4) (dwAdd(dwMul(a.xy, b.xy), -dwMul(a.zw, b.zw)), dwAdd(dwMul(a.xy, b.zw), dwMul(a.zw, b.xy)));
+}
+
+inline fp4 dwcSqr(const fp4 a) {
+	return (fp4) (dwAdd(dwSqr(a.xy), -dwSqr(a.zw)), 2 * dwMul(a.xy, a.zw));
+}
+
+/* 1/a = a' / |a|^2 for a != 0 */
+inline fp4 dwcInv(const fp4 a) {
+	dw d = dwAdd(dwSqr(a.xy), dwSqr(a.zw));
+	return (fp4) (dwDiv(a.xy, d), -dwDiv(a.zw, d));
+}
+
+/* z^k for k >= 1 by repeated squaring like cpowi() in Multibrot.cl */
+inline fp4 dwcPowi(const fp4 z, const int k) {
+	fp4 result = z;
+
+	for (int bit = 30 - clz(k); bit >= 0; bit--) {
+		result = dwcSqr(result);
+
+		if ((k >> bit) & 1)
+			result = dwcMul(result, z);
+	}
+
+	return result;
+}
+#endif
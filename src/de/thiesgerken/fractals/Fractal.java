@@ -1,48 +1,318 @@
 package de.thiesgerken.fractals;
 
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.nio.ByteBuffer;
-
-import com.jogamp.opencl.CLCommandQueue;
-import com.jogamp.opencl.CLContext;
-import com.jogamp.opencl.CLDevice;
-import com.jogamp.opencl.CLEventList;
-import com.jogamp.opencl.CLKernel;
-import com.jogamp.opencl.CLPlatform;
-import com.jogamp.opencl.CLProgram;
-import com.jogamp.opencl.llb.CL;
-import com.jogamp.opencl.util.CLProgramConfiguration;
-
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.thiesgerken.fractals.backend.Backends;
+import de.thiesgerken.fractals.backend.ComputeContext;
+import de.thiesgerken.fractals.backend.ComputeDevice;
+import de.thiesgerken.fractals.backend.ComputeProgram;
+import de.thiesgerken.fractals.backend.ProgramSource;
+import de.thiesgerken.fractals.backend.WorkSizeTuner;
+import de.thiesgerken.fractals.util.Formatter;
+import de.thiesgerken.fractals.util.Resources;
 import de.thiesgerken.fractals.util.Size;
+import de.thiesgerken.fractals.util.StripQueue;
 
 public abstract class Fractal {
+	private final static Logger logger = Logger.getLogger(Fractal.class.getName());
+
+	/* the precisions of the calculations, see setPrecision() */
+	public static final String FP32 = "fp32";
+	public static final String FP64 = "fp64";
+	public static final String DOUBLE_DOUBLE = "dd";
+	public static final String FLOAT_FLOAT = "ff";
+
+	/* chooses one of the precisions for every image, if supported */
+	public static final String AUTO = "auto";
 
 	/* runtime variables */
 	protected boolean isInitialized;
 	protected boolean isCompiled;
 	protected boolean isConfigured;
-	protected CL cl;
-	protected CLContext context;
-	protected CLCommandQueue queue;
-	protected CLProgram program;
-	protected CLProgramConfiguration configure;
-	protected CLEventList probe;
+	protected ComputeContext context;
+	protected ComputeProgram program;
+	private List<Fractal> helpers;
+
+	/*
+	 * programs that have been built on the context, by precision, defines and
+	 * source (see buildKernel())
+	 */
+	private Map<String, ComputeProgram> programs;
 
 	/* User-defined parameters */
-	protected CLDevice device;
+	protected ComputeDevice device;
+	protected List<ComputeDevice> coDevices;
 	protected boolean fp64;
+	protected boolean doubleWord;
 	protected Size size;
 
-	protected abstract void initCL() throws Exception;
+	/**
+	 * Returns the kernels of this fractal.
+	 */
+	protected abstract ProgramSource getProgramSource() throws Exception;
 
-	protected abstract void setKernelArguments();
+	/**
+	 * Creates the kernels after the program has been built.
+	 */
+	protected abstract void createKernels() throws Exception;
 
-	protected abstract void buildKernel() throws Exception;
+	protected abstract void setKernelArguments() throws Exception;
 
 	public abstract void release();
 
+	/**
+	 * Creates the context on the selected device (or the default device if
+	 * none has been selected).
+	 */
+	protected void initContext() throws Exception {
+		if (isInitialized)
+			return;
+
+		if (device == null)
+			device = Backends.getDefaultDevice();
+
+		logger.log(Level.INFO, "Initializing " + device.getBackend().getName() + " backend for device " + device.getName());
+
+		context = createContext();
+		programs = new HashMap<String, ComputeProgram>();
+
+		isInitialized = true;
+		isCompiled = false;
+		isConfigured = false;
+	}
+
+	protected ComputeContext createContext() throws Exception {
+		return device.createContext();
+	}
+
+	/**
+	 * Builds the variant of the program that getProgramSource() currently
+	 * returns and creates the kernels. Built variants are kept until the
+	 * context is released, so switching back to one of them (e.g. to another
+	 * exponent in the gui) does not compile it again.
+	 */
+	protected void buildKernel() throws Exception {
+		if (isCompiled)
+			return;
+
+		if (fp64 && !device.isDoubleFPAvailable()) {
+			if (!supportsDoubleWords())
+				throw new Exception("the selected device does not have 64bit floating point support");
+
+			logger.log(Level.WARNING, "The device " + device.getName() + " does not have 64bit floating point support, using the precision "
+					+ FLOAT_FLOAT + " instead of " + getPrecision());
+			setPrecision(FLOAT_FLOAT);
+		}
+
+		ProgramSource source = getProgramSource();
+		String key = fp64 + " " + source.getDefines() + "\n" + source.getSource();
+
+		program = programs.get(key);
+
+		if (program == null) {
+			logger.log(Level.INFO, "Compiling kernel " + source + " for " + (fp64 ? "64" : "32") + "-bit floats");
+
+			program = context.createProgram(source);
+			program.build(fp64);
+			programs.put(key, program);
+		} else
+			logger.log(Level.INFO, "Using the already compiled kernel " + source + " for " + (fp64 ? "64" : "32") + "-bit floats");
+
+		createKernels();
+
+		isCompiled = true;
+		isConfigured = false;
+	}
+
+	/**
+	 * Releases the program and the context, subclasses have to release their
+	 * kernels and buffers first.
+	 */
+	protected void releaseContext() {
+		releaseHelpers();
+
+		if (programs != null)
+			for (ComputeProgram p : programs.values())
+				if (!p.isReleased())
+					p.release();
+
+		programs = null;
+		program = null;
+
+		if (context != null && !context.isReleased())
+			context.release();
+
+		isCompiled = false;
+		isConfigured = false;
+		isInitialized = false;
+	}
+
+	/**
+	 * Copies the parameters (but not the devices) to another instance of the
+	 * same kind.
+	 */
+	protected void copyParametersTo(Fractal other) {
+		other.setSize(size);
+		other.setPrecision(getPrecision());
+	}
+
+	/**
+	 * The amount of parts each device should keep in flight when rendering
+	 * count units in parts of at most maxLength units for target: two, so that
+	 * computations and transfers overlap, unless there is just a single part.
+	 */
+	protected static int getPipelineSlots(Fractal target, int count, int maxLength) {
+		return target.coDevices.isEmpty() && maxLength >= count ? 1 : 2;
+	}
+
+	/**
+	 * Per-device state while rendering on several devices.
+	 */
+	private class Worker extends Thread {
+		private final Fractal fractal;
+		private final PartRenderer parts;
+		private final StripQueue queue;
+		private final int maxLength;
+
+		public long units;
+		public long kernelTime;
+		public Exception error;
+
+		public Worker(Fractal fractal, StripQueue queue, int maxLength) {
+			this.fractal = fractal;
+			this.parts = (PartRenderer) fractal;
+			this.queue = queue;
+			this.maxLength = maxLength;
+		}
+
+		@Override
+		public void run() {
+			List<StripQueue.Strip> taken = new ArrayList<StripQueue.Strip>();
+
+			try {
+				parts.prepareParts(Fractal.this, maxLength);
+
+				StripQueue.Strip part;
+
+				while ((part = queue.next()) != null) {
+					taken.add(part);
+					kernelTime += parts.renderPart(Fractal.this, part.getOffsetY(), part.getHeight());
+					units += part.getHeight();
+				}
+
+				kernelTime += parts.flushParts(Fractal.this);
+			} catch (Exception e) {
+				// let the other devices take over, including the parts whose
+				// results might not have arrived
+				for (StripQueue.Strip part : taken)
+					queue.putBack(part);
+
+				units = 0;
+				kernelTime = 0;
+				error = e;
+				logger.log(Level.WARNING, "Device " + fractal.getDevice().getName() + " failed, continuing without it: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Renders count units (rows of an image, passes, ...) on the device and
+	 * all co-devices at once. Each device takes the next part of a shared
+	 * queue whenever it is idle, parts are at most maxLength units long.
+	 * pixelsPerUnit is used to report the throughput of each device. Only for
+	 * fractals that implement {@link PartRenderer}.
+	 */
+	protected void renderOnAllDevices(int count, int minLength, int maxLength, long pixelsPerUnit, String unitName) throws Exception {
+		while (helpers.size() < coDevices.size())
+			helpers.add(((PartRenderer) this).createHelper());
+
+		List<Fractal> fractals = new ArrayList<Fractal>();
+		fractals.add(this);
+
+		for (int i = 0; i < coDevices.size(); i++) {
+			Fractal helper = helpers.get(i);
+
+			if (helper.getDevice() != coDevices.get(i))
+				helper.setDevice(coDevices.get(i));
+
+			copyParametersTo(helper);
+			fractals.add(helper);
+		}
+
+		logger.log(Level.INFO, "Rendering " + count + " " + unitName + " on " + fractals.size() + " devices");
+
+		StripQueue queue = new StripQueue(count, fractals.size(), minLength, maxLength);
+		List<Worker> workers = new ArrayList<Worker>();
+		long time = System.nanoTime();
+
+		for (Fractal fractal : fractals) {
+			Worker worker = new Worker(fractal, queue, maxLength);
+			workers.add(worker);
+			worker.start();
+		}
+
+		for (Worker worker : workers)
+			worker.join();
+
+		// a device that failed might have put back its parts after the others
+		// were done
+		StripQueue.Strip part = queue.next();
+
+		if (part != null) {
+			Worker survivor = null;
+
+			for (Worker worker : workers)
+				if (worker.error == null) {
+					survivor = worker;
+					break;
+				}
+
+			if (survivor == null)
+				throw new Exception("Rendering failed on all devices: " + workers.get(0).error.getMessage());
+
+			for (; part != null; part = queue.next()) {
+				survivor.kernelTime += survivor.parts.renderPart(this, part.getOffsetY(), part.getHeight());
+				survivor.units += part.getHeight();
+			}
+
+			survivor.kernelTime += survivor.parts.flushParts(this);
+		}
+
+		for (Worker worker : workers)
+			if (worker.error == null)
+				worker.parts.finishParts(this);
+
+		time = System.nanoTime() - time;
+
+		for (Worker worker : workers) {
+			if (worker.error != null)
+				continue;
+
+			logger.log(Level.INFO, "Device " + worker.fractal.getDevice().getName() + " rendered " + worker.units + " " + unitName + " ("
+					+ Math.round(100d * worker.units / count) + "%) in " + Formatter.formatTime(worker.kernelTime) + " ("
+					+ Formatter.formatThroughput(worker.units * pixelsPerUnit, worker.kernelTime) + ")");
+		}
+
+		logger.log(Level.INFO, "Rendering on all devices took " + Formatter.formatTime(time) + " ("
+				+ Formatter.formatThroughput(count * pixelsPerUnit, time) + ")");
+	}
+
+	/**
+	 * Releases the helpers of the co-devices.
+	 */
+	protected void releaseHelpers() {
+		for (Fractal helper : helpers)
+			helper.release();
+
+		helpers.clear();
+	}
+
 	protected Size calculateGlobal2DWorkSize(Size partSize) {
 		int loc = fp64 || device.getMaxWorkGroupSize() < 1024 ? 16 : 32;
 
@@ -83,59 +353,110 @@ public abstract class Fractal {
 			return partSize + (partSize % loc == 0 ? 0 : loc - partSize % loc);
 	}
 
-	protected void setArg(CLKernel kernel, int index, double value) {
-		if (fp64)
-			kernel.setArg(index, value);
-		else
-			kernel.setArg(index, (float) value);
+	/**
+	 * The local work size of the given 2D kernel as found by the
+	 * {@link WorkSizeTuner}, or the default if it has not been tuned.
+	 */
+	protected Size calculateLocal2DWorkSize(String kernelName, Size partSize) {
+		Size tuned = WorkSizeTuner.getLocal2DWorkSize(device, kernelName, fp64);
+
+		if (tuned == null)
+			return calculateLocal2DWorkSize(partSize);
+
+		return new Size(Math.min(tuned.getWidth(), partSize.getWidth()), Math.min(tuned.getHeight(), partSize.getHeight()));
 	}
 
-	protected void setArg(long kernelId, int index, int[] values) {
-		ByteBuffer buf = ByteBuffer.allocateDirect(values.length * 4);
-		buf.order(device.getByteOrder());
+	protected Size calculateGlobal2DWorkSize(String kernelName, Size partSize) {
+		if (WorkSizeTuner.getLocal2DWorkSize(device, kernelName, fp64) == null)
+			return calculateGlobal2DWorkSize(partSize);
 
-		for (int i = 0; i < values.length; i++)
-			buf.putInt(i * 4, values[i]);
+		Size local = calculateLocal2DWorkSize(kernelName, partSize);
 
-		cl.clSetKernelArg(kernelId, index, buf.capacity(), buf);
+		return new Size(roundUp(partSize.getWidth(), local.getWidth()), roundUp(partSize.getHeight(), local.getHeight()));
 	}
 
-	protected void setArg(long kernelId, int index, long[] values) {
-		ByteBuffer buf = ByteBuffer.allocateDirect(values.length * 8);
-		buf.order(device.getByteOrder());
+	/**
+	 * The local work size of the given 1D kernel as found by the
+	 * {@link WorkSizeTuner}, or the default if it has not been tuned.
+	 */
+	protected int calculateLocal1DWorkSize(String kernelName, int partSize) {
+		int tuned = WorkSizeTuner.getLocal1DWorkSize(device, kernelName, fp64);
 
-		for (int i = 0; i < values.length; i++)
-			buf.putLong(i * 8, values[i]);
+		if (tuned == 0)
+			return calculateLocal1DWorkSize(partSize);
 
-		cl.clSetKernelArg(kernelId, index, buf.capacity(), buf);
+		return Math.min(tuned, partSize);
 	}
 
-	protected void setArg(long kernelId, int index, double[] values) {
-		int sizeOfFp = fp64 ? 8 : 4;
+	protected int calculateGlobal1DWorkSize(String kernelName, int partSize) {
+		if (WorkSizeTuner.getLocal1DWorkSize(device, kernelName, fp64) == 0)
+			return calculateGlobal1DWorkSize(partSize);
+
+		return roundUp(partSize, calculateLocal1DWorkSize(kernelName, partSize));
+	}
 
-		ByteBuffer buf = ByteBuffer.allocateDirect(values.length * sizeOfFp);
-		buf.order(device.getByteOrder());
+	private static int roundUp(int value, int multiple) {
+		return (value + multiple - 1) / multiple * multiple;
+	}
 
-		for (int i = 0; i < values.length; i++)
-			if (fp64)
-				buf.putDouble(i * sizeOfFp, values[i]);
-			else
-				buf.putFloat(i * sizeOfFp, (float) values[i]);
+	/**
+	 * The size of the sample that kernels are tuned on: at most 256x256 pixels
+	 * and maxPixels in total, but not larger than the image.
+	 */
+	protected Size getTuningSampleSize(int maxPixels) {
+		int width = Math.min(256, size.getWidth());
+		int height = Math.max(1, Math.min(Math.min(256, size.getHeight()), maxPixels / width));
 
-		cl.clSetKernelArg(kernelId, index, buf.capacity(), buf);
+		return new Size(width, height);
 	}
 
-	public CLDevice getDevice() {
+	public ComputeDevice getDevice() {
 		return device;
 	}
 
-	public void setDevice(CLDevice device) {
+	/**
+	 * Selects the device that is used for the computations, null selects the
+	 * default device (see {@link Backends#getDefaultDevice()}).
+	 */
+	public void setDevice(ComputeDevice device) {
 		this.device = device;
 
 		isInitialized = false;
 		isCompiled = false;
 	}
 
+	/**
+	 * The device (the default device if none has been selected) followed by
+	 * the co-devices.
+	 */
+	protected List<ComputeDevice> getAllDevices() {
+		if (device == null)
+			device = Backends.getDefaultDevice();
+
+		List<ComputeDevice> devices = new ArrayList<ComputeDevice>();
+		devices.add(device);
+		devices.addAll(coDevices);
+
+		return devices;
+	}
+
+	public List<ComputeDevice> getCoDevices() {
+		return coDevices;
+	}
+
+	/**
+	 * Sets additional devices that render parts of the image alongside the
+	 * main device, see {@link #renderOnAllDevices(int, int, int, long, String)}.
+	 * Only fractals that implement {@link PartRenderer} accept any.
+	 */
+	public void setCoDevices(List<ComputeDevice> coDevices) {
+		if (!coDevices.isEmpty() && !(this instanceof PartRenderer))
+			throw new IllegalArgumentException(getClass().getSimpleName() + " can not be rendered on several devices.");
+
+		releaseHelpers();
+		this.coDevices = new ArrayList<ComputeDevice>(coDevices);
+	}
+
 	public boolean use64bitFloats() {
 		return fp64;
 	}
@@ -147,6 +468,53 @@ public abstract class Fractal {
 		this.fp64 = fp64;
 	}
 
+	/**
+	 * Whether the values are kept as unevaluated sums of two floats (e.g.
+	 * double-double), see {@link #setPrecision(String)}.
+	 */
+	public boolean useDoubleWords() {
+		return doubleWord;
+	}
+
+	/**
+	 * Whether this fractal supports {@link #DOUBLE_DOUBLE} and
+	 * {@link #FLOAT_FLOAT}.
+	 */
+	protected boolean supportsDoubleWords() {
+		return false;
+	}
+
+	public String getPrecision() {
+		if (doubleWord)
+			return fp64 ? DOUBLE_DOUBLE : FLOAT_FLOAT;
+
+		return fp64 ? FP64 : FP32;
+	}
+
+	/**
+	 * Selects the precision of the calculations: {@link #FP32},
+	 * {@link #FP64} or (if supported) {@link #DOUBLE_DOUBLE}, which keeps
+	 * values as unevaluated sums of two doubles. That has about twice the
+	 * digits of fp64, but takes a multiple of its operations.
+	 * {@link #FLOAT_FLOAT} does the same with two floats, which gives about
+	 * 48 bits on devices without (or with slow) 64bit floats. Devices without
+	 * them fall back from fp64 and dd to ff when the program is built.
+	 */
+	public void setPrecision(String precision) {
+		boolean doubleWord = DOUBLE_DOUBLE.equals(precision) || FLOAT_FLOAT.equals(precision);
+
+		if (doubleWord && !supportsDoubleWords())
+			throw new IllegalArgumentException(getClass().getSimpleName() + " does not support the precision " + precision);
+		else if (!doubleWord && !FP32.equals(precision) && !FP64.equals(precision))
+			throw new IllegalArgumentException("unknown precision " + precision);
+
+		if (doubleWord != this.doubleWord)
+			isCompiled = false;
+
+		this.doubleWord = doubleWord;
+		setUse64bitFloats(DOUBLE_DOUBLE.equals(precision) || FP64.equals(precision));
+	}
+
 	public Size getSize() {
 		return size;
 	}
@@ -158,27 +526,31 @@ public abstract class Fractal {
 		this.size = size;
 	}
 
-	protected static String read(InputStream stream) throws Exception {
-		char[] buffer = new char[2048];
-		StringBuilder out = new StringBuilder();
-		Reader in = new InputStreamReader(stream, "UTF-8");
-		try {
-			for (;;) {
-				int rsz = in.read(buffer, 0, buffer.length);
-				if (rsz < 0)
-					break;
-				out.append(buffer, 0, rsz);
-			}
-		} finally {
-			in.close();
-		}
+	/**
+	 * Splits a value into the high and the low word of the double-word
+	 * precision, i.e. into two doubles for dd and two floats for ff.
+	 */
+	protected double[] toDoubleWord(BigDecimal value) {
+		double high = fp64 ? value.doubleValue() : value.floatValue();
+
+		return new double[] { high, value.subtract(new BigDecimal(high)).doubleValue() };
+	}
 
-		return out.toString();
+	/**
+	 * Replaces the line %% DOUBLE_WORD %% of an OpenCL source, which has to
+	 * follow its fp typedefs, by the double-word arithmetic of DoubleWord.cl
+	 * (only compiled if DOUBLE_WORD is defined).
+	 */
+	protected static String insertDoubleWords(String source) throws Exception {
+		return source.replace("%% DOUBLE_WORD %%", Resources.read(Fractal.class.getResourceAsStream("DoubleWord.cl")));
 	}
 
 	public Fractal() {
-		this.device = CLPlatform.listCLPlatforms()[0].listCLDevices()[0];
+		this.device = null;
+		this.coDevices = new ArrayList<ComputeDevice>();
+		this.helpers = new ArrayList<Fractal>();
 		this.fp64 = false;
+		this.doubleWord = false;
 		this.size = new Size(512, 512);
 	}
 
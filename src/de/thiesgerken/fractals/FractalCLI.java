@@ -2,90 +2,214 @@ package de.thiesgerken.fractals;
 
 import static java.lang.System.out;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import com.jogamp.opencl.CLDevice;
 import com.jogamp.opencl.CLPlatform;
 
 import de.thiesgerken.commandlineparser.Argument;
+import de.thiesgerken.commandlineparser.EnumArgument;
 import de.thiesgerken.commandlineparser.ParseException;
 import de.thiesgerken.commandlineparser.SwitchArgument;
 import de.thiesgerken.commandlineparser.ValueArgument;
+import de.thiesgerken.fractals.backend.Backends;
+import de.thiesgerken.fractals.backend.ComputeDevice;
+import de.thiesgerken.fractals.backend.DeviceProbe;
+import de.thiesgerken.fractals.backend.java.JavaDevice;
+import de.thiesgerken.fractals.backend.opencl.OpenCLBackend;
+import de.thiesgerken.fractals.backend.opencl.OpenCLDevice;
 import de.thiesgerken.fractals.util.Formatter;
 import de.thiesgerken.fractals.util.Size;
 
 public abstract class FractalCLI {
-	protected ValueArgument<CLDevice> deviceArgument;
+	protected ValueArgument<List<ComputeDevice>> deviceArgument;
 	protected ValueArgument<Size> sizeArgument;
+	protected ValueArgument<Integer> threadsArgument;
 	protected SwitchArgument fp64Argument;
+	protected EnumArgument precisionArgument;
 
-	 public void doStuff() {
-			if (!deviceArgument.wasParsed()) {
+	public void doStuff() {
+		if (!deviceArgument.wasParsed()) {
+			try {
+				deviceArgument.parse("gpu");
+			} catch (ParseException e1) {
 				try {
-					deviceArgument.parse("gpu");
-				} catch (ParseException e1) {
-					try {
-						deviceArgument.parse("0.0");
-					} catch (ParseException e2) {
+					deviceArgument.parse("0.0");
+				} catch (ParseException e2) {
+					if (!supportsJavaEngine()) {
 						out.println("Error: No cl device found.");
 						return;
 					}
+
+					out.println("No cl device found, using the java engine.");
 				}
 			}
-	 }
+		}
+	}
+
+	/**
+	 * Whether this fractal can be computed by the java backend. If so, the
+	 * device 'java' is accepted and used as a fallback.
+	 */
+	protected boolean supportsJavaEngine() {
+		return false;
+	}
+
+	protected void setDeviceParameters(Fractal fractal) {
+		List<ComputeDevice> devices = new ArrayList<ComputeDevice>();
+
+		// no device means that the java backend is used as a fallback
+		if (deviceArgument.getValue() == null)
+			devices.add(null);
+		else
+			devices.addAll(deviceArgument.getValue());
+
+		for (int i = 0; i < devices.size(); i++)
+			if (devices.get(i) == null || devices.get(i) instanceof JavaDevice)
+				devices.set(i, Backends.createJavaDevice(threadsArgument.wasParsed() ? threadsArgument.getValue() : 0));
+
+		fractal.setDevice(devices.get(0));
+
+		if (fractal instanceof PartRenderer)
+			fractal.setCoDevices(devices.subList(1, devices.size()));
+		else if (devices.size() > 1)
+			out.println("Warning: " + fractal.getClass().getSimpleName() + " only uses the first device.");
+		fractal.setUse64bitFloats(fp64Argument.wasParsed());
+
+		if (precisionArgument.wasParsed())
+			fractal.setPrecision(precisionArgument.getValue());
+	}
 
 	public Argument[] getArguments() {
-		return new Argument[] { deviceArgument, sizeArgument, fp64Argument };
+		return new Argument[] { deviceArgument, sizeArgument, fp64Argument, precisionArgument };
+	}
+
+	/**
+	 * The values of --precision, see {@link Fractal#setPrecision(String)}.
+	 */
+	protected String[] getPrecisions() {
+		return new String[] { Fractal.FP32, Fractal.FP64 };
+	}
+
+	/**
+	 * Converts a single device id of the --device argument.
+	 */
+	private ComputeDevice convertDevice(String value) throws ParseException {
+		if ("java".equals(value)) {
+			if (!supportsJavaEngine())
+				throw new ParseException("The java engine is not available for this fractal.");
+
+			return Backends.createJavaDevice(0);
+		} else if ("auto".equals(value)) {
+			try {
+				return DeviceProbe.findFastestDevice(supportsJavaEngine());
+			} catch (Exception e) {
+				throw new ParseException("Unable to find a usable device: " + e.getMessage());
+			}
+		} else if ("cpu".equals(value)) {
+			OpenCLDevice device = Backends.getOpenCL().findDevice(CLDevice.Type.CPU);
+
+			if (device == null)
+				throw new ParseException("Unable to find an OpenCL-capable cpu device.");
+
+			return device;
+		} else if ("gpu".equals(value)) {
+			OpenCLDevice device = Backends.getOpenCL().findDevice(CLDevice.Type.GPU);
+
+			if (device == null)
+				throw new ParseException("Unable to find an OpenCL-capable gpu device.");
+
+			return device;
+		} else {
+			String[] splits = value.split("\\.");
+			int plat, dev;
+
+			try {
+				if (splits.length != 2)
+					throw new Exception();
+
+				plat = Integer.parseInt(splits[0]);
+				dev = Integer.parseInt(splits[1]);
+
+				if (plat < 0 || dev < 0)
+					throw new Exception();
+			} catch (Exception e) {
+				throw new ParseException("value for argument --device must be in the form 'x.y', where x and y are non-negative integers.");
+			}
+
+			CLPlatform[] platforms = OpenCLBackend.listPlatforms();
+
+			if (plat >= platforms.length)
+				throw new ParseException("The requested platform with id '" + plat + "' does not exist.");
+
+			if (dev >= platforms[plat].listCLDevices().length)
+				throw new ParseException("The requested device with id '" + plat + "." + dev + "' does not exist.");
+
+			return Backends.getOpenCL().getDevice(plat, dev);
+		}
 	}
 
 	public void initializeArguments() {
-		deviceArgument = new ValueArgument<CLDevice>(
+		deviceArgument = new ValueArgument<List<ComputeDevice>>(
 				"device",
 				"d",
 				false,
-				"device that is to be used for calculation. Valid values are a device id, e.g. '0.0', 'cpu' to use first cpu device or 'gpu' to use first gpu device. Defaults to gpu, and if none found, to 0.0.") {
+				"device that is to be used for calculation. Valid values are a device id, e.g. '0.0', 'cpu' to use first cpu device, 'gpu' to use first gpu device, 'java' to calculate without OpenCL (not available for every fractal), 'auto' to use the fastest device (determined by a short benchmark whose results are cached), 'all' to use all OpenCL devices at once or a comma-separated list of devices, e.g. '0.0,0.1,1.0'. Defaults to gpu, and if none found, to 0.0 and then java.") {
 
 			@Override
-			protected CLDevice convert(String value) throws ParseException {
-				if ("cpu".equals(value)) {
-					for (CLPlatform platform : CLPlatform.listCLPlatforms())
-						for (CLDevice device : platform.listCLDevices(CLDevice.Type.CPU))
-							return device;
-
-					throw new ParseException("Unable to find an OpenCL-capable cpu device.");
-				} else if ("gpu".equals(value)) {
-					for (CLPlatform platform : CLPlatform.listCLPlatforms())
-						for (CLDevice device : platform.listCLDevices(CLDevice.Type.GPU))
-							return device;
-					throw new ParseException("Unable to find an OpenCL-capable gpu device.");
-				} else {
-					String[] splits = value.split("\\.");
-					int plat, dev;
-
-					try {
-						if (splits.length != 2)
-							throw new Exception();
-
-						plat = Integer.parseInt(splits[0]);
-						dev = Integer.parseInt(splits[1]);
-
-						if (plat < 0 || dev < 0)
-							throw new Exception();
-					} catch (Exception e) {
-						throw new ParseException("value for argument --device must be in the form 'x.y', where x and y are non-negative integers.");
-					}
+			protected List<ComputeDevice> convert(String value) throws ParseException {
+				List<ComputeDevice> devices = new ArrayList<ComputeDevice>();
+
+				if ("all".equals(value)) {
+					devices.addAll(Arrays.asList(Backends.getOpenCL().listDevices()));
 
-					if (plat >= CLPlatform.listCLPlatforms().length)
-						throw new ParseException("The requested platform with id '" + plat + "' does not exist.");
+					if (devices.isEmpty())
+						throw new ParseException("Unable to find any OpenCL device.");
+				} else
+					for (String id : value.split(","))
+						devices.add(convertDevice(id.trim()));
 
-					if (dev >= CLPlatform.listCLPlatforms()[plat].listCLDevices().length)
-						throw new ParseException("The requested device with id '" + plat + "." + dev + "' does not exist.");
+				return devices;
+			}
+		};
 
-					return CLPlatform.listCLPlatforms()[plat].listCLDevices()[dev];
+		threadsArgument = new ValueArgument<Integer>("threads", "", false,
+				"Amount of worker threads when using the java engine. Defaults to '0', which uses all available processors.") {
+			@Override
+			protected Integer convert(String value) throws ParseException {
+				try {
+					int val = Integer.parseInt(value);
+
+					if (val < 0)
+						throw new Exception();
+
+					return val;
+				} catch (Exception e) {
+					throw new ParseException("value for argument --threads must be a non-negative integer.");
 				}
 			}
 		};
 
 		fp64Argument = new SwitchArgument("fp64", "", false, "Use high precision floats for calculation");
 
+		String[] precisions = getPrecisions();
+		String description = "Precision of the calculation: 'fp32' (32bit floats), 'fp64' (64bit floats, the same as --fp64)";
+
+		if (Arrays.asList(precisions).contains(Fractal.DOUBLE_DOUBLE))
+			description += ", 'dd' (double-double: pairs of 64bit floats, about 32 digits, for zooms that are too deep for fp64 but several times slower)";
+
+		if (Arrays.asList(precisions).contains(Fractal.FLOAT_FLOAT))
+			description += ", 'ff' (float-float: pairs of 32bit floats, about 14 digits, for devices without or with slow 64bit floats; "
+					+ "used instead of fp64 and dd on devices without them)";
+
+		if (Arrays.asList(precisions).contains(Fractal.AUTO))
+			description += " or 'auto' (the lowest of them that the area, the image size and maxIterations need, chosen for every image)";
+
+		precisionArgument = new EnumArgument("precision", "", false, description + ". Overrides --fp64, defaults to '"
+				+ (Arrays.asList(precisions).contains(Fractal.AUTO) ? Fractal.AUTO : Fractal.FP32) + "'.", precisions);
+
 		sizeArgument = new ValueArgument<Size>("size", "s", false, "Image size in pixels in form 'wxh' (e.g. '500x300' or '5kx5k'). Defaults to '512x512'.") {
 			@Override
 			protected Size convert(String value) throws ParseException {
@@ -0,0 +1,203 @@
+package de.thiesgerken.fractals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.thiesgerken.fractals.backend.Backends;
+import de.thiesgerken.fractals.backend.ComputeDevice;
+import de.thiesgerken.fractals.backend.java.JavaDevice;
+import de.thiesgerken.fractals.util.Formatter;
+
+/**
+ * Plans the memory of a render: finds the largest parts that fit into the
+ * memory of every device (and into the java heap, which also holds the
+ * buffers of the java backend) and refuses jobs that do not fit at all,
+ * before any time is spent on them.
+ */
+public class MemoryPlan {
+	private final static Logger logger = Logger.getLogger(MemoryPlan.class.getName());
+
+	/* part of the device memory that is used at most */
+	private static final double DEVICE_MEMORY_RATIO = 0.9;
+
+	/* part of the free java heap that is used at most (large arrays can not
+	 * always use all of it) */
+	private static final double HEAP_RATIO = 0.75;
+
+	private final String name;
+	private long hostBytes;
+	private long threadBytes;
+	private final List<Long> deviceBuffers = new ArrayList<Long>();
+	private final List<Long> partBuffers = new ArrayList<Long>();
+
+	public MemoryPlan(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Adds memory that is going to be allocated on the java heap, e.g. for the
+	 * image.
+	 */
+	public MemoryPlan addHostMemory(long bytes) {
+		hostBytes += bytes;
+		return this;
+	}
+
+	/**
+	 * Adds memory that every worker thread of the java backend allocates on
+	 * the java heap, e.g. private histograms.
+	 */
+	public MemoryPlan addJavaThreadMemory(long bytes) {
+		threadBytes += bytes;
+		return this;
+	}
+
+	/**
+	 * Adds a buffer that is needed on every device regardless of the parts.
+	 */
+	public MemoryPlan addDeviceBuffer(long bytes) {
+		deviceBuffers.add(bytes);
+		return this;
+	}
+
+	/**
+	 * Adds a buffer that every part in flight needs on the device, with the
+	 * given size per row of the part.
+	 */
+	public MemoryPlan addPartBuffer(long bytesPerRow) {
+		partBuffers.add(bytesPerRow);
+		return this;
+	}
+
+	/**
+	 * Free memory on the java heap, including memory that the heap can still
+	 * grow by.
+	 */
+	private static long getAvailableHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+	}
+
+	private static boolean isJava(ComputeDevice device) {
+		return device.getBackend() == Backends.getJava();
+	}
+
+	/**
+	 * Returns the largest part height that fits into budget bytes on a device
+	 * with the given slots (parts in flight), or -1 if not even the buffers
+	 * without parts fit.
+	 */
+	private long getMaxRows(long budget, long maxAlloc, int slots) {
+		long bytesPerRow = 0;
+
+		for (long bytes : deviceBuffers) {
+			budget -= bytes;
+
+			if (bytes > maxAlloc)
+				return -1;
+		}
+
+		if (budget < 0)
+			return -1;
+
+		for (long bytes : partBuffers)
+			bytesPerRow += slots * bytes;
+
+		long rows = bytesPerRow == 0 ? Integer.MAX_VALUE : budget / bytesPerRow;
+
+		for (long bytes : partBuffers)
+			if (bytes > 0)
+				rows = Math.min(rows, maxAlloc / bytes);
+
+		return rows;
+	}
+
+	/* the memory of all worker threads of a java device, zero for others */
+	private long getThreadBytes(ComputeDevice device) {
+		return isJava(device) ? threadBytes * ((JavaDevice) device).getThreadCount() : 0;
+	}
+
+	private long getBudget(ComputeDevice device, long heapLeft, int javaDevices) {
+		if (isJava(device))
+			return Math.max(0, heapLeft / javaDevices - getThreadBytes(device));
+
+		return (long) (DEVICE_MEMORY_RATIO * device.getGlobalMemSize());
+	}
+
+	/**
+	 * Finds the height of the parts for rendering rows on the devices (the
+	 * first of which is the main device): desiredHeight if positive, as many
+	 * rows as possible otherwise, but in any case not more than the memory
+	 * allows. Logs the planned footprint and throws an exception if the job
+	 * does not fit.
+	 */
+	public int plan(List<ComputeDevice> devices, int rows, int desiredHeight) throws Exception {
+		long heap = (long) (HEAP_RATIO * getAvailableHeap());
+
+		if (hostBytes > heap)
+			throw new Exception(name + " needs " + Formatter.formatSize(hostBytes) + " of java heap, but only " + Formatter.formatSize(heap)
+					+ " are available (the maximum heap size can be raised with -Xmx).");
+
+		long heapLeft = heap - hostBytes;
+		int javaDevices = 0;
+
+		for (ComputeDevice device : devices)
+			if (isJava(device))
+				javaDevices++;
+
+		int limit = desiredHeight > 0 ? Math.min(desiredHeight, rows) : rows;
+
+		// a single part does not need a second slot for the pipeline
+		int slots = devices.size() == 1 && limit >= rows ? 1 : 2;
+		long height = limit;
+
+		for (int pass = 0; pass < 2; pass++) {
+			height = limit;
+
+			for (ComputeDevice device : devices) {
+				long max = getMaxRows(getBudget(device, heapLeft, javaDevices), device.getMaxMemAllocSize(), slots);
+
+				if (max < 1)
+					throw new Exception(name + " does not fit into the memory of " + device.getName() + " ("
+							+ Formatter.formatSize(getBudget(device, heapLeft, javaDevices)) + " usable"
+							+ (getThreadBytes(device) > 0 ? " besides " + Formatter.formatSize(getThreadBytes(device)) + " for its threads" : "") + ", largest buffer "
+							+ Formatter.formatSize(device.getMaxMemAllocSize()) + ").");
+
+				height = Math.min(height, max);
+			}
+
+			if (slots == 2 || height >= rows)
+				break;
+
+			slots = 2;
+		}
+
+		if (desiredHeight > 0 && height < limit)
+			logger.log(Level.WARNING, "Reducing the part height from " + limit + " to " + height + " rows, since larger parts do not fit into memory.");
+
+		log(devices, (int) height, rows, slots, heap, javaDevices);
+
+		return (int) height;
+	}
+
+	private void log(List<ComputeDevice> devices, int height, int rows, int slots, long heap, int javaDevices) {
+		long deviceBytes = 0;
+
+		for (long bytes : deviceBuffers)
+			deviceBytes += bytes;
+
+		for (long bytes : partBuffers)
+			deviceBytes += slots * bytes * height;
+
+		int parts = (rows + height - 1) / height;
+
+		logger.log(Level.INFO, "Memory plan for " + name + ": " + parts + (parts == 1 ? " part" : " parts") + " of up to " + height + " rows, "
+				+ Formatter.formatSize(hostBytes) + " of java heap (" + Formatter.formatSize(heap) + " available)");
+
+		for (ComputeDevice device : devices)
+			logger.log(Level.INFO, "Memory plan for " + name + " on " + device.getName() + ": " + Formatter.formatSize(deviceBytes + getThreadBytes(device)) + " ("
+					+ Formatter.formatSize(getBudget(device, heap - hostBytes, javaDevices)) + " usable)");
+	}
+}
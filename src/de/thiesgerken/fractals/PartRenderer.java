@@ -0,0 +1,43 @@
+package de.thiesgerken.fractals;
+
+/**
+ * A fractal whose work can be split into parts (rows of an image, passes,
+ * ...) that are rendered on the device and its co-devices at once, see
+ * {@link Fractal#renderOnAllDevices(int, int, int, long, String)}. Only
+ * fractals that implement this accept co-devices.
+ */
+public interface PartRenderer {
+	/**
+	 * Creates an empty instance of the same kind, which renders parts on one
+	 * of the co-devices.
+	 */
+	Fractal createHelper();
+
+	/**
+	 * Prepares this instance (which might be a helper) for rendering parts of
+	 * up to maxLength units (e.g. rows) for target, the instance whose image is
+	 * being rendered.
+	 */
+	void prepareParts(Fractal target, int maxLength) throws Exception;
+
+	/**
+	 * Renders the units [offset, offset + length) and stores the results in
+	 * target. Implementations may return before the results have arrived, as
+	 * long as they are stored by {@link #flushParts(Fractal)}. Returns the
+	 * time spent by the kernels of the parts that have been finished in ns.
+	 */
+	long renderPart(Fractal target, int offset, int length) throws Exception;
+
+	/**
+	 * Waits for the parts that are still in flight and stores their results
+	 * in target. Returns the time spent by their kernels in ns.
+	 */
+	long flushParts(Fractal target) throws Exception;
+
+	/**
+	 * Called after all parts have been rendered, in the order of the devices
+	 * (i.e. for this instance first), e.g. to collect results that have been
+	 * kept on the devices.
+	 */
+	void finishParts(Fractal target) throws Exception;
+}
@@ -0,0 +1,80 @@
+package de.thiesgerken.fractals.backend;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import com.jogamp.opencl.CLDevice;
+
+import de.thiesgerken.fractals.backend.java.JavaBackend;
+import de.thiesgerken.fractals.backend.java.JavaDevice;
+import de.thiesgerken.fractals.backend.opencl.OpenCLBackend;
+
+/**
+ * The available backends and their devices.
+ */
+public class Backends {
+	private static final OpenCLBackend openCL = new OpenCLBackend();
+	private static final JavaBackend java = new JavaBackend();
+
+	public static OpenCLBackend getOpenCL() {
+		return openCL;
+	}
+
+	public static JavaBackend getJava() {
+		return java;
+	}
+
+	public static ComputeBackend[] listBackends() {
+		return new ComputeBackend[] { openCL, java };
+	}
+
+	public static ComputeDevice[] listDevices() {
+		ArrayList<ComputeDevice> result = new ArrayList<ComputeDevice>();
+
+		for (ComputeBackend backend : listBackends())
+			for (ComputeDevice device : backend.listDevices())
+				result.add(device);
+
+		return result.toArray(new ComputeDevice[result.size()]);
+	}
+
+	/**
+	 * Creates the java device with the given amount of threads (less than one
+	 * means one thread per available processor).
+	 */
+	public static JavaDevice createJavaDevice(int threadCount) {
+		return new JavaDevice(java, threadCount);
+	}
+
+	/**
+	 * Returns the first OpenCL gpu, or the first OpenCL device if there is no
+	 * gpu, or the java device if there is no OpenCL device at all.
+	 */
+	public static ComputeDevice getDefaultDevice() {
+		ComputeDevice device = openCL.findDevice(CLDevice.Type.GPU);
+
+		if (device != null)
+			return device;
+
+		ComputeDevice[] devices = openCL.listDevices();
+
+		if (devices.length > 0)
+			return devices[0];
+
+		return createJavaDevice(0);
+	}
+
+	/**
+	 * Returns a file in the directory where jfractals keeps data that can be
+	 * recomputed if lost (e.g. probe results). The directory is created if
+	 * necessary.
+	 */
+	public static File getCacheFile(String name) {
+		File dir = new File(System.getProperty("user.home"), ".jfractals");
+
+		if (!dir.isDirectory())
+			dir.mkdirs();
+
+		return new File(dir, name);
+	}
+}
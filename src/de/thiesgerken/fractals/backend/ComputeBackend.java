@@ -0,0 +1,16 @@
+package de.thiesgerken.fractals.backend;
+
+/**
+ * An engine that is able to execute the kernels of the fractals, e.g. OpenCL
+ * or plain java.
+ */
+public interface ComputeBackend {
+
+	public String getName();
+
+	/**
+	 * Lists the devices of this backend, which is an empty array if the
+	 * backend is not usable on this machine.
+	 */
+	public ComputeDevice[] listDevices();
+}
@@ -0,0 +1,65 @@
+package de.thiesgerken.fractals.backend;
+
+/**
+ * Memory of a device. Reads and writes always start at the beginning of the
+ * buffer. The plain reads and writes block until they have finished, the
+ * enqueued ones go through a host-side copy of the buffer and return at once.
+ */
+public interface ComputeBuffer {
+
+	public int getLength();
+
+	/**
+	 * Size of the buffer in bytes.
+	 */
+	public long getSize();
+
+	public void read(int[] destination, int offset, int length);
+
+	public void read(long[] destination, int offset, int length);
+
+	public void read(float[] destination, int offset, int length);
+
+	public void read(double[] destination, int offset, int length);
+
+	public void write(int[] source, int offset, int length);
+
+	public void write(long[] source, int offset, int length);
+
+	public void write(float[] source, int offset, int length);
+
+	public void write(double[] source, int offset, int length);
+
+	/**
+	 * Enqueues a transfer of the whole buffer to its host-side copy, which
+	 * starts after after (if not null) has finished. Once the returned event
+	 * has finished, the data can be fetched with copyTo.
+	 */
+	public ComputeEvent enqueueRead(ComputeEvent after);
+
+	public void copyTo(int[] destination, int offset, int length);
+
+	public void copyTo(long[] destination, int offset, int length);
+
+	public void copyTo(float[] destination, int offset, int length);
+
+	public void copyTo(double[] destination, int offset, int length);
+
+	/**
+	 * Copies the source to the host-side copy of the buffer and enqueues a
+	 * transfer to the device, which starts after after (if not null) has
+	 * finished. The buffer must not be written again before the returned
+	 * event has finished.
+	 */
+	public ComputeEvent enqueueWrite(int[] source, int offset, int length, ComputeEvent after);
+
+	public ComputeEvent enqueueWrite(long[] source, int offset, int length, ComputeEvent after);
+
+	public ComputeEvent enqueueWrite(float[] source, int offset, int length, ComputeEvent after);
+
+	public ComputeEvent enqueueWrite(double[] source, int offset, int length, ComputeEvent after);
+
+	public void release();
+
+	public boolean isReleased();
+}
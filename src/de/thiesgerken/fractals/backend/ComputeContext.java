@@ -0,0 +1,29 @@
+package de.thiesgerken.fractals.backend;
+
+/**
+ * Holds the programs and buffers of a fractal on a single device.
+ */
+public interface ComputeContext {
+
+	public ComputeDevice getDevice();
+
+	public ComputeProgram createProgram(ProgramSource source) throws Exception;
+
+	public ComputeBuffer createIntBuffer(int length);
+
+	public ComputeBuffer createLongBuffer(int length);
+
+	public ComputeBuffer createFloatBuffer(int length);
+
+	public ComputeBuffer createDoubleBuffer(int length);
+
+	/**
+	 * Creates a buffer of the type fp, i.e. of doubles if fp64 is set and of
+	 * floats otherwise.
+	 */
+	public ComputeBuffer createFPBuffer(int length, boolean fp64);
+
+	public void release();
+
+	public boolean isReleased();
+}
@@ -0,0 +1,36 @@
+package de.thiesgerken.fractals.backend;
+
+/**
+ * A device of a {@link ComputeBackend} that kernels can be executed on.
+ */
+public interface ComputeDevice {
+
+	public ComputeBackend getBackend();
+
+	/**
+	 * The id that selects this device on the command line, e.g. '0.1' or
+	 * 'java'.
+	 */
+	public String getId();
+
+	public String getName();
+
+	/**
+	 * Version of the driver (or runtime) that executes the kernels.
+	 */
+	public String getDriverVersion();
+
+	public boolean isDoubleFPAvailable();
+
+	public int getMaxWorkGroupSize();
+
+	/**
+	 * Size of the largest buffer that can be allocated on this device in
+	 * bytes.
+	 */
+	public long getMaxMemAllocSize();
+
+	public long getGlobalMemSize();
+
+	public ComputeContext createContext() throws Exception;
+}
@@ -0,0 +1,22 @@
+package de.thiesgerken.fractals.backend;
+
+/**
+ * A command (kernel launch or transfer) that has been enqueued on a device
+ * without waiting for it. Events can be passed to further commands, which
+ * then do not start before this one has finished.
+ */
+public interface ComputeEvent {
+
+	/**
+	 * Blocks until the command has finished.
+	 */
+	public void waitFor();
+
+	/**
+	 * Waits for the command and returns its execution time on the device in
+	 * nanoseconds.
+	 */
+	public long getTime();
+
+	public void release();
+}
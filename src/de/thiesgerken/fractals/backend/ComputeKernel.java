@@ -0,0 +1,63 @@
+package de.thiesgerken.fractals.backend;
+
+import de.thiesgerken.fractals.util.Size;
+
+public interface ComputeKernel {
+
+	public void setArg(int index, int value);
+
+	public void setArg(int index, long value);
+
+	/**
+	 * Sets an argument of type fp, which is a 32bit float unless the program
+	 * has been built for 64bit floats.
+	 */
+	public void setArg(int index, double value);
+
+	/**
+	 * Sets a vector argument, e.g. an int2.
+	 */
+	public void setArg(int index, int[] values);
+
+	public void setArg(int index, long[] values);
+
+	/**
+	 * Sets a vector argument of type fp, e.g. a fp4.
+	 */
+	public void setArg(int index, double[] values);
+
+	public void setArg(int index, ComputeBuffer buffer);
+
+	/**
+	 * Executes the kernel on a one-dimensional range and blocks until it has
+	 * finished.
+	 * 
+	 * @return the execution time in nanoseconds
+	 */
+	public long run1D(int globalWorkSize, int localWorkSize);
+
+	/**
+	 * Executes the kernel on a two-dimensional range and blocks until it has
+	 * finished.
+	 * 
+	 * @return the execution time in nanoseconds
+	 */
+	public long run2D(Size globalWorkSize, Size localWorkSize);
+
+	/**
+	 * Enqueues the kernel on a one-dimensional range without waiting for it.
+	 * The kernel does not start before after (if not null) has finished. The
+	 * arguments can be changed as soon as this method returns.
+	 */
+	public ComputeEvent enqueue1D(int globalWorkSize, int localWorkSize, ComputeEvent after);
+
+	/**
+	 * Enqueues the kernel on a two-dimensional range without waiting for it,
+	 * see {@link #enqueue1D(int, int, ComputeEvent)}.
+	 */
+	public ComputeEvent enqueue2D(Size globalWorkSize, Size localWorkSize, ComputeEvent after);
+
+	public void release();
+
+	public boolean isReleased();
+}
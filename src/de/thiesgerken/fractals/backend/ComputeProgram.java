@@ -0,0 +1,16 @@
+package de.thiesgerken.fractals.backend;
+
+public interface ComputeProgram {
+
+	/**
+	 * Compiles the program, using doubles as fp if fp64 is set and floats
+	 * otherwise.
+	 */
+	public void build(boolean fp64) throws Exception;
+
+	public ComputeKernel createKernel(String name) throws Exception;
+
+	public void release();
+
+	public boolean isReleased();
+}
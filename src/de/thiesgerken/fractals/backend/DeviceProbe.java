@@ -0,0 +1,168 @@
+package de.thiesgerken.fractals.backend;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.thiesgerken.fractals.backend.java.JavaKernel;
+import de.thiesgerken.fractals.backend.java.JavaKernel1D;
+import de.thiesgerken.fractals.backend.java.JavaKernelFactory;
+import de.thiesgerken.fractals.util.Resources;
+
+/**
+ * Finds the fastest device by running a short benchmark kernel (Probe.cl) on
+ * every device. The results are cached per device and driver version, so
+ * every device is only probed once.
+ */
+public class DeviceProbe {
+	private final static Logger logger = Logger.getLogger(DeviceProbe.class.getName());
+
+	private static final int WORK_ITEMS = 64 * 1024;
+	private static final int ITERATIONS = 256;
+	private static final int RUNS = 3;
+
+	/**
+	 * Returns the device with the highest probed throughput. The java device is
+	 * only considered if includeJava is set.
+	 */
+	public static ComputeDevice findFastestDevice(boolean includeJava) throws Exception {
+		File cacheFile = Backends.getCacheFile("probe.properties");
+		Properties cache = new Properties();
+
+		if (cacheFile.isFile()) {
+			InputStream in = new FileInputStream(cacheFile);
+
+			try {
+				cache.load(in);
+			} finally {
+				in.close();
+			}
+		}
+
+		ComputeDevice best = null;
+		double bestThroughput = 0;
+		boolean cacheChanged = false;
+
+		for (ComputeDevice device : Backends.listDevices()) {
+			if (!includeJava && device.getBackend() == Backends.getJava())
+				continue;
+
+			String key = getCacheKey(device);
+			double throughput;
+
+			if (cache.containsKey(key))
+				throughput = Double.parseDouble(cache.getProperty(key));
+			else {
+				try {
+					throughput = probe(device);
+				} catch (Exception e) {
+					logger.log(Level.WARNING, "Probing " + device + " failed: " + e.getMessage());
+					throughput = 0;
+				}
+
+				cache.setProperty(key, Double.toString(throughput));
+				cacheChanged = true;
+			}
+
+			logger.log(Level.INFO, "Device " + device + ": " + String.format("%.1f", throughput / 1E6) + " M iterations/s");
+
+			if (throughput > bestThroughput) {
+				best = device;
+				bestThroughput = throughput;
+			}
+		}
+
+		if (cacheChanged) {
+			OutputStream out = new FileOutputStream(cacheFile);
+
+			try {
+				cache.store(out, "jfractals device probe results (iterations per second)");
+			} finally {
+				out.close();
+			}
+		}
+
+		if (best == null)
+			throw new Exception("there is no usable device.");
+
+		logger.log(Level.INFO, "Using the fastest device " + best);
+		return best;
+	}
+
+	/**
+	 * Identifies a device and its driver version in the caches of results
+	 * that are specific to them.
+	 */
+	public static String getCacheKey(ComputeDevice device) {
+		return device.getBackend().getName() + "/" + device.getId() + "/" + device.getName() + "/" + device.getDriverVersion();
+	}
+
+	/**
+	 * Runs the probe kernel on a device and returns the achieved iterations per
+	 * second (best of a few runs, after a warm-up).
+	 */
+	public static double probe(ComputeDevice device) throws Exception {
+		logger.log(Level.INFO, "Probing " + device);
+
+		ComputeContext context = device.createContext();
+
+		try {
+			ComputeProgram program = context.createProgram(new ProgramSource("Probe", Resources.read(DeviceProbe.class.getResourceAsStream("Probe.cl")),
+					new JavaKernelFactory() {
+						@Override
+						public JavaKernel createKernel(String name) {
+							return "probe".equals(name) ? new JavaProbeKernel() : null;
+						}
+					}));
+			program.build(false);
+
+			ComputeKernel kernel = program.createKernel("probe");
+			ComputeBuffer output = context.createFloatBuffer(WORK_ITEMS);
+
+			kernel.setArg(0, ITERATIONS);
+			kernel.setArg(1, output);
+
+			int local = Math.min(64, device.getMaxWorkGroupSize());
+			long best = Long.MAX_VALUE;
+
+			for (int i = 0; i <= RUNS; i++) {
+				long time = kernel.run1D(WORK_ITEMS, local);
+
+				if (i > 0 && time < best)
+					best = time;
+			}
+
+			output.release();
+			kernel.release();
+			program.release();
+
+			return (double) WORK_ITEMS * ITERATIONS * 1E9 / Math.max(best, 1);
+		} finally {
+			context.release();
+		}
+	}
+
+	private static class JavaProbeKernel extends JavaKernel1D {
+		@Override
+		protected void runItem(int id) {
+			int iterations = getInt(0);
+			float[] output = getFloatBuffer(1);
+
+			float cx = -0.1f + id * 1E-7f, cy = 0.1f;
+			float zx = 0, zy = 0;
+
+			for (int i = 0; i < iterations; i++) {
+				float aux = 2 * zx * zy + cy;
+				zx = zx * zx - zy * zy + cx;
+				zy = aux;
+			}
+
+			output[id] = zx + zy;
+		}
+	}
+}
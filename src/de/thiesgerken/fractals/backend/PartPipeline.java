@@ -0,0 +1,208 @@
+package de.thiesgerken.fractals.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.thiesgerken.fractals.util.Formatter;
+
+/**
+ * Renders the parts of an image with several of them in flight, so that the
+ * device computes the next part while the results of the last one are
+ * transferred and copied to the host. Every slot has buffers of its own, a
+ * slot is only reused after its last part has been collected.
+ * 
+ * Subclasses enqueue the commands of a part in {@link #enqueue(int, int, int)}
+ * (registering their events with {@link #addKernel(ComputeEvent)} and
+ * {@link #addTransfer(ComputeEvent)}) and copy the results of a slot to the
+ * host in {@link #collect(int, int, int)}.
+ */
+public abstract class PartPipeline {
+	private final static Logger logger = Logger.getLogger(PartPipeline.class.getName());
+
+	private static class Slot {
+		private int offset;
+		private int length;
+		private boolean pending;
+		private final List<ComputeEvent> kernels = new ArrayList<ComputeEvent>();
+		private final List<ComputeEvent> transfers = new ArrayList<ComputeEvent>();
+	}
+
+	private final String name;
+	private final Slot[] slots;
+	private Slot current;
+	private int next;
+
+	private long parts, kernelTime, transferTime, waitTime, copyTime, startTime, wallTime;
+
+	/**
+	 * Creates a pipeline with the given amount of slots, name is used for
+	 * logging (e.g. the name of the device).
+	 */
+	public PartPipeline(String name, int slots) {
+		this.name = name;
+		this.slots = new Slot[Math.max(1, slots)];
+
+		for (int i = 0; i < this.slots.length; i++)
+			this.slots[i] = new Slot();
+	}
+
+	public int getSlotCount() {
+		return slots.length;
+	}
+
+	/**
+	 * Enqueues the commands of the part [offset, offset + length) into the
+	 * buffers of slot without waiting for them.
+	 */
+	protected abstract void enqueue(int slot, int offset, int length) throws Exception;
+
+	/**
+	 * Copies the results of the part in slot to the host, all of its commands
+	 * have finished.
+	 */
+	protected abstract void collect(int slot, int offset, int length) throws Exception;
+
+	/**
+	 * Registers the event of a kernel of the part that is being enqueued.
+	 */
+	protected ComputeEvent addKernel(ComputeEvent event) {
+		current.kernels.add(event);
+		return event;
+	}
+
+	/**
+	 * Registers the event of a transfer of the part that is being enqueued.
+	 */
+	protected ComputeEvent addTransfer(ComputeEvent event) {
+		current.transfers.add(event);
+		return event;
+	}
+
+	/**
+	 * Enqueues a part, collecting the part that used its slot before if
+	 * necessary. Returns the kernel time of the collected part in ns.
+	 */
+	public long submit(int offset, int length) throws Exception {
+		if (startTime == 0)
+			startTime = System.nanoTime();
+
+		Slot slot = slots[next];
+		long time = 0;
+
+		if (slot.pending)
+			time = complete(slot);
+
+		slot.offset = offset;
+		slot.length = length;
+		slot.pending = true;
+
+		current = slot;
+		enqueue(next, offset, length);
+		current = null;
+
+		next = (next + 1) % slots.length;
+
+		return time;
+	}
+
+	/**
+	 * Collects all parts that are still in flight and returns their kernel
+	 * time in ns.
+	 */
+	public long flush() throws Exception {
+		long time = 0;
+
+		for (int i = 0; i < slots.length; i++) {
+			Slot slot = slots[(next + i) % slots.length];
+
+			if (slot.pending)
+				time += complete(slot);
+		}
+
+		if (parts > 0)
+			wallTime = System.nanoTime() - startTime;
+
+		return time;
+	}
+
+	private long complete(Slot slot) throws Exception {
+		long time = System.nanoTime();
+
+		for (ComputeEvent event : slot.transfers)
+			event.waitFor();
+
+		for (ComputeEvent event : slot.kernels)
+			event.waitFor();
+
+		waitTime += System.nanoTime() - time;
+
+		long partKernelTime = 0, partTransferTime = 0;
+
+		for (ComputeEvent event : slot.kernels)
+			partKernelTime += event.getTime();
+
+		for (ComputeEvent event : slot.transfers)
+			partTransferTime += event.getTime();
+
+		releaseEvents(slot);
+
+		time = System.nanoTime();
+		collect(indexOf(slot), slot.offset, slot.length);
+		time = System.nanoTime() - time;
+
+		logger.log(Level.FINE, "Part at " + slot.offset + " (length " + slot.length + ") took " + Formatter.formatTime(partKernelTime) + " in kernels, "
+				+ Formatter.formatTime(partTransferTime) + " in transfers and " + Formatter.formatTime(time) + " for copying");
+
+		kernelTime += partKernelTime;
+		transferTime += partTransferTime;
+		copyTime += time;
+		parts++;
+
+		return partKernelTime;
+	}
+
+	private int indexOf(Slot slot) {
+		for (int i = 0; i < slots.length; i++)
+			if (slots[i] == slot)
+				return i;
+
+		return -1;
+	}
+
+	private static void releaseEvents(Slot slot) {
+		for (ComputeEvent event : slot.kernels)
+			event.release();
+
+		for (ComputeEvent event : slot.transfers)
+			event.release();
+
+		slot.kernels.clear();
+		slot.transfers.clear();
+		slot.pending = false;
+	}
+
+	/**
+	 * Logs the time spent in each stage. If the stages overlap, their sum is
+	 * larger than the total time.
+	 */
+	public void logTimings() {
+		if (parts == 0)
+			return;
+
+		logger.log(Level.INFO, "Pipeline on " + name + " (" + slots.length + " slots, " + parts + " parts): kernels "
+				+ Formatter.formatTime(kernelTime) + ", transfers " + Formatter.formatTime(transferTime) + ", copying "
+				+ Formatter.formatTime(copyTime) + ", waiting " + Formatter.formatTime(waitTime) + ", total " + Formatter.formatTime(wallTime));
+	}
+
+	/**
+	 * Releases the events of all parts that are still in flight without
+	 * collecting them, e.g. after an error.
+	 */
+	public void release() {
+		for (Slot slot : slots)
+			if (slot.pending)
+				releaseEvents(slot);
+	}
+}
@@ -0,0 +1,15 @@
+/*
+ * Benchmark kernel for DeviceProbe: iterates z=z^2+c for a point inside of the
+ * main cardioid, so that no work item escapes early.
+ */
+kernel void probe(const int iterations, global float* output) {
+	int id = get_global_id(0);
+
+	float2 c = (float2) (-0.1f + id * 1E-7f, 0.1f);
+	float2 z = (float2) 0;
+
+	for (int i = 0; i < iterations; i++)
+		z = (float2) (z.x * z.x - z.y * z.y + c.x, 2 * z.x * z.y + c.y);
+
+	output[id] = z.x + z.y;
+}
@@ -0,0 +1,65 @@
+package de.thiesgerken.fractals.backend;
+
+import java.util.Collections;
+import java.util.Map;
+
+import de.thiesgerken.fractals.backend.java.JavaKernelFactory;
+
+/**
+ * The kernels of a fractal: the OpenCL source and (if available) their java
+ * implementations.
+ */
+public class ProgramSource {
+	/**
+	 * Programs that have this define are compiled without relaxed math,
+	 * which would allow the compiler to reassociate operations (and so to
+	 * drop the rounding errors that error-free transformations compute).
+	 */
+	public static final String STRICT_MATH = "STRICT_MATH";
+
+	private final String name;
+	private final String source;
+	private final JavaKernelFactory javaKernels;
+	private final Map<String, String> defines;
+
+	public ProgramSource(String name, String source, JavaKernelFactory javaKernels) {
+		this(name, source, javaKernels, Collections.<String, String> emptyMap());
+	}
+
+	public ProgramSource(String name, String source, JavaKernelFactory javaKernels, Map<String, String> defines) {
+		this.name = name;
+		this.source = source;
+		this.javaKernels = javaKernels;
+		this.defines = defines;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * The java implementations of the kernels, or null if this program can
+	 * only be executed by OpenCL.
+	 */
+	public JavaKernelFactory getJavaKernels() {
+		return javaKernels;
+	}
+
+	/**
+	 * Defines that the OpenCL program is compiled with (in addition to FP64),
+	 * e.g. to bake parameters into a variant of the program. The java kernels
+	 * read all parameters from their arguments and ignore them.
+	 */
+	public Map<String, String> getDefines() {
+		return defines;
+	}
+
+	@Override
+	public String toString() {
+		return defines.isEmpty() ? name : name + " " + defines;
+	}
+}
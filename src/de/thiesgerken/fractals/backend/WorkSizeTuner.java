@@ -0,0 +1,244 @@
+package de.thiesgerken.fractals.backend;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.thiesgerken.fractals.util.Formatter;
+import de.thiesgerken.fractals.util.Size;
+
+/**
+ * Finds the fastest local work size of a kernel by running it with a few
+ * candidates on a small sample. The results are cached per device, driver
+ * version, kernel and precision, so a kernel is only tuned again if the
+ * driver changes. The java backend does not use local work sizes and is
+ * never tuned.
+ */
+public class WorkSizeTuner {
+	private final static Logger logger = Logger.getLogger(WorkSizeTuner.class.getName());
+
+	private static final int RUNS = 3;
+	private static final int[] CANDIDATES_1D = { 16, 32, 64, 128, 256, 512, 1024 };
+	private static final int[][] CANDIDATES_2D = { { 8, 8 }, { 16, 8 }, { 8, 16 }, { 16, 16 }, { 32, 4 }, { 32, 8 }, { 32, 16 }, { 32, 32 },
+			{ 64, 1 }, { 64, 4 }, { 64, 8 }, { 128, 1 }, { 128, 2 }, { 256, 1 } };
+
+	private static Properties cache;
+
+	private static synchronized Properties getCache() {
+		if (cache != null)
+			return cache;
+
+		cache = new Properties();
+		File cacheFile = Backends.getCacheFile("worksizes.properties");
+
+		if (cacheFile.isFile()) {
+			try {
+				InputStream in = new FileInputStream(cacheFile);
+
+				try {
+					cache.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Could not read the cached work sizes: " + e.getMessage());
+			}
+		}
+
+		return cache;
+	}
+
+	private static synchronized void store(ComputeDevice device, String key, String value) {
+		// drop the results of other driver versions of this device
+		String devicePrefix = device.getBackend().getName() + "/" + device.getId() + "/" + device.getName() + "/";
+		String driverPrefix = DeviceProbe.getCacheKey(device) + "/";
+
+		for (String name : getCache().stringPropertyNames())
+			if (name.startsWith(devicePrefix) && !name.startsWith(driverPrefix))
+				cache.remove(name);
+
+		cache.setProperty(key, value);
+
+		try {
+			OutputStream out = new FileOutputStream(Backends.getCacheFile("worksizes.properties"));
+
+			try {
+				cache.store(out, "jfractals local work sizes");
+			} finally {
+				out.close();
+			}
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Could not save the tuned work sizes: " + e.getMessage());
+		}
+	}
+
+	private static String getKey(ComputeDevice device, String kernelName, boolean fp64) {
+		return DeviceProbe.getCacheKey(device) + "/" + kernelName + "/" + (fp64 ? "fp64" : "fp32");
+	}
+
+	private static boolean isTunable(ComputeDevice device) {
+		return device.getBackend() != Backends.getJava();
+	}
+
+	/**
+	 * Returns the tuned local work size of a 2D kernel, or null if it has not
+	 * been tuned for this device.
+	 */
+	public static Size getLocal2DWorkSize(ComputeDevice device, String kernelName, boolean fp64) {
+		String value = getCache().getProperty(getKey(device, kernelName, fp64));
+
+		if (value == null)
+			return null;
+
+		String[] splits = value.split("x");
+		return new Size(Integer.parseInt(splits[0]), Integer.parseInt(splits[1]));
+	}
+
+	/**
+	 * Returns the tuned local work size of a 1D kernel, or 0 if it has not
+	 * been tuned for this device.
+	 */
+	public static int getLocal1DWorkSize(ComputeDevice device, String kernelName, boolean fp64) {
+		String value = getCache().getProperty(getKey(device, kernelName, fp64));
+
+		return value == null ? 0 : Integer.parseInt(value);
+	}
+
+	/**
+	 * Whether the kernel still has to be tuned on this device.
+	 */
+	public static boolean needsTuning(ComputeDevice device, String kernelName, boolean fp64) {
+		return isTunable(device) && !getCache().containsKey(getKey(device, kernelName, fp64));
+	}
+
+	/**
+	 * Tunes a 2D kernel (if necessary) by running it on a range of sampleSize,
+	 * so all of its arguments have to be set accordingly.
+	 */
+	public static void tune2D(ComputeDevice device, String kernelName, boolean fp64, ComputeKernel kernel, Size sampleSize) {
+		if (!needsTuning(device, kernelName, fp64))
+			return;
+
+		logger.log(Level.INFO, "Tuning the local work size of " + kernelName + " on " + device.getName() + " using " + sampleSize + " px");
+
+		List<Size> candidates = new ArrayList<Size>();
+
+		for (int[] c : CANDIDATES_2D)
+			if (c[0] * c[1] <= device.getMaxWorkGroupSize())
+				candidates.add(new Size(c[0], c[1]));
+
+		Size best = null;
+		long bestTime = Long.MAX_VALUE;
+
+		for (Size local : candidates) {
+			Size global = new Size(roundUp(sampleSize.getWidth(), local.getWidth()), roundUp(sampleSize.getHeight(), local.getHeight()));
+			long time;
+
+			try {
+				time = benchmark2D(kernel, global, local);
+			} catch (Exception e) {
+				// e.g. the kernel needs too many resources for this size
+				logger.log(Level.FINE, "Local work size " + local + " failed: " + e.getMessage());
+				continue;
+			}
+
+			logger.log(Level.FINE, "Local work size " + local + " took " + Formatter.formatTime(time));
+
+			if (time < bestTime) {
+				best = local;
+				bestTime = time;
+			}
+		}
+
+		if (best == null) {
+			logger.log(Level.WARNING, "Tuning " + kernelName + " failed for all local work sizes");
+			return;
+		}
+
+		logger.log(Level.INFO, "Best local work size of " + kernelName + " is " + best + " (" + Formatter.formatTime(bestTime) + ")");
+		store(device, getKey(device, kernelName, fp64), best.getWidth() + "x" + best.getHeight());
+	}
+
+	/**
+	 * Tunes a 1D kernel (if necessary) by running it on a range of sampleSize,
+	 * so all of its arguments have to be set accordingly.
+	 */
+	public static void tune1D(ComputeDevice device, String kernelName, boolean fp64, ComputeKernel kernel, int sampleSize) {
+		if (!needsTuning(device, kernelName, fp64))
+			return;
+
+		logger.log(Level.INFO, "Tuning the local work size of " + kernelName + " on " + device.getName() + " using " + sampleSize + " items");
+
+		int best = 0;
+		long bestTime = Long.MAX_VALUE;
+
+		for (int local : CANDIDATES_1D) {
+			if (local > device.getMaxWorkGroupSize())
+				break;
+
+			long time;
+
+			try {
+				time = benchmark1D(kernel, roundUp(sampleSize, local), local);
+			} catch (Exception e) {
+				logger.log(Level.FINE, "Local work size " + local + " failed: " + e.getMessage());
+				continue;
+			}
+
+			logger.log(Level.FINE, "Local work size " + local + " took " + Formatter.formatTime(time));
+
+			if (time < bestTime) {
+				best = local;
+				bestTime = time;
+			}
+		}
+
+		if (best == 0) {
+			logger.log(Level.WARNING, "Tuning " + kernelName + " failed for all local work sizes");
+			return;
+		}
+
+		logger.log(Level.INFO, "Best local work size of " + kernelName + " is " + best + " (" + Formatter.formatTime(bestTime) + ")");
+		store(device, getKey(device, kernelName, fp64), Integer.toString(best));
+	}
+
+	/**
+	 * Best time of a few runs after a warm-up.
+	 */
+	private static long benchmark2D(ComputeKernel kernel, Size global, Size local) {
+		long best = Long.MAX_VALUE;
+
+		for (int i = 0; i <= RUNS; i++) {
+			long time = kernel.run2D(global, local);
+
+			if (i > 0 && time < best)
+				best = time;
+		}
+
+		return best;
+	}
+
+	private static long benchmark1D(ComputeKernel kernel, int global, int local) {
+		long best = Long.MAX_VALUE;
+
+		for (int i = 0; i <= RUNS; i++) {
+			long time = kernel.run1D(global, local);
+
+			if (i > 0 && time < best)
+				best = time;
+		}
+
+		return best;
+	}
+
+	private static int roundUp(int value, int multiple) {
+		return (value + multiple - 1) / multiple * multiple;
+	}
+}
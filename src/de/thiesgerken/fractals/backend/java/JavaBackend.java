@@ -0,0 +1,21 @@
+package de.thiesgerken.fractals.backend.java;
+
+import de.thiesgerken.fractals.backend.ComputeBackend;
+import de.thiesgerken.fractals.backend.ComputeDevice;
+
+/**
+ * Executes kernels that have been ported to java on the processors of this
+ * machine.
+ */
+public class JavaBackend implements ComputeBackend {
+
+	@Override
+	public String getName() {
+		return "java";
+	}
+
+	@Override
+	public ComputeDevice[] listDevices() {
+		return new ComputeDevice[] { new JavaDevice(this, 0) };
+	}
+}
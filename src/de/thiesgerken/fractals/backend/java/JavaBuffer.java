@@ -0,0 +1,162 @@
+package de.thiesgerken.fractals.backend.java;
+
+import java.lang.reflect.Array;
+
+import de.thiesgerken.fractals.backend.ComputeBuffer;
+import de.thiesgerken.fractals.backend.ComputeEvent;
+
+/**
+ * A buffer that is backed by a java array, which the kernels access directly.
+ * Enqueued reads have nothing to transfer, copyTo reads from the array.
+ */
+public class JavaBuffer implements ComputeBuffer {
+	private Object array;
+	private final int length;
+	private final int elementSize;
+
+	public JavaBuffer(int[] array) {
+		this(array, 4);
+	}
+
+	public JavaBuffer(long[] array) {
+		this(array, 8);
+	}
+
+	public JavaBuffer(float[] array) {
+		this(array, 4);
+	}
+
+	public JavaBuffer(double[] array) {
+		this(array, 8);
+	}
+
+	private JavaBuffer(Object array, int elementSize) {
+		this.array = array;
+		this.length = Array.getLength(array);
+		this.elementSize = elementSize;
+	}
+
+	/**
+	 * The underlying array, i.e. an int[], long[], float[] or double[].
+	 */
+	public Object getArray() {
+		return array;
+	}
+
+	@Override
+	public int getLength() {
+		return length;
+	}
+
+	@Override
+	public long getSize() {
+		return (long) length * elementSize;
+	}
+
+	@Override
+	public void read(int[] destination, int offset, int length) {
+		System.arraycopy(array, 0, destination, offset, length);
+	}
+
+	@Override
+	public void read(long[] destination, int offset, int length) {
+		System.arraycopy(array, 0, destination, offset, length);
+	}
+
+	@Override
+	public void read(float[] destination, int offset, int length) {
+		System.arraycopy(array, 0, destination, offset, length);
+	}
+
+	@Override
+	public void read(double[] destination, int offset, int length) {
+		System.arraycopy(array, 0, destination, offset, length);
+	}
+
+	@Override
+	public void write(int[] source, int offset, int length) {
+		System.arraycopy(source, offset, array, 0, length);
+	}
+
+	@Override
+	public void write(long[] source, int offset, int length) {
+		System.arraycopy(source, offset, array, 0, length);
+	}
+
+	@Override
+	public void write(float[] source, int offset, int length) {
+		System.arraycopy(source, offset, array, 0, length);
+	}
+
+	@Override
+	public void write(double[] source, int offset, int length) {
+		System.arraycopy(source, offset, array, 0, length);
+	}
+
+	@Override
+	public ComputeEvent enqueueRead(ComputeEvent after) {
+		return new JavaEvent(0);
+	}
+
+	@Override
+	public void copyTo(int[] destination, int offset, int length) {
+		read(destination, offset, length);
+	}
+
+	@Override
+	public void copyTo(long[] destination, int offset, int length) {
+		read(destination, offset, length);
+	}
+
+	@Override
+	public void copyTo(float[] destination, int offset, int length) {
+		read(destination, offset, length);
+	}
+
+	@Override
+	public void copyTo(double[] destination, int offset, int length) {
+		read(destination, offset, length);
+	}
+
+	@Override
+	public ComputeEvent enqueueWrite(int[] source, int offset, int length, ComputeEvent after) {
+		long time = System.nanoTime();
+		write(source, offset, length);
+
+		return new JavaEvent(System.nanoTime() - time);
+	}
+
+	@Override
+	public ComputeEvent enqueueWrite(long[] source, int offset, int length, ComputeEvent after) {
+		long time = System.nanoTime();
+		write(source, offset, length);
+
+		return new JavaEvent(System.nanoTime() - time);
+	}
+
+	@Override
+	public ComputeEvent enqueueWrite(float[] source, int offset, int length, ComputeEvent after) {
+		long time = System.nanoTime();
+		write(source, offset, length);
+
+		return new JavaEvent(System.nanoTime() - time);
+	}
+
+	@Override
+	public ComputeEvent enqueueWrite(double[] source, int offset, int length, ComputeEvent after) {
+		long time = System.nanoTime();
+		write(source, offset, length);
+
+		return new JavaEvent(System.nanoTime() - time);
+	}
+
+	@Override
+	public void release() {
+		array = null;
+	}
+
+	@Override
+	public boolean isReleased() {
+		return array == null;
+	}
+}
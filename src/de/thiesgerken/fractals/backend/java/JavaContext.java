@@ -0,0 +1,73 @@
+package de.thiesgerken.fractals.backend.java;
+
+import de.thiesgerken.fractals.backend.ComputeBuffer;
+import de.thiesgerken.fractals.backend.ComputeContext;
+import de.thiesgerken.fractals.backend.ComputeDevice;
+import de.thiesgerken.fractals.backend.ComputeProgram;
+import de.thiesgerken.fractals.backend.ProgramSource;
+import de.thiesgerken.fractals.util.ParallelRows;
+
+public class JavaContext implements ComputeContext {
+	private final JavaDevice device;
+	private ParallelRows workers;
+
+	public JavaContext(JavaDevice device) {
+		this.device = device;
+		this.workers = new ParallelRows(device.getThreadCount());
+	}
+
+	ParallelRows getWorkers() {
+		return workers;
+	}
+
+	@Override
+	public ComputeDevice getDevice() {
+		return device;
+	}
+
+	@Override
+	public ComputeProgram createProgram(ProgramSource source) throws Exception {
+		if (source.getJavaKernels() == null)
+			throw new Exception("The program '" + source.getName() + "' is not available for the java backend.");
+
+		return new JavaProgram(this, source.getJavaKernels());
+	}
+
+	@Override
+	public ComputeBuffer createIntBuffer(int length) {
+		return new JavaBuffer(new int[length]);
+	}
+
+	@Override
+	public ComputeBuffer createLongBuffer(int length) {
+		return new JavaBuffer(new long[length]);
+	}
+
+	@Override
+	public ComputeBuffer createFloatBuffer(int length) {
+		return new JavaBuffer(new float[length]);
+	}
+
+	@Override
+	public ComputeBuffer createDoubleBuffer(int length) {
+		return new JavaBuffer(new double[length]);
+	}
+
+	@Override
+	public ComputeBuffer createFPBuffer(int length, boolean fp64) {
+		return fp64 ? createDoubleBuffer(length) : createFloatBuffer(length);
+	}
+
+	@Override
+	public void release() {
+		if (workers != null) {
+			workers.shutdown();
+			workers = null;
+		}
+	}
+
+	@Override
+	public boolean isReleased() {
+		return workers == null;
+	}
+}
@@ -0,0 +1,74 @@
+package de.thiesgerken.fractals.backend.java;
+
+import de.thiesgerken.fractals.backend.ComputeBackend;
+import de.thiesgerken.fractals.backend.ComputeContext;
+import de.thiesgerken.fractals.backend.ComputeDevice;
+
+public class JavaDevice implements ComputeDevice {
+	private final JavaBackend backend;
+	private final int threadCount;
+
+	/**
+	 * Creates a device that uses the given amount of worker threads, or one
+	 * thread per available processor if threadCount is less than one.
+	 */
+	public JavaDevice(JavaBackend backend, int threadCount) {
+		this.backend = backend;
+		this.threadCount = threadCount < 1 ? Runtime.getRuntime().availableProcessors() : threadCount;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	@Override
+	public ComputeBackend getBackend() {
+		return backend;
+	}
+
+	@Override
+	public String getId() {
+		return "java";
+	}
+
+	@Override
+	public String getName() {
+		return "Java " + System.getProperty("java.version") + " (" + threadCount + " threads)";
+	}
+
+	@Override
+	public String getDriverVersion() {
+		return System.getProperty("java.vm.version");
+	}
+
+	@Override
+	public boolean isDoubleFPAvailable() {
+		return true;
+	}
+
+	@Override
+	public int getMaxWorkGroupSize() {
+		// there are no work groups, every row is a task of its own
+		return 1024;
+	}
+
+	@Override
+	public long getMaxMemAllocSize() {
+		return Math.min(getGlobalMemSize(), Integer.MAX_VALUE * 4L);
+	}
+
+	@Override
+	public long getGlobalMemSize() {
+		return Runtime.getRuntime().maxMemory();
+	}
+
+	@Override
+	public ComputeContext createContext() {
+		return new JavaContext(this);
+	}
+
+	@Override
+	public String toString() {
+		return getId() + " (" + getName() + ")";
+	}
+}
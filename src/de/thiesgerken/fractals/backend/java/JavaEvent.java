@@ -0,0 +1,28 @@
+package de.thiesgerken.fractals.backend.java;
+
+import de.thiesgerken.fractals.backend.ComputeEvent;
+
+/**
+ * The java backend executes all commands right away, so its events have
+ * always finished.
+ */
+public class JavaEvent implements ComputeEvent {
+	private final long time;
+
+	public JavaEvent(long time) {
+		this.time = time;
+	}
+
+	@Override
+	public void waitFor() {
+	}
+
+	@Override
+	public long getTime() {
+		return time;
+	}
+
+	@Override
+	public void release() {
+	}
+}
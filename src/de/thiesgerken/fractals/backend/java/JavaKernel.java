@@ -0,0 +1,190 @@
+package de.thiesgerken.fractals.backend.java;
+
+import java.util.Arrays;
+
+import de.thiesgerken.fractals.backend.ComputeBuffer;
+import de.thiesgerken.fractals.backend.ComputeEvent;
+import de.thiesgerken.fractals.backend.ComputeKernel;
+import de.thiesgerken.fractals.util.ParallelRows;
+import de.thiesgerken.fractals.util.Size;
+
+/**
+ * Base class of kernels that have been ported to java. The arguments are
+ * stored as given (buffers as their arrays) and can be retrieved with the
+ * getters below. Kernels extend {@link JavaKernel1D} or {@link JavaKernel2D}
+ * according to the range they are executed on; like their OpenCL
+ * counterparts, they have to ignore rows and items outside of their data,
+ * since the global work size might be padded.
+ */
+public abstract class JavaKernel implements ComputeKernel {
+	private Object[] args = new Object[0];
+	private JavaContext context;
+	private boolean fp64;
+
+	void attach(JavaContext context, boolean fp64) {
+		this.context = context;
+		this.fp64 = fp64;
+	}
+
+	/**
+	 * Whether fp arguments and buffers are doubles, as set when building the
+	 * program.
+	 */
+	protected boolean use64bitFloats() {
+		return fp64;
+	}
+
+	/**
+	 * Called once before the work items of a launch are executed, can be used
+	 * to prepare shared data from the arguments.
+	 */
+	protected void prepare() {
+	}
+
+	/**
+	 * Called once after all work items of a launch have been executed.
+	 */
+	protected void complete() {
+	}
+
+	/**
+	 * The amount of worker threads of the context.
+	 */
+	protected int getThreadCount() {
+		return context.getWorkers().getThreadCount();
+	}
+
+	/**
+	 * Calls the kernel for every row in [0, rows) on the workers of the
+	 * context, e.g. to merge per-thread results in {@link #complete()}.
+	 */
+	protected void forEachRow(int rows, ParallelRows.RowKernel kernel) {
+		context.getWorkers().forEachRow(rows, kernel);
+	}
+
+	/**
+	 * Calls {@link #prepare()}, the kernel for every row or item in [0, count)
+	 * on the workers of the context and {@link #complete()}. Returns the time
+	 * this took in ns.
+	 */
+	protected long run(int count, ParallelRows.RowKernel kernel) {
+		long time = System.nanoTime();
+
+		prepare();
+		context.getWorkers().forEachRow(count, kernel);
+		complete();
+
+		return System.nanoTime() - time;
+	}
+
+	@Override
+	public ComputeEvent enqueue1D(int globalWorkSize, int localWorkSize, ComputeEvent after) {
+		return new JavaEvent(run1D(globalWorkSize, localWorkSize));
+	}
+
+	@Override
+	public ComputeEvent enqueue2D(Size globalWorkSize, Size localWorkSize, ComputeEvent after) {
+		return new JavaEvent(run2D(globalWorkSize, localWorkSize));
+	}
+
+	private void put(int index, Object value) {
+		if (index >= args.length)
+			args = Arrays.copyOf(args, index + 1);
+
+		args[index] = value;
+	}
+
+	@Override
+	public void setArg(int index, int value) {
+		put(index, value);
+	}
+
+	@Override
+	public void setArg(int index, long value) {
+		put(index, value);
+	}
+
+	@Override
+	public void setArg(int index, double value) {
+		put(index, value);
+	}
+
+	@Override
+	public void setArg(int index, int[] values) {
+		put(index, values.clone());
+	}
+
+	@Override
+	public void setArg(int index, long[] values) {
+		put(index, values.clone());
+	}
+
+	@Override
+	public void setArg(int index, double[] values) {
+		put(index, values.clone());
+	}
+
+	@Override
+	public void setArg(int index, ComputeBuffer buffer) {
+		put(index, buffer);
+	}
+
+	protected int getInt(int index) {
+		return (Integer) args[index];
+	}
+
+	protected long getLong(int index) {
+		return (Long) args[index];
+	}
+
+	protected double getDouble(int index) {
+		return (Double) args[index];
+	}
+
+	protected int[] getInts(int index) {
+		return (int[]) args[index];
+	}
+
+	protected long[] getLongs(int index) {
+		return (long[]) args[index];
+	}
+
+	protected double[] getDoubles(int index) {
+		return (double[]) args[index];
+	}
+
+	/**
+	 * Returns the array behind the buffer argument at index, i.e. an int[],
+	 * long[], float[] or double[].
+	 */
+	protected Object getBuffer(int index) {
+		return ((JavaBuffer) args[index]).getArray();
+	}
+
+	protected int[] getIntBuffer(int index) {
+		return (int[]) getBuffer(index);
+	}
+
+	protected long[] getLongBuffer(int index) {
+		return (long[]) getBuffer(index);
+	}
+
+	protected float[] getFloatBuffer(int index) {
+		return (float[]) getBuffer(index);
+	}
+
+	protected double[] getDoubleBuffer(int index) {
+		return (double[]) getBuffer(index);
+	}
+
+	@Override
+	public void release() {
+		args = new Object[0];
+		context = null;
+	}
+
+	@Override
+	public boolean isReleased() {
+		return context == null;
+	}
+}
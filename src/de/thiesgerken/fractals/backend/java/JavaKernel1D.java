@@ -0,0 +1,30 @@
+package de.thiesgerken.fractals.backend.java;
+
+import de.thiesgerken.fractals.util.ParallelRows;
+import de.thiesgerken.fractals.util.Size;
+
+/**
+ * Base class of java kernels that are executed on a 1D range, item by item
+ * via {@link #runItem(int)}. Launching them on a 2D range fails right away.
+ */
+public abstract class JavaKernel1D extends JavaKernel {
+	/**
+	 * Executes work item i of a 1D range.
+	 */
+	protected abstract void runItem(int i);
+
+	@Override
+	public long run1D(int globalWorkSize, int localWorkSize) {
+		return run(globalWorkSize, new ParallelRows.RowKernel() {
+			@Override
+			public void computeRow(int i) {
+				runItem(i);
+			}
+		});
+	}
+
+	@Override
+	public long run2D(Size globalWorkSize, Size localWorkSize) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " can not be executed on a 2D range.");
+	}
+}
@@ -0,0 +1,31 @@
+package de.thiesgerken.fractals.backend.java;
+
+import de.thiesgerken.fractals.util.ParallelRows;
+import de.thiesgerken.fractals.util.Size;
+
+/**
+ * Base class of java kernels that are executed on a 2D range, row by row via
+ * {@link #runRow(int)}. Launching them on a 1D range fails right away,
+ * unless they override {@link #run1D(int, int)} as well.
+ */
+public abstract class JavaKernel2D extends JavaKernel {
+	/**
+	 * Executes the work items (x, y) of row y of a 2D range.
+	 */
+	protected abstract void runRow(int y);
+
+	@Override
+	public long run1D(int globalWorkSize, int localWorkSize) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " can not be executed on a 1D range.");
+	}
+
+	@Override
+	public long run2D(Size globalWorkSize, Size localWorkSize) {
+		return run(globalWorkSize.getHeight(), new ParallelRows.RowKernel() {
+			@Override
+			public void computeRow(int y) {
+				runRow(y);
+			}
+		});
+	}
+}
@@ -0,0 +1,13 @@
+package de.thiesgerken.fractals.backend.java;
+
+/**
+ * Provides the java implementations of the kernels of a program.
+ */
+public interface JavaKernelFactory {
+
+	/**
+	 * Creates a new instance of the kernel with the given name, or returns null
+	 * if this kernel has not been ported to java.
+	 */
+	public JavaKernel createKernel(String name) throws Exception;
+}
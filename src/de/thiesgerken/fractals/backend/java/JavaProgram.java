@@ -0,0 +1,46 @@
+package de.thiesgerken.fractals.backend.java;
+
+import de.thiesgerken.fractals.backend.ComputeKernel;
+import de.thiesgerken.fractals.backend.ComputeProgram;
+
+public class JavaProgram implements ComputeProgram {
+	private final JavaContext context;
+	private final JavaKernelFactory kernels;
+	private boolean isBuilt;
+	private boolean fp64;
+
+	public JavaProgram(JavaContext context, JavaKernelFactory kernels) {
+		this.context = context;
+		this.kernels = kernels;
+	}
+
+	@Override
+	public void build(boolean fp64) {
+		this.fp64 = fp64;
+		this.isBuilt = true;
+	}
+
+	@Override
+	public ComputeKernel createKernel(String name) throws Exception {
+		if (!isBuilt)
+			throw new Exception("the program has to be built before creating kernels");
+
+		JavaKernel kernel = kernels.createKernel(name);
+
+		if (kernel == null)
+			throw new Exception("there is no java implementation of the kernel '" + name + "'");
+
+		kernel.attach(context, fp64);
+		return kernel;
+	}
+
+	@Override
+	public void release() {
+		isBuilt = false;
+	}
+
+	@Override
+	public boolean isReleased() {
+		return !isBuilt;
+	}
+}
@@ -0,0 +1,73 @@
+package de.thiesgerken.fractals.backend.opencl;
+
+import java.util.ArrayList;
+
+import com.jogamp.opencl.CLDevice;
+import com.jogamp.opencl.CLPlatform;
+
+import de.thiesgerken.fractals.backend.ComputeBackend;
+import de.thiesgerken.fractals.backend.ComputeDevice;
+
+public class OpenCLBackend implements ComputeBackend {
+
+	@Override
+	public String getName() {
+		return "opencl";
+	}
+
+	/**
+	 * Lists the OpenCL platforms, which is an empty array if there is no
+	 * (usable) OpenCL implementation on this machine.
+	 */
+	public static CLPlatform[] listPlatforms() {
+		try {
+			return CLPlatform.listCLPlatforms();
+		} catch (RuntimeException e) {
+			return new CLPlatform[0];
+		}
+	}
+
+	@Override
+	public ComputeDevice[] listDevices() {
+		ArrayList<ComputeDevice> result = new ArrayList<ComputeDevice>();
+		CLPlatform[] platforms = listPlatforms();
+
+		for (int i = 0; i < platforms.length; i++) {
+			CLDevice[] devices = platforms[i].listCLDevices();
+
+			for (int j = 0; j < devices.length; j++)
+				result.add(new OpenCLDevice(this, i + "." + j, devices[j]));
+		}
+
+		return result.toArray(new ComputeDevice[result.size()]);
+	}
+
+	/**
+	 * Returns the device with id 'platform.device', or null if there is no
+	 * such device.
+	 */
+	public OpenCLDevice getDevice(int platform, int device) {
+		CLPlatform[] platforms = listPlatforms();
+
+		if (platform >= platforms.length)
+			return null;
+
+		CLDevice[] devices = platforms[platform].listCLDevices();
+
+		if (device >= devices.length)
+			return null;
+
+		return new OpenCLDevice(this, platform + "." + device, devices[device]);
+	}
+
+	/**
+	 * Returns the first device of the given type, or null if there is none.
+	 */
+	public OpenCLDevice findDevice(CLDevice.Type type) {
+		for (ComputeDevice device : listDevices())
+			if (((OpenCLDevice) device).getCLDevice().getType() == type)
+				return (OpenCLDevice) device;
+
+		return null;
+	}
+}
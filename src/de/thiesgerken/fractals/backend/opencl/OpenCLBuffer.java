@@ -0,0 +1,160 @@
+package de.thiesgerken.fractals.backend.opencl;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import com.jogamp.opencl.CLBuffer;
+import com.jogamp.opencl.CLEventList;
+
+import de.thiesgerken.fractals.backend.ComputeBuffer;
+import de.thiesgerken.fractals.backend.ComputeEvent;
+
+public class OpenCLBuffer implements ComputeBuffer {
+	private final OpenCLContext context;
+	private final CLBuffer<?> buffer;
+	private final int length;
+
+	public OpenCLBuffer(OpenCLContext context, CLBuffer<?> buffer, int length) {
+		this.context = context;
+		this.buffer = buffer;
+		this.length = length;
+	}
+
+	public CLBuffer<?> getCLBuffer() {
+		return buffer;
+	}
+
+	@Override
+	public int getLength() {
+		return length;
+	}
+
+	@Override
+	public long getSize() {
+		return buffer.getCLSize();
+	}
+
+	@Override
+	public void read(int[] destination, int offset, int length) {
+		context.getQueue().putReadBuffer(buffer, true);
+		copyTo(destination, offset, length);
+	}
+
+	@Override
+	public void read(long[] destination, int offset, int length) {
+		context.getQueue().putReadBuffer(buffer, true);
+		copyTo(destination, offset, length);
+	}
+
+	@Override
+	public void read(float[] destination, int offset, int length) {
+		context.getQueue().putReadBuffer(buffer, true);
+		copyTo(destination, offset, length);
+	}
+
+	@Override
+	public void read(double[] destination, int offset, int length) {
+		context.getQueue().putReadBuffer(buffer, true);
+		copyTo(destination, offset, length);
+	}
+
+	@Override
+	public void write(int[] source, int offset, int length) {
+		((IntBuffer) buffer.getBuffer().rewind()).put(source, offset, length).rewind();
+		context.getQueue().putWriteBuffer(buffer, true);
+	}
+
+	@Override
+	public void write(long[] source, int offset, int length) {
+		((LongBuffer) buffer.getBuffer().rewind()).put(source, offset, length).rewind();
+		context.getQueue().putWriteBuffer(buffer, true);
+	}
+
+	@Override
+	public void write(float[] source, int offset, int length) {
+		((FloatBuffer) buffer.getBuffer().rewind()).put(source, offset, length).rewind();
+		context.getQueue().putWriteBuffer(buffer, true);
+	}
+
+	@Override
+	public void write(double[] source, int offset, int length) {
+		((DoubleBuffer) buffer.getBuffer().rewind()).put(source, offset, length).rewind();
+		context.getQueue().putWriteBuffer(buffer, true);
+	}
+
+	@Override
+	public ComputeEvent enqueueRead(ComputeEvent after) {
+		CLEventList events = new CLEventList(1);
+
+		context.getDownloadQueue().putReadBuffer(buffer, false, OpenCLEvent.condition(after), events);
+		context.getDownloadQueue().flush();
+
+		return new OpenCLEvent(events);
+	}
+
+	@Override
+	public void copyTo(int[] destination, int offset, int length) {
+		((IntBuffer) buffer.getBuffer().rewind()).get(destination, offset, length).rewind();
+	}
+
+	@Override
+	public void copyTo(long[] destination, int offset, int length) {
+		((LongBuffer) buffer.getBuffer().rewind()).get(destination, offset, length).rewind();
+	}
+
+	@Override
+	public void copyTo(float[] destination, int offset, int length) {
+		((FloatBuffer) buffer.getBuffer().rewind()).get(destination, offset, length).rewind();
+	}
+
+	@Override
+	public void copyTo(double[] destination, int offset, int length) {
+		((DoubleBuffer) buffer.getBuffer().rewind()).get(destination, offset, length).rewind();
+	}
+
+	@Override
+	public ComputeEvent enqueueWrite(int[] source, int offset, int length, ComputeEvent after) {
+		((IntBuffer) buffer.getBuffer().rewind()).put(source, offset, length).rewind();
+		return enqueueWrite(after);
+	}
+
+	@Override
+	public ComputeEvent enqueueWrite(long[] source, int offset, int length, ComputeEvent after) {
+		((LongBuffer) buffer.getBuffer().rewind()).put(source, offset, length).rewind();
+		return enqueueWrite(after);
+	}
+
+	@Override
+	public ComputeEvent enqueueWrite(float[] source, int offset, int length, ComputeEvent after) {
+		((FloatBuffer) buffer.getBuffer().rewind()).put(source, offset, length).rewind();
+		return enqueueWrite(after);
+	}
+
+	@Override
+	public ComputeEvent enqueueWrite(double[] source, int offset, int length, ComputeEvent after) {
+		((DoubleBuffer) buffer.getBuffer().rewind()).put(source, offset, length).rewind();
+		return enqueueWrite(after);
+	}
+
+	private ComputeEvent enqueueWrite(ComputeEvent after) {
+		CLEventList events = new CLEventList(1);
+
+		context.getUploadQueue().putWriteBuffer(buffer, false, OpenCLEvent.condition(after), events);
+		context.getUploadQueue().flush();
+
+		return new OpenCLEvent(events);
+	}
+
+	@Override
+	public void release() {
+		if (!buffer.isReleased())
+			buffer.release();
+	}
+
+	@Override
+	public boolean isReleased() {
+		return buffer.isReleased();
+	}
+}
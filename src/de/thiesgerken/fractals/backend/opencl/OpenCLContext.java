@@ -0,0 +1,103 @@
+package de.thiesgerken.fractals.backend.opencl;
+
+import static com.jogamp.opencl.CLCommandQueue.Mode.PROFILING_MODE;
+import static com.jogamp.opencl.CLMemory.Mem.READ_WRITE;
+
+import com.jogamp.opencl.CLCommandQueue;
+import com.jogamp.opencl.CLContext;
+
+import de.thiesgerken.fractals.backend.ComputeBuffer;
+import de.thiesgerken.fractals.backend.ComputeContext;
+import de.thiesgerken.fractals.backend.ComputeDevice;
+import de.thiesgerken.fractals.backend.ComputeProgram;
+import de.thiesgerken.fractals.backend.ProgramSource;
+
+public class OpenCLContext implements ComputeContext {
+	private final OpenCLDevice device;
+	private final CLContext context;
+	private final CLCommandQueue queue;
+	private final CLCommandQueue uploadQueue;
+	private final CLCommandQueue downloadQueue;
+
+	public OpenCLContext(OpenCLDevice device, CLContext context) {
+		this.device = device;
+		this.context = context;
+		this.queue = device.getCLDevice().createCommandQueue(PROFILING_MODE);
+
+		// enqueued transfers use queues of their own, so that they can
+		// overlap with the kernels and with each other
+		this.uploadQueue = device.getCLDevice().createCommandQueue(PROFILING_MODE);
+		this.downloadQueue = device.getCLDevice().createCommandQueue(PROFILING_MODE);
+	}
+
+	public CLContext getCLContext() {
+		return context;
+	}
+
+	public CLCommandQueue getQueue() {
+		return queue;
+	}
+
+	public CLCommandQueue getUploadQueue() {
+		return uploadQueue;
+	}
+
+	public CLCommandQueue getDownloadQueue() {
+		return downloadQueue;
+	}
+
+	@Override
+	public ComputeDevice getDevice() {
+		return device;
+	}
+
+	@Override
+	public ComputeProgram createProgram(ProgramSource source) {
+		return new OpenCLProgram(this, source);
+	}
+
+	@Override
+	public ComputeBuffer createIntBuffer(int length) {
+		return new OpenCLBuffer(this, context.createIntBuffer(length, READ_WRITE), length);
+	}
+
+	@Override
+	public ComputeBuffer createLongBuffer(int length) {
+		return new OpenCLBuffer(this, context.createLongBuffer(length, READ_WRITE), length);
+	}
+
+	@Override
+	public ComputeBuffer createFloatBuffer(int length) {
+		return new OpenCLBuffer(this, context.createFloatBuffer(length, READ_WRITE), length);
+	}
+
+	@Override
+	public ComputeBuffer createDoubleBuffer(int length) {
+		return new OpenCLBuffer(this, context.createDoubleBuffer(length, READ_WRITE), length);
+	}
+
+	@Override
+	public ComputeBuffer createFPBuffer(int length, boolean fp64) {
+		return fp64 ? createDoubleBuffer(length) : createFloatBuffer(length);
+	}
+
+	@Override
+	public void release() {
+		if (!queue.isReleased())
+			queue.release();
+
+		if (!uploadQueue.isReleased())
+			uploadQueue.release();
+
+		if (!downloadQueue.isReleased())
+			downloadQueue.release();
+
+		if (!context.isReleased())
+			context.release();
+	}
+
+	@Override
+	public boolean isReleased() {
+		return context.isReleased();
+	}
+}
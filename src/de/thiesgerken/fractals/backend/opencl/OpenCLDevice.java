@@ -0,0 +1,83 @@
+package de.thiesgerken.fractals.backend.opencl;
+
+import com.jogamp.opencl.CLContext;
+import com.jogamp.opencl.CLDevice;
+
+import de.thiesgerken.fractals.backend.ComputeBackend;
+import de.thiesgerken.fractals.backend.ComputeContext;
+import de.thiesgerken.fractals.backend.ComputeDevice;
+
+public class OpenCLDevice implements ComputeDevice {
+	private final OpenCLBackend backend;
+	private final String id;
+	private final CLDevice device;
+
+	public OpenCLDevice(OpenCLBackend backend, String id, CLDevice device) {
+		this.backend = backend;
+		this.id = id;
+		this.device = device;
+	}
+
+	public CLDevice getCLDevice() {
+		return device;
+	}
+
+	@Override
+	public ComputeBackend getBackend() {
+		return backend;
+	}
+
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	public String getName() {
+		return device.getName();
+	}
+
+	@Override
+	public String getDriverVersion() {
+		return device.getDriverVersion();
+	}
+
+	@Override
+	public boolean isDoubleFPAvailable() {
+		return device.isDoubleFPAvailable();
+	}
+
+	@Override
+	public int getMaxWorkGroupSize() {
+		return device.getMaxWorkGroupSize();
+	}
+
+	@Override
+	public long getMaxMemAllocSize() {
+		return device.getMaxMemAllocSize();
+	}
+
+	@Override
+	public long getGlobalMemSize() {
+		return device.getGlobalMemSize();
+	}
+
+	@Override
+	public ComputeContext createContext() {
+		return new OpenCLContext(this, CLContext.create(device));
+	}
+
+	/**
+	 * Uses an existing context (e.g. one that is shared with OpenGL) for
+	 * computations on this device. The context is released together with the
+	 * returned one.
+	 */
+	public OpenCLContext createContext(CLContext context) {
+		return new OpenCLContext(this, context);
+	}
+
+	@Override
+	public String toString() {
+		return id + " (" + getName() + ")";
+	}
+}
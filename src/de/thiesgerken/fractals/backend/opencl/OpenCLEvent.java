@@ -0,0 +1,50 @@
+package de.thiesgerken.fractals.backend.opencl;
+
+import static com.jogamp.opencl.CLEvent.ProfilingCommand.END;
+import static com.jogamp.opencl.CLEvent.ProfilingCommand.START;
+
+import com.jogamp.opencl.CLEvent;
+import com.jogamp.opencl.CLEventList;
+
+import de.thiesgerken.fractals.backend.ComputeEvent;
+
+public class OpenCLEvent implements ComputeEvent {
+	private final CLEventList events;
+	private boolean released;
+
+	public OpenCLEvent(CLEventList events) {
+		this.events = events;
+	}
+
+	public CLEvent getCLEvent() {
+		return events.getEvent(0);
+	}
+
+	/**
+	 * The condition list for a command that has to wait for after, or null if
+	 * after is null.
+	 */
+	static CLEventList condition(ComputeEvent after) {
+		return after == null ? null : new CLEventList(((OpenCLEvent) after).getCLEvent());
+	}
+
+	@Override
+	public void waitFor() {
+		events.waitForEvents();
+	}
+
+	@Override
+	public long getTime() {
+		waitFor();
+
+		return getCLEvent().getProfilingInfo(END) - getCLEvent().getProfilingInfo(START);
+	}
+
+	@Override
+	public void release() {
+		if (!released)
+			events.release();
+
+		released = true;
+	}
+}
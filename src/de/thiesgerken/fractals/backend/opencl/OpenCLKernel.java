@@ -0,0 +1,149 @@
+package de.thiesgerken.fractals.backend.opencl;
+
+import java.nio.ByteBuffer;
+
+import com.jogamp.opencl.CLEventList;
+import com.jogamp.opencl.CLKernel;
+
+import de.thiesgerken.fractals.backend.ComputeBuffer;
+import de.thiesgerken.fractals.backend.ComputeEvent;
+import de.thiesgerken.fractals.backend.ComputeKernel;
+import de.thiesgerken.fractals.util.Size;
+
+public class OpenCLKernel implements ComputeKernel {
+	private final OpenCLContext context;
+	private final CLKernel kernel;
+	private final boolean fp64;
+
+	public OpenCLKernel(OpenCLContext context, CLKernel kernel, boolean fp64) {
+		this.context = context;
+		this.kernel = kernel;
+		this.fp64 = fp64;
+	}
+
+	public CLKernel getCLKernel() {
+		return kernel;
+	}
+
+	@Override
+	public void setArg(int index, int value) {
+		kernel.setArg(index, value);
+	}
+
+	@Override
+	public void setArg(int index, long value) {
+		kernel.setArg(index, value);
+	}
+
+	@Override
+	public void setArg(int index, double value) {
+		if (fp64)
+			kernel.setArg(index, value);
+		else
+			kernel.setArg(index, (float) value);
+	}
+
+	@Override
+	public void setArg(int index, int[] values) {
+		ByteBuffer buf = createArgBuffer(values.length * 4);
+
+		for (int i = 0; i < values.length; i++)
+			buf.putInt(i * 4, values[i]);
+
+		setArg(index, buf);
+	}
+
+	@Override
+	public void setArg(int index, long[] values) {
+		ByteBuffer buf = createArgBuffer(values.length * 8);
+
+		for (int i = 0; i < values.length; i++)
+			buf.putLong(i * 8, values[i]);
+
+		setArg(index, buf);
+	}
+
+	@Override
+	public void setArg(int index, double[] values) {
+		int sizeOfFp = fp64 ? 8 : 4;
+		ByteBuffer buf = createArgBuffer(values.length * sizeOfFp);
+
+		for (int i = 0; i < values.length; i++)
+			if (fp64)
+				buf.putDouble(i * sizeOfFp, values[i]);
+			else
+				buf.putFloat(i * sizeOfFp, (float) values[i]);
+
+		setArg(index, buf);
+	}
+
+	@Override
+	public void setArg(int index, ComputeBuffer buffer) {
+		kernel.setArg(index, ((OpenCLBuffer) buffer).getCLBuffer());
+	}
+
+	private ByteBuffer createArgBuffer(int size) {
+		ByteBuffer buf = ByteBuffer.allocateDirect(size);
+		buf.order(((OpenCLDevice) context.getDevice()).getCLDevice().getByteOrder());
+
+		return buf;
+	}
+
+	private void setArg(int index, ByteBuffer buf) {
+		context.getCLContext().getCL().clSetKernelArg(kernel.getID(), index, buf.capacity(), buf);
+	}
+
+	@Override
+	public long run1D(int globalWorkSize, int localWorkSize) {
+		ComputeEvent event = enqueue1D(globalWorkSize, localWorkSize, null);
+
+		try {
+			return event.getTime();
+		} finally {
+			event.release();
+		}
+	}
+
+	@Override
+	public long run2D(Size globalWorkSize, Size localWorkSize) {
+		ComputeEvent event = enqueue2D(globalWorkSize, localWorkSize, null);
+
+		try {
+			return event.getTime();
+		} finally {
+			event.release();
+		}
+	}
+
+	@Override
+	public ComputeEvent enqueue1D(int globalWorkSize, int localWorkSize, ComputeEvent after) {
+		CLEventList events = new CLEventList(1);
+
+		context.getQueue().put1DRangeKernel(kernel, 0, globalWorkSize, localWorkSize, OpenCLEvent.condition(after), events);
+		context.getQueue().flush();
+
+		return new OpenCLEvent(events);
+	}
+
+	@Override
+	public ComputeEvent enqueue2D(Size globalWorkSize, Size localWorkSize, ComputeEvent after) {
+		CLEventList events = new CLEventList(1);
+
+		context.getQueue().put2DRangeKernel(kernel, 0, 0, globalWorkSize.getWidth(), globalWorkSize.getHeight(), localWorkSize.getWidth(),
+				localWorkSize.getHeight(), OpenCLEvent.condition(after), events);
+		context.getQueue().flush();
+
+		return new OpenCLEvent(events);
+	}
+
+	@Override
+	public void release() {
+		if (!kernel.isReleased())
+			kernel.release();
+	}
+
+	@Override
+	public boolean isReleased() {
+		return kernel.isReleased();
+	}
+}
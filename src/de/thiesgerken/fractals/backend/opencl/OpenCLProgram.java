@@ -0,0 +1,109 @@
+package de.thiesgerken.fractals.backend.opencl;
+
+import java.util.Collections;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jogamp.opencl.CLDevice;
+import com.jogamp.opencl.CLProgram;
+import com.jogamp.opencl.CLProgram.CompilerOptions;
+import com.jogamp.opencl.util.CLProgramConfiguration;
+
+import de.thiesgerken.fractals.backend.ComputeKernel;
+import de.thiesgerken.fractals.backend.ComputeProgram;
+import de.thiesgerken.fractals.backend.ProgramSource;
+
+/**
+ * A program that is created when it is built: from the binary that an
+ * earlier run has left in the {@link ProgramBinaryCache} if possible, from
+ * the source otherwise.
+ */
+public class OpenCLProgram implements ComputeProgram {
+	private final static Logger logger = Logger.getLogger(OpenCLProgram.class.getName());
+
+	private final OpenCLContext context;
+	private final ProgramSource source;
+	private CLProgram program;
+	private boolean isReleased;
+	private boolean fp64;
+
+	public OpenCLProgram(OpenCLContext context, ProgramSource source) {
+		this.context = context;
+		this.source = source;
+	}
+
+	public CLProgram getCLProgram() {
+		return program;
+	}
+
+	@Override
+	public void build(boolean fp64) {
+		CLDevice device = ((OpenCLDevice) context.getDevice()).getCLDevice();
+		String key = ProgramBinaryCache.getKey((OpenCLDevice) context.getDevice(), source, fp64);
+		byte[] binary = ProgramBinaryCache.load(key);
+
+		releaseProgram();
+
+		if (binary != null) {
+			try {
+				program = configure(context.getCLContext().createProgram(Collections.singletonMap(device, binary)), device, fp64).build();
+				logger.log(Level.INFO, "Loaded the compiled program " + source + " from the cache");
+			} catch (Exception e) {
+				// e.g. a binary of another build of the same driver version
+				logger.log(Level.WARNING, "Could not use the cached binary of " + source + ", compiling it again: " + e.getMessage());
+
+				releaseProgram();
+				ProgramBinaryCache.remove(key);
+			}
+		}
+
+		if (program == null) {
+			program = configure(context.getCLContext().createProgram(source.getSource()), device, fp64).build();
+			ProgramBinaryCache.store(key, program.getBinaries().get(device));
+		}
+
+		this.fp64 = fp64;
+	}
+
+	private CLProgramConfiguration configure(CLProgram program, CLDevice device, boolean fp64) {
+		CLProgramConfiguration configure = program.prepare();
+
+		if (fp64) {
+			configure.withDefine("FP64");
+
+			if (device.isExtensionAvailable("cl_amd_fp64"))
+				configure.withDefine("AMDFP64");
+		}
+
+		configure.withDefines(source.getDefines());
+		configure.forDevice(device);
+
+		if (source.getDefines().containsKey(ProgramSource.STRICT_MATH))
+			return configure;
+
+		return configure.withOption(CompilerOptions.FAST_RELAXED_MATH);
+	}
+
+	private void releaseProgram() {
+		if (program != null && !program.isReleased())
+			program.release();
+
+		program = null;
+	}
+
+	@Override
+	public ComputeKernel createKernel(String name) {
+		return new OpenCLKernel(context, program.createCLKernel(name), fp64);
+	}
+
+	@Override
+	public void release() {
+		releaseProgram();
+		isReleased = true;
+	}
+
+	@Override
+	public boolean isReleased() {
+		return isReleased;
+	}
+}
@@ -0,0 +1,146 @@
+package de.thiesgerken.fractals.backend.opencl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.thiesgerken.fractals.backend.Backends;
+import de.thiesgerken.fractals.backend.DeviceProbe;
+import de.thiesgerken.fractals.backend.ProgramSource;
+
+/**
+ * Keeps the binaries of built programs in the directory 'programs' of the
+ * cache directory (see {@link Backends#getCacheFile(String)}), so that later
+ * runs do not have to compile them again. A binary is stored under the hash
+ * of the device, its driver version, the precision, the defines and the hash
+ * of the source, so any change to those simply misses the cache.
+ */
+public class ProgramBinaryCache {
+	private final static Logger logger = Logger.getLogger(ProgramBinaryCache.class.getName());
+
+	private static final String DIRECTORY = "programs";
+
+	/**
+	 * The key of a program: the device (including its driver version), the
+	 * precision, the defines and the hash of the source.
+	 */
+	public static String getKey(OpenCLDevice device, ProgramSource source, boolean fp64) {
+		return DeviceProbe.getCacheKey(device) + "/" + (fp64 ? "fp64" : "fp32") + "/" + toString(source.getDefines()) + "/"
+				+ hash(source.getSource());
+	}
+
+	private static String toString(Map<String, String> defines) {
+		StringBuilder sb = new StringBuilder();
+
+		for (Map.Entry<String, String> define : defines.entrySet())
+			sb.append(define.getKey() + "=" + define.getValue() + ";");
+
+		return sb.toString();
+	}
+
+	private static String hash(String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			StringBuilder sb = new StringBuilder();
+
+			for (byte b : digest.digest(text.getBytes("UTF-8")))
+				sb.append(String.format("%02x", b));
+
+			return sb.toString();
+		} catch (Exception e) {
+			// every jvm provides sha-256 and utf-8
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static File getFile(String key) {
+		File dir = Backends.getCacheFile(DIRECTORY);
+
+		if (!dir.isDirectory())
+			dir.mkdirs();
+
+		return new File(dir, hash(key) + ".bin");
+	}
+
+	/**
+	 * Returns the cached binary of the program with the given key, or null if
+	 * there is none.
+	 */
+	public static byte[] load(String key) {
+		File file = getFile(key);
+
+		if (!file.isFile())
+			return null;
+
+		try {
+			byte[] binary = new byte[(int) file.length()];
+			InputStream in = new FileInputStream(file);
+
+			try {
+				int offset = 0;
+
+				while (offset < binary.length) {
+					int read = in.read(binary, offset, binary.length - offset);
+
+					if (read < 0)
+						throw new Exception("unexpected end of file");
+
+					offset += read;
+				}
+			} finally {
+				in.close();
+			}
+
+			return binary;
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Could not read the cached program binary " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the binary of the program with the given key.
+	 */
+	public static void store(String key, byte[] binary) {
+		if (binary == null || binary.length == 0)
+			return;
+
+		File file = getFile(key);
+		File temp = new File(file.getPath() + ".tmp");
+
+		try {
+			OutputStream out = new FileOutputStream(temp);
+
+			try {
+				out.write(binary);
+			} finally {
+				out.close();
+			}
+
+			// other instances must never read a partially written binary
+			if (!temp.renameTo(file)) {
+				file.delete();
+
+				if (!temp.renameTo(file))
+					throw new Exception("could not rename " + temp);
+			}
+		} catch (Exception e) {
+			temp.delete();
+			logger.log(Level.WARNING, "Could not save the program binary " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Removes the binary of the program with the given key, e.g. because the
+	 * driver did not accept it.
+	 */
+	public static void remove(String key) {
+		getFile(key).delete();
+	}
+}
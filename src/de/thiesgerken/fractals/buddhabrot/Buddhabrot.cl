@@ -23,7 +23,31 @@
     typedef float16 fp16;
 #endif
 
+%% DOUBLE_WORD %%
+
+/*
+ * The area argument of the compute kernel: x, y, width and height and, for
+ * the double-word variants (see DoubleWord.cl), the low words of x and y.
+ * The last two values are unused.
+ */
+#ifdef DOUBLE_WORD
+	typedef fp8 area_t;
+#else
+	typedef fp4 area_t;
+#endif
+
+/*
+ * Whether c lies in none of the largest components of the set (which would
+ * produce no orbits), and the orbit of c escapes after [minIterations,
+ * maxIterations) iterations. c is given in double-words for the double-word
+ * variants, the components are checked with its high words.
+ */
+#ifdef DOUBLE_WORD
+inline bool isUsable(const fp4 cw, const int minIterations, const int maxIterations, const fp bailoutSquared) {
+	fp2 c = cw.xz;
+#else
 inline bool isUsable(const fp2 c, const int minIterations, const int maxIterations, const fp bailoutSquared) {
+#endif
     fp cy2 = c.y*c.y;
    
     // Quick rejection check if c is in 2nd order period bulb
@@ -41,6 +65,15 @@ inline bool isUsable(const fp2 c, const int minIterations, const int maxIteratio
     if ((((c.x+0.125)*(c.x+0.125)) + (c.y+0.744)*(c.y+0.744)) < 0.0088) return false;
 
 	int n = 0;
+#ifdef DOUBLE_WORD
+	fp4 z = (fp4) (0);
+
+	while (n < maxIterations && z.x*z.x+z.z*z.z < bailoutSquared) {
+		z = dwcSqr(z);
+		z = (fp4) (dwAdd(z.xy, cw.xy), dwAdd(z.zw, cw.zw));
+		n++;
+	}
+#else
 	fp2 z = (fp2) (0); 
 	
 	while (n < maxIterations && z.x*z.x+z.y*z.y < bailoutSquared) {
@@ -49,6 +82,7 @@ inline bool isUsable(const fp2 c, const int minIterations, const int maxIteratio
 		z.y = aux;
 		n++;
 	}
+#endif
 
     return n < maxIterations && n >= minIterations;
 }
@@ -61,7 +95,7 @@ inline fp nextFloat(mwc64x_state_t *rng) {
 	#endif
 }
 
-kernel void compute(const uint2 seed, int2 size, fp4 area, const int minIterations, const int maxIterations, const fp bailoutSquared, global long* counters) {
+kernel void compute(const uint2 seed, int2 size, area_t area, const int minIterations, const int maxIterations, const fp bailoutSquared, global long* counters) {
 	mwc64x_state_t rng;
    
    	rng.x = seed.x; 
@@ -73,6 +107,31 @@ kernel void compute(const uint2 seed, int2 size, fp4 area, const int minIteratio
 	// pick a random sample (xmin = -2.05, ymin = -1.2, width = 2.65, height = 2.4)
 	// fp2 c = (fp2) (-2.05+nextFloat(&rng)*2.65, -1.2+nextFloat(&rng)*2.4); 
 
+#ifdef DOUBLE_WORD
+	// c and z in double-words, the offsets of the orbit to the corner of the
+	// area are computed in double-words as well before they are rounded
+	fp4 c = (fp4) (dwAddFp(area.s04, nextFloat(&rng)*area.z), dwAddFp(area.s15, nextFloat(&rng)*area.w));
+
+	if (!isUsable(c, minIterations, maxIterations, bailoutSquared))
+		return;
+
+	int n = 0;
+	fp4 z = (fp4) (0);
+
+	while (n < maxIterations && z.x*z.x+z.z*z.z < bailoutSquared) {
+		z = dwcSqr(z);
+		z = (fp4) (dwAdd(z.xy, c.xy), dwAdd(z.zw, c.zw));
+		n++;
+
+		int2 pos;
+
+		pos.x = dwAdd(z.zw, -area.s15).x / area.w * size.x;
+		pos.y = dwAdd(z.xy, -area.s04).x / area.z * size.y;
+
+		if (pos.x >= 0 && pos.x < size.x && pos.y >= 0 && pos.y < size.y)
+			atom_inc(&counters[size.x*pos.y+pos.x]);
+	}
+#else
 	fp2 c = (fp2) (area.x+nextFloat(&rng)*area.z, area.y+nextFloat(&rng)*area.w); 
 
 
@@ -97,6 +156,7 @@ kernel void compute(const uint2 seed, int2 size, fp4 area, const int minIteratio
 		if (pos.x >= 0 && pos.x < size.x && pos.y >= 0 && pos.y < size.y) 
 			atom_inc(&counters[size.x*pos.y+pos.x]);
 	}
+#endif
 }
 
 kernel void getBounds(const int2 size, global long* bounds, global long* counters) {
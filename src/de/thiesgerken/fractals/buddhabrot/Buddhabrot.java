@@ -1,9 +1,5 @@
 package de.thiesgerken.fractals.buddhabrot;
 
-import static com.jogamp.opencl.CLCommandQueue.Mode.PROFILING_MODE;
-import static com.jogamp.opencl.CLEvent.ProfilingCommand.END;
-import static com.jogamp.opencl.CLEvent.ProfilingCommand.START;
-import static com.jogamp.opencl.CLMemory.Mem.*;
 import static java.awt.image.BufferedImage.TYPE_INT_RGB;
 
 import java.awt.image.BufferedImage;
@@ -14,33 +10,42 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.nio.IntBuffer;
-import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.jogamp.opencl.CLBuffer;
-import com.jogamp.opencl.CLContext;
-import com.jogamp.opencl.CLEvent;
-import com.jogamp.opencl.CLEventList;
-import com.jogamp.opencl.CLKernel;
-import com.jogamp.opencl.CLProgram.CompilerOptions;
-
 import de.thiesgerken.fractals.Fractal;
+import de.thiesgerken.fractals.MemoryPlan;
+import de.thiesgerken.fractals.PartRenderer;
+import de.thiesgerken.fractals.backend.ComputeBuffer;
+import de.thiesgerken.fractals.backend.ComputeEvent;
+import de.thiesgerken.fractals.backend.ComputeKernel;
+import de.thiesgerken.fractals.backend.PartPipeline;
+import de.thiesgerken.fractals.backend.ProgramSource;
+import de.thiesgerken.fractals.backend.WorkSizeTuner;
 import de.thiesgerken.fractals.util.Formatter;
 import de.thiesgerken.fractals.util.Rectangle;
+import de.thiesgerken.fractals.util.Resources;
 import de.thiesgerken.fractals.util.Size;
 
-public class Buddhabrot extends Fractal {
+public class Buddhabrot extends Fractal implements PartRenderer {
 	protected final static Logger logger = Logger.getLogger(Buddhabrot.class.getName());
 
+	/* name of the compute kernel for the WorkSizeTuner */
+	private static final String COMPUTE_KERNEL_NAME = "Buddhabrot.compute";
+
 	/* runtime variables */
-	protected CLBuffer<LongBuffer> countBuffer;
-	protected CLBuffer<LongBuffer> boundsBuffer;
-	protected CLKernel computeKernel;
-	protected CLKernel boundsKernel;
-	protected CLKernel paintKernel;
+	protected ComputeBuffer countBuffer;
+	protected ComputeBuffer boundsBuffer;
+	protected ComputeKernel computeKernel;
+	protected ComputeKernel boundsKernel;
+	protected ComputeKernel paintKernel;
+	protected long[] counts;
+	private Random random;
 	protected long min;
 	protected long max;
 
@@ -67,54 +72,51 @@ public class Buddhabrot extends Fractal {
 		overExposure = 1;
 	}
 
-	protected void initCL() throws Exception {
-		if (device == null)
-			throw new Exception("device must not be null");
-
-		if (isInitialized)
-			return;
-
-		logger.log(Level.INFO, "Initializing CL for device " + device.getName());
-
-		context = CLContext.create(device);
-		cl = context.getCL();
-		queue = device.createCommandQueue(PROFILING_MODE);
-		program = context.createProgram(read(getClass().getResourceAsStream("MWC64X.cl")) + "\n" + read(getClass().getResourceAsStream("Buddhabrot.cl")));
+	@Override
+	protected ProgramSource getProgramSource() throws Exception {
+		Map<String, String> defines = new LinkedHashMap<String, String>();
 
-		probe = new CLEventList(1);
+		if (doubleWord) {
+			defines.put("DOUBLE_WORD", "1");
+			defines.put(ProgramSource.STRICT_MATH, "1");
+		}
 
-		isInitialized = true;
-		isCompiled = false;
-		isConfigured = false;
+		return new ProgramSource("Buddhabrot", Resources.read(getClass().getResourceAsStream("MWC64X.cl")) + "\n"
+				+ insertDoubleWords(Resources.read(getClass().getResourceAsStream("Buddhabrot.cl"))), new JavaBuddhabrotKernels(), defines);
 	}
 
-	protected void buildKernel() throws Exception {
-		if (isCompiled)
-			return;
-
-		if (fp64 && !device.isDoubleFPAvailable())
-			throw new Exception("the selected device does not have 64bit floating point support");
-
-		logger.log(Level.INFO, "Compiling kernel for " + (fp64 ? "64" : "32") + "-bit floats");
-
-		configure = program.prepare();
+	@Override
+	protected boolean supportsDoubleWords() {
+		return true;
+	}
 
-		if (fp64) {
-			configure.withDefine("FP64");
+	/**
+	 * The name of the compute kernel for the {@link WorkSizeTuner}.
+	 */
+	private String getComputeKernelName() {
+		return doubleWord ? COMPUTE_KERNEL_NAME + ".dw" : COMPUTE_KERNEL_NAME;
+	}
 
-			if (device.isExtensionAvailable("cl_amd_fp64"))
-				configure.withDefine("AMDFP64");
-		}
+	/**
+	 * The area argument of the compute kernel: x, y, width and height,
+	 * followed by the low words of x and y and two unused values for the
+	 * double-word precisions (see area_t in Buddhabrot.cl).
+	 */
+	private double[] getAreaArgument() {
+		if (!doubleWord)
+			return new double[] { area.getX(), area.getY(), area.getWidth(), area.getHeight() };
 
-		configure.forDevice(device);
-		configure.withOption(CompilerOptions.FAST_RELAXED_MATH).build();
+		double[] x = toDoubleWord(area.getExactX());
+		double[] y = toDoubleWord(area.getExactY());
 
-		computeKernel = program.createCLKernel("compute");
-		boundsKernel = program.createCLKernel("getBounds");
-		paintKernel = program.createCLKernel("paint");
+		return new double[] { x[0], y[0], area.getWidth(), area.getHeight(), x[1], y[1], 0, 0 };
+	}
 
-		isCompiled = true;
-		isConfigured = false;
+	@Override
+	protected void createKernels() throws Exception {
+		computeKernel = program.createKernel("compute");
+		boundsKernel = program.createKernel("getBounds");
+		paintKernel = program.createKernel("paint");
 	}
 
 	protected void setKernelArguments() {
@@ -126,23 +128,24 @@ public class Buddhabrot extends Fractal {
 		if (countBuffer != null && !countBuffer.isReleased())
 			countBuffer.release();
 
-		countBuffer = context.createLongBuffer(size.getWidth() * size.getHeight(), READ_WRITE);
+		countBuffer = context.createLongBuffer(size.getWidth() * size.getHeight());
+		counts = new long[size.getWidth() * size.getHeight()];
 
 		if (boundsBuffer != null && !boundsBuffer.isReleased())
 			boundsBuffer.release();
 
-		boundsBuffer = context.createLongBuffer(size.getHeight() * 2, WRITE_ONLY);
+		boundsBuffer = context.createLongBuffer(size.getHeight() * 2);
 
-		logger.log(Level.INFO, "allocated about " + Formatter.formatSize(countBuffer.getCLSize()) + " of device memory");
+		logger.log(Level.INFO, "allocated about " + Formatter.formatSize(countBuffer.getSize()) + " of device memory");
 
-		setArg(computeKernel.getID(), 1, new int[] { size.getWidth(), size.getHeight() });
-		setArg(computeKernel.getID(), 2, new double[] { area.getX(), area.getY(), area.getWidth(), area.getHeight() });
+		computeKernel.setArg(1, new int[] { size.getWidth(), size.getHeight() });
+		computeKernel.setArg(2, getAreaArgument());
 		computeKernel.setArg(3, minIterations);
 		computeKernel.setArg(4, maxIterations);
-		setArg(computeKernel, 5, bailout * bailout);
+		computeKernel.setArg(5, bailout * bailout);
 		computeKernel.setArg(6, countBuffer);
 
-		setArg(boundsKernel.getID(), 0, new int[] { size.getWidth(), size.getHeight() });
+		boundsKernel.setArg(0, new int[] { size.getWidth(), size.getHeight() });
 		boundsKernel.setArg(1, boundsBuffer);
 		boundsKernel.setArg(2, countBuffer);
 
@@ -152,45 +155,165 @@ public class Buddhabrot extends Fractal {
 		isConfigured = true;
 	}
 
+	/**
+	 * The memory that is needed to calculate (or to paint) the counts.
+	 */
+	private MemoryPlan createMemoryPlan(boolean painting) {
+		long pixels = (long) size.getWidth() * size.getHeight();
+		MemoryPlan plan = new MemoryPlan("the buddhabrot (" + size + " px)");
+
+		if (painting)
+			plan.addHostMemory(4 * pixels).addPartBuffer(4L * size.getWidth());
+		else {
+			if (counts == null || counts.length != pixels)
+				plan.addHostMemory(8 * pixels);
+
+			// the histograms of the java compute kernel
+			plan.addJavaThreadMemory(8 * pixels);
+		}
+
+		return plan.addDeviceBuffer(8 * pixels).addDeviceBuffer(16L * size.getHeight());
+	}
+
 	public void calculate() throws Exception {
-		initCL();
+		createMemoryPlan(false).plan(getAllDevices(), size.getHeight(), 0);
+
+		initContext();
 		buildKernel();
 		setKernelArguments();
+		tuneComputeKernel();
 
 		logger.log(Level.INFO, "Image Parameters: " + printParameters());
 
-		int globalWorkSize = calculateGlobal1DWorkSize(getDesiredPassSize());
-		int localWorkSize = calculateLocal1DWorkSize(getDesiredPassSize());
+		int globalWorkSize = calculateGlobal1DWorkSize(getComputeKernelName(), getDesiredPassSize());
+		int localWorkSize = calculateLocal1DWorkSize(getComputeKernelName(), getDesiredPassSize());
 
 		logger.log(
 				Level.INFO,
 				"Calculating using global worksize = " + Formatter.formatIntBase2(globalWorkSize) + ", local worksize = "
 						+ Formatter.formatIntBase2(localWorkSize));
 
-		queue.putWriteBuffer(countBuffer, true);
+		countBuffer.write(counts, 0, counts.length);
+
+		random = new Random(System.nanoTime());
+
+		if (!coDevices.isEmpty()) {
+			renderOnAllDevices(getPassCount(), 1, 1, getDesiredPassSize(), "passes");
 
-		Random rnd = new Random(System.nanoTime());
+			// the other kernels work on the merged counts
+			countBuffer.write(counts, 0, counts.length);
+			return;
+		}
 
-		for (int i = 0; i < getPassCount(); i++) {
-			setArg(computeKernel.ID, 0, new int[] { rnd.nextInt(), rnd.nextInt() });
+		renderPart(this, 0, getPassCount());
 
-			probe.release();
-			queue.put1DRangeKernel(computeKernel, 0, globalWorkSize, localWorkSize, probe);
-			queue.finish();
+		logger.log(Level.INFO, "Reading back results");
+
+		countBuffer.read(counts, 0, counts.length);
+	}
+
+	@Override
+	public Fractal createHelper() {
+		return new Buddhabrot();
+	}
 
-			CLEvent event = probe.getEvent(0);
-			logger.log(Level.INFO, "Pass " + (i + 1) + " took " + Formatter.formatTime(event.getProfilingInfo(END) - event.getProfilingInfo(START)));
+	@Override
+	protected void copyParametersTo(Fractal other) {
+		super.copyParametersTo(other);
+
+		Buddhabrot buddha = (Buddhabrot) other;
+		buddha.setArea(area);
+		buddha.setMinIterations(minIterations);
+		buddha.setMaxIterations(maxIterations);
+		buddha.setBailout(bailout);
+		buddha.setDesiredPassSize(desiredPassSize);
+		buddha.setPassCount(passCount);
+	}
+
+	@Override
+	public void prepareParts(Fractal target, int maxLength) throws Exception {
+		if (target == this)
+			return;
+
+		initContext();
+		buildKernel();
+		setKernelArguments();
+		tuneComputeKernel();
+
+		// helpers only collect the samples of their own passes
+		Arrays.fill(counts, 0);
+		countBuffer.write(counts, 0, counts.length);
+	}
+
+	/**
+	 * Tunes the local work size of the compute kernel (if necessary). The
+	 * samples of the benchmark go to a small scratch buffer, so they do not
+	 * end up in the counts.
+	 */
+	private void tuneComputeKernel() {
+		if (!WorkSizeTuner.needsTuning(device, getComputeKernelName(), fp64))
+			return;
+
+		ComputeBuffer scratch = context.createLongBuffer(64 * 64);
+
+		try {
+			computeKernel.setArg(0, new int[] { 1, 2 });
+			computeKernel.setArg(1, new int[] { 64, 64 });
+			computeKernel.setArg(6, scratch);
+
+			WorkSizeTuner.tune1D(device, getComputeKernelName(), fp64, computeKernel, Math.min(getDesiredPassSize(), 64 * 1024));
+		} finally {
+			computeKernel.setArg(1, new int[] { size.getWidth(), size.getHeight() });
+			computeKernel.setArg(6, countBuffer);
+			scratch.release();
+		}
+	}
+
+	@Override
+	public long renderPart(Fractal target, int offset, int length) throws Exception {
+		Random rnd = ((Buddhabrot) target).random;
+
+		int globalWorkSize = calculateGlobal1DWorkSize(getComputeKernelName(), getDesiredPassSize());
+		int localWorkSize = calculateLocal1DWorkSize(getComputeKernelName(), getDesiredPassSize());
+		long totalTime = 0;
+
+		for (int i = offset; i < offset + length; i++) {
+			synchronized (rnd) {
+				computeKernel.setArg(0, new int[] { rnd.nextInt(), rnd.nextInt() });
+			}
+
+			long time = computeKernel.run1D(globalWorkSize, localWorkSize);
+			logger.log(Level.INFO, "Pass " + (i + 1) + " took " + Formatter.formatTime(time) + " on " + device.getName());
+			totalTime += time;
 
 			Thread.sleep(5);
 		}
 
-		logger.log(Level.INFO, "Reading back results");
+		return totalTime;
+	}
+
+	/* the passes are run synchronously by renderPart */
+	@Override
+	public long flushParts(Fractal target) throws Exception {
+		return 0;
+	}
+
+	@Override
+	public void finishParts(Fractal target) throws Exception {
+		logger.log(Level.INFO, "Reading back results of " + device.getName());
+
+		countBuffer.read(counts, 0, counts.length);
+
+		if (target != this) {
+			long[] targetCounts = ((Buddhabrot) target).counts;
 
-		queue.putReadBuffer(countBuffer, true);
+			for (int i = 0; i < counts.length; i++)
+				targetCounts[i] += counts[i];
+		}
 	}
 
 	private void findBounds() throws Exception {
-		initCL();
+		initContext();
 		buildKernel();
 		setKernelArguments();
 
@@ -202,21 +325,18 @@ public class Buddhabrot extends Fractal {
 				"Finding row bounds using global worksize = " + Formatter.formatIntBase2(globalWorkSize) + ", local worksize = "
 						+ Formatter.formatIntBase2(localWorkSize));
 
-		probe.release();
-		queue.put1DRangeKernel(boundsKernel, 0, globalWorkSize, localWorkSize, probe);
-		queue.finish();
-
-		CLEvent event = probe.getEvent(0);
-		logger.log(Level.INFO, "Computing min and max of each row took " + Formatter.formatTime(event.getProfilingInfo(END) - event.getProfilingInfo(START)));
+		long time = boundsKernel.run1D(globalWorkSize, localWorkSize);
+		logger.log(Level.INFO, "Computing min and max of each row took " + Formatter.formatTime(time));
 
-		queue.putReadBuffer(boundsBuffer, true);
+		long[] bounds = new long[size.getHeight() * 2];
+		boundsBuffer.read(bounds, 0, bounds.length);
 
 		min = Long.MAX_VALUE;
 		max = 0;
 
 		for (int i = 0; i < size.getHeight(); i++) {
-			long rowMin = boundsBuffer.getBuffer().get(i * 2);
-			long rowMax = boundsBuffer.getBuffer().get(i * 2 + 1);
+			long rowMin = bounds[i * 2];
+			long rowMax = bounds[i * 2 + 1];
 
 			if (rowMin < min)
 				min = rowMin;
@@ -230,7 +350,7 @@ public class Buddhabrot extends Fractal {
 		long[] histogram = new long[(int) (max - min + 1)];
 
 		for (int i = 0; i < size.getHeight() * size.getWidth(); i++)
-			histogram[(int) (countBuffer.getBuffer().get(i) - min)]++;
+			histogram[(int) (counts[i] - min)]++;
 
 		for (int i = 0; i <= max - min; i++) {
 			if (histogram[i] != 0)
@@ -240,7 +360,7 @@ public class Buddhabrot extends Fractal {
 	}
 
 	public void load(String filename, boolean force) throws Exception {
-		initCL();
+		initContext();
 		buildKernel();
 		setKernelArguments();
 
@@ -278,12 +398,14 @@ public class Buddhabrot extends Fractal {
 			}
 
 			for (int i = 0; i < size.getHeight() * size.getWidth(); i++) {
-				countBuffer.getBuffer().put(i, dis.readLong());
+				counts[i] = dis.readLong();
 			}
 		} finally {
 			if (dis != null)
 				dis.close();
 		}
+
+		countBuffer.write(counts, 0, counts.length);
 	}
 
 	protected String printParameters() {
@@ -294,13 +416,13 @@ public class Buddhabrot extends Fractal {
 		sb.append(", size = " + size);
 		sb.append(", area = " + area);
 		sb.append(", bailout = " + bailout);
-		sb.append(", fp64 = " + fp64);
+		sb.append(", precision = " + getPrecision());
 
 		return sb.toString();
 	}
 
 	public void save(String filename) throws Exception {
-		initCL();
+		initContext();
 		buildKernel();
 		setKernelArguments();
 
@@ -322,7 +444,7 @@ public class Buddhabrot extends Fractal {
 			dos.writeDouble(bailout);
 
 			for (int i = 0; i < size.getHeight() * size.getWidth(); i++)
-				dos.writeLong(countBuffer.getBuffer().get(i));
+				dos.writeLong(counts[i]);
 
 		} finally {
 			if (dos != null)
@@ -331,26 +453,21 @@ public class Buddhabrot extends Fractal {
 	}
 
 	public BufferedImage paint() throws Exception {
-		initCL();
+		initContext();
 		buildKernel();
 		setKernelArguments();
 
-		findBounds();
+		int desiredHeight = 0;
 
-		logger.log(Level.INFO, "Painting using overexposure = " + overExposure);
+		if (desiredPaintPartSize > 0)
+			desiredHeight = (desiredPaintPartSize + size.getWidth() - 1) / size.getWidth();
 
-		// calculate part sizes
-		int maxPartSize;
+		int normalPartHeight = createMemoryPlan(true).plan(Collections.singletonList(device), size.getHeight(), desiredHeight);
+		int parts = (size.getHeight() + normalPartHeight - 1) / normalPartHeight;
 
-		if (desiredPaintPartSize <= 0)
-			maxPartSize = size.getHeight() * size.getWidth();
-		else if (desiredPaintPartSize % size.getWidth() == 0)
-			maxPartSize = desiredPaintPartSize;
-		else
-			maxPartSize = desiredPaintPartSize + size.getWidth() - (desiredPaintPartSize % size.getWidth());
+		findBounds();
 
-		int parts = (int) Math.ceil((double) size.getHeight() * size.getWidth() / maxPartSize);
-		int normalPartHeight = maxPartSize / size.getWidth();
+		logger.log(Level.INFO, "Painting using overexposure = " + overExposure);
 
 		BufferedImage image = new BufferedImage(size.getWidth(), size.getHeight(), TYPE_INT_RGB);
 
@@ -359,44 +476,60 @@ public class Buddhabrot extends Fractal {
 			return image;
 		}
 
-		int[] imageData = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
-		CLBuffer<IntBuffer> imageBuffer = context.createIntBuffer(normalPartHeight * size.getWidth(), WRITE_ONLY);
-		logger.log(Level.INFO, "Image parts need " + Formatter.formatSize(countBuffer.getCLSize()) + " of device memory");
+		final int[] imageData = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		final int width = size.getWidth();
+		final ComputeBuffer[] imageBuffers = new ComputeBuffer[parts > 1 ? 2 : 1];
 
-		setArg(paintKernel.getID(), 1, new long[] { min, max });
-		paintKernel.setArg(3, imageBuffer);
+		for (int i = 0; i < imageBuffers.length; i++)
+			imageBuffers[i] = context.createIntBuffer(normalPartHeight * width);
 
-		for (int y = 0; y < parts; y++) {
-			int partHeight = (y == parts - 1 ? size.getHeight() - y * normalPartHeight : normalPartHeight);
+		logger.log(Level.INFO, "Image parts need " + Formatter.formatSize(imageBuffers.length * imageBuffers[0].getSize()) + " of device memory");
 
-			// calculate optimal sizes for the local and global work groups
-			Size localWorkSize = calculateLocal2DWorkSize(new Size(size.getWidth(), partHeight));
-			Size globalWorkSize = calculateGlobal2DWorkSize(new Size(size.getWidth(), partHeight));
+		paintKernel.setArg(1, new long[] { min, max });
 
-			// overwrite the settings for width and area
-			setArg(paintKernel.getID(), 0, new int[] { size.getWidth(), partHeight });
-			paintKernel.setArg(2, normalPartHeight * y);
+		PartPipeline pipeline = new PartPipeline(device.getName(), imageBuffers.length) {
+			@Override
+			protected void enqueue(int slot, int offsetY, int height) {
+				// calculate optimal sizes for the local and global work groups
+				Size localWorkSize = calculateLocal2DWorkSize(new Size(width, height));
+				Size globalWorkSize = calculateGlobal2DWorkSize(new Size(width, height));
 
-			probe.release();
+				// overwrite the settings for width and area
+				paintKernel.setArg(0, new int[] { width, height });
+				paintKernel.setArg(2, offsetY);
+				paintKernel.setArg(3, imageBuffers[slot]);
 
-			queue.put2DRangeKernel(paintKernel, 0, 0, globalWorkSize.getWidth(), globalWorkSize.getHeight(), localWorkSize.getWidth(),
-					localWorkSize.getHeight(), probe);
-			queue.finish();
+				ComputeEvent event = addKernel(paintKernel.enqueue2D(globalWorkSize, localWorkSize, null));
+				addTransfer(imageBuffers[slot].enqueueRead(event));
+			}
 
-			CLEvent event = probe.getEvent(0);
-			logger.log(
-					Level.INFO,
-					"Painting part " + (y + 1) + " of " + parts + " (" + size.getWidth() + "x" + partHeight + " px) took "
-							+ Formatter.formatTime(event.getProfilingInfo(END) - event.getProfilingInfo(START)));
+			@Override
+			protected void collect(int slot, int offsetY, int height) {
+				imageBuffers[slot].copyTo(imageData, width * offsetY, width * height);
+			}
+		};
+
+		try {
+			long time = 0;
+
+			for (int y = 0; y < parts; y++) {
+				int partHeight = (y == parts - 1 ? size.getHeight() - y * normalPartHeight : normalPartHeight);
+
+				logger.log(Level.INFO, "Painting part " + (y + 1) + " of " + parts + " (" + width + "x" + partHeight + " px)");
 
-			logger.log(Level.INFO, "Copying results to image");
+				time += pipeline.submit(y * normalPartHeight, partHeight);
+			}
+
+			time += pipeline.flush();
+			logger.log(Level.INFO, "Painting took " + Formatter.formatTime(time));
+			pipeline.logTimings();
+		} finally {
+			pipeline.release();
 
-			queue.putReadBuffer(imageBuffer, true);
-			imageBuffer.getBuffer().get(imageData, size.getWidth() * normalPartHeight * y, size.getWidth() * partHeight);
-			imageBuffer.getBuffer().rewind();
+			for (ComputeBuffer buffer : imageBuffers)
+				buffer.release();
 		}
 
-		imageBuffer.release();
 		return image;
 	}
 
@@ -416,18 +549,10 @@ public class Buddhabrot extends Fractal {
 		if (boundsKernel != null && !boundsKernel.isReleased())
 			boundsKernel.release();
 
-		if (queue != null && !queue.isReleased())
-			queue.release();
-
-		if (program != null && !program.isReleased())
-			program.release();
-
-		if (context != null && !context.isReleased())
-			context.release();
+		if (paintKernel != null && !paintKernel.isReleased())
+			paintKernel.release();
 
-		isCompiled = false;
-		isConfigured = false;
-		isInitialized = false;
+		releaseContext();
 	}
 
 	public double getBailout() {
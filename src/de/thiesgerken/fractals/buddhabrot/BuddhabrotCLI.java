@@ -4,6 +4,7 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import javax.imageio.ImageIO;
 import de.thiesgerken.commandlineparser.Argument;
+import de.thiesgerken.fractals.Fractal;
 import de.thiesgerken.fractals.FractalCLI;
 
 public class BuddhabrotCLI extends FractalCLI {
@@ -15,8 +16,7 @@ public class BuddhabrotCLI extends FractalCLI {
 
 		buddha = new Buddhabrot();
 
-		buddha.setDevice(deviceArgument.getValue());
-		buddha.setUse64bitFloats(fp64Argument.wasParsed());
+		setDeviceParameters(buddha);
 
 		if (sizeArgument.wasParsed())
 			buddha.setSize(sizeArgument.getValue());
@@ -47,7 +47,17 @@ public class BuddhabrotCLI extends FractalCLI {
 	}
 
 	public Argument[] getArguments() {
-		return new Argument[] { deviceArgument, fp64Argument, sizeArgument };
+		return new Argument[] { deviceArgument, threadsArgument, fp64Argument, precisionArgument, sizeArgument };
+	}
+
+	@Override
+	protected boolean supportsJavaEngine() {
+		return true;
+	}
+
+	@Override
+	protected String[] getPrecisions() {
+		return new String[] { Fractal.FP32, Fractal.FP64, Fractal.DOUBLE_DOUBLE, Fractal.FLOAT_FLOAT };
 	}
 
 	public void initializeArguments() {
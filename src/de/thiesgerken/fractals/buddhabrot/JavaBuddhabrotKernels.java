@@ -0,0 +1,282 @@
+package de.thiesgerken.fractals.buddhabrot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.thiesgerken.fractals.backend.java.JavaKernel;
+import de.thiesgerken.fractals.backend.java.JavaKernel1D;
+import de.thiesgerken.fractals.backend.java.JavaKernel2D;
+import de.thiesgerken.fractals.backend.java.JavaKernelFactory;
+import de.thiesgerken.fractals.util.ParallelRows;
+
+/**
+ * The kernels of Buddhabrot.cl for the java backend. They take the same
+ * arguments as their OpenCL counterparts and use the same layout of the
+ * counters, so data can be saved, loaded and painted regardless of the
+ * backend that computed it. Orbits are always iterated using 64bit floats,
+ * which covers ff as well (dd is not iterated in double-words here, the low
+ * words of the area are ignored).
+ */
+class JavaBuddhabrotKernels implements JavaKernelFactory {
+
+	@Override
+	public JavaKernel createKernel(String name) {
+		if ("compute".equals(name))
+			return new Compute();
+		else if ("getBounds".equals(name))
+			return new Bounds();
+		else if ("paint".equals(name))
+			return new Paint();
+		else
+			return null;
+	}
+
+	/**
+	 * 'compute' kernel. Instead of incrementing the shared counters
+	 * atomically, the items are split into one task per worker thread (every
+	 * task taking every n-th item, which spreads the expensive orbits evenly)
+	 * and each task traces its orbits into a histogram of its own. So there
+	 * are exactly as many histograms as threads, which Buddhabrot plans the
+	 * memory for. These are added to the counters (and cleared) after the
+	 * pass, in horizontal stripes that are distributed over the workers as
+	 * well.
+	 */
+	public static class Compute extends JavaKernel1D {
+		/* rows of the counters that are merged by one task */
+		private static final int STRIPE_HEIGHT = 16;
+
+		private final List<long[]> histograms = new ArrayList<long[]>();
+
+		/* the work items of the launch and the tasks they are split into */
+		private int items, tasks;
+
+		private long seed;
+		private int width, height;
+		private double areaX, areaY, areaWidth, areaHeight;
+		private int minIterations, maxIterations;
+		private double bailoutSquared;
+
+		@Override
+		protected void prepare() {
+			int[] seeds = getInts(0);
+			int[] size = getInts(1);
+			double[] area = getDoubles(2);
+
+			seed = ((long) seeds[0] << 32) ^ (seeds[1] & 0xffffffffL);
+
+			// the histograms of the last pass can only be reused if the size
+			// did not change
+			if (size[0] != width || size[1] != height)
+				histograms.clear();
+
+			width = size[0];
+			height = size[1];
+			areaX = area[0];
+			areaY = area[1];
+			areaWidth = area[2];
+			areaHeight = area[3];
+			minIterations = getInt(3);
+			maxIterations = getInt(4);
+			bailoutSquared = getDouble(5);
+
+			while (histograms.size() < tasks)
+				histograms.add(new long[width * height]);
+		}
+
+		@Override
+		public long run1D(int globalWorkSize, int localWorkSize) {
+			items = globalWorkSize;
+			tasks = getThreadCount();
+
+			return super.run1D(tasks, localWorkSize);
+		}
+
+		/**
+		 * Traces the work items task, task + tasks, task + 2 * tasks, ... into
+		 * the histogram of the task.
+		 */
+		@Override
+		protected void runItem(int task) {
+			long[] histogram = histograms.get(task);
+
+			for (int i = task; i < items; i += tasks)
+				trace(i, histogram);
+		}
+
+		/**
+		 * Traces the orbit of work item i into the histogram.
+		 */
+		private void trace(int i, long[] histogram) {
+			// two random numbers that only depend on the seed and the item
+			long state = seed + (i + 1) * 0x9E3779B97F4A7C15L;
+			long r1 = mix(state);
+			long r2 = mix(state + 0x9E3779B97F4A7C15L);
+
+			double cx = areaX + (r1 >>> 11) * 0x1.0p-53 * areaWidth;
+			double cy = areaY + (r2 >>> 11) * 0x1.0p-53 * areaHeight;
+
+			if (!isUsable(cx, cy))
+				return;
+
+			int n = 0;
+			double x = 0, y = 0;
+
+			while (n < maxIterations && x * x + y * y < bailoutSquared) {
+				double aux = 2 * x * y + cy;
+				x = x * x - y * y + cx;
+				y = aux;
+				n++;
+
+				// same (transposed) mapping as Buddhabrot.cl
+				int posX = (int) ((y - areaY) / areaHeight * width);
+				int posY = (int) ((x - areaX) / areaWidth * height);
+
+				if (posX >= 0 && posX < width && posY >= 0 && posY < height)
+					histogram[width * posY + posX]++;
+			}
+		}
+
+		@Override
+		protected void complete() {
+			final long[] counters = getLongBuffer(6);
+			final long[][] locals = histograms.toArray(new long[histograms.size()][]);
+
+			int stripes = (height + STRIPE_HEIGHT - 1) / STRIPE_HEIGHT;
+
+			forEachRow(stripes, new ParallelRows.RowKernel() {
+				@Override
+				public void computeRow(int stripe) {
+					int start = stripe * STRIPE_HEIGHT * width;
+					int end = Math.min(height, (stripe + 1) * STRIPE_HEIGHT) * width;
+
+					for (long[] histogram : locals) {
+						for (int j = start; j < end; j++) {
+							counters[j] += histogram[j];
+							histogram[j] = 0;
+						}
+					}
+				}
+			});
+		}
+
+		/**
+		 * Port of isUsable in Buddhabrot.cl, whether the orbit of c escapes
+		 * after at least minIterations and less than maxIterations steps.
+		 */
+		private boolean isUsable(double cx, double cy) {
+			double cy2 = cy * cy;
+
+			// period 2 bulb and main cardioid
+			if ((cx + 1.0) * (cx + 1.0) + cy2 < 0.0625)
+				return false;
+
+			double q = (cx - 0.25) * (cx - 0.25) + cy2;
+			if (q * (q + (cx - 0.25)) < 0.25 * cy2)
+				return false;
+
+			// the smaller bulbs left of the period 2 bulb and on top and
+			// bottom of the cardioid
+			if ((cx + 1.309) * (cx + 1.309) + cy2 < 0.00345)
+				return false;
+
+			if ((cx + 0.125) * (cx + 0.125) + (cy - 0.744) * (cy - 0.744) < 0.0088)
+				return false;
+
+			if ((cx + 0.125) * (cx + 0.125) + (cy + 0.744) * (cy + 0.744) < 0.0088)
+				return false;
+
+			int n = 0;
+			double x = 0, y = 0;
+
+			while (n < maxIterations && x * x + y * y < bailoutSquared) {
+				double aux = 2 * x * y + cy;
+				x = x * x - y * y + cx;
+				y = aux;
+				n++;
+			}
+
+			return n < maxIterations && n >= minIterations;
+		}
+
+		/**
+		 * Finalizer of SplitMix64, which turns a counter into a well mixed
+		 * random number.
+		 */
+		private static long mix(long z) {
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+
+		@Override
+		public void release() {
+			histograms.clear();
+			width = height = 0;
+
+			super.release();
+		}
+	}
+
+	/**
+	 * 'getBounds' kernel, the minimum and maximum of each row.
+	 */
+	public static class Bounds extends JavaKernel1D {
+		@Override
+		protected void runItem(int i) {
+			int[] size = getInts(0);
+
+			if (i >= size[1])
+				return;
+
+			long[] bounds = getLongBuffer(1);
+			long[] counters = getLongBuffer(2);
+
+			long min = Long.MAX_VALUE;
+			long max = 0;
+
+			for (int x = 0; x < size[0]; x++) {
+				long value = counters[i * size[0] + x];
+
+				if (value < min)
+					min = value;
+
+				if (value > max)
+					max = value;
+			}
+
+			bounds[i * 2] = min;
+			bounds[i * 2 + 1] = max;
+		}
+	}
+
+	/**
+	 * 'paint' kernel, maps the counters linearly to gray values.
+	 */
+	public static class Paint extends JavaKernel2D {
+		@Override
+		protected void runRow(int y) {
+			int[] size = getInts(0);
+
+			if (y >= size[1])
+				return;
+
+			long[] bounds = getLongs(1);
+			int offsetY = getInt(2);
+			int[] image = getIntBuffer(3);
+			long[] counters = getLongBuffer(4);
+			int overExposure = getInt(5);
+
+			for (int x = 0; x < size[0]; x++) {
+				long count = counters[(y + offsetY) * size[0] + x];
+				int value = (int) ((double) (count - bounds[0]) / (bounds[1] - bounds[0]) * 255);
+
+				value *= overExposure;
+
+				if (value > 255)
+					value = 255;
+
+				image[y * size[0] + x] = value | value << 8 | value << 16;
+			}
+		}
+	}
+}
@@ -18,6 +18,7 @@ import de.thiesgerken.commandlineparser.CommandLineParser;
 import de.thiesgerken.commandlineparser.ParseException;
 import de.thiesgerken.commandlineparser.ValueArgument;
 import de.thiesgerken.fractals.buddhabrot.BuddhabrotCLI;
+import de.thiesgerken.fractals.multibrot.MultibrotBenchmarkCLI;
 import de.thiesgerken.fractals.multibrot.MultibrotCLI;
 import de.thiesgerken.fractals.newton.NewtonCLI;
 import de.thiesgerken.fractals.util.palettes.Palette;
@@ -29,6 +30,7 @@ public class Main {
 	private static Command multibrotCommand;
 	private static Command buddhabrotCommand;
 	private static Command newtonCommand;
+	private static Command benchmarkCommand;
 
 	private static Command helpCommand;
 	private static Command infoCommand;
@@ -40,6 +42,7 @@ public class Main {
 	private static MultibrotCLI multibrotCLI;
 	private static BuddhabrotCLI buddhabrotCLI;
 	private static NewtonCLI newtonCLI;
+	private static MultibrotBenchmarkCLI benchmarkCLI;
 
 	public static final String VERSION = "0.1";
 	public static final String YEAR = "2013";
@@ -71,6 +74,7 @@ public class Main {
 		multibrotCLI = new MultibrotCLI();
 		buddhabrotCLI = new BuddhabrotCLI();
 		newtonCLI = new NewtonCLI();
+		benchmarkCLI = new MultibrotBenchmarkCLI();
 
 		parser = new CommandLineParser();
 
@@ -78,6 +82,7 @@ public class Main {
 		multibrotCommand = new Command("multibrot", "creates fractals similar to the popular mandelbrot fractal.");
 		buddhabrotCommand = new Command("buddhabrot", "(Experimental) creates buddhabrot images.");
 		newtonCommand = new Command("newton", "(Experimental) creates newton fractals.");
+		benchmarkCommand = new Command("benchmark", "compares the throughput of the java multibrot kernels.");
 
 		infoCommand = new Command("clinfo", "displays information about the opencl runtime environment, including available opencl-capable devices.");
 		listPalettesCommand = new Command("listpalettes", "displays a list of all built-in palettes.");
@@ -87,6 +92,7 @@ public class Main {
 		multibrotCLI.initializeArguments();
 		buddhabrotCLI.initializeArguments();
 		newtonCLI.initializeArguments();
+		benchmarkCLI.initializeArguments();
 
 		parser.putCommand(helpCommand, null);
 		parser.putCommand(listPalettesCommand, null);
@@ -95,6 +101,7 @@ public class Main {
 		parser.putCommand(multibrotCommand, multibrotCLI.getArguments());
 		parser.putCommand(buddhabrotCommand, buddhabrotCLI.getArguments());
 		parser.putCommand(newtonCommand, newtonCLI.getArguments());
+		parser.putCommand(benchmarkCommand, benchmarkCLI.getArguments());
 		
 		try {
 			parser.parse(args);
@@ -115,6 +122,8 @@ public class Main {
 			buddhabrotCLI.doStuff();
 		else if (newtonCommand.wasParsed())
 			newtonCLI.doStuff();
+		else if (benchmarkCommand.wasParsed())
+			benchmarkCLI.doStuff();
 	}
 
 	private static void initializeArguments() {
@@ -227,7 +236,7 @@ public class Main {
 		out.println("Usage: jfractals (command) [arguments].\n\nAvailable commands:");
 		out.println(parser.listCommands(CONSOLEWIDTH));
 
-		for (Command cmd : new Command[] { null, helpCommand, multibrotCommand, buddhabrotCommand, newtonCommand, infoCommand }) {
+		for (Command cmd : new Command[] { null, helpCommand, multibrotCommand, buddhabrotCommand, newtonCommand, benchmarkCommand, infoCommand }) {
 			if (parser.getArguments(cmd).size() == 0)
 				continue;
 
@@ -0,0 +1,187 @@
+package de.thiesgerken.fractals.multibrot;
+
+/**
+ * A complex number whose parts are double-words, i.e. unevaluated sums hi +
+ * lo of two doubles, for the double-word iteration of {@link JavaMultibrot}
+ * (see DOUBLE_WORD in Multibrot.cl, which uses the same algorithms). The
+ * operations change the number itself, so that iterating does not allocate.
+ * The exact products of the OpenCL version (fma) are computed by Dekker's
+ * splitting here.
+ */
+public class DoubleWordComplex {
+	/* 2^27 + 1, splits a double into two halves of 26 bits */
+	private static final double SPLITTER = 134217729;
+
+	public double reHi, reLo, imHi, imLo;
+
+	/* the result of the last operation on double-words */
+	private double hi, lo;
+
+	public DoubleWordComplex(double reHi, double reLo, double imHi, double imLo) {
+		this.reHi = reHi;
+		this.reLo = reLo;
+		this.imHi = imHi;
+		this.imLo = imLo;
+	}
+
+	/**
+	 * The error of s = a + b, i.e. a + b - s.
+	 */
+	private static double twoSumError(double a, double b, double s) {
+		double t = s - a;
+		return (a - (s - t)) + (b - t);
+	}
+
+	/**
+	 * The error of p = a * b, i.e. a * b - p.
+	 */
+	private static double twoProdError(double a, double b, double p) {
+		double t = SPLITTER * a;
+		double aHi = t - (t - a);
+		double aLo = a - aHi;
+
+		t = SPLITTER * b;
+		double bHi = t - (t - b);
+		double bLo = b - bHi;
+
+		return ((aHi * bHi - p) + aHi * bLo + aLo * bHi) + aLo * bLo;
+	}
+
+	/* hi + lo = s + e for |s| >= |e| */
+	private void fastTwoSum(double s, double e) {
+		hi = s + e;
+		lo = e - (hi - s);
+	}
+
+	private void add(double aHi, double aLo, double bHi, double bLo) {
+		double s = aHi + bHi;
+		double sErr = twoSumError(aHi, bHi, s);
+		double t = aLo + bLo;
+		double tErr = twoSumError(aLo, bLo, t);
+
+		fastTwoSum(s, sErr + t);
+		fastTwoSum(hi, tErr + lo);
+	}
+
+	private void multiply(double aHi, double aLo, double bHi, double bLo) {
+		double p = aHi * bHi;
+
+		fastTwoSum(p, twoProdError(aHi, bHi, p) + (aLo * bHi + (aHi * bLo + aLo * bLo)));
+	}
+
+	private void multiply(double aHi, double aLo, double b) {
+		double p = aHi * b;
+
+		fastTwoSum(p, aLo * b + twoProdError(aHi, b, p));
+	}
+
+	private void square(double aHi, double aLo) {
+		double p = aHi * aHi;
+
+		fastTwoSum(p, twoProdError(aHi, aHi, p) + (2 * aHi * aLo + aLo * aLo));
+	}
+
+	private void divide(double aHi, double aLo, double bHi, double bLo) {
+		double t = aHi / bHi;
+
+		multiply(bHi, bLo, t);
+		fastTwoSum(t, ((aHi - hi) + (aLo - lo)) / bHi);
+	}
+
+	public void add(DoubleWordComplex c) {
+		add(reHi, reLo, c.reHi, c.reLo);
+		reHi = hi;
+		reLo = lo;
+
+		add(imHi, imLo, c.imHi, c.imLo);
+		imHi = hi;
+		imLo = lo;
+	}
+
+	public void square() {
+		square(reHi, reLo);
+		double xHi = hi, xLo = lo;
+
+		square(imHi, imLo);
+		add(xHi, xLo, -hi, -lo);
+		xHi = hi;
+		xLo = lo;
+
+		multiply(reHi, reLo, imHi, imLo);
+		imHi = 2 * hi;
+		imLo = 2 * lo;
+		reHi = xHi;
+		reLo = xLo;
+	}
+
+	/**
+	 * Multiplies by the number with the given parts.
+	 */
+	private void multiplyBy(double bReHi, double bReLo, double bImHi, double bImLo) {
+		multiply(reHi, reLo, bReHi, bReLo);
+		double xHi = hi, xLo = lo;
+
+		multiply(imHi, imLo, bImHi, bImLo);
+		add(xHi, xLo, -hi, -lo);
+		xHi = hi;
+		xLo = lo;
+
+		multiply(reHi, reLo, bImHi, bImLo);
+		double yHi = hi, yLo = lo;
+
+		multiply(imHi, imLo, bReHi, bReLo);
+		add(yHi, yLo, hi, lo);
+
+		reHi = xHi;
+		reLo = xLo;
+		imHi = hi;
+		imLo = lo;
+	}
+
+	/**
+	 * Replaces the number (which must not be zero) by its reciprocal.
+	 */
+	public void invert() {
+		square(reHi, reLo);
+		double dHi = hi, dLo = lo;
+
+		square(imHi, imLo);
+		add(dHi, dLo, hi, lo);
+		dHi = hi;
+		dLo = lo;
+
+		divide(reHi, reLo, dHi, dLo);
+		reHi = hi;
+		reLo = lo;
+
+		divide(imHi, imLo, dHi, dLo);
+		imHi = -hi;
+		imLo = -lo;
+	}
+
+	/**
+	 * Raises the number to the power k >= 1 by repeated squaring like
+	 * cpowi() in Multibrot.cl.
+	 */
+	public void pow(int k) {
+		double zReHi = reHi, zReLo = reLo, zImHi = imHi, zImLo = imLo;
+
+		for (int bit = 30 - Integer.numberOfLeadingZeros(k); bit >= 0; bit--) {
+			square();
+
+			if (((k >> bit) & 1) != 0)
+				multiplyBy(zReHi, zReLo, zImHi, zImLo);
+		}
+	}
+
+	public boolean isZero() {
+		return reHi == 0 && imHi == 0;
+	}
+
+	public void set(double reHi, double reLo, double imHi, double imLo) {
+		this.reHi = reHi;
+		this.reLo = reLo;
+		this.imHi = imHi;
+		this.imLo = imLo;
+	}
+}
@@ -0,0 +1,340 @@
+package de.thiesgerken.fractals.multibrot;
+
+import de.thiesgerken.fractals.util.Rectangle;
+
+/**
+ * Certifies whole tiles of a part of an image as interior by iterating the
+ * rectangle of all their points with interval arithmetic (widened by the
+ * rounding errors, so that the boxes are guaranteed to contain the orbits of
+ * all points).
+ * Once the box of an iteration lies inside the box of an earlier one, the
+ * orbits of all points stay inside the union of the boxes in between, so if
+ * those are inside the bailout circle, no point of the tile ever escapes
+ * and the tile is filled as interior without computing its pixels.
+ *
+ * A tile whose box is outside the bailout circle at some iteration is proven
+ * to escape. Its pixels still have to be computed for their smoothed counts,
+ * but it is not split any further. All other tiles are split recursively
+ * down to single pixels, pixels that remain uncertain are computed by
+ * {@link #compute(int[], int)} (given as their index y * width + x inside of
+ * the part).
+ *
+ * Only integer exponents k >= 2 are supported, see
+ * {@link #isSupported(double)}.
+ */
+public abstract class IntervalCertification {
+	/* size of the tiles the part is split into first */
+	private static final int TILE_SIZE = 64;
+
+	/* bound of the relative rounding errors of a step, see step() */
+	private static final double ROUNDING_ERROR = 0x1p-48;
+
+	private static final int UNKNOWN = 0;
+	private static final int INTERIOR = 1;
+	private static final int EXTERIOR = 2;
+
+	private final int width;
+	private final int height;
+	private final Rectangle area;
+	private final int maxIterations;
+	private final double bailoutSquared;
+	private final int exponent;
+	private final boolean invert;
+	private final int[] points;
+	private int count;
+	private long interiorPixels;
+	private long exteriorPixels;
+
+	/**
+	 * Certification of a part of width x height pixels that shows the given
+	 * area.
+	 */
+	public IntervalCertification(int width, int height, Rectangle area, int maxIterations, double bailoutSquared, double exponent, boolean invert) {
+		this.width = width;
+		this.height = height;
+		this.area = area;
+		this.maxIterations = maxIterations;
+		this.bailoutSquared = bailoutSquared;
+		this.exponent = (int) exponent;
+		this.invert = invert;
+		this.points = new int[width * height];
+	}
+
+	public static boolean isSupported(double exponent) {
+		return exponent >= 2 && exponent == Math.floor(exponent);
+	}
+
+	/**
+	 * Computes the first count pixels of points and stores their values.
+	 * Returns the time spent by the kernel in ns.
+	 */
+	protected abstract long compute(int[] points, int count) throws Exception;
+
+	/**
+	 * Stores the value of an interior pixel for the given pixel.
+	 */
+	protected abstract void fillInterior(int index);
+
+	/**
+	 * Certifies all tiles of the part and computes the remaining pixels.
+	 * Returns the time spent by the kernel in ns.
+	 */
+	public long run() throws Exception {
+		count = 0;
+
+		for (int y0 = 0; y0 < height; y0 += TILE_SIZE)
+			for (int x0 = 0; x0 < width; x0 += TILE_SIZE)
+				certify(x0, y0, Math.min(x0 + TILE_SIZE, width) - 1, Math.min(y0 + TILE_SIZE, height) - 1);
+
+		return count > 0 ? compute(points, count) : 0;
+	}
+
+	/**
+	 * Certifies the pixels [x0, x1] x [y0, y1] (or parts of it).
+	 */
+	private void certify(int x0, int y0, int x1, int y1) {
+		int result = certify(getRe(x0 - 0.5), getIm(y0 - 0.5), getRe(x1 + 0.5), getIm(y1 + 0.5));
+
+		if (result == INTERIOR) {
+			for (int y = y0; y <= y1; y++)
+				for (int x = x0; x <= x1; x++)
+					fillInterior(y * width + x);
+
+			interiorPixels += (long) (x1 - x0 + 1) * (y1 - y0 + 1);
+		} else if (result == EXTERIOR || (x0 == x1 && y0 == y1)) {
+			for (int y = y0; y <= y1; y++)
+				for (int x = x0; x <= x1; x++)
+					points[count++] = y * width + x;
+
+			if (result == EXTERIOR)
+				exteriorPixels += (long) (x1 - x0 + 1) * (y1 - y0 + 1);
+		} else {
+			int mx = (x0 + x1) / 2;
+			int my = (y0 + y1) / 2;
+
+			certify(x0, y0, mx, my);
+
+			if (mx < x1)
+				certify(mx + 1, y0, x1, my);
+
+			if (my < y1)
+				certify(x0, my + 1, mx, y1);
+
+			if (mx < x1 && my < y1)
+				certify(mx + 1, my + 1, x1, y1);
+		}
+	}
+
+	/* the points of the area as in the kernels, positions are in pixels */
+
+	private double getRe(double x) {
+		return area.getX() + area.getWidth() * x / width;
+	}
+
+	private double getIm(double y) {
+		return area.getY() + area.getHeight() * y / height;
+	}
+
+	/**
+	 * Iterates the box [re0, re1] x [im0, im1] (whose corners may be given in
+	 * any order).
+	 */
+	private int certify(double re0, double im0, double re1, double im1) {
+		// widen the box, the kernels might round the points differently
+		double cxLo = Math.nextDown(Math.min(re0, re1));
+		double cxHi = Math.nextUp(Math.max(re0, re1));
+		double cyLo = Math.nextDown(Math.min(im0, im1));
+		double cyHi = Math.nextUp(Math.max(im0, im1));
+
+		if (invert) {
+			// c = 1/c = conj(c) / |c|^2, which is unbounded if the box
+			// contains the origin
+			if (cxLo <= 0 && cxHi >= 0 && cyLo <= 0 && cyHi >= 0)
+				return UNKNOWN;
+
+			double aLo = addLo(sqrLo(cxLo, cxHi), sqrLo(cyLo, cyHi));
+			double aHi = addHi(sqrHi(cxLo, cxHi), sqrHi(cyLo, cyHi));
+
+			double xLo = divLo(cxLo, cxHi, aLo, aHi);
+			double xHi = divHi(cxLo, cxHi, aLo, aHi);
+			double yLo = divLo(-cyHi, -cyLo, aLo, aHi);
+			double yHi = divHi(-cyHi, -cyLo, aLo, aHi);
+
+			cxLo = xLo;
+			cxHi = xHi;
+			cyLo = yLo;
+			cyHi = yHi;
+		}
+
+		double[] c = new double[] { cxLo, cxHi, cyLo, cyHi };
+		double[] z = new double[4];
+		double[] saved = new double[4];
+		int limit = 1;
+
+		for (int n = 1; n <= maxIterations; n++) {
+			step(z, c);
+
+			if (Double.isNaN(z[0] + z[1] + z[2] + z[3]))
+				return UNKNOWN;
+
+			if (getMinAbsSquared(z) >= bailoutSquared)
+				return EXTERIOR;
+
+			if (getMaxAbsSquared(z) >= bailoutSquared)
+				return UNKNOWN;
+
+			// inside an earlier box: all later boxes are inside the
+			// (bounded) boxes after it
+			if (contains(saved, z))
+				return INTERIOR;
+
+			if (n == limit) {
+				System.arraycopy(z, 0, saved, 0, 4);
+				limit <<= 1;
+			}
+		}
+
+		return UNKNOWN;
+	}
+
+	/**
+	 * Replaces the box z by a box that contains z^k + c for all of its
+	 * points.
+	 */
+	private void step(double[] z, double[] c) {
+		double zxLo = z[0], zxHi = z[1], zyLo = z[2], zyHi = z[3];
+
+		if (exponent == 2) {
+			// z^2 + c = (x^2 - y^2 + cx, 2xy + cy), computed with rounding to
+			// nearest and widened by a bound of the rounding errors afterwards,
+			// which is much cheaper than rounding every operation outwards: all
+			// intermediate results are below m = |x|^2 + |y|^2 + |c| and there
+			// are at most four operations on the way to each bound, each of
+			// which is off by at most 2^-53 m.
+			double x2Lo = zxLo <= 0 && zxHi >= 0 ? 0 : min(zxLo * zxLo, zxHi * zxHi), x2Hi = max(zxLo * zxLo, zxHi * zxHi);
+			double y2Lo = zyLo <= 0 && zyHi >= 0 ? 0 : min(zyLo * zyLo, zyHi * zyHi), y2Hi = max(zyLo * zyLo, zyHi * zyHi);
+			double p1 = zxLo * zyLo, p2 = zxLo * zyHi, p3 = zxHi * zyLo, p4 = zxHi * zyHi;
+			double error = (x2Hi + y2Hi + max(-c[0], c[1]) + max(-c[2], c[3])) * ROUNDING_ERROR + Double.MIN_NORMAL;
+
+			z[0] = x2Lo - y2Hi + c[0] - error;
+			z[1] = x2Hi - y2Lo + c[1] + error;
+			z[2] = 2 * min(min(p1, p2), min(p3, p4)) + c[2] - error;
+			z[3] = 2 * max(max(p1, p2), max(p3, p4)) + c[3] + error;
+			return;
+		}
+
+		double xLo = zxLo, xHi = zxHi, yLo = zyLo, yHi = zyHi;
+
+		for (int i = 1; i < exponent; i++) {
+			// (x + iy) * z = (x zx - y zy, x zy + y zx), rounded outwards
+			double rLo = subLo(mulLo(xLo, xHi, zxLo, zxHi), mulHi(yLo, yHi, zyLo, zyHi));
+			double rHi = subHi(mulHi(xLo, xHi, zxLo, zxHi), mulLo(yLo, yHi, zyLo, zyHi));
+			double iLo = addLo(mulLo(xLo, xHi, zyLo, zyHi), mulLo(yLo, yHi, zxLo, zxHi));
+			double iHi = addHi(mulHi(xLo, xHi, zyLo, zyHi), mulHi(yLo, yHi, zxLo, zxHi));
+
+			xLo = rLo;
+			xHi = rHi;
+			yLo = iLo;
+			yHi = iHi;
+		}
+
+		z[0] = addLo(xLo, c[0]);
+		z[1] = addHi(xHi, c[1]);
+		z[2] = addLo(yLo, c[2]);
+		z[3] = addHi(yHi, c[3]);
+	}
+
+	private static boolean contains(double[] outer, double[] inner) {
+		return inner[0] >= outer[0] && inner[1] <= outer[1] && inner[2] >= outer[2] && inner[3] <= outer[3];
+	}
+
+	/* bounds of |z|^2 over a box, the three operations are off by less than
+	 * 2^-51 |z|^2 in total */
+
+	private static double getMinAbsSquared(double[] z) {
+		double x = z[0] > 0 ? z[0] : (z[1] < 0 ? -z[1] : 0);
+		double y = z[2] > 0 ? z[2] : (z[3] < 0 ? -z[3] : 0);
+
+		return (x * x + y * y) * (1 - ROUNDING_ERROR);
+	}
+
+	private static double getMaxAbsSquared(double[] z) {
+		double x = max(-z[0], z[1]);
+		double y = max(-z[2], z[3]);
+
+		return (x * x + y * y) * (1 + ROUNDING_ERROR);
+	}
+
+	/* interval operations, bounds are rounded outwards */
+
+	private static double addLo(double a, double b) {
+		return Math.nextDown(a + b);
+	}
+
+	private static double addHi(double a, double b) {
+		return Math.nextUp(a + b);
+	}
+
+	private static double subLo(double a, double b) {
+		return Math.nextDown(a - b);
+	}
+
+	private static double subHi(double a, double b) {
+		return Math.nextUp(a - b);
+	}
+
+	private static double mulLo(double aLo, double aHi, double bLo, double bHi) {
+		return Math.nextDown(min(min(aLo * bLo, aLo * bHi), min(aHi * bLo, aHi * bHi)));
+	}
+
+	private static double mulHi(double aLo, double aHi, double bLo, double bHi) {
+		return Math.nextUp(max(max(aLo * bLo, aLo * bHi), max(aHi * bLo, aHi * bHi)));
+	}
+
+	private static double sqrLo(double lo, double hi) {
+		if (lo <= 0 && hi >= 0)
+			return 0;
+
+		return Math.nextDown(min(lo * lo, hi * hi));
+	}
+
+	private static double sqrHi(double lo, double hi) {
+		return Math.nextUp(max(lo * lo, hi * hi));
+	}
+
+	/* a / b for intervals b > 0 */
+
+	private static double divLo(double aLo, double aHi, double bLo, double bHi) {
+		return Math.nextDown(min(min(aLo / bLo, aLo / bHi), min(aHi / bLo, aHi / bHi)));
+	}
+
+	private static double divHi(double aLo, double aHi, double bLo, double bHi) {
+		return Math.nextUp(max(max(aLo / bLo, aLo / bHi), max(aHi / bLo, aHi / bHi)));
+	}
+
+	/* without the special cases of Math.min and Math.max, NaNs are checked
+	 * once per iteration */
+
+	private static double min(double a, double b) {
+		return a < b ? a : b;
+	}
+
+	private static double max(double a, double b) {
+		return a > b ? a : b;
+	}
+
+	/**
+	 * The amount of pixels that have been proven to be in the set.
+	 */
+	public long getInteriorPixels() {
+		return interiorPixels;
+	}
+
+	/**
+	 * The amount of pixels that have been proven to escape (but have been
+	 * computed nevertheless).
+	 */
+	public long getExteriorPixels() {
+		return exteriorPixels;
+	}
+}
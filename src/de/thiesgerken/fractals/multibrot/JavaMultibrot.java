@@ -0,0 +1,1121 @@
+package de.thiesgerken.fractals.multibrot;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.thiesgerken.fractals.util.Size;
+
+/**
+ * Java port of Multibrot.cl and of the kernels in MultibrotFast.cl and
+ * MultibrotQuality.cl (see {@link JavaMultibrotKernels}). The kernels work on
+ * whole rows: first all subpixels of a row are iterated (either one after
+ * another or interleaved by {@link JavaMultibrotLanes}), then they are
+ * combined into colors or counts.
+ */
+public class JavaMultibrot {
+	private final int width;
+	private final int height;
+	private final double areaX;
+	private final double areaY;
+	private final double pixelWidth;
+	private final double pixelHeight;
+	private final double areaXLow;
+	private final double areaYLow;
+	private final int left;
+	private final int top;
+	private final int maxIterations;
+	private final double bailoutSquared;
+	private final double exponent;
+	private final boolean invert;
+	private final int samplesPerPixel;
+	private final double[] sampleOffsets;
+	private final double periodicityTolerance;
+	private final boolean fp64;
+	private final JavaMultibrotLanes lanes;
+	private final AtomicLong periodicPixels;
+
+	/*
+	 * computes non-integer powers like before the polar form (acos of the
+	 * cartesian z and one log, exp, sqrt, sin and cos), as a reference for the
+	 * benchmark (64bit floats only)
+	 */
+	private boolean cartesianPowers;
+
+	/* block size of the unrolled iteration of the standard set, off if <= 1 */
+	private int unroll;
+
+	/*
+	 * whether the points and orbits are double-words (see DOUBLE_WORD in
+	 * Multibrot.cl)
+	 */
+	private boolean doubleWord;
+
+	/*
+	 * the reference orbit and its series approximation for deep zooms (see
+	 * iteratePerturbed() in Multibrot.cl), null for iterating c itself
+	 */
+	private double[] orbit;
+	private int orbitLength;
+	private double[] series;
+	private int skip;
+	private final AtomicLong rebasedSamples = new AtomicLong();
+
+	/**
+	 * Renders a part of the given size of an image, area is given like the
+	 * area argument of the kernels (see area_t in Multibrot.cl).
+	 */
+	public JavaMultibrot(Size size, double[] area, int maxIterations, double bailoutSquared, double exponent, boolean invert, Size superSampling,
+			double[] sampleOffsets, double periodicityTolerance, boolean useLanes, boolean fp64) {
+		this.width = size.getWidth();
+		this.height = size.getHeight();
+		this.areaX = area[0];
+		this.areaY = area[1];
+		this.pixelWidth = area[2];
+		this.pixelHeight = area[3];
+		this.areaXLow = area[4];
+		this.areaYLow = area[5];
+		this.left = (int) area[6];
+		this.top = (int) area[7];
+		this.maxIterations = maxIterations;
+		this.bailoutSquared = bailoutSquared;
+		this.exponent = exponent;
+		this.invert = invert;
+		this.samplesPerPixel = superSampling.getWidth() * superSampling.getHeight();
+		this.sampleOffsets = sampleOffsets;
+		this.periodicityTolerance = periodicityTolerance;
+		this.periodicPixels = new AtomicLong();
+		this.fp64 = fp64;
+		this.lanes = useLanes ? new JavaMultibrotLanes(this, fp64) : null;
+	}
+
+	/**
+	 * Performs a check on a point without having to iterate
+	 */
+	public static boolean fastCheck(double cx, double cy) {
+		double cy2 = cy * cy;
+
+		// Quick rejection check if c is in 2nd order period bulb
+		if ((cx + 1.0) * (cx + 1.0) + cy2 < 0.0625)
+			return true;
+
+		// Quick rejection check if c is in main cardioid
+		double q = (cx - 0.25) * (cx - 0.25) + cy2;
+		if (q * (q + (cx - 0.25)) < 0.25 * cy2)
+			return true;
+
+		// test for the smaller bulb left of the period-2 bulb
+		if (((cx + 1.309) * (cx + 1.309)) + cy * cy < 0.00345)
+			return true;
+
+		// check for the smaller bulbs on top and bottom of the cardioid
+		if (((cx + 0.125) * (cx + 0.125)) + (cy - 0.744) * (cy - 0.744) < 0.0088)
+			return true;
+		if (((cx + 0.125) * (cx + 0.125)) + (cy + 0.744) * (cy + 0.744) < 0.0088)
+			return true;
+
+		return false;
+	}
+
+	/**
+	 * Quick rejection for integer exponents k >= 3: whether c is in the
+	 * largest disc around 0 inside the main component, see fastCheckDisc() in
+	 * Multibrot.cl.
+	 */
+	public static boolean fastCheckDisc(double cx, double cy, int k) {
+		double radius = Math.pow(k, -1.0 / (k - 1)) * (1 - 1.0 / k);
+
+		return cx * cx + cy * cy < radius * radius;
+	}
+
+	/**
+	 * Whether z^k+c has an attracting cycle of period 1 or 2 near the orbit
+	 * point z, see hasAttractingCycle() in Multibrot.cl.
+	 */
+	public static boolean hasAttractingCycle(double cx, double cy, double zx, double zy, int k) {
+		double[] a = new double[2];
+		double[] b = new double[2];
+
+		for (int i = 0; i < 8; i++) {
+			pow(zx, zy, k - 1, a);
+			double wx = a[0] * zx - a[1] * zy + cx;
+			double wy = a[0] * zy + a[1] * zx + cy;
+			pow(wx, wy, k - 1, b);
+
+			// the multiplier m = k^2 a b and f(f(z)) - z = b w + c - z
+			double mx = k * k * (a[0] * b[0] - a[1] * b[1]);
+			double my = k * k * (a[0] * b[1] + a[1] * b[0]);
+			double fx = b[0] * wx - b[1] * wy + cx - zx;
+			double fy = b[0] * wy + b[1] * wx + cy - zy;
+
+			// step = (f(f(z)) - z) / (m - 1)
+			double d = (mx - 1) * (mx - 1) + my * my;
+			double stepX = (fx * (mx - 1) + fy * my) / d;
+			double stepY = (fy * (mx - 1) - fx * my) / d;
+
+			zx -= stepX;
+			zy -= stepY;
+
+			if (stepX * stepX + stepY * stepY < 1E-10) {
+				pow(zx, zy, k - 1, a);
+				pow(a[0] * zx - a[1] * zy + cx, a[0] * zy + a[1] * zx + cy, k - 1, b);
+
+				mx = k * k * (a[0] * b[0] - a[1] * b[1]);
+				my = k * k * (a[0] * b[1] + a[1] * b[0]);
+
+				return mx * mx + my * my < 0.9;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Stores z^k (k >= 1) in result, by repeated squaring like cpowi() in
+	 * Multibrot.cl.
+	 */
+	private static void pow(double zx, double zy, int k, double[] result) {
+		double x = zx;
+		double y = zy;
+
+		for (int bit = 30 - Integer.numberOfLeadingZeros(k); bit >= 0; bit--) {
+			double aux = 2 * x * y;
+			x = x * x - y * y;
+			y = aux;
+
+			if (((k >> bit) & 1) != 0) {
+				aux = x * zy + y * zx;
+				x = x * zx - y * zy;
+				y = aux;
+			}
+		}
+
+		result[0] = x;
+		result[1] = y;
+	}
+
+	/**
+	 * Returns the (smoothed) iteration count of c. If periodic is not null,
+	 * periodic[sample] is set if the orbit has run into a cycle (see
+	 * isPeriodic() in Multibrot.cl) or c has been found in the interior by
+	 * {@link #fastCheckDisc(double, double, int)} or
+	 * {@link #hasAttractingCycle(double, double, double, double, int)}, which
+	 * ends the iteration early. Without fp64, c and its orbit are floats like
+	 * in the OpenCL kernels.
+	 */
+	public double iterate(double cx, double cy, boolean[] periodic, int sample) {
+		if (orbit != null)
+			return fp64 ? iteratePerturbed(cx, cy) : iteratePerturbedFloat((float) cx, (float) cy);
+
+		if (!fp64)
+			return iterateFloat((float) cx, (float) cy, periodic, sample);
+
+		int n = 0;
+		double aux;
+		double zx = 0;
+		double zy = 0;
+
+		// state of the cycle detection, disabled if the tolerance is zero
+		final double tolerance = periodicityTolerance;
+		double savedX = 0;
+		double savedY = 0;
+		int steps = 0;
+		int limit = 1;
+		boolean isPeriodic = false;
+
+		// should I invert the picture? (+ 1/c instead of +c)
+		if (invert) {
+			aux = cx * cx + cy * cy;
+
+			if (aux != 0) {
+				// replace c with 1/c via c*c' = |c|^2
+				cx = cx / aux;
+				cy = -cy / aux;
+			}
+		}
+
+		if (exponent == 2) {
+			// try to calculate the standard set as fast as possible
+
+			if (fastCheck(cx, cy))
+				n = maxIterations;
+			else {
+				// blocks of unroll iterations without checks, reset to the
+				// start of the block if the orbit has escaped in it, see
+				// UNROLL in Multibrot.cl
+				while (unroll > 1 && n + unroll <= maxIterations) {
+					double startX = zx;
+					double startY = zy;
+
+					for (int i = 0; i < unroll; i++) {
+						aux = 2 * zx * zy + cy;
+						zx = zx * zx - zy * zy + cx;
+						zy = aux;
+					}
+
+					if (!(zx * zx + zy * zy < bailoutSquared)) {
+						zx = startX;
+						zy = startY;
+						break;
+					}
+
+					n += unroll;
+
+					if (tolerance > 0) {
+						if (Math.abs(zx - savedX) < tolerance && Math.abs(zy - savedY) < tolerance) {
+							n = maxIterations;
+							isPeriodic = true;
+						} else if (++steps == limit) {
+							savedX = zx;
+							savedY = zy;
+							steps = 0;
+							limit <<= 1;
+						}
+					}
+				}
+
+				while (n < maxIterations && zx * zx + zy * zy < bailoutSquared) {
+					aux = 2 * zx * zy + cy;
+					zx = zx * zx - zy * zy + cx;
+					zy = aux;
+					n++;
+
+					if (tolerance > 0 && zx * zx + zy * zy < bailoutSquared) {
+						if (Math.abs(zx - savedX) < tolerance && Math.abs(zy - savedY) < tolerance) {
+							n = maxIterations;
+							isPeriodic = true;
+						} else if (++steps == limit) {
+							savedX = zx;
+							savedY = zy;
+							steps = 0;
+							limit <<= 1;
+						}
+					}
+				}
+			}
+		} else if (exponent - (long) exponent < 1E-10) {
+			// integer exponent other than 2
+			int exp = (int) exponent;
+
+			if (exp >= 3 && fastCheckDisc(cx, cy, exp)) {
+				n = maxIterations;
+				isPeriodic = true;
+			}
+
+			while (n < maxIterations && zx * zx + zy * zy < bailoutSquared) {
+				if (exp < 0) {
+					// invert z first
+					aux = zx * zx + zy * zy;
+
+					if (aux != 0) {
+						zx = zx / aux;
+						zy = -zy / aux;
+					}
+				}
+
+				if (exp != 0) {
+					// z^|exp| by repeated squaring like cpowi() in Multibrot.cl
+					double origX = zx;
+					double origY = zy;
+					int k = Math.abs(exp);
+
+					for (int bit = 30 - Integer.numberOfLeadingZeros(k); bit >= 0; bit--) {
+						aux = 2 * zx * zy;
+						zx = zx * zx - zy * zy;
+						zy = aux;
+
+						if (((k >> bit) & 1) != 0) {
+							aux = zx * origY + zy * origX;
+							zx = zx * origX - zy * origY;
+							zy = aux;
+						}
+					}
+				} else {
+					zx = 1;
+					zy = 0;
+				}
+
+				zx += cx;
+				zy += cy;
+
+				n++;
+
+				// like in Multibrot.cl, whenever n reaches a power of two from 32 on
+				if (exp >= 3 && n >= 32 && (n & (n - 1)) == 0 && zx * zx + zy * zy < bailoutSquared && hasAttractingCycle(cx, cy, zx, zy, exp)) {
+					n = maxIterations;
+					isPeriodic = true;
+				} else if (tolerance > 0 && zx * zx + zy * zy < bailoutSquared) {
+					if (Math.abs(zx - savedX) < tolerance && Math.abs(zy - savedY) < tolerance) {
+						n = maxIterations;
+						isPeriodic = true;
+					} else if (++steps == limit) {
+						savedX = zx;
+						savedY = zy;
+						steps = 0;
+						limit <<= 1;
+					}
+				}
+			}
+		} else {
+			// exponent is a float, in polar form like in Multibrot.cl
+			double r2 = 0;
+
+			while (n < maxIterations && r2 < bailoutSquared) {
+				// raise z by exponent
+
+				if (cartesianPowers) {
+					if (zx != 0 || zy != 0) {
+						// z^k = e^(k*ln(z))
+						double lnX = Math.sqrt(zx * zx + zy * zy);
+						double lnY = Math.acos(zx / lnX);
+						lnX = Math.log(lnX);
+
+						if (zy < 0)
+							lnY = -lnY;
+
+						if (lnY < 0)
+							lnY = lnY + Math.PI * 2;
+
+						double ex = Math.exp(exponent * lnX);
+
+						zx = ex * Math.cos(exponent * lnY);
+						zy = ex * Math.sin(exponent * lnY);
+					}
+				} else if (r2 != 0) {
+					// |z^k| = e^(k/2 * ln|z|^2) and arg(z^k) = k*arg(z), arg(z) in [0, 2pi)
+					double phi = Math.atan2(zy, zx);
+
+					if (phi < 0)
+						phi += Math.PI * 2;
+
+					double magnitude = Math.exp(exponent / 2 * Math.log(r2));
+
+					zx = magnitude * Math.cos(exponent * phi);
+					zy = magnitude * Math.sin(exponent * phi);
+				}
+
+				zx = zx + cx;
+				zy = zy + cy;
+				r2 = zx * zx + zy * zy;
+
+				n++;
+
+				if (tolerance > 0 && r2 < bailoutSquared) {
+					if (Math.abs(zx - savedX) < tolerance && Math.abs(zy - savedY) < tolerance) {
+						n = maxIterations;
+						isPeriodic = true;
+					} else if (++steps == limit) {
+						savedX = zx;
+						savedY = zy;
+						steps = 0;
+						limit <<= 1;
+					}
+				}
+			}
+		}
+
+		if (isPeriodic && periodic != null)
+			periodic[sample] = true;
+
+		// smooth
+		if (n < maxIterations)
+			// mu(z) = n - log_k (log|z_n|/log(bailout))
+			return n + 1 - Math.log10(Math.log10(Math.sqrt(zx * zx + zy * zy))) / Math.log10(Math.abs(exponent));
+		else
+			return n;
+	}
+
+	/**
+	 * {@link #iterate(double, double, boolean[], int)} in 32bit floats. Like
+	 * in the lanes, only the interior checks of integer exponents other than 2
+	 * are evaluated in doubles.
+	 */
+	private double iterateFloat(float cx, float cy, boolean[] periodic, int sample) {
+		int n = 0;
+		float aux;
+		float zx = 0;
+		float zy = 0;
+
+		final float bailoutSquared = (float) this.bailoutSquared;
+		final float tolerance = (float) periodicityTolerance;
+		float savedX = 0;
+		float savedY = 0;
+		int steps = 0;
+		int limit = 1;
+		boolean isPeriodic = false;
+
+		if (invert) {
+			aux = cx * cx + cy * cy;
+
+			if (aux != 0) {
+				cx = cx / aux;
+				cy = -cy / aux;
+			}
+		}
+
+		if (exponent == 2) {
+			if (fastCheck(cx, cy))
+				n = maxIterations;
+			else {
+				while (unroll > 1 && n + unroll <= maxIterations) {
+					float startX = zx;
+					float startY = zy;
+
+					for (int i = 0; i < unroll; i++) {
+						aux = 2 * zx * zy + cy;
+						zx = zx * zx - zy * zy + cx;
+						zy = aux;
+					}
+
+					if (!(zx * zx + zy * zy < bailoutSquared)) {
+						zx = startX;
+						zy = startY;
+						break;
+					}
+
+					n += unroll;
+
+					if (tolerance > 0) {
+						if (Math.abs(zx - savedX) < tolerance && Math.abs(zy - savedY) < tolerance) {
+							n = maxIterations;
+							isPeriodic = true;
+						} else if (++steps == limit) {
+							savedX = zx;
+							savedY = zy;
+							steps = 0;
+							limit <<= 1;
+						}
+					}
+				}
+
+				while (n < maxIterations && zx * zx + zy * zy < bailoutSquared) {
+					aux = 2 * zx * zy + cy;
+					zx = zx * zx - zy * zy + cx;
+					zy = aux;
+					n++;
+
+					if (tolerance > 0 && zx * zx + zy * zy < bailoutSquared) {
+						if (Math.abs(zx - savedX) < tolerance && Math.abs(zy - savedY) < tolerance) {
+							n = maxIterations;
+							isPeriodic = true;
+						} else if (++steps == limit) {
+							savedX = zx;
+							savedY = zy;
+							steps = 0;
+							limit <<= 1;
+						}
+					}
+				}
+			}
+		} else if (exponent - (long) exponent < 1E-10) {
+			int exp = (int) exponent;
+
+			if (exp >= 3 && fastCheckDisc(cx, cy, exp)) {
+				n = maxIterations;
+				isPeriodic = true;
+			}
+
+			while (n < maxIterations && zx * zx + zy * zy < bailoutSquared) {
+				if (exp < 0) {
+					aux = zx * zx + zy * zy;
+
+					if (aux != 0) {
+						zx = zx / aux;
+						zy = -zy / aux;
+					}
+				}
+
+				if (exp != 0) {
+					float origX = zx;
+					float origY = zy;
+					int k = Math.abs(exp);
+
+					for (int bit = 30 - Integer.numberOfLeadingZeros(k); bit >= 0; bit--) {
+						aux = 2 * zx * zy;
+						zx = zx * zx - zy * zy;
+						zy = aux;
+
+						if (((k >> bit) & 1) != 0) {
+							aux = zx * origY + zy * origX;
+							zx = zx * origX - zy * origY;
+							zy = aux;
+						}
+					}
+				} else {
+					zx = 1;
+					zy = 0;
+				}
+
+				zx += cx;
+				zy += cy;
+
+				n++;
+
+				if (exp >= 3 && n >= 32 && (n & (n - 1)) == 0 && zx * zx + zy * zy < bailoutSquared && hasAttractingCycle(cx, cy, zx, zy, exp)) {
+					n = maxIterations;
+					isPeriodic = true;
+				} else if (tolerance > 0 && zx * zx + zy * zy < bailoutSquared) {
+					if (Math.abs(zx - savedX) < tolerance && Math.abs(zy - savedY) < tolerance) {
+						n = maxIterations;
+						isPeriodic = true;
+					} else if (++steps == limit) {
+						savedX = zx;
+						savedY = zy;
+						steps = 0;
+						limit <<= 1;
+					}
+				}
+			}
+		} else {
+			final float k = (float) exponent;
+			final float twoPi = (float) (Math.PI * 2);
+			float r2 = 0;
+
+			while (n < maxIterations && r2 < bailoutSquared) {
+				if (r2 != 0) {
+					float phi = (float) Math.atan2(zy, zx);
+
+					if (phi < 0)
+						phi += twoPi;
+
+					float magnitude = (float) Math.exp(k / 2 * (float) Math.log(r2));
+
+					zx = magnitude * (float) Math.cos(k * phi);
+					zy = magnitude * (float) Math.sin(k * phi);
+				}
+
+				zx = zx + cx;
+				zy = zy + cy;
+				r2 = zx * zx + zy * zy;
+
+				n++;
+
+				if (tolerance > 0 && r2 < bailoutSquared) {
+					if (Math.abs(zx - savedX) < tolerance && Math.abs(zy - savedY) < tolerance) {
+						n = maxIterations;
+						isPeriodic = true;
+					} else if (++steps == limit) {
+						savedX = zx;
+						savedY = zy;
+						steps = 0;
+						limit <<= 1;
+					}
+				}
+			}
+		}
+
+		if (isPeriodic && periodic != null)
+			periodic[sample] = true;
+
+		if (n < maxIterations)
+			return n + 1 - Math.log10(Math.log10(Math.sqrt(zx * zx + zy * zy))) / Math.log10(Math.abs(exponent));
+		else
+			return n;
+	}
+
+	/**
+	 * The real part of subpixel s of a pixel in column x, see
+	 * {@link de.thiesgerken.fractals.util.SamplePattern}. A single sample is
+	 * taken at the center of the pixel.
+	 */
+	double getRe(int x, int s) {
+		double pos = left + x - 0.5 + (samplesPerPixel == 1 ? 0.5 : sampleOffsets[2 * s]);
+		return areaX + (areaXLow + pixelWidth * pos);
+	}
+
+	double getIm(int y, int s) {
+		double pos = top + y - 0.5 + (samplesPerPixel == 1 ? 0.5 : sampleOffsets[2 * s + 1]);
+		return areaY + (areaYLow + pixelHeight * pos);
+	}
+
+	/**
+	 * Returns the (smoothed) iteration count of subpixel s of pixel (x, y),
+	 * see iterate(). periodic and sample are those of
+	 * {@link #iterate(double, double, boolean[], int)}.
+	 */
+	double iterateSample(int x, int y, int s, boolean[] periodic, int sample) {
+		if (!doubleWord)
+			return iterate(getRe(x, s), getIm(y, s), periodic, sample);
+
+		// the corner plus the offset of the subpixel in double-words, like
+		// iterateSample() in Multibrot.cl
+		double offsetX = pixelWidth * (left + x - 0.5 + (samplesPerPixel == 1 ? 0.5 : sampleOffsets[2 * s]));
+		double offsetY = pixelHeight * (top + y - 0.5 + (samplesPerPixel == 1 ? 0.5 : sampleOffsets[2 * s + 1]));
+		DoubleWordComplex c = new DoubleWordComplex(areaX, areaXLow, areaY, areaYLow);
+
+		c.add(new DoubleWordComplex(offsetX, 0, offsetY, 0));
+
+		return iterateDoubleWord(c, periodic, sample);
+	}
+
+	/**
+	 * Like {@link #iterate(double, double, boolean[], int)}, but for c and z
+	 * in double-words, see iterateDoubleWord() in Multibrot.cl.
+	 */
+	private double iterateDoubleWord(DoubleWordComplex c, boolean[] periodic, int sample) {
+		if (exponent != 2 && !(exponent - (long) exponent < 1E-10))
+			return iterate(c.reHi, c.imHi, periodic, sample);
+
+		int n = 0;
+		DoubleWordComplex z = new DoubleWordComplex(0, 0, 0, 0);
+		double r2 = 0;
+
+		final double tolerance = periodicityTolerance;
+		double savedX = 0;
+		double savedY = 0;
+		int steps = 0;
+		int limit = 1;
+		boolean isPeriodic = false;
+
+		if (invert && !c.isZero())
+			c.invert();
+
+		int exp = (int) exponent;
+
+		if (exponent == 2 && fastCheck(c.reHi, c.imHi))
+			n = maxIterations;
+		else if (exp >= 3 && fastCheckDisc(c.reHi, c.imHi, exp)) {
+			n = maxIterations;
+			isPeriodic = true;
+		}
+
+		while (n < maxIterations && r2 < bailoutSquared) {
+			if (exponent == 2)
+				z.square();
+			else {
+				if (exp < 0 && !z.isZero())
+					z.invert();
+
+				if (exp != 0)
+					z.pow(Math.abs(exp));
+				else
+					z.set(1, 0, 0, 0);
+			}
+
+			z.add(c);
+			r2 = z.reHi * z.reHi + z.imHi * z.imHi;
+			n++;
+
+			if (exp >= 3 && n >= 32 && (n & (n - 1)) == 0 && r2 < bailoutSquared && hasAttractingCycle(c.reHi, c.imHi, z.reHi, z.imHi, exp)) {
+				n = maxIterations;
+				isPeriodic = true;
+			} else if (tolerance > 0 && r2 < bailoutSquared) {
+				if (Math.abs(z.reHi - savedX) < tolerance && Math.abs(z.imHi - savedY) < tolerance) {
+					n = maxIterations;
+					isPeriodic = true;
+				} else if (++steps == limit) {
+					savedX = z.reHi;
+					savedY = z.imHi;
+					steps = 0;
+					limit <<= 1;
+				}
+			}
+		}
+
+		if (isPeriodic && periodic != null)
+			periodic[sample] = true;
+
+		if (n < maxIterations)
+			return n + 1 - Math.log10(Math.log10(Math.sqrt(r2))) / Math.log10(Math.abs(exponent));
+		else
+			return n;
+	}
+
+	/**
+	 * Returns the (smoothed) iteration count of C + dc for the reference
+	 * point C of the orbit set by
+	 * {@link #setReferenceOrbit(double[], int, double[], int)}, see
+	 * iteratePerturbed() in Multibrot.cl.
+	 */
+	private double iteratePerturbed(double dcx, double dcy) {
+		int n = skip;
+		int m = skip;
+		boolean rebased = false;
+		double dzx = 0;
+		double dzy = 0;
+
+		if (skip > 0) {
+			// A u + B u^2 + C u^3 for u = dc / r
+			double ux = dcx / series[6];
+			double uy = dcy / series[6];
+			double u2x = ux * ux - uy * uy;
+			double u2y = 2 * ux * uy;
+			double u3x = u2x * ux - u2y * uy;
+			double u3y = u2x * uy + u2y * ux;
+
+			dzx = series[0] * ux - series[1] * uy + series[2] * u2x - series[3] * u2y + series[4] * u3x - series[5] * u3y;
+			dzy = series[0] * uy + series[1] * ux + series[2] * u2y + series[3] * u2x + series[4] * u3y + series[5] * u3x;
+		}
+
+		double zx = orbit[2 * m] + dzx;
+		double zy = orbit[2 * m + 1] + dzy;
+		double r2 = zx * zx + zy * zy;
+
+		while (n < maxIterations && r2 < bailoutSquared) {
+			// rebase at glitches and at the end of the reference orbit
+			if (m == orbitLength - 1 || r2 < dzx * dzx + dzy * dzy) {
+				dzx = zx;
+				dzy = zy;
+				m = 0;
+				rebased = true;
+			}
+
+			// dz' = (2 Z + dz) dz + dc
+			double x = 2 * orbit[2 * m] + dzx;
+			double y = 2 * orbit[2 * m + 1] + dzy;
+			double aux = x * dzy + y * dzx + dcy;
+			dzx = x * dzx - y * dzy + dcx;
+			dzy = aux;
+
+			m++;
+			n++;
+
+			zx = orbit[2 * m] + dzx;
+			zy = orbit[2 * m + 1] + dzy;
+			r2 = zx * zx + zy * zy;
+		}
+
+		if (rebased)
+			rebasedSamples.incrementAndGet();
+
+		if (n < maxIterations)
+			return n + 1 - Math.log10(Math.log10(Math.sqrt(r2))) / Math.log10(2);
+		else
+			return n;
+	}
+
+	/**
+	 * {@link #iteratePerturbed(double, double)} in 32bit floats.
+	 */
+	private double iteratePerturbedFloat(float dcx, float dcy) {
+		final float bailoutSquared = (float) this.bailoutSquared;
+		int n = skip;
+		int m = skip;
+		boolean rebased = false;
+		float dzx = 0;
+		float dzy = 0;
+
+		if (skip > 0) {
+			float ux = dcx / (float) series[6];
+			float uy = dcy / (float) series[6];
+			float u2x = ux * ux - uy * uy;
+			float u2y = 2 * ux * uy;
+			float u3x = u2x * ux - u2y * uy;
+			float u3y = u2x * uy + u2y * ux;
+			float ax = (float) series[0], ay = (float) series[1];
+			float bx = (float) series[2], by = (float) series[3];
+			float cx = (float) series[4], cy = (float) series[5];
+
+			dzx = ax * ux - ay * uy + bx * u2x - by * u2y + cx * u3x - cy * u3y;
+			dzy = ax * uy + ay * ux + bx * u2y + by * u2x + cx * u3y + cy * u3x;
+		}
+
+		float zx = (float) orbit[2 * m] + dzx;
+		float zy = (float) orbit[2 * m + 1] + dzy;
+		float r2 = zx * zx + zy * zy;
+
+		while (n < maxIterations && r2 < bailoutSquared) {
+			if (m == orbitLength - 1 || r2 < dzx * dzx + dzy * dzy) {
+				dzx = zx;
+				dzy = zy;
+				m = 0;
+				rebased = true;
+			}
+
+			float x = 2 * (float) orbit[2 * m] + dzx;
+			float y = 2 * (float) orbit[2 * m + 1] + dzy;
+			float aux = x * dzy + y * dzx + dcy;
+			dzx = x * dzx - y * dzy + dcx;
+			dzy = aux;
+
+			m++;
+			n++;
+
+			zx = (float) orbit[2 * m] + dzx;
+			zy = (float) orbit[2 * m + 1] + dzy;
+			r2 = zx * zx + zy * zy;
+		}
+
+		if (rebased)
+			rebasedSamples.incrementAndGet();
+
+		if (n < maxIterations)
+			return n + 1 - Math.log10(Math.log10(Math.sqrt(r2))) / Math.log10(2);
+		else
+			return n;
+	}
+
+	public double[] iterateRow(int y) {
+		return iterateRow(y, null);
+	}
+
+	/**
+	 * Iterates all subpixels of row y, the result for subpixel s of pixel x
+	 * is stored at index x * samplesPerPixel + s. If periodic is not null, the same index is set
+	 * there for subpixels whose orbits have been found to be periodic.
+	 */
+	public double[] iterateRow(int y, boolean[] periodic) {
+		double[] values = new double[width * getSamplesPerPixel()];
+
+		if (lanes != null && orbit == null && !doubleWord)
+			lanes.iterateRow(y, values, periodic);
+		else
+			for (int x = 0, i = 0; x < width; x++)
+				for (int s = 0; s < samplesPerPixel; s++, i++)
+					values[i] = iterateSample(x, y, s, periodic, i);
+
+		return values;
+	}
+
+	/**
+	 * Iterates all subpixels of pixel (x, y) like
+	 * {@link #iterateRow(int, boolean[])}, but without lanes.
+	 */
+	private double[] iteratePixel(int x, int y, boolean[] periodic) {
+		double[] values = new double[getSamplesPerPixel()];
+
+		for (int s = 0; s < samplesPerPixel; s++)
+			values[s] = iterateSample(x, y, s, periodic, s);
+
+		return values;
+	}
+
+	/**
+	 * Adds the pixels with at least one periodic subpixel to the statistics,
+	 * see {@link #getPeriodicPixels()}.
+	 */
+	private void countPeriodicPixels(boolean[] periodic) {
+		int samples = getSamplesPerPixel();
+		int count = 0;
+
+		for (int x = 0; x < periodic.length / samples; x++)
+			for (int i = x * samples; i < (x + 1) * samples; i++)
+				if (periodic[i]) {
+					count++;
+					break;
+				}
+
+		if (count > 0)
+			periodicPixels.addAndGet(count);
+	}
+
+	/**
+	 * Port of the 'multibrot' kernel in MultibrotFast.cl, writes the colors of
+	 * row y into image (starting at offset).
+	 */
+	public void colorRow(int y, int[] palette, double paletteCycles, double palettePhase, int[] image, int offset) {
+		boolean[] periodic = new boolean[width * getSamplesPerPixel()];
+		double[] values = iterateRow(y, periodic);
+		int samples = getSamplesPerPixel();
+
+		countPeriodicPixels(periodic);
+
+		for (int x = 0; x < width; x++)
+			image[offset + x] = combineColors(values, x * samples, palette, paletteCycles, palettePhase);
+	}
+
+	/**
+	 * Like {@link #colorRow(int, int[], double, double, int[], int)}, but
+	 * for pixel (x, y) only.
+	 */
+	public int colorPixel(int x, int y, int[] palette, double paletteCycles, double palettePhase) {
+		boolean[] periodic = new boolean[getSamplesPerPixel()];
+		double[] values = iteratePixel(x, y, periodic);
+
+		countPeriodicPixels(periodic);
+
+		return combineColors(values, 0, palette, paletteCycles, palettePhase);
+	}
+
+	/**
+	 * The color of the pixel whose subpixels are stored at values[offset],
+	 * values[offset + 1], ...
+	 */
+	private int combineColors(double[] values, int offset, int[] palette, double paletteCycles, double palettePhase) {
+		int samples = getSamplesPerPixel();
+		double r = 0, g = 0, b = 0;
+
+		for (int i = offset; i < offset + samples; i++) {
+			double n = values[i];
+
+			// smooth
+			if (n < maxIterations) {
+				int index = (int) (Math.log10(n) * palette.length * paletteCycles / Math.log10(maxIterations) + palettePhase * palette.length);
+				int subColor = palette[wrap(index, palette.length)];
+
+				r += (subColor & 255) / (double) samples;
+				g += ((subColor >> 8) & 255) / (double) samples;
+				b += ((subColor >> 16) & 255) / (double) samples;
+			}
+		}
+
+		return (int) r + ((int) g << 8) + ((int) b << 16);
+	}
+
+	/**
+	 * Port of the 'multibrot' kernel in MultibrotQuality.cl, writes the counts
+	 * of row y into either doubleCounts or floatCounts (starting at offset).
+	 */
+	public void countRow(int y, double[] doubleCounts, float[] floatCounts, int offset) {
+		boolean[] periodic = new boolean[width * getSamplesPerPixel()];
+		double[] values = iterateRow(y, periodic);
+		int samples = getSamplesPerPixel();
+
+		countPeriodicPixels(periodic);
+
+		for (int x = 0; x < width; x++) {
+			double m = combineCounts(values, x * samples);
+
+			if (doubleCounts != null)
+				doubleCounts[offset + x] = m;
+			else
+				floatCounts[offset + x] = (float) m;
+		}
+	}
+
+	/**
+	 * Like {@link #countRow(int, double[], float[], int)}, but for pixel (x,
+	 * y) only.
+	 */
+	public double countPixel(int x, int y) {
+		boolean[] periodic = new boolean[getSamplesPerPixel()];
+		double[] values = iteratePixel(x, y, periodic);
+
+		countPeriodicPixels(periodic);
+
+		return combineCounts(values, 0);
+	}
+
+	/**
+	 * The count of the pixel whose subpixels are stored at values[offset],
+	 * values[offset + 1], ...
+	 */
+	private double combineCounts(double[] values, int offset) {
+		int samples = getSamplesPerPixel();
+		double m = 0;
+
+		for (int i = offset; i < offset + samples; i++)
+			m += values[i] / samples;
+
+		return maxIterations - m <= 1E-8 ? -1 : m;
+	}
+
+	/**
+	 * Port of the 'color' kernel in MultibrotQuality.cl, count is the value
+	 * computed by {@link #countRow(int, double[], float[], int)} for this
+	 * pixel.
+	 */
+	public static int color(double count, int[] palette, double paletteCycles, double palettePhase, int minN, int maxN, long pxCount, double ratio,
+			int[] cdf) {
+		double m = count - minN;
+		int n = (int) m;
+
+		if (m <= 0)
+			return 0;
+
+		int fraction = cdf[n];
+		int diff;
+
+		if (n >= maxN - minN)
+			diff = 0;
+		else
+			diff = cdf[n + 1] - fraction;
+
+		double percHist = (fraction + (m - n) * diff) / pxCount;
+		double percQuot = m / (maxN - minN);
+
+		double perc = percHist * ratio + percQuot * (1 - ratio);
+
+		int pindex = (int) ((perc * paletteCycles + palettePhase) * palette.length);
+		return palette[wrap(pindex, palette.length)];
+	}
+
+	private static int wrap(int index, int length) {
+		// unlike OpenCL, java does not tolerate negative indices
+		index %= length;
+		return index < 0 ? index + length : index;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	void setCartesianPowers(boolean cartesianPowers) {
+		this.cartesianPowers = cartesianPowers;
+	}
+
+	/**
+	 * Iterates the standard set in blocks of unroll iterations with one
+	 * bailout check per block (off if unroll <= 1 or the bailout is below 2,
+	 * see UNROLL in Multibrot.cl). This only concerns
+	 * {@link #iterate(double, double, boolean[], int)}, the lanes check their
+	 * orbits after every step anyway.
+	 */
+	public void setUnroll(int unroll) {
+		this.unroll = bailoutSquared < 4 ? 0 : unroll;
+	}
+
+	/**
+	 * Iterates the points and their orbits in double-words. The lanes are not
+	 * used.
+	 */
+	public void setDoubleWord(boolean doubleWord) {
+		this.doubleWord = doubleWord;
+	}
+
+	public int getSamplesPerPixel() {
+		return samplesPerPixel;
+	}
+
+	/**
+	 * The amount of pixels that have been colored or counted so far with at
+	 * least one subpixel whose iteration has been ended by the cycle
+	 * detection.
+	 */
+	public long getPeriodicPixels() {
+		return periodicPixels.get();
+	}
+
+	/**
+	 * Iterates the points relative to the given reference orbit (re and im
+	 * of its orbitLength points) instead, i.e. the area describes dc. series
+	 * and skip are those of the series approximation, see
+	 * {@link ReferenceOrbit}. Only for the standard set.
+	 */
+	public void setReferenceOrbit(double[] orbit, int orbitLength, double[] series, int skip) {
+		this.orbit = orbit;
+		this.orbitLength = orbitLength;
+		this.series = series;
+		this.skip = skip;
+	}
+
+	/**
+	 * The amount of subpixels that have been rebased so far, see
+	 * {@link #setReferenceOrbit(double[], int, double[], int)}.
+	 */
+	public long getRebasedSamples() {
+		return rebasedSamples.get();
+	}
+
+	int getMaxIterations() {
+		return maxIterations;
+	}
+
+	double getBailoutSquared() {
+		return bailoutSquared;
+	}
+
+	double getPeriodicityTolerance() {
+		return periodicityTolerance;
+	}
+
+	double getExponent() {
+		return exponent;
+	}
+
+	boolean getInvert() {
+		return invert;
+	}
+}
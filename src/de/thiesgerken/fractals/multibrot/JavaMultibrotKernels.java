@@ -0,0 +1,202 @@
+package de.thiesgerken.fractals.multibrot;
+
+import de.thiesgerken.fractals.backend.java.JavaKernel2D;
+import de.thiesgerken.fractals.util.ParallelRows;
+import de.thiesgerken.fractals.util.Size;
+
+/**
+ * The kernels of MultibrotFast.cl and MultibrotQuality.cl for the java
+ * backend. They take the same arguments as their OpenCL counterparts.
+ */
+class JavaMultibrotKernels {
+
+	/**
+	 * Arguments 0 to 7 of the 'multibrot' kernels, which describe the image,
+	 * the counter of periodic pixels at counterIndex, the pixels for the
+	 * subdivision and their count after it and the sample offsets after
+	 * those. If the count is not zero, the
+	 * kernels are run on a 1D range of those pixels.
+	 */
+	private static abstract class ImageKernel extends JavaKernel2D {
+		private final boolean useLanes;
+		private final int unroll;
+		private final boolean doubleWord;
+		private final int counterIndex;
+		protected JavaMultibrot brot;
+
+		public ImageKernel(boolean useLanes, int unroll, boolean doubleWord, int counterIndex) {
+			this.useLanes = useLanes;
+			this.unroll = unroll;
+			this.doubleWord = doubleWord;
+			this.counterIndex = counterIndex;
+		}
+
+		@Override
+		protected void prepare() {
+			int[] size = getInts(0);
+			double[] area = getDoubles(1);
+			int[] superSampling = getInts(6);
+
+			brot = new JavaMultibrot(new Size(size[0], size[1]), area, getInt(2), getDouble(3), getDouble(4), getInt(5) != 0, new Size(superSampling[0],
+					superSampling[1]), getSampleOffsets(), getDouble(7), useLanes, use64bitFloats());
+			brot.setUnroll(unroll);
+			brot.setDoubleWord(doubleWord);
+		}
+
+		private double[] getSampleOffsets() {
+			return getFPBuffer(counterIndex + 3);
+		}
+
+		/**
+		 * The buffer of fps at index as doubles.
+		 */
+		protected double[] getFPBuffer(int index) {
+			Object buffer = getBuffer(index);
+
+			if (buffer instanceof double[])
+				return (double[]) buffer;
+
+			float[] floats = (float[]) buffer;
+			double[] result = new double[floats.length];
+
+			for (int i = 0; i < floats.length; i++)
+				result[i] = floats[i];
+
+			return result;
+		}
+
+		@Override
+		protected void complete() {
+			getIntBuffer(counterIndex)[0] += (int) brot.getPeriodicPixels();
+			brot = null;
+		}
+
+		@Override
+		public long run1D(int globalWorkSize, int localWorkSize) {
+			return run(globalWorkSize, new ParallelRows.RowKernel() {
+				@Override
+				public void computeRow(int i) {
+					runItem(i);
+				}
+			});
+		}
+
+		private void runItem(int i) {
+			if (i >= getInt(counterIndex + 2))
+				return;
+
+			int point = getIntBuffer(counterIndex + 1)[i];
+			runPoint(i, point % brot.getWidth(), point / brot.getWidth());
+		}
+
+		/**
+		 * Computes pixel (x, y) and stores it at index of the output.
+		 */
+		protected abstract void runPoint(int index, int x, int y);
+	}
+
+	/**
+	 * 'multibrot' kernel of MultibrotFast.cl
+	 */
+	public static class Fast extends ImageKernel {
+		public Fast(boolean useLanes, int unroll, boolean doubleWord) {
+			super(useLanes, unroll, doubleWord, 12);
+		}
+
+		@Override
+		protected void runRow(int y) {
+			if (y >= brot.getHeight())
+				return;
+
+			double[] paletteOptions = getDoubles(8);
+			brot.colorRow(y, getIntBuffer(10), paletteOptions[0], paletteOptions[1], getIntBuffer(11), y * brot.getWidth());
+		}
+
+		@Override
+		protected void runPoint(int index, int x, int y) {
+			double[] paletteOptions = getDoubles(8);
+			getIntBuffer(11)[index] = brot.colorPixel(x, y, getIntBuffer(10), paletteOptions[0], paletteOptions[1]);
+		}
+	}
+
+	/**
+	 * 'multibrot' kernel of MultibrotQuality.cl
+	 */
+	public static class Count extends ImageKernel {
+		public Count(boolean useLanes, int unroll, boolean doubleWord) {
+			super(useLanes, unroll, doubleWord, 9);
+		}
+
+		@Override
+		protected void runRow(int y) {
+			if (y >= brot.getHeight())
+				return;
+
+			Object output = getBuffer(8);
+
+			if (output instanceof double[])
+				brot.countRow(y, (double[]) output, null, y * brot.getWidth());
+			else
+				brot.countRow(y, null, (float[]) output, y * brot.getWidth());
+		}
+
+		@Override
+		protected void runPoint(int index, int x, int y) {
+			Object output = getBuffer(8);
+
+			if (output instanceof double[])
+				((double[]) output)[index] = brot.countPixel(x, y);
+			else
+				((float[]) output)[index] = (float) brot.countPixel(x, y);
+		}
+	}
+
+	/**
+	 * 'perturbation' kernel of MultibrotQuality.cl
+	 */
+	public static class Perturbation extends Count {
+		public Perturbation() {
+			super(false, 0, false);
+		}
+
+		@Override
+		protected void prepare() {
+			super.prepare();
+			brot.setReferenceOrbit(getFPBuffer(13), getInt(14), getFPBuffer(15), getInt(16));
+		}
+
+		@Override
+		protected void complete() {
+			getIntBuffer(17)[0] += (int) brot.getRebasedSamples();
+			super.complete();
+		}
+	}
+
+	/**
+	 * 'color' kernel of MultibrotQuality.cl
+	 */
+	public static class Color extends JavaKernel2D {
+		@Override
+		protected void runRow(int y) {
+			int[] size = getInts(0);
+
+			if (y >= size[1])
+				return;
+
+			double[] paletteOptions = getDoubles(1);
+			int[] palette = getIntBuffer(3);
+			int minN = getInt(4);
+			int maxN = getInt(5);
+			long pxCount = getLong(6);
+			double ratio = getDouble(7);
+			Object counts = getBuffer(8);
+			int[] cdf = getIntBuffer(9);
+			int[] image = getIntBuffer(10);
+
+			for (int i = y * size[0]; i < (y + 1) * size[0]; i++) {
+				double count = counts instanceof double[] ? ((double[]) counts)[i] : ((float[]) counts)[i];
+				image[i] = JavaMultibrot.color(count, palette, paletteOptions[0], paletteOptions[1], minN, maxN, pxCount, ratio, cdf);
+			}
+		}
+	}
+}
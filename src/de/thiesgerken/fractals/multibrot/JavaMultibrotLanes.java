@@ -0,0 +1,321 @@
+package de.thiesgerken.fractals.multibrot;
+
+/**
+ * Iterates the subpixels of a row as {@link #LANES} independent orbits at
+ * once. Each lane holds one subpixel (adjacent pixels and the subpixels of
+ * one pixel are treated alike); lanes that escape (or reach maxIterations)
+ * are masked out and refilled with the next subpixel of the row after each
+ * block of iterations.
+ *
+ * The orbits do not depend on each other, so the cpu can execute the steps
+ * of all lanes in parallel instead of waiting for the result of the previous
+ * multiplication, which is what limits the scalar loop in
+ * {@link JavaMultibrot#iterate(double, double, boolean[], int)}. The lanes
+ * are kept in local variables (and thus in registers), which is why their
+ * count is fixed.
+ * Only the standard set (exponent 2) is iterated this way, using 32bit or
+ * 64bit floats like the OpenCL kernels; other exponents are passed on to the
+ * scalar implementation, which uses the same floats. Refilling the lanes
+ * and the cycle detection do not depend on the floats and are shared by both
+ * (see {@link Lanes}).
+ *
+ * The cycle detection compares the orbits with their saved points only once
+ * per block, which still finds every period (the distances between the
+ * compared points are multiples of the block size).
+ */
+class JavaMultibrotLanes {
+	public static final int LANES = 4;
+
+	/* iterations between two checks for finished lanes */
+	private static final int BLOCK = 16;
+
+	private final JavaMultibrot brot;
+	private final boolean fp64;
+
+	public JavaMultibrotLanes(JavaMultibrot brot, boolean fp64) {
+		this.brot = brot;
+		this.fp64 = fp64;
+	}
+
+	public void iterateRow(int y, double[] values, boolean[] periodic) {
+		if (brot.getExponent() != 2) {
+			int samples = brot.getSamplesPerPixel();
+
+			for (int i = 0; i < values.length; i++)
+				values[i] = brot.iterate(brot.getRe(i / samples, i % samples), brot.getIm(y, i % samples), periodic, i);
+		} else
+			iterateRow(new Row(y, values, periodic));
+	}
+
+	private double smooth(int n, double zx, double zy) {
+		if (n < brot.getMaxIterations())
+			return n + 1 - Math.log10(Math.log10(Math.sqrt(zx * zx + zy * zy))) / Math.log10(Math.abs(brot.getExponent()));
+		else
+			return n;
+	}
+
+	/**
+	 * Hands out the subpixels of a row to the lanes. Subpixels that are
+	 * known to be in the set (see {@link JavaMultibrot#fastCheck}) are
+	 * finished right away.
+	 */
+	private class Row {
+		private final int y;
+		private final double[] values;
+		private final boolean[] periodic;
+		private final int samples;
+		private int next;
+
+		/* the subpixel that has been handed out last, and its (inverted) c */
+		public int sample;
+		public double re;
+		public double im;
+
+		public Row(int y, double[] values, boolean[] periodic) {
+			this.y = y;
+			this.values = values;
+			this.periodic = periodic;
+			this.samples = brot.getSamplesPerPixel();
+		}
+
+		public boolean advance() {
+			while (next < values.length) {
+				sample = next++;
+				re = brot.getRe(sample / samples, sample % samples);
+				im = brot.getIm(y, sample % samples);
+
+				if (brot.getInvert()) {
+					double aux = re * re + im * im;
+
+					if (aux != 0) {
+						re = re / aux;
+						im = -im / aux;
+					}
+				}
+
+				if (JavaMultibrot.fastCheck(re, im))
+					values[sample] = brot.getMaxIterations();
+				else
+					return true;
+			}
+
+			return false;
+		}
+
+		public void finish(int sample, int n, double zx, double zy) {
+			values[sample] = smooth(n, zx, zy);
+		}
+
+		public void setPeriodic(int sample) {
+			if (periodic != null)
+				periodic[sample] = true;
+		}
+	}
+
+	/**
+	 * The state of the lanes between two blocks of iterations, which does
+	 * not depend on the floats that the lanes iterate in: the values of
+	 * those are kept exactly in doubles here. Refilling the lanes and the
+	 * cycle detection are done here once per block, while
+	 * {@link JavaMultibrotLanes#iterateBlockDouble(Lanes)} and
+	 * {@link JavaMultibrotLanes#iterateBlockFloat(Lanes)} load the lanes
+	 * into local variables for the iterations themselves.
+	 */
+	private class Lanes {
+		private final Row row;
+		private final int maxIterations;
+		private final double tolerance;
+
+		public final double[] x = new double[LANES];
+		public final double[] y = new double[LANES];
+		public final double[] cx = new double[LANES];
+		public final double[] cy = new double[LANES];
+		public final int[] n = new int[LANES];
+
+		/* whether the orbit has left the bailout in the floats of the lane */
+		public final boolean[] escaped = new boolean[LANES];
+
+		/* the subpixels of the lanes, -1 before and -2 after the last one */
+		private final int[] s = new int[LANES];
+
+		// points of the orbits for the cycle detection and the iteration at
+		// which they are replaced next
+		private final double[] px = new double[LANES];
+		private final double[] py = new double[LANES];
+		private final int[] l = new int[LANES];
+
+		private int active = LANES;
+
+		public Lanes(Row row) {
+			this.row = row;
+			this.maxIterations = brot.getMaxIterations();
+			this.tolerance = brot.getPeriodicityTolerance();
+
+			for (int i = 0; i < LANES; i++) {
+				n[i] = maxIterations;
+				s[i] = -1;
+			}
+		}
+
+		/**
+		 * Finishes the lanes whose orbits have escaped, reached
+		 * maxIterations or run into a cycle and refills them. Returns whether
+		 * any lane is left.
+		 */
+		public boolean update() {
+			for (int i = 0; i < LANES; i++) {
+				if (tolerance > 0 && n[i] < maxIterations && !escaped[i]) {
+					if (isCycle(i)) {
+						row.setPeriodic(s[i]);
+						n[i] = maxIterations;
+					} else if (n[i] >= l[i]) {
+						px[i] = x[i];
+						py[i] = y[i];
+						l[i] <<= 1;
+					}
+				}
+
+				if (n[i] >= maxIterations || escaped[i]) {
+					if (s[i] >= 0)
+						row.finish(s[i], n[i], x[i], y[i]);
+
+					if (row.advance()) {
+						s[i] = row.sample;
+						cx[i] = row.re;
+						cy[i] = row.im;
+						x[i] = y[i] = 0;
+						px[i] = py[i] = 0;
+						l[i] = BLOCK;
+						n[i] = 0;
+						escaped[i] = false;
+					} else if (s[i] != -2) {
+						s[i] = -2;
+						n[i] = maxIterations;
+						escaped[i] = false;
+						active--;
+					}
+				}
+			}
+
+			return active > 0;
+		}
+
+		/* compares in the floats of the lane, like the OpenCL kernels */
+		private boolean isCycle(int i) {
+			if (fp64)
+				return Math.abs(x[i] - px[i]) < tolerance && Math.abs(y[i] - py[i]) < tolerance;
+
+			return Math.abs((float) x[i] - (float) px[i]) < (float) tolerance && Math.abs((float) y[i] - (float) py[i]) < (float) tolerance;
+		}
+	}
+
+	private void iterateRow(Row row) {
+		Lanes lanes = new Lanes(row);
+
+		while (lanes.update()) {
+			if (fp64)
+				iterateBlockDouble(lanes);
+			else
+				iterateBlockFloat(lanes);
+		}
+	}
+
+	private void iterateBlockDouble(Lanes lanes) {
+		final int maxIterations = brot.getMaxIterations();
+		final double bailoutSquared = brot.getBailoutSquared();
+
+		double x0 = lanes.x[0], y0 = lanes.y[0], cx0 = lanes.cx[0], cy0 = lanes.cy[0];
+		double x1 = lanes.x[1], y1 = lanes.y[1], cx1 = lanes.cx[1], cy1 = lanes.cy[1];
+		double x2 = lanes.x[2], y2 = lanes.y[2], cx2 = lanes.cx[2], cy2 = lanes.cy[2];
+		double x3 = lanes.x[3], y3 = lanes.y[3], cx3 = lanes.cx[3], cy3 = lanes.cy[3];
+		int n0 = lanes.n[0], n1 = lanes.n[1], n2 = lanes.n[2], n3 = lanes.n[3];
+
+		for (int step = 0; step < BLOCK; step++) {
+			if (n0 < maxIterations && x0 * x0 + y0 * y0 < bailoutSquared) {
+				double aux = 2 * x0 * y0 + cy0;
+				x0 = x0 * x0 - y0 * y0 + cx0;
+				y0 = aux;
+				n0++;
+			}
+
+			if (n1 < maxIterations && x1 * x1 + y1 * y1 < bailoutSquared) {
+				double aux = 2 * x1 * y1 + cy1;
+				x1 = x1 * x1 - y1 * y1 + cx1;
+				y1 = aux;
+				n1++;
+			}
+
+			if (n2 < maxIterations && x2 * x2 + y2 * y2 < bailoutSquared) {
+				double aux = 2 * x2 * y2 + cy2;
+				x2 = x2 * x2 - y2 * y2 + cx2;
+				y2 = aux;
+				n2++;
+			}
+
+			if (n3 < maxIterations && x3 * x3 + y3 * y3 < bailoutSquared) {
+				double aux = 2 * x3 * y3 + cy3;
+				x3 = x3 * x3 - y3 * y3 + cx3;
+				y3 = aux;
+				n3++;
+			}
+		}
+
+		store(lanes, 0, x0, y0, n0, x0 * x0 + y0 * y0 >= bailoutSquared);
+		store(lanes, 1, x1, y1, n1, x1 * x1 + y1 * y1 >= bailoutSquared);
+		store(lanes, 2, x2, y2, n2, x2 * x2 + y2 * y2 >= bailoutSquared);
+		store(lanes, 3, x3, y3, n3, x3 * x3 + y3 * y3 >= bailoutSquared);
+	}
+
+	private void iterateBlockFloat(Lanes lanes) {
+		final int maxIterations = brot.getMaxIterations();
+		final float bailoutSquared = (float) brot.getBailoutSquared();
+
+		float x0 = (float) lanes.x[0], y0 = (float) lanes.y[0], cx0 = (float) lanes.cx[0], cy0 = (float) lanes.cy[0];
+		float x1 = (float) lanes.x[1], y1 = (float) lanes.y[1], cx1 = (float) lanes.cx[1], cy1 = (float) lanes.cy[1];
+		float x2 = (float) lanes.x[2], y2 = (float) lanes.y[2], cx2 = (float) lanes.cx[2], cy2 = (float) lanes.cy[2];
+		float x3 = (float) lanes.x[3], y3 = (float) lanes.y[3], cx3 = (float) lanes.cx[3], cy3 = (float) lanes.cy[3];
+		int n0 = lanes.n[0], n1 = lanes.n[1], n2 = lanes.n[2], n3 = lanes.n[3];
+
+		for (int step = 0; step < BLOCK; step++) {
+			if (n0 < maxIterations && x0 * x0 + y0 * y0 < bailoutSquared) {
+				float aux = 2 * x0 * y0 + cy0;
+				x0 = x0 * x0 - y0 * y0 + cx0;
+				y0 = aux;
+				n0++;
+			}
+
+			if (n1 < maxIterations && x1 * x1 + y1 * y1 < bailoutSquared) {
+				float aux = 2 * x1 * y1 + cy1;
+				x1 = x1 * x1 - y1 * y1 + cx1;
+				y1 = aux;
+				n1++;
+			}
+
+			if (n2 < maxIterations && x2 * x2 + y2 * y2 < bailoutSquared) {
+				float aux = 2 * x2 * y2 + cy2;
+				x2 = x2 * x2 - y2 * y2 + cx2;
+				y2 = aux;
+				n2++;
+			}
+
+			if (n3 < maxIterations && x3 * x3 + y3 * y3 < bailoutSquared) {
+				float aux = 2 * x3 * y3 + cy3;
+				x3 = x3 * x3 - y3 * y3 + cx3;
+				y3 = aux;
+				n3++;
+			}
+		}
+
+		store(lanes, 0, x0, y0, n0, x0 * x0 + y0 * y0 >= bailoutSquared);
+		store(lanes, 1, x1, y1, n1, x1 * x1 + y1 * y1 >= bailoutSquared);
+		store(lanes, 2, x2, y2, n2, x2 * x2 + y2 * y2 >= bailoutSquared);
+		store(lanes, 3, x3, y3, n3, x3 * x3 + y3 * y3 >= bailoutSquared);
+	}
+
+	private static void store(Lanes lanes, int i, double x, double y, int n, boolean escaped) {
+		lanes.x[i] = x;
+		lanes.y[i] = y;
+		lanes.n[i] = n;
+		lanes.escaped[i] = escaped;
+	}
+}
@@ -20,6 +20,55 @@
     typedef float16 fp16;
 #endif
 
+/*
+ * Variants of the program are compiled with some of the kernel arguments
+ * baked in as defines (see Multibrot.getDefines()): the exponent (if it is an
+ * integer), the invert flag and the samples per pixel. The kernels read those
+ * arguments through the following macros, so that the compiler can drop the
+ * branches of iterate() that are not taken and unroll cpowi().
+ */
+#ifdef INVERT
+	#define VARIANT_INVERT(invert) INVERT
+#else
+	#define VARIANT_INVERT(invert) (invert)
+#endif
+
+#ifdef EXPONENT
+	#define VARIANT_EXPONENT(exponent) ((fp) EXPONENT)
+#else
+	#define VARIANT_EXPONENT(exponent) (exponent)
+#endif
+
+#ifdef SAMPLES
+	#define VARIANT_SAMPLES(supersampling) SAMPLES
+#else
+	#define VARIANT_SAMPLES(supersampling) ((supersampling).x*(supersampling).y)
+#endif
+
+/*
+ * The area argument of the kernels: x and y, the width and height of a pixel,
+ * the low words of x and y, i.e. the corner of the image is (x + low x,
+ * y + low y) (see iterateSample()), and the pixel of the image at which the
+ * current part starts.
+ */
+typedef fp8 area_t;
+
+/*
+ * The transcendental functions of the float exponent path: the native_*
+ * functions of the device if the program is built with NATIVE_MATH. They are
+ * faster, but their accuracy is up to the implementation, and as there are
+ * no 64bit versions of them they are only used for 32bit floats.
+ */
+#if defined(NATIVE_MATH) && !defined(FP64)
+	#define LOG native_log
+	#define EXP native_exp
+	#define SINCOS(x, cosine) (*(cosine) = native_cos(x), native_sin(x))
+#else
+	#define LOG log
+	#define EXP exp
+	#define SINCOS sincos
+#endif
+
 /* 
  * Performs a check on a point without having to iterate 
  */
@@ -43,11 +92,112 @@ inline bool fastCheck(const fp2 c) {
     return false;
 }
 
-inline fp iterate(fp2 c, const int invert, const fp exponent, const int maxIterations, const fp bailoutSquared) {
+/*
+ * Brent's cycle detection: z is compared to an earlier point of its orbit,
+ * which is replaced by z whenever the distance between them reaches the
+ * next power of two. Returns true if the orbit has (within tolerance) run
+ * into a cycle, i.e. c is in the set. z must not have escaped.
+ */
+inline bool isPeriodic(const fp2 z, fp2* saved, int* steps, int* limit, const fp tolerance) {
+	if (fabs(z.x - saved->x) < tolerance && fabs(z.y - saved->y) < tolerance)
+		return true;
+
+	if (++(*steps) == *limit) {
+		*saved = z;
+		*steps = 0;
+		*limit <<= 1;
+	}
+
+	return false;
+}
+
+/*
+ * z^k for k >= 1 by repeated squaring, i.e. along the binary addition chain
+ * of k: the bits below the highest one are processed from the top, squaring
+ * for each of them and multiplying by z for the ones. This takes at most
+ * 2*log2(k) multiplications instead of k-1, and the loop is unrolled
+ * completely if k is a constant (see EXPONENT).
+ */
+inline fp2 cpowi(const fp2 z, const int k) {
+	fp2 result = z;
+
+	for (int bit = 30 - clz(k); bit >= 0; bit--) {
+		result = (fp2) (result.x*result.x - result.y*result.y, 2*result.x*result.y);
+
+		if ((k >> bit) & 1)
+			result = (fp2) (result.x*z.x - result.y*z.y, result.x*z.y + result.y*z.x);
+	}
+
+	return result;
+}
+
+inline fp2 cmul(const fp2 a, const fp2 b) {
+	return (fp2) (a.x*b.x - a.y*b.y, a.x*b.y + a.y*b.x);
+}
+
+inline fp2 cdiv(const fp2 a, const fp2 b) {
+	fp d = b.x*b.x + b.y*b.y;
+	return (fp2) ((a.x*b.x + a.y*b.y) / d, (a.y*b.x - a.x*b.y) / d);
+}
+
+/*
+ * Quick rejection for integer exponents k >= 3, like fastCheck() for k = 2:
+ * the main component of z^k+c is bounded by c = w - w^k for
+ * |w| = k^(-1/(k-1)), which never comes closer to 0 than
+ * k^(-1/(k-1)) * (1 - 1/k) (the 1/4 of the cardioid for k = 2).
+ */
+inline bool fastCheckDisc(const fp2 c, const int k) {
+	fp radius = pow((fp) k, (fp) -1 / (k-1)) * (1 - (fp) 1 / k);
+
+	return c.x*c.x + c.y*c.y < radius*radius;
+}
+
+/*
+ * Whether z^k+c (integer k >= 2) has an attracting cycle of period 1 or 2,
+ * i.e. whether c is in the main component or in one of the k-1 largest
+ * satellites of the set (an attracting cycle attracts the orbit of the
+ * critical point 0). z is a point of that orbit, from which a few Newton
+ * steps on f(f(z)) - z find a nearby cycle (fixed points included). It only
+ * counts if its multiplier is clearly below 1, so that rounding errors can not
+ * turn a repelling cycle into an attracting one.
+ */
+inline bool hasAttractingCycle(const fp2 c, fp2 z, const int k) {
+	for (int i = 0; i < 8; i++) {
+		fp2 a = cpowi(z, k-1);
+		fp2 w = cmul(a, z) + c;
+		fp2 b = cpowi(w, k-1);
+
+		// the derivative of f(f(z)), which is the multiplier at the cycle
+		fp2 m = (fp) (k*k) * cmul(a, b);
+		fp2 step = cdiv(cmul(b, w) + c - z, m - (fp2) (1, 0));
+		z -= step;
+
+		if (step.x*step.x + step.y*step.y < 1E-10) {
+			a = cpowi(z, k-1);
+			m = (fp) (k*k) * cmul(a, cpowi(cmul(a, z) + c, k-1));
+
+			return m.x*m.x + m.y*m.y < 0.9;
+		}
+	}
+
+	return false;
+}
+
+/*
+ * Returns the (smoothed) iteration count of c. periodic is incremented if
+ * the orbit has been found to be periodic (see isPeriodic()) or c has been
+ * found in the interior by fastCheckDisc() or hasAttractingCycle().
+ */
+inline fp iterate(fp2 c, const int invert, const fp exponent, const int maxIterations, const fp bailoutSquared, const fp tolerance, int* periodic) {
 	int n = 0;
 	fp aux = 0;
 	fp2 z = (fp2) (0); 
 
+	// state of the cycle detection, disabled if tolerance is zero
+	fp2 saved = z;
+	int steps = 0;
+	int limit = 1;
+
     // should I invert the picture? (+ 1/c instead of +c)
 	if (invert)	{
 		aux = c.x*c.x+c.y*c.y; // = |c|^2
@@ -68,17 +218,62 @@ inline fp iterate(fp2 c, const int invert, const fp exponent, const int maxItera
 			
 		if (fastCheck(c)) 
 			n = maxIterations; 
-		else
+		else {
+#ifdef UNROLL
+			// blocks of UNROLL iterations without checking for the bailout
+			// and the cycle detection in between. If the orbit has escaped
+			// somewhere in a block (or overflown, which fails the comparison
+			// as well), z is reset to the start of the block and the loop
+			// below repeats it step by step, so the count stays the same.
+			// This needs a bailout of at least 2: orbits that leave that disc
+			// never come back, see useUnrolledIteration() in Multibrot.java.
+			// The cycle detection only looks at the ends of the blocks, which
+			// finds every period like in the java lanes (the distances
+			// between the compared points are multiples of UNROLL).
+			while (n + UNROLL <= maxIterations) {
+				fp2 start = z;
+
+				#pragma unroll
+				for (int i = 0; i < UNROLL; i++) {
+					aux = 2 * z.x * z.y + c.y;
+					z.x = z.x*z.x - z.y*z.y + c.x;
+					z.y = aux;
+				}
+
+				if (z.x*z.x+z.y*z.y < bailoutSquared) {
+					n += UNROLL;
+
+					if (tolerance > 0 && isPeriodic(z, &saved, &steps, &limit, tolerance)) {
+						n = maxIterations;
+						(*periodic)++;
+					}
+				} else {
+					z = start;
+					break;
+				}
+			}
+#endif
+
 			while (n < maxIterations && z.x*z.x+z.y*z.y < bailoutSquared) {
 				aux = 2 * z.x * z.y + c.y;
 		    	z.x = z.x*z.x - z.y*z.y + c.x;
 				z.y = aux;
 				n++;
+
+				if (tolerance > 0 && z.x*z.x+z.y*z.y < bailoutSquared && isPeriodic(z, &saved, &steps, &limit, tolerance)) {
+					n = maxIterations;
+					(*periodic)++;
+				}
 			}
+		}
 	} else if (exponent - trunc(exponent) < 1E-10) {
 		// integer exponent other than 2
-		fp2 orig;
 		int exp = (int)exponent;
+
+		if (exp >= 3 && fastCheckDisc(c, exp)) {
+			n = maxIterations;
+			(*periodic)++;
+		}
 	
 		while (n < maxIterations && z.x*z.x+z.y*z.y < bailoutSquared) {
 			if (exp < 0) {
@@ -92,61 +287,58 @@ inline fp iterate(fp2 c, const int invert, const fp exponent, const int maxItera
 				}
 			}
 			
-			orig = z;
-						
-			for (int i=1; i<abs(exp); i++) {
-				aux = z.x * orig.y + z.y * orig.x;
-				z.x = z.x * orig.x - z.y * orig.y;
-				z.y = aux;		
-			}
-				
-			if (!exp) 
+			if (exp) 
+				z = cpowi(z, abs(exp));
+			else
 				z = (fp2) (1,0);
 				
 			z.x += c.x;
 			z.y += c.y;
 	
 			n++;
+
+			// look for an attracting cycle near the orbit whenever n reaches a
+			// power of two from 32 on, orbits that escape early never pay for it
+			if (exp >= 3 && n >= 32 && !(n & (n-1)) && z.x*z.x+z.y*z.y < bailoutSquared && hasAttractingCycle(c, z, exp)) {
+				n = maxIterations;
+				(*periodic)++;
+			} else if (tolerance > 0 && z.x*z.x+z.y*z.y < bailoutSquared && isPeriodic(z, &saved, &steps, &limit, tolerance)) {
+				n = maxIterations;
+				(*periodic)++;
+			}
 		}
 	} else { 
-		// exponent is a float
-			
-		fp2 ln; 
-		fp ex;
-	
-		while (n < maxIterations && z.x*z.x+z.y*z.y < bailoutSquared) {
-			// raise z by exponent
-				
-			if (z.x != 0 || z.y != 0) {
+		// exponent is a float: z^k = e^(k*ln(z)) in polar form, i.e.
+		// |z^k| = e^(k/2 * ln|z|^2) and arg(z^k) = k*arg(z), which takes one
+		// atan2, log, exp and sincos per iteration
+		fp r2 = 0; // |z|^2 of the current z
+
+		while (n < maxIterations && r2 < bailoutSquared) {
+			if (r2 != 0) {
 				// 0^k = 0 forall k in R \ Z
-			
-				// z^k = e^(k*ln(z))
-				// e^(x+yi) = e^x * e^(yi) = e^x * (cos(y) + sin(y) * i)
-				// ln(z) = |z| + phi*i 
-	
-				ln.x = sqrt(z.x*z.x+z.y*z.y);
-				ln.y = acos(z.x / ln.x);
-				ln.x = log(ln.x);
-	
-				if (z.y < 0) 
-					ln.y = -ln.y;
-					
-				if (ln.y < 0)
-					ln.y = ln.y + M_PI * 2;
-	
-				ln.x = exponent * ln.x;
-				ln.y = exponent * ln.y;
-						
-				ex = exp(ln.x);
-	
-				z.x = ex * cos(ln.y);
-				z.y = ex * sin(ln.y);
+
+				// the branch of the logarithm matters for non-integer k,
+				// arg(z) is taken from [0, 2pi)
+				fp phi = atan2(z.y, z.x);
+
+				if (phi < 0)
+					phi += (fp) (2 * M_PI);
+
+				fp cosine;
+				fp sine = SINCOS(exponent * phi, &cosine);
+
+				z = EXP(exponent / 2 * LOG(r2)) * (fp2) (cosine, sine);
 			}
 	
-			z.x = z.x + c.x;
-			z.y = z.y + c.y;
+			z += c;
+			r2 = z.x*z.x+z.y*z.y;
 
 			n++;
+
+			if (tolerance > 0 && r2 < bailoutSquared && isPeriodic(z, &saved, &steps, &limit, tolerance)) {
+				n = maxIterations;
+				(*periodic)++;
+			}
 		}
 	}
 	
@@ -157,3 +349,157 @@ inline fp iterate(fp2 c, const int invert, const fp exponent, const int maxItera
 	else 
 		return n; 				
 }
+
+%% DOUBLE_WORD %%
+
+#ifdef DOUBLE_WORD
+/*
+ * iterate() for c and z in double-words, given as complex double-words (see
+ * dwcMul()). Only the orbit itself is computed in double-words, the checks
+ * that do not need the precision (bailout, fastCheck(), cycle detection)
+ * look at the high words. There are no double-word powers with non-integer
+ * exponents, those are iterated by iterate() from the rounded c.
+ */
+inline fp iterateDoubleWord(fp4 c, const int invert, const fp exponent, const int maxIterations, const fp bailoutSquared, const fp tolerance, int* periodic) {
+	if (exponent != 2 && !(exponent - trunc(exponent) < 1E-10))
+		return iterate(c.xz, invert, exponent, maxIterations, bailoutSquared, tolerance, periodic);
+
+	int n = 0;
+	fp4 z = (fp4) (0);
+	fp r2 = 0; // |z|^2 of the current z
+
+	// state of the cycle detection, disabled if tolerance is zero
+	fp2 saved = (fp2) (0);
+	int steps = 0;
+	int limit = 1;
+
+	if (invert && (c.x || c.z))
+		c = dwcInv(c);
+
+	if (exponent == 2) {
+		if (fastCheck(c.xz))
+			n = maxIterations;
+
+		while (n < maxIterations && r2 < bailoutSquared) {
+			z = dwcSqr(z);
+			z = (fp4) (dwAdd(z.xy, c.xy), dwAdd(z.zw, c.zw));
+			r2 = z.x*z.x + z.z*z.z;
+			n++;
+
+			if (tolerance > 0 && r2 < bailoutSquared && isPeriodic(z.xz, &saved, &steps, &limit, tolerance)) {
+				n = maxIterations;
+				(*periodic)++;
+			}
+		}
+	} else {
+		int exp = (int)exponent;
+
+		if (exp >= 3 && fastCheckDisc(c.xz, exp)) {
+			n = maxIterations;
+			(*periodic)++;
+		}
+
+		while (n < maxIterations && r2 < bailoutSquared) {
+			if (exp < 0 && (z.x || z.z))
+				z = dwcInv(z);
+
+			z = exp ? dwcPowi(z, abs(exp)) : (fp4) (1, 0, 0, 0);
+			z = (fp4) (dwAdd(z.xy, c.xy), dwAdd(z.zw, c.zw));
+			r2 = z.x*z.x + z.z*z.z;
+			n++;
+
+			if (exp >= 3 && n >= 32 && !(n & (n-1)) && r2 < bailoutSquared && hasAttractingCycle(c.xz, z.xz, exp)) {
+				n = maxIterations;
+				(*periodic)++;
+			} else if (tolerance > 0 && r2 < bailoutSquared && isPeriodic(z.xz, &saved, &steps, &limit, tolerance)) {
+				n = maxIterations;
+				(*periodic)++;
+			}
+		}
+	}
+
+	// smooth like iterate()
+	if (n < maxIterations)
+		return n+1-log10(log10(sqrt(r2)))/log10(fabs(exponent));
+	else
+		return n;
+}
+#endif
+
+/*
+ * Returns the (smoothed) iteration count of the point at pos (in pixels of
+ * the whole image, not of the part) of the area, see iterate(). The offset of
+ * the point is added to the low word of the corner first, so that c is only
+ * rounded once, instead of being the sum of the rounded corner and the
+ * offset: that error of the corner would take up to an ulp of c, which for
+ * 32bit floats limits deep zooms long before the pixel spacing does. The
+ * double-word variants add the offset to the corner in double-words.
+ */
+inline fp iterateSample(const area_t area, const fp2 pos, const int invert, const fp exponent, const int maxIterations,
+		const fp bailoutSquared, const fp tolerance, int* periodic) {
+#ifdef DOUBLE_WORD
+	fp4 c = (fp4) (dwAddFp(area.s04, area.s2 * pos.x), dwAddFp(area.s15, area.s3 * pos.y));
+
+	return iterateDoubleWord(c, invert, exponent, maxIterations, bailoutSquared, tolerance, periodic);
+#else
+	fp2 c = (fp2) (area.s0 + (area.s4 + area.s2 * pos.x), area.s1 + (area.s5 + area.s3 * pos.y));
+
+	return iterate(c, invert, exponent, maxIterations, bailoutSquared, tolerance, periodic);
+#endif
+}
+
+/*
+ * Returns the (smoothed) iteration count of C + dc for the standard set,
+ * where C is the reference point whose orbit Z_0 = 0, ..., Z_(length-1) has
+ * been computed in high precision on the host (see ReferenceOrbit.java).
+ * Only the difference dz = z - Z_m of the orbits is iterated,
+ *   dz' = (2 Z_m + dz) dz + dc,
+ * which stays accurate even if the pixels are far closer to each other than
+ * the precision of fp. The first skip iterations are replaced by the series
+ * A dc + B dc^2 + C dc^3 (series holds A r, B r^2, C r^3 and (r, 0)).
+ *
+ * Where |z| gets smaller than |dz|, the difference would lose its precision
+ * (a glitch). The orbit is then rebased onto the start of the reference
+ * orbit, i.e. continued with dz = z relative to Z_0 = 0, which is also done
+ * when the reference orbit ends. rebased is incremented if that has been
+ * necessary.
+ */
+inline fp iteratePerturbed(const fp2 dc, global const fp2* orbit, const int length, global const fp2* series, const int skip,
+		const int maxIterations, const fp bailoutSquared, int* rebased) {
+	int n = skip;
+	int m = skip;
+	int rebases = 0;
+	fp2 dz = (fp2) (0);
+
+	if (skip > 0) {
+		fp2 u = dc / series[3].x;
+		fp2 u2 = cmul(u, u);
+		dz = cmul(series[0], u) + cmul(series[1], u2) + cmul(series[2], cmul(u2, u));
+	}
+
+	fp2 z = orbit[m] + dz;
+	fp r2 = z.x*z.x+z.y*z.y;
+
+	while (n < maxIterations && r2 < bailoutSquared) {
+		if (m == length - 1 || r2 < dz.x*dz.x+dz.y*dz.y) {
+			dz = z;
+			m = 0;
+			rebases = 1;
+		}
+
+		dz = cmul(2 * orbit[m] + dz, dz) + dc;
+		m++;
+		n++;
+
+		z = orbit[m] + dz;
+		r2 = z.x*z.x+z.y*z.y;
+	}
+
+	*rebased += rebases;
+
+	// smooth like iterate()
+	if (n < maxIterations)
+		return n+1-log10(log10(sqrt(r2)))/log10((fp) 2);
+	else
+		return n;
+}
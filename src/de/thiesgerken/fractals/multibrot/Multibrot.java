@@ -1,33 +1,54 @@
 package de.thiesgerken.fractals.multibrot;
 
-import static com.jogamp.opencl.CLCommandQueue.Mode.PROFILING_MODE;
-import static com.jogamp.opencl.CLMemory.Mem.READ_ONLY;
-
 import java.io.InputStream;
-import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.jogamp.opencl.CLBuffer;
-import com.jogamp.opencl.CLContext;
-import com.jogamp.opencl.CLEventList;
-import com.jogamp.opencl.CLKernel;
-import com.jogamp.opencl.CLProgram.CompilerOptions;
-
 import de.thiesgerken.fractals.Fractal;
+import de.thiesgerken.fractals.backend.ComputeBuffer;
+import de.thiesgerken.fractals.backend.ComputeKernel;
+import de.thiesgerken.fractals.backend.ProgramSource;
+import de.thiesgerken.fractals.backend.java.JavaKernel;
+import de.thiesgerken.fractals.backend.java.JavaKernelFactory;
 import de.thiesgerken.fractals.util.Rectangle;
+import de.thiesgerken.fractals.util.Resources;
+import de.thiesgerken.fractals.util.SamplePattern;
 import de.thiesgerken.fractals.util.Size;
 import de.thiesgerken.fractals.util.palettes.Palette;
 
 public abstract class Multibrot extends Fractal {
 	protected final static Logger logger = Logger.getLogger(Multibrot.class.getName());
 
+	/*
+	 * orbits that come closer than this to an earlier point of themselves are
+	 * considered periodic, i.e. in the set
+	 */
+	public static final double DEFAULT_PERIODICITY_TOLERANCE = 1E-10;
+
+	/*
+	 * the bits of the significands of the precisions (see getSafePrecision()),
+	 * those of the double-words are a few less than twice the bits of their
+	 * words
+	 */
+	private static final int FP32_BITS = 24;
+	private static final int FLOAT_FLOAT_BITS = 44;
+	private static final int FP64_BITS = 53;
+	private static final int DOUBLE_DOUBLE_BITS = 100;
+
+	/* the smallest pixels that the perturbation resolves with 32bit floats */
+	private static final double MIN_FP32_PERTURBATION_PIXEL_SIZE = 1E-30;
+
 	/* runtime variables */
-	protected CLBuffer<ByteBuffer> paletteBuffer;
-	protected CLKernel kernel;
+	protected ComputeBuffer paletteBuffer;
+	protected ComputeBuffer periodicityBuffer;
+	protected ComputeBuffer samplesBuffer;
+	protected ComputeKernel kernel;
 
 	/* User-defined parameters */
 	protected Size superSampling;
+	protected String samplePattern;
 	protected Rectangle area;
 	protected Palette palette;
 	protected double palettePhase;
@@ -36,6 +57,16 @@ public abstract class Multibrot extends Fractal {
 	protected double bailout;
 	protected double exponent;
 	protected boolean invert;
+	protected double periodicityTolerance;
+	protected boolean subdivide;
+	protected boolean safeSubdivision;
+	protected double adaptiveThreshold;
+	protected boolean useLanes;
+	protected boolean nativeMath;
+	protected int unroll;
+	protected boolean perturbation;
+	protected boolean autoPrecision;
+	private String chosenPrecision;
 
 	public Multibrot() {
 		super();
@@ -45,40 +76,220 @@ public abstract class Multibrot extends Fractal {
 		this.bailout = 4.0d;
 		this.exponent = 2.0d;
 		this.invert = false;
+		this.periodicityTolerance = DEFAULT_PERIODICITY_TOLERANCE;
+		this.subdivide = false;
+		this.safeSubdivision = true;
 		this.palette = new Palette();
 		this.palettePhase = 0;
 		this.paletteCycles = 4;
 		this.superSampling = new Size(1, 1);
+		this.samplePattern = SamplePattern.GRID;
+		this.adaptiveThreshold = 0;
+		this.useLanes = true;
 	}
 
 	public static Rectangle getDefaultArea() {
 		return new Rectangle(-2.1d, -1.5d, 3.0d, 3.0d);
 	}
 
-	protected abstract CLContext createContext();
+	/**
+	 * The name of the multibrot kernel for the
+	 * {@link de.thiesgerken.fractals.backend.WorkSizeTuner}.
+	 */
+	protected String getKernelName() {
+		if (usePerturbation())
+			return getClass().getSimpleName() + ".perturbation";
+
+		return getClass().getSimpleName() + (useDoubleWordIteration() ? ".multibrot.dw" : ".multibrot");
+	}
+
+	@Override
+	protected boolean supportsDoubleWords() {
+		return true;
+	}
+
+	/**
+	 * Also accepts {@link Fractal#AUTO}, which chooses the precision of every
+	 * image when it is rendered (see {@link #choosePrecision()}) until another
+	 * precision is selected.
+	 */
+	@Override
+	public void setPrecision(String precision) {
+		autoPrecision = AUTO.equals(precision);
+		chosenPrecision = null;
+
+		if (!autoPrecision)
+			super.setPrecision(precision);
+	}
+
+	/**
+	 * Whether the precision is chosen for every image, see
+	 * {@link #setPrecision(String)}.
+	 */
+	public boolean useAutoPrecision() {
+		return autoPrecision;
+	}
+
+	private double getPixelSize() {
+		return Math.min(area.getWidth() / size.getWidth(), area.getHeight() / size.getHeight());
+	}
+
+	/**
+	 * The bits of the significand that the points and orbits of the image
+	 * need: those that tell neighbouring pixels apart at the largest
+	 * magnitude of the coordinates (at least 2, which the orbits reach before
+	 * they escape), half a bit per doubling of maxIterations for the rounding
+	 * errors that pile up along the orbits, and two more.
+	 */
+	public int getRequiredBits() {
+		double magnitude = Math.max(2, Math.max(Math.max(Math.abs(area.getX()), Math.abs(area.getX() + area.getWidth())),
+				Math.max(Math.abs(area.getY()), Math.abs(area.getY() + area.getHeight()))));
+
+		return (int) Math.ceil(Math.log(magnitude / getPixelSize()) / Math.log(2) + Math.log(Math.max(2, maxIterations)) / Math.log(2) / 2) + 2;
+	}
 
-	protected void initCL() throws Exception {
-		if (device == null)
-			throw new Exception("device must not be null");
+	/**
+	 * The lowest precision that is safe for the image on the device (see
+	 * {@link #getRequiredBits()}): fp32 if it is enough, otherwise fp64 and
+	 * then dd, or ff on devices without 64bit floats. The perturbation only
+	 * iterates differences, which need the range of the exponents rather than
+	 * more bits: fp32 down to pixels of 1E-30, fp64 below.
+	 */
+	public String getSafePrecision() {
+		boolean doubles = getAllDevices().get(0).isDoubleFPAvailable();
+
+		if (usePerturbation())
+			return getPixelSize() >= MIN_FP32_PERTURBATION_PIXEL_SIZE || !doubles ? FP32 : FP64;
+
+		int bits = getRequiredBits();
+
+		if (bits <= FP32_BITS)
+			return FP32;
+		else if (!doubles)
+			return FLOAT_FLOAT;
+		else if (bits <= FP64_BITS)
+			return FP64;
+		else
+			return DOUBLE_DOUBLE;
+	}
 
-		if (isInitialized)
+	/**
+	 * Switches to {@link #getSafePrecision()} if the precision is chosen
+	 * automatically, and logs the decision if it has changed. Renderers call
+	 * this before they prepare anything for an image.
+	 */
+	protected void choosePrecision() {
+		if (!autoPrecision)
 			return;
 
-		logger.log(Level.INFO, "Initializing CL for device " + device.getName());
+		String precision = getSafePrecision();
+		int bits = getRequiredBits();
+
+		if (precision.equals(chosenPrecision))
+			return;
+
+		// e.g. the samples are kept in the floats of the precision
+		if (!precision.equals(getPrecision()))
+			isConfigured = false;
+
+		super.setPrecision(precision);
+		chosenPrecision = precision;
+
+		logger.log(Level.INFO, "Chose the precision " + precision + (usePerturbation() ? " for the perturbation" : " for " + bits + " bits")
+				+ " (pixel size = " + getPixelSize() + ", maxIterations = " + maxIterations + ")");
+
+		if (!usePerturbation() && (FLOAT_FLOAT.equals(precision) && bits > FLOAT_FLOAT_BITS || DOUBLE_DOUBLE.equals(precision) && bits > DOUBLE_DOUBLE_BITS))
+			logger.log(Level.WARNING, "The precision " + precision + " has only about " + (fp64 ? DOUBLE_DOUBLE_BITS : FLOAT_FLOAT_BITS)
+					+ " bits, the image might be pixelated" + (exponent == 2 && !invert ? " (consider the perturbation)." : "."));
+	}
+
+	/**
+	 * Whether the multibrot kernel iterates double-words (see
+	 * {@link #setPrecision(String)}), which the perturbation does not need.
+	 */
+	protected boolean useDoubleWordIteration() {
+		return doubleWord && !usePerturbation();
+	}
+
+	/**
+	 * Whether the pixels are iterated relative to a reference orbit, see
+	 * {@link #setPerturbation(boolean)}.
+	 */
+	protected boolean usePerturbation() {
+		return false;
+	}
+
+	/**
+	 * Whether the standard set is iterated in blocks, see
+	 * {@link #setUnroll(int)}. An orbit that leaves a disc of radius 2 never
+	 * comes back, so a smaller bailout could be missed in the middle of a
+	 * block and iterates step by step.
+	 */
+	protected boolean useUnrolledIteration() {
+		return unroll > 1 && exponent == 2 && bailout >= 2;
+	}
+
+	/**
+	 * The area that is passed to the kernel: the area itself or, with
+	 * {@link #usePerturbation()}, the area relative to the reference point.
+	 */
+	protected Rectangle getKernelArea() {
+		return area;
+	}
+
+	@Override
+	protected ProgramSource getProgramSource() throws Exception {
+		return new ProgramSource(getClass().getSimpleName(), insertDoubleWords(Resources.read(Multibrot.class.getResourceAsStream("Multibrot.cl"))) + "\n"
+				+ Resources.read(getSource()),
+				new JavaKernelFactory() {
+					@Override
+					public JavaKernel createKernel(String name) {
+						return createJavaKernel(name);
+					}
+				}, getDefines());
+	}
+
+	/**
+	 * The parameters that are baked into the program (see Multibrot.cl): the
+	 * exponent if it is an integer (all other exponents share one variant),
+	 * the invert flag, the samples per pixel unless the adaptive
+	 * supersampling changes them while rendering, whether the native (less
+	 * accurate) math functions are used, the block size of the unrolled
+	 * iteration of the standard set and whether double-words are iterated.
+	 */
+	protected Map<String, String> getDefines() {
+		Map<String, String> defines = new LinkedHashMap<String, String>();
+
+		if (exponent == Math.rint(exponent) && Math.abs(exponent) < Integer.MAX_VALUE)
+			defines.put("EXPONENT", Long.toString((long) exponent));
+
+		defines.put("INVERT", invert ? "1" : "0");
+
+		if (!useAdaptiveSupersampling())
+			defines.put("SAMPLES", Integer.toString(superSampling.getWidth() * superSampling.getHeight()));
 
-		context = createContext();
-		cl = context.getCL();
-		queue = device.createCommandQueue(PROFILING_MODE);
-		program = context.createProgram(read(getClass().getResourceAsStream("Multibrot.cl")) + "\n" + read(getSource()));
-		probe = new CLEventList(1);
+		if (nativeMath)
+			defines.put("NATIVE_MATH", "1");
 
-		isInitialized = true;
-		isCompiled = false;
-		isConfigured = false;
+		if (useUnrolledIteration())
+			defines.put("UNROLL", Integer.toString(unroll));
+
+		if (useDoubleWordIteration()) {
+			defines.put("DOUBLE_WORD", "1");
+			defines.put(ProgramSource.STRICT_MATH, "1");
+		}
+
+		return defines;
 	}
 
 	protected abstract InputStream getSource();
 
+	/**
+	 * Returns the java implementation of the kernel with the given name (see
+	 * {@link JavaMultibrotKernels}), or null if there is none.
+	 */
+	protected abstract JavaKernel createJavaKernel(String name);
+
 	protected abstract void setCustomKernelArguments();
 
 	protected void setKernelArguments() {
@@ -91,51 +302,117 @@ public abstract class Multibrot extends Fractal {
 			paletteBuffer.release();
 
 		if (palette != null) {
-			paletteBuffer = context.createBuffer(palette.createBuffer(device.getByteOrder()), READ_ONLY);
-			queue.putWriteBuffer(paletteBuffer, true);
+			paletteBuffer = context.createIntBuffer(palette.getLength());
+			paletteBuffer.write(palette.getColors(), 0, palette.getLength());
 		}
 
-		kernel.setForce32BitArgs(!fp64);
+		if (periodicityBuffer != null && !periodicityBuffer.isReleased())
+			periodicityBuffer.release();
+
+		periodicityBuffer = context.createIntBuffer(1);
+		periodicityBuffer.write(new int[1], 0, 1);
+
+		if (samplesBuffer != null && !samplesBuffer.isReleased())
+			samplesBuffer.release();
+
+		double[] offsets = SamplePattern.create(samplePattern, superSampling);
+		samplesBuffer = context.createFPBuffer(offsets.length, fp64);
+
+		if (fp64)
+			samplesBuffer.write(offsets, 0, offsets.length);
+		else
+			samplesBuffer.write(SamplePattern.toFloats(offsets), 0, offsets.length);
 
-		setArg(kernel.getID(), 0, new int[] { size.getWidth(), size.getHeight() });
-		setArg(kernel.getID(), 1, new double[] { area.getX(), area.getY(), area.getWidth(), area.getHeight() });
+		kernel.setArg(0, new int[] { size.getWidth(), size.getHeight() });
+		kernel.setArg(1, getAreaArgument(0, 0));
 		kernel.setArg(2, maxIterations);
 		kernel.setArg(3, bailout * bailout);
 		kernel.setArg(4, exponent);
 		kernel.setArg(5, invert ? 1 : 0);
-		setArg(kernel.getID(), 6, new int[] { superSampling.getWidth(), superSampling.getHeight() });
+		kernel.setArg(6, useAdaptiveSupersampling() ? new int[] { 1, 1 } : new int[] { superSampling.getWidth(), superSampling.getHeight() });
+		kernel.setArg(7, getKernelPeriodicityTolerance());
 
 		setCustomKernelArguments();
 
 		isConfigured = true;
 	}
 
-	protected void buildKernel() throws Exception {
-		if (isCompiled)
-			return;
+	/**
+	 * The area argument of the kernel for a part of the image that starts at
+	 * pixel (left, top), see area_t in Multibrot.cl: the corner of
+	 * {@link #getKernelArea()} by its high words x and y, the width and height
+	 * of a pixel, the low words of x and y and the offset of the part. The
+	 * kernels add the offset to the pixels before scaling them, so a pixel
+	 * gets the same point however the image is split into parts. The words
+	 * are floats for fp32 and ff and doubles otherwise. For the perturbation
+	 * kernel, the corner is relative to the reference and has no low words.
+	 */
+	protected double[] getAreaArgument(int left, int top) {
+		Rectangle area = getKernelArea();
+		double pixelWidth = area.getWidth() / size.getWidth();
+		double pixelHeight = area.getHeight() / size.getHeight();
+
+		if (usePerturbation())
+			return new double[] { area.getX(), area.getY(), pixelWidth, pixelHeight, 0, 0, left, top };
+
+		double[] x = toDoubleWord(area.getExactX());
+		double[] y = toDoubleWord(area.getExactY());
+
+		return new double[] { x[0], y[0], pixelWidth, pixelHeight, x[1], y[1], left, top };
+	}
 
-		if (fp64 && !device.isDoubleFPAvailable())
-			throw new Exception("the selected device does not have 64bit floating point support");
+	/**
+	 * The tolerance of the cycle detection that is passed to the kernel. With
+	 * {@link #useDoubleWordIteration()}, it is limited to a thousandth of the
+	 * pixel size: tolerances that suit fp64 would take the orbits of all
+	 * pixels of deeper zooms for periodic.
+	 */
+	protected double getKernelPeriodicityTolerance() {
+		if (!useDoubleWordIteration())
+			return periodicityTolerance;
 
-		logger.log(Level.INFO, "Compiling kernel for " + (fp64 ? "64" : "32") + "-bit floats");
+		double pixelSize = Math.min(area.getWidth() / size.getWidth(), area.getHeight() / size.getHeight());
 
-		configure = program.prepare();
+		return Math.min(periodicityTolerance, pixelSize / 1000);
+	}
 
-		if (fp64) {
-			configure.withDefine("FP64");
+	/**
+	 * Returns the amount of pixels whose iteration has been ended by the cycle
+	 * detection since the last call. Must not be called while kernels are
+	 * running.
+	 */
+	protected int readPeriodicPixels() {
+		if (periodicityBuffer == null || periodicityBuffer.isReleased())
+			return 0;
 
-			if (device.isExtensionAvailable("cl_amd_fp64"))
-				configure.withDefine("AMDFP64");
-		}
+		int[] count = new int[1];
+		periodicityBuffer.read(count, 0, 1);
+		periodicityBuffer.write(new int[1], 0, 1);
 
-		configure.forDevice(device);
-		configure.withOption(CompilerOptions.FAST_RELAXED_MATH).build();
+		return count[0];
+	}
 
-		kernel = program.createCLKernel("multibrot");
-		buildCustomKernel();
+	/**
+	 * Describes how many of the given pixels have been ended early by the
+	 * cycle detection, for the log.
+	 */
+	protected String describePeriodicPixels(long periodicPixels, long pixels) {
+		// the interior checks for integer exponents above 2 count as well and
+		// do not depend on the tolerance
+		if (periodicityTolerance <= 0 && periodicPixels == 0)
+			return "cycle detection disabled";
+
+		return "cycle detection ended " + periodicPixels + " of " + pixels + " px (" + Math.round(100d * periodicPixels / pixels) + "%) early";
+	}
 
-		isCompiled = true;
-		isConfigured = false;
+	@Override
+	protected void createKernels() throws Exception {
+		// the kernel of the previously built variant
+		if (kernel != null && !kernel.isReleased())
+			kernel.release();
+
+		kernel = program.createKernel(usePerturbation() ? "perturbation" : "multibrot");
+		buildCustomKernel();
 	}
 
 	public void release() {
@@ -144,24 +421,44 @@ public abstract class Multibrot extends Fractal {
 		if (paletteBuffer != null && !paletteBuffer.isReleased())
 			paletteBuffer.release();
 
-		if (kernel != null && !kernel.isReleased())
-			kernel.release();
-
-		if (queue != null && !queue.isReleased())
-			queue.release();
+		if (periodicityBuffer != null && !periodicityBuffer.isReleased())
+			periodicityBuffer.release();
 
-		if (program != null && !program.isReleased())
-			program.release();
+		if (samplesBuffer != null && !samplesBuffer.isReleased())
+			samplesBuffer.release();
 
-		if (context != null && !context.isReleased())
-			context.release();
+		if (kernel != null && !kernel.isReleased())
+			kernel.release();
 
-		isCompiled = false;
-		isConfigured = false;
-		isInitialized = false;
+		releaseContext();
 	}
 
-	protected abstract void buildCustomKernel();
+	protected abstract void buildCustomKernel() throws Exception;
+
+	@Override
+	protected void copyParametersTo(Fractal fractal) {
+		super.copyParametersTo(fractal);
+
+		Multibrot other = (Multibrot) fractal;
+		other.setArea(area);
+		other.setMaxIterations(maxIterations);
+		other.setBailout(bailout);
+		other.setExponent(exponent);
+		other.setInvert(invert);
+		other.setPeriodicityTolerance(periodicityTolerance);
+		other.setSubdivide(subdivide);
+		other.setSafeSubdivision(safeSubdivision);
+		other.setSuperSampling(superSampling);
+		other.setSamplePattern(samplePattern);
+		other.setAdaptiveThreshold(adaptiveThreshold);
+		other.setPalette(palette);
+		other.setPalettePhase(palettePhase);
+		other.setPaletteCycles(paletteCycles);
+		other.setUseLanes(useLanes);
+		other.setUseNativeMath(nativeMath);
+		other.setUnroll(unroll);
+		other.setPerturbation(perturbation);
+	}
 
 	protected void printParameters() {
 		StringBuilder sb = new StringBuilder();
@@ -171,6 +468,8 @@ public abstract class Multibrot extends Fractal {
 		sb.append("maxIterations = " + maxIterations);
 		sb.append(", size = " + size);
 		sb.append(", superSampling = " + superSampling);
+		sb.append(", samplePattern = " + samplePattern);
+		sb.append(", adaptiveThreshold = " + adaptiveThreshold);
 		sb.append(", area = " + area);
 		sb.append(", palette = " + palette);
 		sb.append(", palettePhase = " + palettePhase);
@@ -178,29 +477,173 @@ public abstract class Multibrot extends Fractal {
 		sb.append(", bailout = " + bailout);
 		sb.append(", exponent = " + exponent);
 		sb.append(", invert = " + invert);
-		sb.append(", fp64 = " + fp64);
+		sb.append(", periodicityTolerance = " + periodicityTolerance);
+		sb.append(", subdivide = " + (subdivide ? (safeSubdivision ? "safe" : "always") : "off"));
+		sb.append(", precision = " + getPrecision() + (autoPrecision ? " (auto)" : ""));
+
+		if (nativeMath)
+			sb.append(", nativeMath = true");
+
+		if (useUnrolledIteration())
+			sb.append(", unroll = " + unroll);
+
+		if (perturbation)
+			sb.append(", perturbation = true");
 
 		logger.log(Level.INFO, sb.toString());
 	}
 
+	public boolean getUseLanes() {
+		return useLanes;
+	}
+
+	/**
+	 * Selects whether the java backend iterates several subpixels interleaved
+	 * (see {@link JavaMultibrotLanes}) or one after another.
+	 */
+	public void setUseLanes(boolean useLanes) {
+		if (useLanes != this.useLanes)
+			isCompiled = false;
+
+		this.useLanes = useLanes;
+	}
+
+	public boolean getUseNativeMath() {
+		return nativeMath;
+	}
+
+	/**
+	 * Selects whether the OpenCL kernels use the native_* functions of the
+	 * device for the powers with non-integer exponents. They are faster, but
+	 * their accuracy is implementation-defined, so this only applies to 32bit
+	 * floats. The java backend ignores it.
+	 */
+	public void setUseNativeMath(boolean nativeMath) {
+		if (nativeMath != this.nativeMath)
+			isCompiled = false;
+
+		this.nativeMath = nativeMath;
+	}
+
+	public int getUnroll() {
+		return unroll;
+	}
+
+	/**
+	 * Iterates the standard set in blocks of unroll iterations that are only
+	 * checked for the bailout at their end (blocks in which the orbit escapes
+	 * are repeated step by step, so the counts do not change), off if unroll
+	 * <= 1 or the bailout is below 2. The cycle detection then only compares
+	 * the ends of the blocks.
+	 */
+	public void setUnroll(int unroll) {
+		if (unroll != this.unroll)
+			isCompiled = false;
+
+		this.unroll = unroll;
+	}
+
+	public boolean getPerturbation() {
+		return perturbation;
+	}
+
+	/**
+	 * Selects whether deep zooms of the standard set are rendered by
+	 * perturbation: only a reference orbit is computed in arbitrary precision
+	 * (see {@link ReferenceOrbit}), the pixels are iterated relative to it.
+	 * This allows areas far smaller than the precision of the floats of the
+	 * device, given by an exact center (see {@link Rectangle}). Only
+	 * supported by {@link MultibrotRendererQuality}.
+	 */
+	public void setPerturbation(boolean perturbation) {
+		if (perturbation != this.perturbation) {
+			isConfigured = false;
+			isCompiled = false;
+		}
+
+		this.perturbation = perturbation;
+	}
+
 	public boolean getInvert() {
 		return invert;
 	}
 
 	public void setInvert(boolean invert) {
-		if (invert != this.invert)
+		if (invert != this.invert) {
 			isConfigured = false;
+			isCompiled = false;
+		}
 
 		this.invert = invert;
 	}
 
+	/**
+	 * Whether the set has no holes, i.e. whether filling rectangles whose
+	 * borders are in the set (see {@link Subdivision}) is correct. This is
+	 * known for integer exponents k >= 2 only; inverting the picture maps
+	 * the point at infinity (which is outside) to a hole at the origin.
+	 */
+	public boolean isSimplyConnected() {
+		return !invert && exponent >= 2 && exponent == Math.floor(exponent);
+	}
+
+	/**
+	 * Whether images are rendered using {@link Subdivision}, taking the safe
+	 * mode into account.
+	 */
+	public boolean useSubdivision() {
+		return subdivide && (!safeSubdivision || isSimplyConnected());
+	}
+
+	public boolean getSubdivide() {
+		return subdivide;
+	}
+
+	/**
+	 * Selects whether images are rendered using {@link Subdivision}, which
+	 * only computes the borders of rectangles that turn out to be uniform.
+	 */
+	public void setSubdivide(boolean subdivide) {
+		this.subdivide = subdivide;
+	}
+
+	public boolean getSafeSubdivision() {
+		return safeSubdivision;
+	}
+
+	/**
+	 * In safe mode, the subdivision is not used if the set might have holes,
+	 * see {@link #isSimplyConnected()}.
+	 */
+	public void setSafeSubdivision(boolean safeSubdivision) {
+		this.safeSubdivision = safeSubdivision;
+	}
+
+	public double getPeriodicityTolerance() {
+		return periodicityTolerance;
+	}
+
+	/**
+	 * Sets the distance below which an orbit is considered to have run into
+	 * a cycle, which ends its iteration early. Zero disables the cycle
+	 * detection.
+	 */
+	public void setPeriodicityTolerance(double periodicityTolerance) {
+		if (periodicityTolerance != this.periodicityTolerance)
+			isConfigured = false;
+
+		this.periodicityTolerance = periodicityTolerance;
+	}
+
 	public double getExponent() {
 		return exponent;
 	}
 
 	public void setExponent(double exponent) {
-		if (exponent != this.exponent)
+		if (exponent != this.exponent) {
 			isConfigured = false;
+			isCompiled = false;
+		}
 
 		this.exponent = exponent;
 	}
@@ -213,6 +656,10 @@ public abstract class Multibrot extends Fractal {
 		if (bailout != this.bailout)
 			isConfigured = false;
 
+		// UNROLL is only defined for a bailout of at least 2
+		if (unroll > 1 && (bailout >= 2) != (this.bailout >= 2))
+			isCompiled = false;
+
 		this.bailout = bailout;
 	}
 
@@ -276,10 +723,54 @@ public abstract class Multibrot extends Fractal {
 	}
 
 	public void setSuperSampling(Size superSampling) {
-		if (superSampling != this.superSampling)
+		if (superSampling != this.superSampling) {
 			isConfigured = false;
+			isCompiled = false;
+		}
 
 		this.superSampling = superSampling;
 	}
 
+	public String getSamplePattern() {
+		return samplePattern;
+	}
+
+	/**
+	 * Selects where the samples of the supersampling are placed inside of the
+	 * pixels, one of {@link SamplePattern#NAMES}.
+	 */
+	public void setSamplePattern(String samplePattern) {
+		if (!samplePattern.equals(this.samplePattern))
+			isConfigured = false;
+
+		this.samplePattern = samplePattern;
+	}
+
+	public double getAdaptiveThreshold() {
+		return adaptiveThreshold;
+	}
+
+	/**
+	 * Sets the threshold of the adaptive supersampling: images are rendered
+	 * with one sample per pixel first, then only pixels that differ from one
+	 * of their neighbours by more than the threshold are rendered again with
+	 * the full supersampling. Zero supersamples every pixel.
+	 */
+	public void setAdaptiveThreshold(double adaptiveThreshold) {
+		if (adaptiveThreshold != this.adaptiveThreshold) {
+			isConfigured = false;
+			isCompiled = false;
+		}
+
+		this.adaptiveThreshold = adaptiveThreshold;
+	}
+
+	/**
+	 * Whether images are supersampled adaptively, see
+	 * {@link #setAdaptiveThreshold(double)}.
+	 */
+	public boolean useAdaptiveSupersampling() {
+		return adaptiveThreshold > 0 && superSampling.getWidth() * superSampling.getHeight() > 1;
+	}
+
 }
@@ -0,0 +1,366 @@
+package de.thiesgerken.fractals.multibrot;
+
+import static java.lang.System.out;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import de.thiesgerken.commandlineparser.Argument;
+import de.thiesgerken.commandlineparser.ParseException;
+import de.thiesgerken.commandlineparser.ValueArgument;
+import de.thiesgerken.fractals.Fractal;
+import de.thiesgerken.fractals.FractalCLI;
+import de.thiesgerken.fractals.backend.ComputeDevice;
+import de.thiesgerken.fractals.backend.java.JavaDevice;
+import de.thiesgerken.fractals.util.Formatter;
+import de.thiesgerken.fractals.util.ParallelRows;
+import de.thiesgerken.fractals.util.Rectangle;
+import de.thiesgerken.fractals.util.SamplePattern;
+import de.thiesgerken.fractals.util.Size;
+
+/**
+ * Compares the throughput of the java multibrot kernels. Every kernel renders
+ * the same image a few times, the best time is reported together with the
+ * deviation of its iteration counts from the scalar 64bit kernel (for
+ * non-integer exponents: from the scalar kernel that computes the powers in
+ * cartesian form, as all kernels did before the polar form).
+ *
+ * For the standard set, the scalar kernel is also run with the unrolled
+ * iteration (see {@link Multibrot#setUnroll(int)}), and every OpenCL device
+ * given by --device renders the counts with and without it.
+ */
+public class MultibrotBenchmarkCLI extends FractalCLI {
+	private ValueArgument<Integer> maxIterationsArgument;
+	private ValueArgument<Double> exponentArgument;
+	private ValueArgument<Size> superSamplingArgument;
+	private ValueArgument<Rectangle> areaArgument;
+	private ValueArgument<Integer> repeatArgument;
+	private ValueArgument<Integer> unrollArgument;
+
+	private Size size;
+	private Rectangle area;
+	private int maxIterations;
+	private double exponent;
+	private Size superSampling;
+	private int repeat;
+	private int unroll;
+
+	private ParallelRows workers;
+
+	public void doStuff() {
+		size = sizeArgument.wasParsed() ? sizeArgument.getValue() : new Size(1024, 1024);
+		area = areaArgument.wasParsed() ? areaArgument.getValue() : new Rectangle(-0.7845, 0.1355, 0.02, 0.02);
+		maxIterations = maxIterationsArgument.wasParsed() ? maxIterationsArgument.getValue() : 2000;
+		exponent = exponentArgument.wasParsed() ? exponentArgument.getValue() : 2;
+		superSampling = superSamplingArgument.wasParsed() ? superSamplingArgument.getValue() : new Size(1, 1);
+		repeat = repeatArgument.wasParsed() ? repeatArgument.getValue() : 3;
+		unroll = unrollArgument.wasParsed() ? unrollArgument.getValue() : 8;
+
+		workers = new ParallelRows(threadsArgument.wasParsed() ? threadsArgument.getValue() : 0);
+
+		out.println("Benchmarking java multibrot kernels on " + workers.getThreadCount() + " threads: size = " + size + ", superSampling = "
+				+ superSampling + ", maxIterations = " + maxIterations + ", exponent = " + exponent + ", area = " + area);
+		out.println();
+		out.println(" Kernel       |     Time |      Throughput | Speedup | Max. deviation | Deviating px");
+		out.println("--------------|----------|-----------------|---------|----------------|-------------");
+
+		try {
+			double[][] reference = new double[size.getHeight()][];
+			long referenceTime;
+
+			// see JavaMultibrot.iterate() for which exponents take the float path
+			if (exponent - (long) exponent < 1E-10)
+				referenceTime = run("scalar fp64", false, true, false, false, 0, 0, reference, null, 0);
+			else {
+				referenceTime = run("cartesian", false, true, true, false, 0, 0, reference, null, 0);
+				run("scalar fp64", false, true, false, false, 0, 0, new double[size.getHeight()][], reference, referenceTime);
+			}
+
+			if (exponent == 2)
+				run("unrolled " + unroll, false, true, false, false, unroll, 0, new double[size.getHeight()][], reference, referenceTime);
+
+			run("scalar fp32", false, false, false, false, 0, 0, new double[size.getHeight()][], reference, referenceTime);
+			run("scalar dd", false, true, false, true, 0, 0, new double[size.getHeight()][], reference, referenceTime);
+			run("lanes fp64", true, true, false, false, 0, 0, new double[size.getHeight()][], reference, referenceTime);
+			run("lanes fp32", true, false, false, false, 0, 0, new double[size.getHeight()][], reference, referenceTime);
+
+			// the same with cycle detection
+			run("scalar cyc.", false, true, false, false, 0, Multibrot.DEFAULT_PERIODICITY_TOLERANCE, new double[size.getHeight()][], reference, referenceTime);
+
+			if (exponent == 2)
+				run("unroll cyc.", false, true, false, false, unroll, Multibrot.DEFAULT_PERIODICITY_TOLERANCE, new double[size.getHeight()][], reference,
+						referenceTime);
+
+			run("lanes cyc.", true, true, false, false, 0, Multibrot.DEFAULT_PERIODICITY_TOLERANCE, new double[size.getHeight()][], reference, referenceTime);
+
+			if (deviceArgument.wasParsed() && exponent == 2)
+				for (ComputeDevice device : deviceArgument.getValue())
+					if (device != null && !(device instanceof JavaDevice))
+						runOnDevice(device);
+		} finally {
+			workers.shutdown();
+		}
+	}
+
+	private long run(String name, boolean useLanes, boolean fp64, boolean cartesianPowers, boolean doubleWord, int unroll,
+			double periodicityTolerance, final double[][] values, double[][] reference, long referenceTime) {
+		// like Multibrot.getAreaArgument(), only double-words use the low words
+		double[] areaArgument = new double[] { area.getX(), area.getY(), area.getWidth() / size.getWidth(), area.getHeight() / size.getHeight(),
+				doubleWord ? area.getExactX().subtract(new BigDecimal(area.getX())).doubleValue() : 0,
+				doubleWord ? area.getExactY().subtract(new BigDecimal(area.getY())).doubleValue() : 0, 0, 0 };
+
+		final JavaMultibrot kernel = new JavaMultibrot(size, areaArgument, maxIterations, 4, exponent, false, superSampling,
+				SamplePattern.create(SamplePattern.GRID, superSampling), periodicityTolerance, useLanes, fp64);
+		kernel.setCartesianPowers(cartesianPowers);
+		kernel.setUnroll(unroll);
+		kernel.setDoubleWord(doubleWord);
+
+		long best = Long.MAX_VALUE;
+
+		// the first run also warms up the jit compiler
+		for (int i = 0; i <= repeat; i++) {
+			long time = System.nanoTime();
+
+			workers.forEachRow(size.getHeight(), new ParallelRows.RowKernel() {
+				@Override
+				public void computeRow(int y) {
+					values[y] = kernel.iterateRow(y);
+				}
+			});
+
+			time = System.nanoTime() - time;
+
+			if (i > 0 && time < best)
+				best = time;
+		}
+
+		double maxDeviation = 0;
+		long deviating = 0;
+
+		if (reference != null)
+			for (int y = 0; y < size.getHeight(); y++)
+				for (int i = 0; i < values[y].length; i++) {
+					double deviation = Math.abs(values[y][i] - reference[y][i]);
+
+					if (deviation > 1E-6)
+						deviating++;
+
+					if (deviation > maxDeviation)
+						maxDeviation = deviation;
+				}
+
+		printRow(name, best, reference == null ? 1 : (double) referenceTime / best, maxDeviation, deviating);
+
+		return best;
+	}
+
+	/**
+	 * Prints the row of counts that have been computed on a device, compared
+	 * to those of another row.
+	 */
+	private void printRow(String name, long time, long referenceTime, double[] counts, double[] reference) {
+		double maxDeviation = 0;
+		long deviating = 0;
+
+		for (int i = 0; i < counts.length; i++) {
+			double deviation = Math.abs(counts[i] - reference[i]);
+
+			if (deviation > 1E-6)
+				deviating++;
+
+			if (deviation > maxDeviation)
+				maxDeviation = deviation;
+		}
+
+		printRow(name, time, (double) referenceTime / time, maxDeviation, deviating);
+	}
+
+	private void printRow(String name, long time, double speedup, double maxDeviation, long deviating) {
+		out.println(String.format(" %-12s | %8s | %15s | %6.2fx | %14.4g | %12s", name, Formatter.formatTime(time),
+				Formatter.formatThroughput((long) size.getWidth() * size.getHeight(), time), speedup, maxDeviation, Formatter.formatInt((int) deviating)));
+	}
+
+	/**
+	 * Renders the counts on an OpenCL device step by step and unrolled, both
+	 * without the cycle detection, and compares them. Devices with 64bit
+	 * floats also render them in fp64 (unless that is the precision of the
+	 * other rows anyway) and in double-double, which is compared to fp64.
+	 * All devices render them in float-float, which is compared to fp64 if
+	 * the device has it.
+	 */
+	private void runOnDevice(ComputeDevice device) {
+		out.println("--------------|----------|-----------------|---------|----------------|-------------");
+		out.println(" " + device.getName());
+
+		MultibrotRendererQuality brot = new MultibrotRendererQuality();
+
+		try {
+			brot.setDevice(device);
+			brot.setUse64bitFloats(fp64Argument.wasParsed());
+			brot.setSize(size);
+			brot.setArea(area);
+			brot.setMaxIterations(maxIterations);
+			brot.setSuperSampling(superSampling);
+			brot.setPeriodicityTolerance(0);
+
+			double[] reference = new double[size.getWidth() * size.getHeight()];
+			long referenceTime = runOnDevice(brot, 0, reference);
+			printRow("step by step", referenceTime, 1, 0, 0);
+
+			double[] counts = new double[reference.length];
+			long time = runOnDevice(brot, unroll, counts);
+			printRow("unrolled " + unroll, time, referenceTime, counts, reference);
+
+			double[] fp64Counts = reference;
+
+			if (device.isDoubleFPAvailable()) {
+				if (!brot.use64bitFloats()) {
+					fp64Counts = new double[reference.length];
+					brot.setPrecision(Fractal.FP64);
+					printRow("fp64", runOnDevice(brot, 0, fp64Counts), referenceTime, fp64Counts, reference);
+				}
+
+				brot.setPrecision(Fractal.DOUBLE_DOUBLE);
+				printRow("dd", runOnDevice(brot, 0, counts), referenceTime, counts, fp64Counts);
+			}
+
+			brot.setPrecision(Fractal.FLOAT_FLOAT);
+			printRow("ff", runOnDevice(brot, 0, counts), referenceTime, counts, fp64Counts);
+		} catch (Exception e) {
+			out.println(" failed: " + e.getMessage());
+		} finally {
+			brot.release();
+		}
+	}
+
+	/**
+	 * Computes the counts with the given unroll a few times, stores them in
+	 * counts and returns the best time in ns.
+	 */
+	private long runOnDevice(MultibrotRendererQuality brot, int unroll, double[] counts) throws Exception {
+		brot.setUnroll(unroll);
+		long best = Long.MAX_VALUE;
+
+		// the first run also builds the program
+		for (int i = 0; i <= repeat; i++) {
+			long time = System.nanoTime();
+			brot.calculate();
+			time = System.nanoTime() - time;
+
+			if (i > 0 && time < best)
+				best = time;
+
+			for (int j = 0; j < counts.length; j++)
+				counts[j] = brot.doubleCounts != null ? brot.doubleCounts[j] : brot.floatCounts[j];
+
+			brot.freeBuffers();
+		}
+
+		return best;
+	}
+
+	public Argument[] getArguments() {
+		return new Argument[] { deviceArgument, threadsArgument, fp64Argument, sizeArgument, maxIterationsArgument, exponentArgument, superSamplingArgument,
+				areaArgument, repeatArgument, unrollArgument };
+	}
+
+	public void initializeArguments() {
+		super.initializeArguments();
+
+		sizeArgument.setDescription("Image size in pixels in form 'wxh' (e.g. '500x300' or '5kx5k'). Defaults to '1kx1k'.");
+
+		maxIterationsArgument = new ValueArgument<Integer>("maxiter", "i", false, "Maximum iteration count. Must be a positive integer. Defaults to '2000'.") {
+			@Override
+			protected Integer convert(String value) throws ParseException {
+				try {
+					int val = Formatter.parseInt(value);
+
+					if (val <= 0)
+						throw new Exception();
+
+					return val;
+				} catch (Exception e) {
+					throw new ParseException("value for argument --maxiter must be a positive integer.");
+				}
+			}
+		};
+
+		exponentArgument = new ValueArgument<Double>("exponent", "e", false, "Value of k in the used formula z=z^k+c as a float. Defaults to '2'.") {
+			@Override
+			protected Double convert(String value) throws ParseException {
+				try {
+					return Double.parseDouble(value);
+				} catch (Exception e) {
+					throw new ParseException("value for argument --exponent must be a float.");
+				}
+			}
+		};
+
+		superSamplingArgument = new ValueArgument<Size>("supersampling", "", false,
+				"Amount of subpixels per pixel in the form 'wxh' for positive integers w and h. Defaults to '1x1'.") {
+			@Override
+			protected Size convert(String value) throws ParseException {
+				try {
+					return Formatter.parseSize(value);
+				} catch (Exception e) {
+					throw new ParseException("value for argument --supersampling must be in the form 'wxh'.");
+				}
+			}
+		};
+
+		areaArgument = new ValueArgument<Rectangle>("area", "a", false,
+				"Area in the complex plane in the form '\"x0 y0 width height\"'. Defaults to '\"-0.7845 0.1355 0.02 0.02\"' (a region near the boundary).") {
+			@Override
+			protected Rectangle convert(String value) throws ParseException {
+				try {
+					String[] splits = value.split(" ");
+
+					if (splits.length != 4)
+						throw new Exception();
+
+					return new Rectangle(Double.parseDouble(splits[0]), Double.parseDouble(splits[1]), Double.parseDouble(splits[2]),
+							Double.parseDouble(splits[3]));
+				} catch (Exception e) {
+					throw new ParseException("value for argument --area is not a valid area.");
+				}
+			}
+		};
+
+		deviceArgument.setDescription(
+				"OpenCL devices (e.g. '0.0,1.0' or 'all') that render the standard set step by step and unrolled in addition to the java kernels.");
+
+		fp64Argument.setDescription("Use 64bit floats on the OpenCL devices.");
+
+		unrollArgument = new ValueArgument<Integer>("unroll", "", false, "Block size of the unrolled iteration. Defaults to '8'.") {
+			@Override
+			protected Integer convert(String value) throws ParseException {
+				try {
+					int val = Integer.parseInt(value);
+
+					if (val <= 1)
+						throw new Exception();
+
+					return val;
+				} catch (Exception e) {
+					throw new ParseException("value for argument --unroll must be an integer > 1.");
+				}
+			}
+		};
+
+		repeatArgument = new ValueArgument<Integer>("repeat", "", false, "Amount of timed runs per kernel, the best one is reported. Defaults to '3'.") {
+			@Override
+			protected Integer convert(String value) throws ParseException {
+				try {
+					int val = Integer.parseInt(value);
+
+					if (val <= 0)
+						throw new Exception();
+
+					return val;
+				} catch (Exception e) {
+					throw new ParseException("value for argument --repeat must be a positive integer.");
+				}
+			}
+		};
+	}
+}
@@ -10,6 +10,7 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,9 +21,15 @@ import de.thiesgerken.commandlineparser.EnumArgument;
 import de.thiesgerken.commandlineparser.ParseException;
 import de.thiesgerken.commandlineparser.SwitchArgument;
 import de.thiesgerken.commandlineparser.ValueArgument;
+import de.thiesgerken.fractals.Fractal;
 import de.thiesgerken.fractals.FractalCLI;
+import de.thiesgerken.fractals.backend.Backends;
+import de.thiesgerken.fractals.backend.ComputeDevice;
+import de.thiesgerken.fractals.backend.java.JavaDevice;
+import de.thiesgerken.fractals.backend.opencl.OpenCLDevice;
 import de.thiesgerken.fractals.util.Formatter;
 import de.thiesgerken.fractals.util.Rectangle;
+import de.thiesgerken.fractals.util.SamplePattern;
 import de.thiesgerken.fractals.util.Size;
 import de.thiesgerken.fractals.util.palettes.Palette;
 
@@ -30,6 +37,7 @@ public class MultibrotCLI extends FractalCLI {
 	private Logger logger = Logger.getLogger(MultibrotCLI.class.getName());
 
 	private EnumArgument formatArgument;
+	private EnumArgument javaKernelArgument;
 	private ValueArgument<String> outputArgument;
 	private ValueArgument<Integer> partSizeArgument;
 	private ValueArgument<Double> paletteCyclesArgument;
@@ -39,9 +47,18 @@ public class MultibrotCLI extends FractalCLI {
 	private ValueArgument<Double> bailoutArgument;
 	private ValueArgument<Double> exponentArgument;
 	private SwitchArgument invertArgument;
+	private SwitchArgument nativeMathArgument;
+	private ValueArgument<Integer> unrollArgument;
+	private SwitchArgument deepArgument;
+	private ValueArgument<Double> periodicityArgument;
+	private EnumArgument subdivideArgument;
+	private SwitchArgument certifyArgument;
 	private ValueArgument<Size> superSamplingArgument;
+	private ValueArgument<Double> adaptiveArgument;
+	private EnumArgument patternArgument;
 	private ValueArgument<Rectangle> areaArgument;
 	private SwitchArgument guiArgument;
+	private SwitchArgument hybridArgument;
 	private SwitchArgument savePaletteArgument;
 	private SwitchArgument saveCommandlineArgument;
 	private ValueArgument<Double> histogramRatioArgument;
@@ -78,12 +95,39 @@ public class MultibrotCLI extends FractalCLI {
 		sb.append(" --pphase " + brot.getPalettePhase());
 		sb.append(" --supersampling " + brot.getSuperSampling().toString());
 
-		if (brot.use64bitFloats())
+		if (!brot.getSamplePattern().equals(SamplePattern.GRID))
+			sb.append(" --pattern " + brot.getSamplePattern());
+
+		if (brot.getAdaptiveThreshold() > 0)
+			sb.append(" --adaptive " + brot.getAdaptiveThreshold());
+
+		// the automatic precision is the default
+		if (!brot.useAutoPrecision() && brot.use64bitFloats() && !brot.useDoubleWords())
 			sb.append(" --fp64");
+		else if (!brot.useAutoPrecision())
+			sb.append(" --precision " + brot.getPrecision());
 
 		if (brot.getInvert())
 			sb.append(" --invert");
 
+		if (brot.getUseNativeMath())
+			sb.append(" --native-math");
+
+		if (brot.getUnroll() > 1)
+			sb.append(" --unroll " + brot.getUnroll());
+
+		if (brot.getPerturbation())
+			sb.append(" --deep");
+
+		if (brot.getPeriodicityTolerance() != Multibrot.DEFAULT_PERIODICITY_TOLERANCE)
+			sb.append(" --periodicity " + brot.getPeriodicityTolerance());
+
+		if (brot.getSubdivide())
+			sb.append(" --subdivide " + (brot.getSafeSubdivision() ? "safe" : "always"));
+
+		if (brot instanceof MultibrotRendererQuality && ((MultibrotRendererQuality) brot).getCertify())
+			sb.append(" --certify");
+
 		return sb.toString();
 	}
 
@@ -98,13 +142,11 @@ public class MultibrotCLI extends FractalCLI {
 
 			while (line != null) {
 				if (!line.startsWith("#")) {
-					String[] splits = line.split(", ");
-
-					if (splits.length != 4)
+					try {
+						areas.add(Rectangle.parse(line.split(", ")));
+					} catch (Exception e) {
 						throw new Exception("Error at \"" + line + "\"");
-
-					areas.add(new Rectangle(Double.parseDouble(splits[0]), Double.parseDouble(splits[1]), Double.parseDouble(splits[2]), Double
-							.parseDouble(splits[3])));
+					}
 				}
 
 				line = reader.readLine();
@@ -146,9 +188,9 @@ public class MultibrotCLI extends FractalCLI {
 	}
 
 	public Argument[] getArguments() {
-		return new Argument[] { deviceArgument, fp64Argument, sizeArgument, outputArgument, formatArgument, partSizeArgument, paletteCyclesArgument,
-				palettePhaseArgument, paletteArgument, maxIterationsArgument, bailoutArgument, exponentArgument, invertArgument, superSamplingArgument,
-				areaArgument, guiArgument, histogramRatioArgument, savePaletteArgument, saveCommandlineArgument };
+		return new Argument[] { deviceArgument, threadsArgument, javaKernelArgument, hybridArgument, fp64Argument, precisionArgument, sizeArgument, outputArgument, formatArgument, partSizeArgument, paletteCyclesArgument,
+				palettePhaseArgument, paletteArgument, maxIterationsArgument, bailoutArgument, exponentArgument, invertArgument, nativeMathArgument, unrollArgument, deepArgument, periodicityArgument,
+				subdivideArgument, certifyArgument, superSamplingArgument, patternArgument, adaptiveArgument, areaArgument, guiArgument, histogramRatioArgument, savePaletteArgument, saveCommandlineArgument };
 	}
 
 	public void initializeArguments() {
@@ -158,7 +200,7 @@ public class MultibrotCLI extends FractalCLI {
 				"partsize",
 				"",
 				false,
-				"Maximum amount of pixels that are calculated simultaneously, eg. '8kx8k', '8000x8000', '64000000' or '64M'. Note that the actual parts might be bigger, because the desired size must be divisible by the picture width. The picture is never divided into parts if this value is set to zero. Defaults to 0.") {
+				"Maximum amount of pixels that are calculated simultaneously, eg. '8kx8k', '8000x8000', '64000000' or '64M'. Note that the actual parts might be bigger, because the desired size must be divisible by the picture width. If set to zero, the parts are as large as the memory of the devices and the java heap allow, parts are reduced to fit in any case. Defaults to 0.") {
 			@Override
 			protected Integer convert(String value) throws ParseException {
 				try {
@@ -196,6 +238,10 @@ public class MultibrotCLI extends FractalCLI {
 		formatArgument = new EnumArgument("format", "f", false, "Output file format. This value has a higher priority than the output file name extension.",
 				new String[] { "png", "bmp", "gif", "jpg", "jpeg" });
 
+		javaKernelArgument = new EnumArgument("javakernel", "", false,
+				"Iteration scheme of the java backend: 'lanes' iterates several subpixels interleaved, 'scalar' one after another. Both iterate in the floats of the precision, only ff is iterated in double-double. Defaults to 'lanes'.",
+				new String[] { "lanes", "scalar" });
+
 		paletteCyclesArgument = new ValueArgument<Double>("pcycles", "", false,
 				"Count of palette cycles that are mapped on 0-maxIterations. Defaults to '11' when using the GUI and '1' otherwise.") {
 			@Override
@@ -285,8 +331,56 @@ public class MultibrotCLI extends FractalCLI {
 
 		invertArgument = new SwitchArgument("invert", "", false, "Invert the picture (use the formula z=z^k+1/c instead of z=z^k+c).");
 
+		nativeMathArgument = new SwitchArgument("native-math", "", false,
+				"Use the faster, but less accurate native math functions of the device for non-integer exponents. Only for OpenCL devices with 32bit floats.");
+
+		deepArgument = new SwitchArgument("deep", "", false,
+				"Render deep zooms of the standard set by perturbation: only the orbit of a reference point is computed in arbitrary precision, the pixels are iterated relative to it, skipping the first iterations by a series approximation. Give the area as '\"center re im zoom\"' to go beyond the precision of doubles. Not for --gui.");
+
+		unrollArgument = new ValueArgument<Integer>("unroll", "", false,
+				"Iterate the standard set (exponent 2) in blocks of this many iterations, which are checked for the bailout only at their end. Blocks in which a point escapes are repeated step by step, so the image does not change apart from the cycle detection, which only compares the ends of the blocks. Ignored if the bailout is below 2, where an orbit could escape and come back within a block. Only used by the OpenCL devices and the scalar java kernel. '0' (the default) iterates step by step.") {
+			@Override
+			protected Integer convert(String value) throws ParseException {
+				try {
+					int val = Integer.parseInt(value);
+
+					if (val < 0)
+						throw new Exception();
+
+					return val;
+				} catch (Exception e) {
+					throw new ParseException("value for argument --unroll must be a non-negative integer.");
+				}
+			}
+		};
+
+		periodicityArgument = new ValueArgument<Double>("periodicity", "", false,
+				"Tolerance of the cycle detection, which stops iterating points whose orbits come this close to an earlier point of themselves. Larger values save more time, but might put points near the border into the set. '0' disables the cycle detection. Defaults to '"
+						+ Multibrot.DEFAULT_PERIODICITY_TOLERANCE + "'.") {
+			@Override
+			protected Double convert(String value) throws ParseException {
+				try {
+					Double val = Double.parseDouble(value);
+
+					if (val < 0)
+						throw new Exception();
+
+					return val;
+				} catch (Exception e) {
+					throw new ParseException("value for argument --periodicity must be a non-negative float.");
+				}
+			}
+		};
+
+		subdivideArgument = new EnumArgument("subdivide", "", false,
+				"Mariani-Silver subdivision: only the borders of rectangles are computed, rectangles with uniform borders are filled. 'safe' only subdivides if the set is known to be simply connected (integer exponents >= 2 without --invert), 'always' regardless of that and 'off' not at all. Defaults to 'off'.",
+				new String[] { "off", "safe", "always" });
+
+		certifyArgument = new SwitchArgument("certify", "", false,
+				"Prove tiles of the image to be in the set using interval arithmetic and fill them without computing their pixels, tiles that cannot be proven are split down to single pixels. Unlike --subdivide, this never fills pixels outside of the set. Only for integer exponents >= 2, takes precedence over --subdivide.");
+
 		superSamplingArgument = new ValueArgument<Size>("supersampling", "", false,
-				"Amount of subpixels per pixel in the form 'wxh' for positive integers w and h or a single square number. Defaults to '1'.") {
+				"Amount of subpixels per pixel in the form 'wxh' for positive integers w and h or a single positive integer n (a square number means a sqrt(n)xsqrt(n) grid). Defaults to '1'.") {
 			@Override
 			protected Size convert(String value) throws ParseException {
 				try {
@@ -298,12 +392,34 @@ public class MultibrotCLI extends FractalCLI {
 				try {
 					int val = Formatter.parseInt(value);
 					int sval = (int) Math.sqrt(val);
-					if (val <= 0 || sval * sval != val)
+					if (val <= 0)
 						throw new Exception();
 
-					return new Size(sval, sval);
+					// only the grid pattern uses the dimensions
+					return sval * sval == val ? new Size(sval, sval) : new Size(val, 1);
 				} catch (Exception e) {
-					throw new ParseException("value for argument --supersample is neither a size nor a square number.");
+					throw new ParseException("value for argument --supersampling is neither a size nor a positive integer.");
+				}
+			}
+		};
+
+		patternArgument = new EnumArgument("pattern", "", false,
+				"Placement of the subpixels of --supersampling: 'grid' (a regular grid), 'rotated' (a rotated grid), 'halton' (the low-discrepancy halton sequence) or 'bluenoise' (best-candidate blue noise). 'rotated' puts each subpixel in a row and column of its own, and all but 'grid' spread them over many rows and columns, so they need fewer subpixels for the same quality. Defaults to 'grid'.",
+				SamplePattern.NAMES);
+
+		adaptiveArgument = new ValueArgument<Double>("adaptive", "", false,
+				"Supersample adaptively: render one sample per pixel first and then only the pixels whose smoothed iteration count differs from one of their neighbours by more than the given amount with the full --supersampling. Defaults to '0', which supersamples every pixel.") {
+			@Override
+			protected Double convert(String value) throws ParseException {
+				try {
+					Double val = Double.parseDouble(value);
+
+					if (val < 0)
+						throw new Exception();
+
+					return val;
+				} catch (Exception e) {
+					throw new ParseException("value for argument --adaptive must be a non-negative float.");
 				}
 			}
 		};
@@ -312,7 +428,7 @@ public class MultibrotCLI extends FractalCLI {
 				"area",
 				"a",
 				false,
-				"Area in the complex plane that is mapped to the picture in the form '\"Re(z) Im(z) Re(w-z) Im(w-z)\"' for the bottom left point z in C and the top right point w in C (in other words, 'x0 y0 width height'), 'file' to load from area.txt (created by marking feature in the GUI) or 'file:n' (where n is a positive integer) to use the n-th area from areas.txt (zero-based). Defaults to '\"-2.1 -1.5 3 3\"'.") {
+				"Area in the complex plane that is mapped to the picture in the form '\"Re(z) Im(z) Re(w-z) Im(w-z)\"' for the bottom left point z in C and the top right point w in C (in other words, 'x0 y0 width height'), '\"center re im zoom\"' for a square of height 3/zoom around the center re + i*im, which is kept in arbitrary precision for --deep, 'file' to load from area.txt (created by marking feature in the GUI) or 'file:n' (where n is a positive integer) to use the n-th area from areas.txt (zero-based). Defaults to '\"-2.1 -1.5 3 3\"'.") {
 			@Override
 			protected Rectangle convert(String value) throws ParseException {
 				if (value.equals("file"))
@@ -335,13 +451,7 @@ public class MultibrotCLI extends FractalCLI {
 				}
 
 				try {
-					String[] splits = value.split(" ");
-
-					if (splits.length != 4)
-						throw new Exception();
-
-					return new Rectangle(Double.parseDouble(splits[0]), Double.parseDouble(splits[1]), Double.parseDouble(splits[2]),
-							Double.parseDouble(splits[3]));
+					return Rectangle.parse(value.split(" "));
 				} catch (Exception e) {
 					throw new ParseException("value for argument --area is not a valid area.");
 				}
@@ -373,12 +483,37 @@ public class MultibrotCLI extends FractalCLI {
 		};
 
 		guiArgument = new SwitchArgument("gui", "g", false, "Do not render into an image file, instead show a gui.");
+
+		hybridArgument = new SwitchArgument("hybrid", "", false,
+				"Let the java engine render strips of the image alongside the OpenCL device, using --threads threads (defaults to one less than the available processors).");
+	}
+
+	@Override
+	protected boolean supportsJavaEngine() {
+		return true;
+	}
+
+	@Override
+	protected String[] getPrecisions() {
+		return new String[] { Fractal.AUTO, Fractal.FP32, Fractal.FP64, Fractal.DOUBLE_DOUBLE, Fractal.FLOAT_FLOAT };
 	}
 
 	private void setMultibrotImageParameters(Multibrot brot) throws IOException {
-		brot.setDevice(deviceArgument.getValue());
-		brot.setUse64bitFloats(fp64Argument.wasParsed());
+		setDeviceParameters(brot);
+
+		if (!fp64Argument.wasParsed() && !precisionArgument.wasParsed())
+			brot.setPrecision(Fractal.AUTO);
+
+		if (javaKernelArgument.wasParsed())
+			brot.setUseLanes(javaKernelArgument.getValue().equals("lanes"));
+
 		brot.setInvert(invertArgument.wasParsed());
+		brot.setUseNativeMath(nativeMathArgument.wasParsed());
+
+		if (unrollArgument.wasParsed())
+			brot.setUnroll(unrollArgument.getValue());
+
+		brot.setPerturbation(deepArgument.wasParsed());
 
 		if (sizeArgument.wasParsed())
 			brot.setSize(sizeArgument.getValue());
@@ -406,9 +541,23 @@ public class MultibrotCLI extends FractalCLI {
 		if (exponentArgument.wasParsed())
 			brot.setExponent(exponentArgument.getValue());
 
+		if (periodicityArgument.wasParsed())
+			brot.setPeriodicityTolerance(periodicityArgument.getValue());
+
+		if (subdivideArgument.wasParsed()) {
+			brot.setSubdivide(!subdivideArgument.getValue().equals("off"));
+			brot.setSafeSubdivision(!subdivideArgument.getValue().equals("always"));
+		}
+
 		if (superSamplingArgument.wasParsed())
 			brot.setSuperSampling(superSamplingArgument.getValue());
 
+		if (patternArgument.wasParsed())
+			brot.setSamplePattern(patternArgument.getValue());
+
+		if (adaptiveArgument.wasParsed())
+			brot.setAdaptiveThreshold(adaptiveArgument.getValue());
+
 		if (areaArgument.wasParsed()) {
 			brot.setArea(areaArgument.getValue());
 			singleAreaMode = (areaArgument.getValue() != null);
@@ -436,12 +585,31 @@ public class MultibrotCLI extends FractalCLI {
 			return;
 		}
 
+		if (!(gui.getDevice() instanceof OpenCLDevice)) {
+			out.println("Error: The gui requires an OpenCL device.");
+			return;
+		}
+
 		if (saveCommandlineArgument.wasParsed())
 			out.println("Warning: --savecommand is without effect when using --gui.");
 
 		if (savePaletteArgument.wasParsed())
 			out.println("Warning: --savepalette is without effect when using --gui.");
 
+		if (subdivideArgument.wasParsed())
+			out.println("Warning: --subdivide is without effect when using --gui.");
+
+		if (certifyArgument.wasParsed())
+			out.println("Warning: --certify is without effect when using --gui.");
+
+		if (deepArgument.wasParsed())
+			out.println("Warning: --deep is without effect when using --gui.");
+
+		if (adaptiveArgument.wasParsed()) {
+			out.println("Warning: --adaptive is without effect when using --gui.");
+			gui.setAdaptiveThreshold(0);
+		}
+
 		out.println("Command line arguments seem to be okay, showing gui.");
 		gui.show();
 	}
@@ -464,9 +632,23 @@ public class MultibrotCLI extends FractalCLI {
 		if (partSizeArgument.wasParsed())
 			renderer.setDesiredPartSize(partSizeArgument.getValue());
 
+		if (hybridArgument.wasParsed()) {
+			if (renderer.getDevice() instanceof JavaDevice)
+				out.println("Warning: --hybrid is without effect when using the java engine.");
+			else {
+				// leave one processor for driving the OpenCL device
+				int threads = threadsArgument.wasParsed() ? threadsArgument.getValue() : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+				List<ComputeDevice> coDevices = new ArrayList<ComputeDevice>(renderer.getCoDevices());
+				coDevices.add(Backends.createJavaDevice(threads));
+				renderer.setCoDevices(coDevices);
+			}
+		}
+
 		if (histogramRatioArgument.wasParsed())
 			renderer.setHistogramRatio(histogramRatioArgument.getValue());
 
+		renderer.setCertify(certifyArgument.wasParsed());
+
 		String outputFormat;
 
 		if (formatArgument.wasParsed())
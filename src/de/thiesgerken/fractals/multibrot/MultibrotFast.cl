@@ -1,47 +1,70 @@
-// inline fp iterate(const fp2 c, const int invert, const fp exponent, const int maxIterations, const fp bailoutSquared) {
+// inline fp iterateSample(const area_t area, const fp2 pos, const int invert, const fp exponent, const int maxIterations, const fp bailoutSquared, const fp tolerance, int* periodic)
 // inline bool fastCheck(const fp2 c)
 
 kernel void multibrot (	const int2 size,
-						const fp4 area,
+						const area_t area,
 						const int maxIterations, 
 						const fp bailoutSquared, 
 						const fp exponent,
 						const int invert,
 						const int2 supersampling,
+						const fp periodicityTolerance,
 						const fp2 paletteOptions, // cycles, phase
 						const int paletteLength,
 						global int* palette,
-						global int* image
+						global int* image,
+						global int* periodicPixels,
+						global const int* points,
+						const int pointCount,
+						global const fp2* sampleOffsets
 					  ) {
-	int x = get_global_id(0);
-	int y = get_global_id(1);
+	int x, y, index;
+
+	if (pointCount) {
+		// only the given pixels (for the subdivision), launched on a 1D range
+		index = get_global_id(0);
+
+		if (index >= pointCount)
+			return;
+
+		x = points[index] % size.x;
+		y = points[index] / size.x;
+	} else {
+		x = get_global_id(0);
+		y = get_global_id(1);
 	
-	if ( x >= size.x || y >= size.y)
-		return;
+		if ( x >= size.x || y >= size.y)
+			return;
+
+		index = y*size.x + x;
+	}
 
 	fp3 color = (fp3)0; 
-	fp pxCount = supersampling.x*supersampling.y;
+	int samples = VARIANT_SAMPLES(supersampling);
+	fp pxCount = samples;
+	int periodic = 0;
 
-	for (int sx = 0; sx < supersampling.x; sx++)
-		for (int sy = 0; sy < supersampling.y; sy++) {
-		
-			fp2 pos = (fp2) (x-0.5+((fp)1/supersampling.x * (sx+0.5)),
-					 		 y-0.5+((fp)1/supersampling.y * (sy+0.5)));
+	for (int s = 0; s < samples; s++) {
+		// a single sample is taken at the center of the pixel
+		fp2 offset = samples == 1 ? (fp2) (0.5, 0.5) : sampleOffsets[s];
+		fp2 pos = (fp2) (x + area.s6 - 0.5 + offset.x, y + area.s7 - 0.5 + offset.y);
 
-			fp2 c = (fp2) (area.x + area.z * pos.x / size.x, area.y + area.w * pos.y / size.y);
-			
-			fp n = iterate (c, invert, exponent, maxIterations, bailoutSquared); 
-					
-			// smooth
-			if (n < maxIterations) {
-				int index = log10(n) * paletteLength * paletteOptions.x / log10((fp)maxIterations) + paletteOptions.y * paletteLength;
-				int subColor = palette[index % paletteLength];
+		fp n = iterateSample(area, pos, VARIANT_INVERT(invert), VARIANT_EXPONENT(exponent), maxIterations, bailoutSquared, periodicityTolerance, &periodic); 
 				
-				color.x += (subColor & 255) / pxCount;
-				color.y += ((subColor >> 8) & 255) / pxCount;
-				color.z += ((subColor >> 16) & 255) / pxCount;
-			}
+		// smooth
+		if (n < maxIterations) {
+			int index = log10(n) * paletteLength * paletteOptions.x / log10((fp)maxIterations) + paletteOptions.y * paletteLength;
+			int subColor = palette[index % paletteLength];
+			
+			color.x += (subColor & 255) / pxCount;
+			color.y += ((subColor >> 8) & 255) / pxCount;
+			color.z += ((subColor >> 16) & 255) / pxCount;
 		}
+	}
 			
-	image[get_global_id(1)*size.x + get_global_id(0)] = (int)color.x + ((int)color.y << 8) + ((int)color.z << 16);
+	image[index] = (int)color.x + ((int)color.y << 8) + ((int)color.z << 16);
+
+	// a pixel counts once, however many of its samples have been ended early
+	if (periodic)
+		atomic_inc(periodicPixels);
 }
\ No newline at end of file
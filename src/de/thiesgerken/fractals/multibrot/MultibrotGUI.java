@@ -28,7 +28,9 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.logging.Level;
 
 import javax.media.opengl.GL;
@@ -40,11 +42,17 @@ import javax.media.opengl.GLProfile;
 import javax.media.opengl.awt.GLCanvas;
 
 import com.jogamp.newt.event.InputEvent;
-import com.jogamp.opencl.CLContext;
+import com.jogamp.opencl.CLCommandQueue;
 import com.jogamp.opencl.CLEvent;
+import com.jogamp.opencl.CLEventList;
 import com.jogamp.opencl.gl.CLGLBuffer;
 import com.jogamp.opencl.gl.CLGLContext;
 
+import de.thiesgerken.fractals.backend.ComputeContext;
+import de.thiesgerken.fractals.backend.java.JavaKernel;
+import de.thiesgerken.fractals.backend.opencl.OpenCLContext;
+import de.thiesgerken.fractals.backend.opencl.OpenCLDevice;
+import de.thiesgerken.fractals.backend.opencl.OpenCLKernel;
 import de.thiesgerken.fractals.util.Formatter;
 import de.thiesgerken.fractals.util.Size;
 
@@ -97,7 +105,7 @@ public class MultibrotGUI extends Multibrot implements GLEventListener {
 			drawable.setGL(drawable.getGL().getGL2());
 			drawable.getGL().glFinish();
 
-			sharedContext = CLGLContext.create(drawable.getContext(), device);
+			sharedContext = CLGLContext.create(drawable.getContext(), ((OpenCLDevice) device).getCLDevice());
 
 			GL2 gl = drawable.getGL().getGL2();
 
@@ -108,7 +116,7 @@ public class MultibrotGUI extends Multibrot implements GLEventListener {
 			initView(gl, drawable.getWidth(), drawable.getHeight());
 
 			try {
-				initCL();
+				initContext();
 				buildKernel();
 				setKernelArguments();
 			} catch (Exception e) {
@@ -154,7 +162,7 @@ public class MultibrotGUI extends Multibrot implements GLEventListener {
 		gl.glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
 
 		imageBuffer = sharedContext.createFromGLBuffer(id[0], size.getWidth() * size.getHeight() * 4, WRITE_ONLY);
-		kernel.setArg(10, imageBuffer);
+		((OpenCLKernel) kernel).getCLKernel().setArg(11, imageBuffer);
 
 		isBufferInitialized = true;
 	}
@@ -168,7 +176,8 @@ public class MultibrotGUI extends Multibrot implements GLEventListener {
 		gl.glFinish();
 
 		try {
-			initCL();
+			choosePrecision();
+			initContext();
 			buildKernel();
 			setKernelArguments();
 		} catch (Exception e) {
@@ -185,15 +194,16 @@ public class MultibrotGUI extends Multibrot implements GLEventListener {
 
 	// OpenCL
 	private void compute() {
+		CLCommandQueue queue = ((OpenCLContext) context).getQueue();
+		CLEventList probe = new CLEventList(1);
 
-		probe.release();
-
-		Size globalWorkSize = calculateGlobal2DWorkSize(size);
-		Size localWorkSize = calculateLocal2DWorkSize(size);
+		Size globalWorkSize = calculateGlobal2DWorkSize(getKernelName(), size);
+		Size localWorkSize = calculateLocal2DWorkSize(getKernelName(), size);
 
 		// acquire GL objects, and enqueue the kernel
 		queue.putAcquireGLObject(imageBuffer);
-		queue.put2DRangeKernel(kernel, 0, 0, globalWorkSize.getWidth(), globalWorkSize.getHeight(), localWorkSize.getWidth(), localWorkSize.getHeight(), probe);
+		queue.put2DRangeKernel(((OpenCLKernel) kernel).getCLKernel(), 0, 0, globalWorkSize.getWidth(), globalWorkSize.getHeight(), localWorkSize.getWidth(),
+				localWorkSize.getHeight(), probe);
 		queue.putReleaseGLObject(imageBuffer);
 
 		// block until done (important: finish before doing further gl work)
@@ -202,8 +212,10 @@ public class MultibrotGUI extends Multibrot implements GLEventListener {
 		CLEvent event = probe.getEvent(0);
 		long start = event.getProfilingInfo(START);
 		long end = event.getProfilingInfo(END);
+		probe.release();
 
-		logger.log(Level.INFO, "Calculation took " + Formatter.formatTime(end - start));
+		logger.log(Level.INFO, "Calculation took " + Formatter.formatTime(end - start) + ", "
+				+ describePeriodicPixels(readPeriodicPixels(), (long) size.getWidth() * size.getHeight()));
 	}
 
 	// OpenGL
@@ -313,13 +325,27 @@ public class MultibrotGUI extends Multibrot implements GLEventListener {
 					canvas.display();
 					logger.log(Level.INFO, "Set maxIterations to " + maxIterations);
 				} else if (e.getKeyCode() == KeyEvent.VK_P && e.getModifiers() == 0) {
-					fp64 = !fp64;
+					List<String> precisions = Arrays.asList(AUTO, FP32, FLOAT_FLOAT, FP64, DOUBLE_DOUBLE);
+					String precision = autoPrecision ? AUTO : getPrecision();
+
+					setPrecision(precisions.get((precisions.indexOf(precision) + 1) % precisions.size()));
 
 					isConfigured = false;
 					isCompiled = false;
 					isBufferInitialized = false;
 
-					logger.log(Level.INFO, "Using " + (fp64 ? "64" : "32") + "-bit floats");
+					logger.log(Level.INFO, autoPrecision ? "Choosing the precision automatically" : "Using the precision " + getPrecision());
+					canvas.display();
+				} else if (e.getKeyCode() == KeyEvent.VK_E && (e.getModifiers() == 0 || e.getModifiers() == InputEvent.SHIFT_MASK)) {
+					// every integer exponent is a variant of the program of its own, see getDefines()
+					setExponent(Math.rint(exponent) + (e.getModifiers() == 0 ? 1 : -1));
+
+					logger.log(Level.INFO, "Set exponent to " + exponent);
+					canvas.display();
+				} else if (e.getKeyCode() == KeyEvent.VK_I && e.getModifiers() == 0) {
+					setInvert(!invert);
+
+					logger.log(Level.INFO, (invert ? "Inverting" : "Not inverting") + " the picture");
 					canvas.display();
 				} else if (e.getKeyCode() == KeyEvent.VK_H && e.getModifiers() == 0) {
 					printHelp();
@@ -371,7 +397,7 @@ public class MultibrotGUI extends Multibrot implements GLEventListener {
 	public void printHelp() {
 		logger.log(
 				Level.INFO,
-				"Usage: Press a mouse button and move the mouse to shift the area and scroll in/out to zoom in/out. Press +/- to increase/decrease maxIterations by 10, 'd' to switch precision and 'r' to reset the area. Control+C copies the command line arguments to reproduce this exact picture to your clipboard and Control+Shift+C copies the command line arguments to render this picture (with --pcycles set to 1) to your clipboard. Pressing 'h' prints this help.");
+				"Usage: Press a mouse button and move the mouse to shift the area and scroll in/out to zoom in/out. Press +/- to increase/decrease maxIterations by 10, 'e'/'E' to increase/decrease the exponent by 1, 'i' to invert the picture, 'p' to cycle through the precisions (auto, fp32, ff, fp64, dd) and 'r' to reset the area. Control+C copies the command line arguments to reproduce this exact picture to your clipboard and Control+Shift+C copies the command line arguments to render this picture (with --pcycles set to 1) to your clipboard. Pressing 'h' prints this help.");
 	}
 
 	@Override
@@ -379,8 +405,8 @@ public class MultibrotGUI extends Multibrot implements GLEventListener {
 	}
 
 	@Override
-	protected CLContext createContext() {
-		return sharedContext;
+	protected ComputeContext createContext() {
+		return ((OpenCLDevice) device).createContext(sharedContext);
 	}
 
 	private void release(Window win) {
@@ -397,11 +423,33 @@ public class MultibrotGUI extends Multibrot implements GLEventListener {
 		return getClass().getResourceAsStream("MultibrotFast.cl");
 	}
 
+	@Override
+	protected String getKernelName() {
+		// same kernel as the fast renderer, so its tuned work size can be used
+		return MultibrotRendererFast.class.getSimpleName() + ".multibrot";
+	}
+
+	@Override
+	protected JavaKernel createJavaKernel(String name) {
+		// the gui renders into an OpenGL buffer and thus requires OpenCL
+		return null;
+	}
+
 	@Override
 	protected void setCustomKernelArguments() {
-		setArg(kernel.getID(), 7, new double[] { paletteCycles, palettePhase });
-		kernel.setArg(8, palette.getLength());
-		kernel.setArg(9, paletteBuffer);
+		kernel.setArg(8, new double[] { paletteCycles, palettePhase });
+		kernel.setArg(9, palette.getLength());
+		kernel.setArg(10, paletteBuffer);
+		kernel.setArg(12, periodicityBuffer);
+
+		// the gui does not subdivide, so the pixel list is never accessed
+		kernel.setArg(13, periodicityBuffer);
+		kernel.setArg(14, 0);
+		kernel.setArg(15, samplesBuffer);
+
+		// the kernel might have been recreated for another variant of the program
+		if (imageBuffer != null)
+			((OpenCLKernel) kernel).getCLKernel().setArg(11, imageBuffer);
 	}
 
 	@Override
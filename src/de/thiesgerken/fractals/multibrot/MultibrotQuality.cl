@@ -1,41 +1,134 @@
-// inline fp iterate(const fp2 c, const int invert, const fp exponent, const int maxIterations, const fp bailoutSquared) {
+// inline fp iterateSample(const area_t area, const fp2 pos, const int invert, const fp exponent, const int maxIterations, const fp bailoutSquared, const fp tolerance, int* periodic)
 // inline bool fastCheck(const fp2 c)
 
 kernel void multibrot (	const int2 size,
-						const fp4 area,
+						const area_t area,
 						const int maxIterations, 
 						const fp bailoutSquared, 
 						const fp exponent,
 						const int invert,
 						const int2 supersampling,
-						global fp* output
+						const fp periodicityTolerance,
+						global fp* output,
+						global int* periodicPixels,
+						global const int* points,
+						const int pointCount,
+						global const fp2* sampleOffsets
 					  ) {
-	int x = get_global_id(0);
-	int y = get_global_id(1);
+	int x, y, index;
+
+	if (pointCount) {
+		// only the given pixels (for the subdivision), launched on a 1D range
+		index = get_global_id(0);
+
+		if (index >= pointCount)
+			return;
+
+		x = points[index] % size.x;
+		y = points[index] / size.x;
+	} else {
+		x = get_global_id(0);
+		y = get_global_id(1);
 	
-	if ( x >= size.x || y >= size.y)
-		return;
+		if ( x >= size.x || y >= size.y)
+			return;
+
+		index = y*size.x + x;
+	}
 
 	fp m = 0; 
-	fp pxCount = supersampling.x*supersampling.y;
+	int samples = VARIANT_SAMPLES(supersampling);
+	fp pxCount = samples;
+	int periodic = 0;
 
-	for (int sx = 0; sx < supersampling.x; sx++)
-		for (int sy = 0; sy < supersampling.y; sy++) {
-		
-			fp2 pos = (fp2) (x-0.5+((fp)1/supersampling.x * (sx+0.5)),
-					 		 y-0.5+((fp)1/supersampling.y * (sy+0.5)));
+	for (int s = 0; s < samples; s++) {
+		// a single sample is taken at the center of the pixel
+		fp2 offset = samples == 1 ? (fp2) (0.5, 0.5) : sampleOffsets[s];
+		fp2 pos = (fp2) (x + area.s6 - 0.5 + offset.x, y + area.s7 - 0.5 + offset.y);
 
-			fp2 c = (fp2) (area.x + area.z * pos.x / size.x, area.y + area.w * pos.y / size.y);
-			
-			m += iterate(c, invert, exponent, maxIterations, bailoutSquared)/pxCount; 
-		}
+		m += iterateSample(area, pos, VARIANT_INVERT(invert), VARIANT_EXPONENT(exponent), maxIterations, bailoutSquared, periodicityTolerance, &periodic)/pxCount; 
+	}
 	
 	if ( maxIterations - m > 1E-8 ) 
-		output[get_global_id(1)*size.x + get_global_id(0)] = m;
+		output[index] = m;
 	 else
-		output[get_global_id(1)*size.x + get_global_id(0)] = -1;
+		output[index] = -1;
+
+	// a pixel counts once, however many of its samples have been ended early
+	if (periodic)
+		atomic_inc(periodicPixels);
 }
 				
+/*
+ * Like the 'multibrot' kernel (with the same arguments 0 to 12, of which
+ * exponent, invert and the cycle detection are not used) for deep zooms of
+ * the standard set: area is relative to the reference point, whose orbit
+ * and series approximation are given by the arguments after those, see
+ * iteratePerturbed(). rebasedSamples counts the samples that have been
+ * rebased.
+ */
+kernel void perturbation (	const int2 size,
+							const area_t area,
+							const int maxIterations,
+							const fp bailoutSquared,
+							const fp exponent,
+							const int invert,
+							const int2 supersampling,
+							const fp periodicityTolerance,
+							global fp* output,
+							global int* periodicPixels,
+							global const int* points,
+							const int pointCount,
+							global const fp2* sampleOffsets,
+							global const fp2* orbit,
+							const int orbitLength,
+							global const fp2* series,
+							const int skip,
+							global int* rebasedSamples
+						  ) {
+	int x, y, index;
+
+	if (pointCount) {
+		index = get_global_id(0);
+
+		if (index >= pointCount)
+			return;
+
+		x = points[index] % size.x;
+		y = points[index] / size.x;
+	} else {
+		x = get_global_id(0);
+		y = get_global_id(1);
+	
+		if ( x >= size.x || y >= size.y)
+			return;
+
+		index = y*size.x + x;
+	}
+
+	fp m = 0; 
+	int samples = VARIANT_SAMPLES(supersampling);
+	fp pxCount = samples;
+	int rebased = 0;
+
+	for (int s = 0; s < samples; s++) {
+		fp2 offset = samples == 1 ? (fp2) (0.5, 0.5) : sampleOffsets[s];
+		fp2 pos = (fp2) (x + area.s6 - 0.5 + offset.x, y + area.s7 - 0.5 + offset.y);
+
+		fp2 dc = (fp2) (area.s0 + area.s2 * pos.x, area.s1 + area.s3 * pos.y);
+		
+		m += iteratePerturbed(dc, orbit, orbitLength, series, skip, maxIterations, bailoutSquared, &rebased)/pxCount; 
+	}
+	
+	if ( maxIterations - m > 1E-8 ) 
+		output[index] = m;
+	 else
+		output[index] = -1;
+
+	if (rebased)
+		atomic_add(rebasedSamples, rebased);
+}
+
 kernel void color( const int2 size,
 				   const fp2 paletteOptions, // cycles, phase
 				   const int paletteLength,
@@ -1,12 +1,294 @@
 package de.thiesgerken.fractals.multibrot;
 
 import java.awt.image.BufferedImage;
+import java.util.logging.Level;
+
+import de.thiesgerken.fractals.Fractal;
+import de.thiesgerken.fractals.MemoryPlan;
+import de.thiesgerken.fractals.PartRenderer;
+import de.thiesgerken.fractals.backend.ComputeBuffer;
+import de.thiesgerken.fractals.backend.WorkSizeTuner;
+import de.thiesgerken.fractals.util.EdgeDetection;
+import de.thiesgerken.fractals.util.Formatter;
+import de.thiesgerken.fractals.util.Size;
+
+public abstract class MultibrotRenderer extends Multibrot implements PartRenderer {
+	/* lower bound for the height of strips when rendering on several devices */
+	private static final int MIN_STRIP_HEIGHT = 16;
 
-public abstract class MultibrotRenderer extends Multibrot {
 	protected int desiredPartSize;
 
+	/* the pixels to compute for the point lists (of the current part) */
+	protected ComputeBuffer pointsBuffer;
+
+	/* pixels of the current image whose iteration has been ended early */
+	private long periodicPixels;
+
+	/* pixels of the current image that have been filled without computing them */
+	private long filledPixels;
+
+	/* pixels of the current image that have been supersampled adaptively */
+	private long refinedPixels;
+
 	public abstract BufferedImage createImage() throws Exception;
 
+	/**
+	 * The height of the parts the image is split into: as given by the desired
+	 * part size (if set) or as large as possible, in any case limited by the
+	 * memory of the devices, see {@link #createMemoryPlan()}.
+	 */
+	protected int getPartHeight() throws Exception {
+		int desiredHeight = 0;
+
+		if (desiredPartSize > 0)
+			desiredHeight = (desiredPartSize + size.getWidth() - 1) / size.getWidth();
+
+		return createMemoryPlan().plan(getAllDevices(), size.getHeight(), desiredHeight);
+	}
+
+	/**
+	 * The memory that is needed to render the image.
+	 */
+	protected abstract MemoryPlan createMemoryPlan();
+
+	@Override
+	public void finishParts(Fractal target) throws Exception {
+	}
+
+	/**
+	 * Renders all rows in parts of at most partHeight rows, either one after
+	 * another on the device of this renderer or, if there are co-devices, on
+	 * all devices at once.
+	 */
+	protected void renderStrips(int partHeight) throws Exception {
+		periodicPixels = 0;
+		filledPixels = 0;
+		refinedPixels = 0;
+
+		if (subdivide && !useSubdivision())
+			logger.log(Level.WARNING, "Not using the subdivision, since the set might not be simply connected (exponent = " + exponent + ", invert = "
+					+ invert + ").");
+
+		if (!coDevices.isEmpty()) {
+			renderOnAllDevices(size.getHeight(), MIN_STRIP_HEIGHT, partHeight, size.getWidth(), "rows");
+
+			if (useAdaptiveSupersampling())
+				refineEdges(partHeight);
+
+			logStatistics();
+			return;
+		}
+
+		prepareParts(this, partHeight);
+
+		int parts = (int) Math.ceil((double) size.getHeight() / partHeight);
+		long time = 0;
+
+		for (int y = 0; y < parts; y++) {
+			int height = (y == parts - 1 ? size.getHeight() - y * partHeight : partHeight);
+
+			logger.log(Level.INFO, "-- Calculation of part " + (y + 1) + " of " + parts + " (" + size.getWidth() + "x" + height + " px) --");
+
+			time += renderPart(this, y * partHeight, height);
+		}
+
+		time += flushParts(this);
+
+		if (useAdaptiveSupersampling())
+			time += refineEdges(partHeight);
+
+		logger.log(Level.INFO, "Calculation took " + Formatter.formatTime(time) + " ("
+				+ Formatter.formatThroughput((long) size.getWidth() * size.getHeight(), time) + ")");
+		logStatistics();
+	}
+
+	private void logStatistics() {
+		long pixels = (long) size.getWidth() * size.getHeight();
+
+		logger.log(Level.INFO, "Statistics: " + describePeriodicPixels(periodicPixels, pixels) + describeFilledPixels(filledPixels, pixels)
+				+ describeRefinedPixels(pixels));
+	}
+
+	private String describeRefinedPixels(long pixels) {
+		if (!useAdaptiveSupersampling())
+			return "";
+
+		int samples = superSampling.getWidth() * superSampling.getHeight();
+		double effective = (double) (pixels - filledPixels + refinedPixels * samples) / pixels;
+
+		return ", adaptive supersampling refined " + refinedPixels + " px (" + Math.round(100d * refinedPixels / pixels) + "%), "
+				+ String.format("%.2f", effective) + " instead of " + samples + " samples per pixel";
+	}
+
+	/**
+	 * Renders the pixels that differ from one of their neighbours (see
+	 * {@link #differ(int, int)}) again with the full supersampling on the
+	 * device of this instance, in parts of at most partHeight rows. Returns
+	 * the time spent by the kernel in ns.
+	 */
+	private long refineEdges(int partHeight) {
+		final int width = size.getWidth();
+
+		int[] edges = new EdgeDetection(width, size.getHeight()) {
+			@Override
+			protected boolean differ(int a, int b) {
+				return MultibrotRenderer.this.differ(a, b);
+			}
+		}.find();
+
+		kernel.setArg(6, new int[] { superSampling.getWidth(), superSampling.getHeight() });
+
+		int[] points = new int[partHeight * width];
+		long time = 0;
+
+		for (int i = 0; i < edges.length;) {
+			int offsetY = edges[i] / width / partHeight * partHeight;
+			int height = Math.min(partHeight, size.getHeight() - offsetY);
+			int count = 0;
+
+			while (i < edges.length && edges[i] < (offsetY + height) * width)
+				points[count++] = edges[i++] - offsetY * width;
+
+			setPartArguments(offsetY, height);
+			time += refinePoints(offsetY, points, count);
+		}
+
+		kernel.setArg(6, new int[] { 1, 1 });
+
+		// the cycle detection has already been counted for these pixels
+		readPeriodicPixels();
+
+		refinedPixels = edges.length;
+
+		return time;
+	}
+
+	/**
+	 * Whether the pixels a and b of the image that has been rendered with one
+	 * sample per pixel differ by more than the adaptive threshold.
+	 */
+	protected abstract boolean differ(int a, int b);
+
+	/**
+	 * Computes count pixels (given relative to offsetY) of the part that has
+	 * been set by {@link #setPartArguments(int, int)} and stores them in the
+	 * image. Returns the time spent by the kernel in ns.
+	 */
+	protected abstract long refinePoints(int offsetY, int[] points, int count);
+
+	/**
+	 * The part of the statistics about pixels that have been filled without
+	 * computing them (starting with a comma), empty if nothing is filled.
+	 */
+	protected String describeFilledPixels(long filled, long pixels) {
+		if (!useSubdivision())
+			return "";
+
+		return ", subdivision filled " + filled + " px (" + Math.round(100d * filled / pixels) + "%) without computing them";
+	}
+
+	/**
+	 * Whether parts are rendered as lists of pixels by
+	 * {@link #computePoints(int, int[], int)} instead of at once.
+	 */
+	protected boolean usePointLists() {
+		return useSubdivision();
+	}
+
+	/**
+	 * Sets the size and the area of the kernel to the part of the given
+	 * height at offsetY.
+	 */
+	protected void setPartArguments(int offsetY, int height) {
+		kernel.setArg(0, new int[] { size.getWidth(), height });
+		kernel.setArg(1, getAreaArgument(0, offsetY));
+	}
+
+	/**
+	 * Creates the buffer for the pixels of the point lists (if they or the
+	 * adaptive supersampling are used, otherwise a placeholder, which the kernel does not access) with room
+	 * for parts of up to maxHeight rows. It is set as argument index of the
+	 * kernel, followed by the count of pixels, zero for computing whole
+	 * parts.
+	 */
+	protected void createPointsBuffer(int index, int maxHeight) {
+		freePointsBuffer();
+
+		pointsBuffer = context.createIntBuffer(usePointLists() || useAdaptiveSupersampling() ? Math.min(size.getHeight(), maxHeight) * size.getWidth() : 1);
+		kernel.setArg(index, pointsBuffer);
+		kernel.setArg(index + 1, 0);
+	}
+
+	protected void freePointsBuffer() {
+		if (pointsBuffer != null && !pointsBuffer.isReleased())
+			pointsBuffer.release();
+
+		pointsBuffer = null;
+	}
+
+	/**
+	 * Computes count pixels of the part that has been set by
+	 * {@link #setPartArguments(int, int)}, the results are written to the
+	 * output of the kernel in the order of points. index is the one given to
+	 * {@link #createPointsBuffer(int, int)}. Returns the time spent by the
+	 * kernel in ns.
+	 */
+	protected long computePoints(int index, int[] points, int count) {
+		pointsBuffer.write(points, 0, count);
+		kernel.setArg(index + 1, count);
+
+		long time = kernel.run1D(calculateGlobal1DWorkSize(count), calculateLocal1DWorkSize(count));
+		kernel.setArg(index + 1, 0);
+
+		return time;
+	}
+
+	/**
+	 * Adds the pixels that have been filled without computing them on the
+	 * device of this instance (which might be a helper) to the statistics of target.
+	 */
+	protected void collectFilledPixels(Fractal target, long pixels) {
+		synchronized (target) {
+			((MultibrotRenderer) target).filledPixels += pixels;
+		}
+	}
+
+	/**
+	 * Adds the pixels that the cycle detection has ended early on the device
+	 * of this instance (which might be a helper) to the statistics of target.
+	 * Has to be called once all parts have been finished.
+	 */
+	protected void collectPeriodicPixels(Fractal target) {
+		int pixels = readPeriodicPixels();
+
+		synchronized (target) {
+			((MultibrotRenderer) target).periodicPixels += pixels;
+		}
+	}
+
+	/**
+	 * Tunes the local work size of the multibrot kernel (if necessary) on the
+	 * center of the image, the results are written to buffer, which is set as
+	 * argument bufferIndex.
+	 */
+	protected void tuneKernel(int bufferIndex, ComputeBuffer buffer) {
+		if (!WorkSizeTuner.needsTuning(device, getKernelName(), fp64))
+			return;
+
+		Size sample = getTuningSampleSize(buffer.getLength());
+		kernel.setArg(0, new int[] { sample.getWidth(), sample.getHeight() });
+		kernel.setArg(1, getAreaArgument((size.getWidth() - sample.getWidth()) / 2, (size.getHeight() - sample.getHeight()) / 2));
+		kernel.setArg(bufferIndex, buffer);
+
+		WorkSizeTuner.tune2D(device, getKernelName(), fp64, kernel, sample);
+	}
+
+	@Override
+	protected void copyParametersTo(Fractal other) {
+		super.copyParametersTo(other);
+		((MultibrotRenderer) other).setDesiredPartSize(desiredPartSize);
+	}
+
 	public int getDesiredPartSize() {
 		return desiredPartSize;
 	}
@@ -1,26 +1,26 @@
 package de.thiesgerken.fractals.multibrot;
 
-import static com.jogamp.opencl.CLEvent.ProfilingCommand.END;
-import static com.jogamp.opencl.CLEvent.ProfilingCommand.START;
-import static com.jogamp.opencl.CLMemory.Mem.WRITE_ONLY;
 import static java.awt.image.BufferedImage.TYPE_INT_RGB;
-import static java.lang.System.out;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.io.InputStream;
-import java.nio.IntBuffer;
 import java.util.logging.Level;
 
-import com.jogamp.opencl.CLBuffer;
-import com.jogamp.opencl.CLContext;
-import com.jogamp.opencl.CLEvent;
-
+import de.thiesgerken.fractals.Fractal;
+import de.thiesgerken.fractals.MemoryPlan;
+import de.thiesgerken.fractals.backend.ComputeBuffer;
+import de.thiesgerken.fractals.backend.ComputeEvent;
+import de.thiesgerken.fractals.backend.PartPipeline;
+import de.thiesgerken.fractals.backend.java.JavaKernel;
+import de.thiesgerken.fractals.util.EdgeDetection;
 import de.thiesgerken.fractals.util.Formatter;
 import de.thiesgerken.fractals.util.Size;
 
 public class MultibrotRendererFast extends MultibrotRenderer {
-	protected int desiredPartSize;
+	protected ComputeBuffer[] imageBuffers;
+	protected PartPipeline pipeline;
+	protected int[] imageData;
 
 	public MultibrotRendererFast() {
 		super();
@@ -28,90 +28,205 @@ public class MultibrotRendererFast extends MultibrotRenderer {
 	}
 
 	@Override
-	protected CLContext createContext() {
-		return CLContext.create(device);
+	protected InputStream getSource() {
+		return getClass().getResourceAsStream("MultibrotFast.cl");
 	}
 
 	@Override
-	protected InputStream getSource() {
-		return getClass().getResourceAsStream("MultibrotFast.cl");
+	protected JavaKernel createJavaKernel(String name) {
+		return "multibrot".equals(name) ? new JavaMultibrotKernels.Fast(useLanes, unroll, useDoubleWordIteration()) : null;
+	}
+
+	@Override
+	public Fractal createHelper() {
+		return new MultibrotRendererFast();
+	}
+
+	@Override
+	protected MemoryPlan createMemoryPlan() {
+		return new MemoryPlan("the image (" + size + " px)").addHostMemory(4L * size.getWidth() * size.getHeight())
+				.addDeviceBuffer(palette == null ? 0 : 4L * palette.getLength()).addPartBuffer(4L * size.getWidth())
+				.addPartBuffer(useSubdivision() || useAdaptiveSupersampling() ? 4L * size.getWidth() : 0);
 	}
 
 	@Override
 	public BufferedImage createImage() throws Exception {
+		choosePrecision();
 		printParameters();
 
 		long overallTime = System.nanoTime();
 
-		initCL();
+		int partHeight = getPartHeight();
+
+		BufferedImage image = new BufferedImage(size.getWidth(), size.getHeight(), TYPE_INT_RGB);
+		imageData = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+		try {
+			renderStrips(partHeight);
+		} finally {
+			imageData = null;
+			freeImageBuffers();
+		}
+
+		logger.log(Level.INFO, "Rendering took a total of " + Formatter.formatTime(System.nanoTime() - overallTime) + ".");
+
+		return image;
+	}
+
+	@Override
+	public void prepareParts(Fractal target, int maxHeight) throws Exception {
+		initContext();
 		buildKernel();
 		setKernelArguments();
 
-		BufferedImage image = new BufferedImage(size.getWidth(), size.getHeight(), TYPE_INT_RGB);
-		int[] imageData = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		freeImageBuffers();
 
-		int maxPartSize;
+		final int[] targetData = ((MultibrotRendererFast) target).imageData;
+		final int width = size.getWidth();
 
-		if (desiredPartSize <= 0)
-			maxPartSize = size.getHeight() * size.getWidth();
-		else if (desiredPartSize % size.getWidth() == 0)
-			maxPartSize = desiredPartSize;
-		else
-			maxPartSize = desiredPartSize + size.getWidth() - (desiredPartSize % size.getWidth());
+		// the subdivision computes one part after another
+		imageBuffers = new ComputeBuffer[useSubdivision() ? 1 : getPipelineSlots(target, size.getHeight(), maxHeight)];
 
-		int parts = (int) Math.ceil((double) size.getHeight() * size.getWidth() / maxPartSize);
-		int normalPartHeight = maxPartSize / size.getWidth();
+		for (int i = 0; i < imageBuffers.length; i++)
+			imageBuffers[i] = context.createIntBuffer(Math.min(size.getHeight(), maxHeight) * width);
 
-		CLBuffer<IntBuffer> imageBuffer = context.createIntBuffer(Math.min(size.getHeight() * size.getWidth(), maxPartSize), WRITE_ONLY);
-		kernel.setArg(10, imageBuffer);
+		logger.log(Level.INFO, "Parts need " + Formatter.formatSize(imageBuffers.length * imageBuffers[0].getSize()) + " of device memory on "
+				+ device.getName() + ".");
 
-		for (int y = 0; y < parts; y++) {
-			int partHeight = (y == parts - 1 ? size.getHeight() - y * normalPartHeight : normalPartHeight);
+		createPointsBuffer(13, maxHeight);
+		tuneKernel(11, imageBuffers[0]);
 
-			logger.log(Level.INFO, "-- Calculation of part " + (y + 1) + " of " + parts + " (" + size.getWidth() + "x" + partHeight + " px) --");
+		pipeline = new PartPipeline(device.getName(), imageBuffers.length) {
+			@Override
+			protected void enqueue(int slot, int offsetY, int height) {
+				// calculate optimal sizes for the local and global work groups
+				Size localWorkSize = calculateLocal2DWorkSize(getKernelName(), new Size(width, height));
+				Size globalWorkSize = calculateGlobal2DWorkSize(getKernelName(), new Size(width, height));
 
-			// calculate optimal sizes for the local and global work groups
-			Size localWorkSize = calculateLocal2DWorkSize(new Size(size.getWidth(), partHeight));
-			Size globalWorkSize = calculateGlobal2DWorkSize(new Size(size.getWidth(), partHeight));
+				// overwrite the settings for width and area
+				setPartArguments(offsetY, height);
+				kernel.setArg(11, imageBuffers[slot]);
 
-			// overwrite the settings for width and area
-			setArg(kernel.getID(), 0, new int[] { size.getWidth(), partHeight });
-			setArg(kernel.getID(), 1, new double[] { area.getX(), area.getY() + y * area.getHeight() * normalPartHeight / size.getHeight(), area.getWidth(),
-					area.getHeight() * partHeight / size.getHeight() });
+				ComputeEvent event = addKernel(kernel.enqueue2D(globalWorkSize, localWorkSize, null));
+				addTransfer(imageBuffers[slot].enqueueRead(event));
+			}
 
-			probe.release();
+			@Override
+			protected void collect(int slot, int offsetY, int height) {
+				imageBuffers[slot].copyTo(targetData, width * offsetY, width * height);
+			}
+		};
+	}
+
+	@Override
+	public long renderPart(Fractal target, int offsetY, int height) throws Exception {
+		if (useSubdivision())
+			return subdivide(target, offsetY, height);
+
+		return pipeline.submit(offsetY, height);
+	}
+
+	/**
+	 * Renders a part using {@link Subdivision}, the pixels are computed into
+	 * the first image buffer and copied into the image of target.
+	 */
+	private long subdivide(Fractal target, int offsetY, int height) throws Exception {
+		final int[] targetData = ((MultibrotRendererFast) target).imageData;
+		final int offset = size.getWidth() * offsetY;
+		final int[] results = new int[size.getWidth() * height];
+
+		setPartArguments(offsetY, height);
+		kernel.setArg(11, imageBuffers[0]);
+
+		Subdivision subdivision = new Subdivision(size.getWidth(), height) {
+			@Override
+			protected long compute(int[] points, int count) throws Exception {
+				long time = computePoints(13, points, count);
+				imageBuffers[0].read(results, 0, count);
+
+				for (int i = 0; i < count; i++)
+					targetData[offset + points[i]] = results[i];
+
+				return time;
+			}
+
+			@Override
+			protected boolean equal(int a, int b) {
+				return targetData[offset + a] == targetData[offset + b];
+			}
+
+			@Override
+			protected void fill(int from, int to) {
+				targetData[offset + to] = targetData[offset + from];
+			}
+		};
+
+		long time = subdivision.run();
+		collectFilledPixels(target, subdivision.getFilledPixels());
+
+		return time;
+	}
+
+	@Override
+	public long flushParts(Fractal target) throws Exception {
+		long time = pipeline.flush();
 
-			queue.put2DRangeKernel(kernel, 0, 0, globalWorkSize.getWidth(), globalWorkSize.getHeight(), localWorkSize.getWidth(), localWorkSize.getHeight(),
-					probe);
-			queue.finish();
+		if (!useSubdivision())
+			pipeline.logTimings();
 
-			CLEvent event = probe.getEvent(0);
-			long start = event.getProfilingInfo(START);
-			long end = event.getProfilingInfo(END);
-			logger.log(Level.INFO, "Calculation took " + Formatter.formatTime(end - start) + " and " + Formatter.formatSize(imageBuffer.getCLSize())
-					+ " of device memory.");
+		collectPeriodicPixels(target);
 
-			logger.log(Level.INFO, "Copying results to image");
+		return time;
+	}
 
-			queue.putReadBuffer(imageBuffer, true);
-			imageBuffer.getBuffer().get(imageData, size.getWidth() * normalPartHeight * y, size.getWidth() * partHeight);
-			imageBuffer.getBuffer().rewind();
+	@Override
+	protected boolean differ(int a, int b) {
+		return EdgeDetection.getColorDistance(imageData[a], imageData[b]) > adaptiveThreshold;
+	}
+
+	@Override
+	protected long refinePoints(int offsetY, int[] points, int count) {
+		final int offset = size.getWidth() * offsetY;
+		final int[] results = new int[count];
+
+		kernel.setArg(11, imageBuffers[0]);
+		long time = computePoints(13, points, count);
+		imageBuffers[0].read(results, 0, count);
+
+		for (int i = 0; i < count; i++)
+			imageData[offset + points[i]] = results[i];
+
+		return time;
+	}
+
+	private void freeImageBuffers() {
+		if (pipeline != null) {
+			pipeline.release();
+			pipeline = null;
 		}
 
-		if (parts > 1)
-			out.println();
+		if (imageBuffers != null)
+			for (ComputeBuffer buffer : imageBuffers)
+				if (buffer != null && !buffer.isReleased())
+					buffer.release();
 
-		logger.log(Level.INFO, "Rendering took a total of " + Formatter.formatTime(System.nanoTime() - overallTime) + ".");
+		imageBuffers = null;
+		freePointsBuffer();
+	}
 
-		imageBuffer.release();
-		return image;
+	@Override
+	public void release() {
+		freeImageBuffers();
+		super.release();
 	}
 
 	@Override
 	protected void setCustomKernelArguments() {
-		setArg(kernel.getID(), 7, new double[] { paletteCycles, palettePhase });
-		kernel.setArg(8, palette.getLength());
-		kernel.setArg(9, paletteBuffer);
+		kernel.setArg(8, new double[] { paletteCycles, palettePhase });
+		kernel.setArg(9, palette.getLength());
+		kernel.setArg(10, paletteBuffer);
+		kernel.setArg(12, periodicityBuffer);
+		kernel.setArg(15, samplesBuffer);
 	}
 
 	@Override
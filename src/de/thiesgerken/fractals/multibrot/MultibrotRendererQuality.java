@@ -1,41 +1,53 @@
 package de.thiesgerken.fractals.multibrot;
 
-import static com.jogamp.opencl.CLEvent.ProfilingCommand.END;
-import static com.jogamp.opencl.CLEvent.ProfilingCommand.START;
-import static com.jogamp.opencl.CLMemory.Mem.READ_ONLY;
-import static com.jogamp.opencl.CLMemory.Mem.WRITE_ONLY;
 import static java.awt.image.BufferedImage.TYPE_INT_RGB;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.io.InputStream;
-import java.nio.DoubleBuffer;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.util.logging.Level;
 
-import com.jogamp.common.nio.Buffers;
-import com.jogamp.opencl.CLBuffer;
-import com.jogamp.opencl.CLContext;
-import com.jogamp.opencl.CLEvent;
-import com.jogamp.opencl.CLKernel;
-
+import de.thiesgerken.fractals.Fractal;
+import de.thiesgerken.fractals.MemoryPlan;
+import de.thiesgerken.fractals.backend.ComputeBuffer;
+import de.thiesgerken.fractals.backend.ComputeEvent;
+import de.thiesgerken.fractals.backend.ComputeKernel;
+import de.thiesgerken.fractals.backend.PartPipeline;
+import de.thiesgerken.fractals.backend.java.JavaKernel;
 import de.thiesgerken.fractals.util.Formatter;
+import de.thiesgerken.fractals.util.Rectangle;
+import de.thiesgerken.fractals.util.SamplePattern;
 import de.thiesgerken.fractals.util.Size;
 
 public class MultibrotRendererQuality extends MultibrotRenderer {
 
-	protected CLKernel colorKernel;
+	protected ComputeKernel colorKernel;
 
 	protected boolean hasData;
-	protected CLBuffer<IntBuffer> cdfBuffer;
-	protected CLBuffer<?> countBuffer;
+	protected boolean countsOnDevice;
+	protected ComputeBuffer cdfBuffer;
+	protected ComputeBuffer[] countBuffers;
+	protected PartPipeline pipeline;
+	protected int[] cdf;
 	protected int minN, maxN, parts, normalPartHeight;
 	protected long pxCount;
 	protected float[] floatCounts;
 	protected double[] doubleCounts;
 
 	protected double histogramRatio;
+	protected boolean certify;
+
+	/* pixels of the current image that have been proven to escape */
+	private long exteriorPixels;
+
+	/* the reference orbit of the current image (see usePerturbation()) */
+	protected ReferenceOrbit reference;
+	protected ComputeBuffer orbitBuffer;
+	protected ComputeBuffer seriesBuffer;
+	protected ComputeBuffer rebasedBuffer;
+
+	/* samples of the current image that have been rebased */
+	private long rebasedSamples;
 
 	public MultibrotRendererQuality() {
 		super();
@@ -48,99 +60,435 @@ public class MultibrotRendererQuality extends MultibrotRenderer {
 	}
 
 	@Override
-	protected CLContext createContext() {
-		return CLContext.create(device);
+	protected InputStream getSource() {
+		return getClass().getResourceAsStream("MultibrotQuality.cl");
 	}
 
 	@Override
-	protected InputStream getSource() {
-		return getClass().getResourceAsStream("MultibrotQuality.cl");
+	protected JavaKernel createJavaKernel(String name) {
+		if ("multibrot".equals(name))
+			return new JavaMultibrotKernels.Count(useLanes, unroll, useDoubleWordIteration());
+		else if ("perturbation".equals(name))
+			return new JavaMultibrotKernels.Perturbation();
+		else if ("color".equals(name))
+			return new JavaMultibrotKernels.Color();
+		else
+			return null;
 	}
 
 	@Override
 	protected void setCustomKernelArguments() {
-		colorKernel.setForce32BitArgs(!fp64);
+		kernel.setArg(9, periodicityBuffer);
+		kernel.setArg(12, samplesBuffer);
 
 		if (palette != null) {
-			setArg(colorKernel.getID(), 1, new double[] { paletteCycles, palettePhase });
+			colorKernel.setArg(1, new double[] { paletteCycles, palettePhase });
 			colorKernel.setArg(2, palette.getLength());
 			colorKernel.setArg(3, paletteBuffer);
 		}
 	}
 
 	@Override
-	protected void buildCustomKernel() {
-		colorKernel = program.createCLKernel("color");
+	protected void buildCustomKernel() throws Exception {
+		if (colorKernel != null && !colorKernel.isReleased())
+			colorKernel.release();
+
+		colorKernel = program.createKernel("color");
+	}
+
+	@Override
+	public Fractal createHelper() {
+		return new MultibrotRendererQuality();
+	}
+
+	@Override
+	protected MemoryPlan createMemoryPlan() {
+		int sizeOfFp = fp64 ? 8 : 4;
+
+		// the counts and the image on the host, the palette, the cdf and per
+		// part the counts and the colors on the device
+		return new MemoryPlan("the image (" + size + " px)").addHostMemory((long) (sizeOfFp + 4) * size.getWidth() * size.getHeight())
+				.addDeviceBuffer(palette == null ? 0 : 4L * palette.getLength()).addDeviceBuffer(4L * (maxIterations + 1))
+				.addPartBuffer((long) sizeOfFp * size.getWidth()).addPartBuffer(4L * size.getWidth())
+				.addPartBuffer(usePointLists() || useAdaptiveSupersampling() ? 4L * size.getWidth() : 0)
+				.addDeviceBuffer(usePerturbation() ? 2L * sizeOfFp * (maxIterations + 1) : 0);
 	}
 
 	public void calculate() throws Exception {
+		choosePrecision();
 		printParameters();
 
-		initCL();
-		buildKernel();
-		setKernelArguments();
+		freeBuffers();
 
 		// calculate part sizes
-		int maxPartSize;
+		normalPartHeight = getPartHeight();
+		parts = (int) Math.ceil((double) size.getHeight() / normalPartHeight);
+		exteriorPixels = 0;
 
-		if (desiredPartSize <= 0)
-			maxPartSize = size.getHeight() * size.getWidth();
-		else if (desiredPartSize % size.getWidth() == 0)
-			maxPartSize = desiredPartSize;
+		if (certify && !useCertification())
+			logger.log(Level.WARNING, "Not using the certification, since it only supports integer exponents >= 2 without perturbation in fp32 or fp64 (exponent = "
+					+ exponent + ", perturbation = " + perturbation + ", precision = " + getPrecision() + ").");
+
+		if (perturbation && !usePerturbation())
+			logger.log(Level.WARNING, "Not using the perturbation, since it only supports the standard set (exponent = " + exponent + ", invert = "
+					+ invert + ").");
+
+		reference = null;
+		rebasedSamples = 0;
+
+		if (usePerturbation())
+			computeReference();
+
+		if (fp64)
+			doubleCounts = new double[size.getHeight() * size.getWidth()];
 		else
-			maxPartSize = desiredPartSize + size.getWidth() - (desiredPartSize % size.getWidth());
+			floatCounts = new float[size.getHeight() * size.getWidth()];
+
+		renderStrips(normalPartHeight);
+
+		if (usePerturbation())
+			logger.log(Level.INFO, "Perturbation: " + rebasedSamples + " samples have been rebased onto the start of the reference orbit.");
+
+		// the coloring can reuse the counts on the device if they have been
+		// calculated in one go (and not by pixel lists)
+		countsOnDevice = parts == 1 && coDevices.isEmpty() && !usePointLists() && !useAdaptiveSupersampling();
+
+		createCDF();
+
+		cdfBuffer = context.createIntBuffer(cdf.length);
+		cdfBuffer.write(cdf, 0, cdf.length);
+
+		hasData = true;
+	}
+
+	/**
+	 * Computes the reference orbit of the image and its series approximation,
+	 * see {@link ReferenceOrbit}.
+	 */
+	private void computeReference() {
+		long start = System.nanoTime();
+		double pixelSize = Math.min(area.getWidth() / size.getWidth(), area.getHeight() / size.getHeight());
+
+		if (pixelSize < (fp64 ? 1E-290 : 1E-30))
+			logger.log(Level.WARNING, "The pixels are too small for the " + (fp64 ? "64" : "32") + "bit floats of the perturbation (pixel size = "
+					+ pixelSize + ").");
+
+		reference = ReferenceOrbit.find(area, size, maxIterations, bailout * bailout);
+		reference.approximate(reference.getRelativeArea(area), fp64 ? 1E-9 : 1E-4);
+
+		logger.log(Level.INFO, "Reference orbit at " + reference + " with " + reference.getDigits() + " digits: " + (reference.getLength() - 1)
+				+ " iterations" + (reference.getLength() <= maxIterations ? " (escapes)" : "") + ", the series approximation skips "
+				+ reference.getSkip() + " of them (took " + Formatter.formatTime(System.nanoTime() - start) + ")");
+	}
+
+	@Override
+	protected boolean usePerturbation() {
+		return perturbation && exponent == 2 && !invert;
+	}
 
-		parts = (int) Math.ceil((double) size.getHeight() * size.getWidth() / maxPartSize);
-		normalPartHeight = maxPartSize / size.getWidth();
+	@Override
+	protected Rectangle getKernelArea() {
+		if (usePerturbation() && reference != null)
+			return reference.getRelativeArea(area);
+
+		return area;
+	}
+
+	/**
+	 * Creates the buffers of the reference orbit and sets them as arguments
+	 * 13 to 17 of the perturbation kernel.
+	 */
+	private void createOrbitBuffers() {
+		freeOrbitBuffers();
+
+		double[] orbit = reference.getOrbit();
+		int length = 2 * reference.getLength();
+
+		orbitBuffer = context.createFPBuffer(length, fp64);
+		seriesBuffer = context.createFPBuffer(reference.getSeries().length, fp64);
+		rebasedBuffer = context.createIntBuffer(1);
 
 		if (fp64) {
-			countBuffer = context.createDoubleBuffer(normalPartHeight * size.getWidth());
-			doubleCounts = new double[size.getHeight() * size.getWidth()];
+			orbitBuffer.write(orbit, 0, length);
+			seriesBuffer.write(reference.getSeries(), 0, reference.getSeries().length);
 		} else {
-			countBuffer = context.createFloatBuffer(normalPartHeight * size.getWidth());
-			floatCounts = new float[size.getHeight() * size.getWidth()];
+			orbitBuffer.write(SamplePattern.toFloats(orbit), 0, length);
+			seriesBuffer.write(SamplePattern.toFloats(reference.getSeries()), 0, reference.getSeries().length);
 		}
 
-		kernel.setArg(7, countBuffer);
+		rebasedBuffer.write(new int[1], 0, 1);
+
+		kernel.setArg(13, orbitBuffer);
+		kernel.setArg(14, reference.getLength());
+		kernel.setArg(15, seriesBuffer);
+		kernel.setArg(16, reference.getSkip());
+		kernel.setArg(17, rebasedBuffer);
+	}
+
+	private void freeOrbitBuffers() {
+		for (ComputeBuffer buffer : new ComputeBuffer[] { orbitBuffer, seriesBuffer, rebasedBuffer })
+			if (buffer != null && !buffer.isReleased())
+				buffer.release();
+
+		orbitBuffer = null;
+		seriesBuffer = null;
+		rebasedBuffer = null;
+	}
+
+	@Override
+	public void prepareParts(Fractal target, int maxHeight) throws Exception {
+		// helpers iterate relative to the reference of the image as well
+		reference = ((MultibrotRendererQuality) target).reference;
+
+		initContext();
+		buildKernel();
+		setKernelArguments();
+
+		if (usePerturbation())
+			createOrbitBuffers();
+
+		freeCountBuffers();
+
+		final MultibrotRendererQuality quality = (MultibrotRendererQuality) target;
+		final int width = size.getWidth();
+
+		// point lists are computed one part after another
+		countBuffers = new ComputeBuffer[usePointLists() ? 1 : getPipelineSlots(target, size.getHeight(), maxHeight)];
 
-		for (int y = 0; y < parts; y++) {
-			int partHeight = (y == parts - 1 ? size.getHeight() - y * normalPartHeight : normalPartHeight);
+		for (int i = 0; i < countBuffers.length; i++)
+			countBuffers[i] = context.createFPBuffer(Math.min(size.getHeight(), maxHeight) * width, fp64);
 
-			logger.log(Level.INFO, "-- Calculation of part " + (y + 1) + " of " + parts + " (" + size.getWidth() + "x" + partHeight + " px) --");
+		logger.log(Level.INFO, "Parts need ca. " + Formatter.formatSize(countBuffers.length * countBuffers[0].getSize()) + " of device memory on "
+				+ device.getName() + ".");
 
-			// calculate optimal sizes for the local and global work groups
-			Size localWorkSize = calculateLocal2DWorkSize(new Size(size.getWidth(), partHeight));
-			Size globalWorkSize = calculateGlobal2DWorkSize(new Size(size.getWidth(), partHeight));
+		createPointsBuffer(10, maxHeight);
+		tuneKernel(8, countBuffers[0]);
 
-			// overwrite the settings for width and area
-			setArg(kernel.getID(), 0, new int[] { size.getWidth(), partHeight });
-			setArg(kernel.getID(), 1, new double[] { area.getX(), area.getY() + y * area.getHeight() * normalPartHeight / size.getHeight(), area.getWidth(),
-					area.getHeight() * partHeight / size.getHeight() });
+		pipeline = new PartPipeline(device.getName(), countBuffers.length) {
+			@Override
+			protected void enqueue(int slot, int offsetY, int height) {
+				// calculate optimal sizes for the local and global work groups
+				Size localWorkSize = calculateLocal2DWorkSize(getKernelName(), new Size(width, height));
+				Size globalWorkSize = calculateGlobal2DWorkSize(getKernelName(), new Size(width, height));
 
-			probe.release();
+				// overwrite the settings for width and area
+				setPartArguments(offsetY, height);
+				kernel.setArg(8, countBuffers[slot]);
 
-			queue.put2DRangeKernel(kernel, 0, 0, globalWorkSize.getWidth(), globalWorkSize.getHeight(), localWorkSize.getWidth(), localWorkSize.getHeight(),
-					probe);
-			queue.finish();
+				ComputeEvent event = addKernel(kernel.enqueue2D(globalWorkSize, localWorkSize, null));
+				addTransfer(countBuffers[slot].enqueueRead(event));
+			}
+
+			@Override
+			protected void collect(int slot, int offsetY, int height) {
+				if (fp64)
+					countBuffers[slot].copyTo(quality.doubleCounts, width * offsetY, width * height);
+				else
+					countBuffers[slot].copyTo(quality.floatCounts, width * offsetY, width * height);
+			}
+		};
+	}
+
+	@Override
+	public long renderPart(Fractal target, int offsetY, int height) throws Exception {
+		if (useCertification())
+			return certify(target, offsetY, height);
+
+		if (useSubdivision())
+			return subdivide(target, offsetY, height);
+
+		return pipeline.submit(offsetY, height);
+	}
+
+	/**
+	 * Renders a part using {@link Subdivision}, the counts are computed into
+	 * the first count buffer and copied into the counts of target.
+	 */
+	private long subdivide(Fractal target, int offsetY, int height) throws Exception {
+		final MultibrotRendererQuality quality = (MultibrotRendererQuality) target;
+		final int offset = size.getWidth() * offsetY;
+		final double[] doubleResults = fp64 ? new double[size.getWidth() * height] : null;
+		final float[] floatResults = fp64 ? null : new float[size.getWidth() * height];
 
-			CLEvent event = probe.getEvent(0);
-			long start = event.getProfilingInfo(START);
-			long end = event.getProfilingInfo(END);
-			logger.log(Level.INFO, "Calculating took " + Formatter.formatTime(end - start) + " and ca. " + Formatter.formatSize(countBuffer.getCLSize())
-					+ " of device memory.");
+		setPartArguments(offsetY, height);
+		kernel.setArg(8, countBuffers[0]);
 
-			probe.release();
-			queue.putReadBuffer(countBuffer, true);
+		Subdivision subdivision = new Subdivision(size.getWidth(), height) {
+			@Override
+			protected long compute(int[] points, int count) throws Exception {
+				long time = computePoints(10, points, count);
 
-			if (fp64) {
-				DoubleBuffer countBackend = (DoubleBuffer) countBuffer.getBuffer().rewind();
-				countBackend.get(doubleCounts, size.getWidth() * normalPartHeight * y, size.getWidth() * partHeight).rewind();
-			} else {
-				FloatBuffer countBackend = (FloatBuffer) countBuffer.getBuffer().rewind();
-				countBackend.get(floatCounts, size.getWidth() * normalPartHeight * y, size.getWidth() * partHeight).rewind();
+				if (fp64) {
+					countBuffers[0].read(doubleResults, 0, count);
+
+					for (int i = 0; i < count; i++)
+						quality.doubleCounts[offset + points[i]] = doubleResults[i];
+				} else {
+					countBuffers[0].read(floatResults, 0, count);
+
+					for (int i = 0; i < count; i++)
+						quality.floatCounts[offset + points[i]] = floatResults[i];
+				}
+
+				return time;
+			}
+
+			@Override
+			protected boolean equal(int a, int b) {
+				if (fp64)
+					return quality.doubleCounts[offset + a] == quality.doubleCounts[offset + b];
+				else
+					return quality.floatCounts[offset + a] == quality.floatCounts[offset + b];
+			}
+
+			@Override
+			protected void fill(int from, int to) {
+				if (fp64)
+					quality.doubleCounts[offset + to] = quality.doubleCounts[offset + from];
+				else
+					quality.floatCounts[offset + to] = quality.floatCounts[offset + from];
+			}
+		};
+
+		long time = subdivision.run();
+		collectFilledPixels(target, subdivision.getFilledPixels());
+
+		return time;
+	}
+
+	/**
+	 * Renders a part using {@link IntervalCertification}, the remaining
+	 * counts are computed into the first count buffer and copied into the
+	 * counts of target.
+	 */
+	private long certify(Fractal target, int offsetY, int height) throws Exception {
+		final MultibrotRendererQuality quality = (MultibrotRendererQuality) target;
+		final int offset = size.getWidth() * offsetY;
+		final double[] doubleResults = fp64 ? new double[size.getWidth() * height] : null;
+		final float[] floatResults = fp64 ? null : new float[size.getWidth() * height];
+
+		setPartArguments(offsetY, height);
+		kernel.setArg(8, countBuffers[0]);
+
+		Rectangle partArea = new Rectangle(area.getX(), area.getY() + area.getHeight() * offsetY / size.getHeight(), area.getWidth(), area.getHeight()
+				* height / size.getHeight());
+
+		IntervalCertification certification = new IntervalCertification(size.getWidth(), height, partArea, maxIterations, bailout * bailout, exponent,
+				invert) {
+			@Override
+			protected long compute(int[] points, int count) throws Exception {
+				long time = computePoints(10, points, count);
+
+				if (fp64) {
+					countBuffers[0].read(doubleResults, 0, count);
+
+					for (int i = 0; i < count; i++)
+						quality.doubleCounts[offset + points[i]] = doubleResults[i];
+				} else {
+					countBuffers[0].read(floatResults, 0, count);
+
+					for (int i = 0; i < count; i++)
+						quality.floatCounts[offset + points[i]] = floatResults[i];
+				}
+
+				return time;
+			}
+
+			@Override
+			protected void fillInterior(int index) {
+				if (fp64)
+					quality.doubleCounts[offset + index] = -1;
+				else
+					quality.floatCounts[offset + index] = -1;
+			}
+		};
+
+		long start = System.nanoTime();
+		long time = certification.run();
+
+		logger.log(Level.INFO, "Certification of the part took " + Formatter.formatTime(System.nanoTime() - start - time) + " on the host.");
+
+		collectFilledPixels(target, certification.getInteriorPixels());
+
+		synchronized (target) {
+			quality.exteriorPixels += certification.getExteriorPixels();
+		}
+
+		return time;
+	}
+
+	@Override
+	public long flushParts(Fractal target) throws Exception {
+		long time = pipeline.flush();
+
+		if (!usePointLists())
+			pipeline.logTimings();
+
+		collectPeriodicPixels(target);
+
+		if (usePerturbation()) {
+			int[] rebased = new int[1];
+			rebasedBuffer.read(rebased, 0, 1);
+
+			synchronized (target) {
+				((MultibrotRendererQuality) target).rebasedSamples += rebased[0];
 			}
 		}
 
+		return time;
+	}
+
+	@Override
+	protected boolean differ(int a, int b) {
+		double countA = fp64 ? doubleCounts[a] : floatCounts[a];
+		double countB = fp64 ? doubleCounts[b] : floatCounts[b];
+
+		// the set is only equal to itself
+		if (countA == -1 || countB == -1)
+			return countA != countB;
+
+		return Math.abs(countA - countB) > adaptiveThreshold;
+	}
+
+	@Override
+	protected long refinePoints(int offsetY, int[] points, int count) {
+		final int offset = size.getWidth() * offsetY;
+
+		kernel.setArg(8, countBuffers[0]);
+		long time = computePoints(10, points, count);
+
+		if (fp64) {
+			double[] results = new double[count];
+			countBuffers[0].read(results, 0, count);
+
+			for (int i = 0; i < count; i++)
+				doubleCounts[offset + points[i]] = results[i];
+		} else {
+			float[] results = new float[count];
+			countBuffers[0].read(results, 0, count);
+
+			for (int i = 0; i < count; i++)
+				floatCounts[offset + points[i]] = results[i];
+		}
+
+		return time;
+	}
+
+	@Override
+	protected boolean usePointLists() {
+		return useCertification() || super.usePointLists();
+	}
+
+	@Override
+	protected String describeFilledPixels(long filled, long pixels) {
+		if (!useCertification())
+			return super.describeFilledPixels(filled, pixels);
+
+		return ", certification proved " + filled + " px (" + Math.round(100d * filled / pixels) + "%) to be in the set and " + exteriorPixels + " px ("
+				+ Math.round(100d * exteriorPixels / pixels) + "%) to escape";
+	}
+
+	private void createCDF() {
 		logger.log(Level.INFO, "Generating histogram and cumulated density function");
 
 		minN = maxIterations;
@@ -172,19 +520,11 @@ public class MultibrotRendererQuality extends MultibrotRenderer {
 		if (pxCount == 0)
 			minN = 0;
 
-		int[] cdf = new int[maxN - minN + 1];
+		cdf = new int[maxN - minN + 1];
 		cdf[0] = 0;
 
 		for (int i = 1; i <= maxN - minN; i++)
 			cdf[i] = cdf[i - 1] + histogram[i + minN - 1];
-
-		cdfBuffer = context.createBuffer(Buffers.newDirectIntBuffer(cdf), READ_ONLY);
-
-		queue.putWriteBuffer(cdfBuffer, true);
-		queue.flush();
-		queue.finish();
-
-		hasData = true;
 	}
 
 	@Override
@@ -214,77 +554,118 @@ public class MultibrotRendererQuality extends MultibrotRenderer {
 			return image;
 		}
 
-		int[] imageData = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
-		CLBuffer<IntBuffer> imageBuffer = context.createIntBuffer(normalPartHeight * size.getWidth(), WRITE_ONLY);
+		final int[] imageData = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		final int width = size.getWidth();
 
 		setKernelArguments();
 
+		// the counts of several parts are uploaded to buffers of their own, so
+		// that the next part can be uploaded while the current one is colored
+		if (!countsOnDevice) {
+			freeCountBuffers();
+			countBuffers = new ComputeBuffer[parts > 1 ? 2 : 1];
+
+			for (int i = 0; i < countBuffers.length; i++)
+				countBuffers[i] = context.createFPBuffer(normalPartHeight * width, fp64);
+		}
+
+		final ComputeBuffer[] imageBuffers = new ComputeBuffer[countBuffers.length];
+
+		for (int i = 0; i < imageBuffers.length; i++)
+			imageBuffers[i] = context.createIntBuffer(normalPartHeight * width);
+
+		logger.log(Level.INFO, "Coloring needs ca. "
+				+ Formatter.formatSize(countBuffers.length * (countBuffers[0].getSize() + imageBuffers[0].getSize()) + cdfBuffer.getSize())
+				+ " of device memory.");
+
 		colorKernel.setArg(4, minN);
 		colorKernel.setArg(5, maxN);
-		colorKernel.setForce32BitArgs(false);
 		colorKernel.setArg(6, pxCount);
-		colorKernel.setForce32BitArgs(!fp64);
 		colorKernel.setArg(7, histogramRatio);
-		colorKernel.setArg(8, countBuffer);
 		colorKernel.setArg(9, cdfBuffer);
-		colorKernel.setArg(10, imageBuffer);
-
-		for (int y = 0; y < parts; y++) {
-			int partHeight = (y == parts - 1 ? size.getHeight() - y * normalPartHeight : normalPartHeight);
 
-			logger.log(Level.INFO, "-- Coloring of part " + (y + 1) + " of " + parts + " (" + size.getWidth() + "x" + partHeight + " px) --");
+		PartPipeline colorPipeline = new PartPipeline(device.getName(), countBuffers.length) {
+			@Override
+			protected void enqueue(int slot, int offsetY, int height) {
+				ComputeEvent upload = null;
 
-			if (parts != 1) {
-				if (fp64) {
-					DoubleBuffer countBackend = (DoubleBuffer) countBuffer.getBuffer().rewind();
-					countBackend.put(doubleCounts, size.getWidth() * normalPartHeight * y, size.getWidth() * partHeight).rewind();
-				} else {
-					FloatBuffer countBackend = (FloatBuffer) countBuffer.getBuffer().rewind();
-					countBackend.put(floatCounts, size.getWidth() * normalPartHeight * y, size.getWidth() * partHeight).rewind();
+				if (!countsOnDevice) {
+					if (fp64)
+						upload = addTransfer(countBuffers[slot].enqueueWrite(doubleCounts, width * offsetY, width * height, null));
+					else
+						upload = addTransfer(countBuffers[slot].enqueueWrite(floatCounts, width * offsetY, width * height, null));
 				}
 
-				queue.putWriteBuffer(countBuffer, true);
+				// calculate optimal sizes for the local and global work groups
+				Size localWorkSize = calculateLocal2DWorkSize(new Size(width, height));
+				Size globalWorkSize = calculateGlobal2DWorkSize(new Size(width, height));
+
+				// overwrite the settings for width and the buffers
+				colorKernel.setArg(0, new int[] { width, height });
+				colorKernel.setArg(8, countBuffers[slot]);
+				colorKernel.setArg(10, imageBuffers[slot]);
+
+				ComputeEvent event = addKernel(colorKernel.enqueue2D(globalWorkSize, localWorkSize, upload));
+				addTransfer(imageBuffers[slot].enqueueRead(event));
 			}
 
-			// calculate optimal sizes for the local and global work groups
-			Size localWorkSize = calculateLocal2DWorkSize(new Size(size.getWidth(), partHeight));
-			Size globalWorkSize = calculateGlobal2DWorkSize(new Size(size.getWidth(), partHeight));
+			@Override
+			protected void collect(int slot, int offsetY, int height) {
+				imageBuffers[slot].copyTo(imageData, width * offsetY, width * height);
+			}
+		};
 
-			// overwrite the settings for width and area
-			setArg(colorKernel.getID(), 0, new int[] { size.getWidth(), partHeight });
+		try {
+			long time = 0;
 
-			probe.release();
+			for (int y = 0; y < parts; y++) {
+				int partHeight = (y == parts - 1 ? size.getHeight() - y * normalPartHeight : normalPartHeight);
 
-			queue.put2DRangeKernel(colorKernel, 0, 0, globalWorkSize.getWidth(), globalWorkSize.getHeight(), localWorkSize.getWidth(),
-					localWorkSize.getHeight(), probe);
-			queue.finish();
+				logger.log(Level.INFO, "-- Coloring of part " + (y + 1) + " of " + parts + " (" + width + "x" + partHeight + " px) --");
 
-			CLEvent event = probe.getEvent(0);
-			logger.log(Level.INFO, "Coloring took " + Formatter.formatTime(event.getProfilingInfo(END) - event.getProfilingInfo(START)) + " and ca. "
-					+ Formatter.formatSize(countBuffer.getCLSize() + imageBuffer.getCLSize() + cdfBuffer.getCLSize()) + " of device memory.");
+				time += colorPipeline.submit(y * normalPartHeight, partHeight);
+			}
 
-			logger.log(Level.INFO, "Copying results to image");
+			time += colorPipeline.flush();
+			logger.log(Level.INFO, "Coloring took " + Formatter.formatTime(time) + ".");
+			colorPipeline.logTimings();
+		} finally {
+			colorPipeline.release();
 
-			queue.putReadBuffer(imageBuffer, true);
-			imageBuffer.getBuffer().get(imageData, size.getWidth() * normalPartHeight * y, size.getWidth() * partHeight);
-			imageBuffer.getBuffer().rewind();
+			for (ComputeBuffer buffer : imageBuffers)
+				buffer.release();
 		}
 
-		imageBuffer.release();
 		return image;
 	}
 
+	private void freeCountBuffers() {
+		if (pipeline != null) {
+			pipeline.release();
+			pipeline = null;
+		}
+
+		if (countBuffers != null)
+			for (ComputeBuffer buffer : countBuffers)
+				if (buffer != null && !buffer.isReleased())
+					buffer.release();
+
+		countBuffers = null;
+		freePointsBuffer();
+	}
+
 	public void freeBuffers() {
 		logger.log(Level.INFO, "Releasing computation data and memory.");
 
 		if (cdfBuffer != null && !cdfBuffer.isReleased())
 			cdfBuffer.release();
 
-		if (countBuffer != null && !countBuffer.isReleased())
-			countBuffer.release();
+		freeCountBuffers();
+		freeOrbitBuffers();
 
 		doubleCounts = null;
 		floatCounts = null;
+		cdf = null;
 		hasData = false;
 	}
 
@@ -308,13 +689,13 @@ public class MultibrotRendererQuality extends MultibrotRenderer {
 
 		for (int x = 0; x <= factor * (maxN - minN); x++)
 			for (int y = 0; y < 20; y++) {
-				int fraction = cdfBuffer.getBuffer().get(x / factor);
+				int fraction = cdf[x / factor];
 				double m = (double) x / factor;
 				int n = x / factor;
 
 				int diff;
 				if (x != factor * (maxN - minN))
-					diff = cdfBuffer.getBuffer().get(x / factor + 1) - fraction;
+					diff = cdf[x / factor + 1] - fraction;
 				else
 					diff = 0;
 
@@ -331,13 +712,43 @@ public class MultibrotRendererQuality extends MultibrotRenderer {
 	}
 
 	@Override
-	public int getDesiredPartSize() {
-		return desiredPartSize;
+	protected void copyParametersTo(Fractal other) {
+		super.copyParametersTo(other);
+		((MultibrotRendererQuality) other).setCertify(certify);
 	}
 
-	@Override
-	public void setDesiredPartSize(int desiredPartSize) {
-		this.desiredPartSize = desiredPartSize;
+	/**
+	 * Whether images are rendered using {@link IntervalCertification}, which
+	 * is only possible for some exponents and neither relative to a reference
+	 * orbit nor in double-words.
+	 */
+	public boolean useCertification() {
+		return certify && IntervalCertification.isSupported(exponent) && !usePerturbation() && !useDoubleWordIteration();
+	}
+
+	public boolean getCertify() {
+		return certify;
+	}
+
+	/**
+	 * Selects whether tiles of the image are certified to be in the set by
+	 * interval arithmetic (see {@link IntervalCertification}), which fills
+	 * them without computing their pixels. Unlike the subdivision, this never
+	 * fills pixels that are not in the set. Takes precedence over the
+	 * subdivision.
+	 */
+	public void setCertify(boolean certify) {
+		this.certify = certify;
+	}
+
+	/**
+	 * The count of pixel (x, y) of the last {@link #calculate()}: the mean
+	 * (smoothed) iteration count of its subpixels or -1 for points of the set.
+	 */
+	public double getCount(int x, int y) {
+		int i = y * size.getWidth() + x;
+
+		return doubleCounts != null ? doubleCounts[i] : floatCounts[i];
 	}
 
 	public double getHistogramRatio() {
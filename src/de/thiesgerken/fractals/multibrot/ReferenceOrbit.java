@@ -0,0 +1,252 @@
+package de.thiesgerken.fractals.multibrot;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+import de.thiesgerken.fractals.util.Rectangle;
+import de.thiesgerken.fractals.util.Size;
+
+/**
+ * The orbit Z_0 = 0, Z_1, ... of a reference point C of the standard set,
+ * computed in arbitrary precision and rounded to doubles. The pixels of deep
+ * zooms are iterated relative to it (see iteratePerturbed() in Multibrot.cl),
+ * which only needs the small differences between the points and the orbits
+ * to be representable by the floats of the device.
+ *
+ * It also provides the series approximation dz_n = A_n dc + B_n dc^2 + C_n
+ * dc^3 of those differences, which lets the pixels skip the first iterations.
+ * The coefficients are scaled by powers of the largest |dc| of the image
+ * (see {@link #getSeries()}), so that they can not overflow.
+ */
+class ReferenceOrbit {
+	private static final BigDecimal TWO = new BigDecimal(2);
+
+	private final BigDecimal referenceX;
+	private final BigDecimal referenceY;
+	private final int digits;
+
+	/* re and im of Z_0 to Z_(length-1) */
+	private final double[] orbit;
+	private final int length;
+
+	private double[] series;
+	private int skip;
+
+	/**
+	 * Iterates C = cx + i*cy until it escapes or maxIterations is reached,
+	 * using decimals of the given count of digits.
+	 */
+	public ReferenceOrbit(BigDecimal cx, BigDecimal cy, int maxIterations, double bailoutSquared, int digits) {
+		MathContext context = new MathContext(digits, RoundingMode.HALF_EVEN);
+		BigDecimal zx = BigDecimal.ZERO;
+		BigDecimal zy = BigDecimal.ZERO;
+		double[] orbit = new double[2 * (maxIterations + 1)];
+		int n = 0;
+
+		while (n < maxIterations) {
+			BigDecimal x = zx.multiply(zx, context).subtract(zy.multiply(zy, context)).add(cx, context);
+			zy = TWO.multiply(zx).multiply(zy, context).add(cy, context);
+			zx = x;
+			n++;
+
+			// the scale of zeros is not limited by the precision, it would
+			// double with every iteration (e.g. for the imaginary part of
+			// points on the real axis)
+			if (zx.signum() == 0)
+				zx = BigDecimal.ZERO;
+
+			if (zy.signum() == 0)
+				zy = BigDecimal.ZERO;
+
+			orbit[2 * n] = zx.doubleValue();
+			orbit[2 * n + 1] = zy.doubleValue();
+
+			if (orbit[2 * n] * orbit[2 * n] + orbit[2 * n + 1] * orbit[2 * n + 1] >= bailoutSquared)
+				break;
+		}
+
+		this.referenceX = cx;
+		this.referenceY = cy;
+		this.digits = digits;
+		this.orbit = orbit;
+		this.length = n + 1;
+	}
+
+	/**
+	 * The digits needed for the pixels of the given area: those of the pixel
+	 * size and some more for the rounding errors.
+	 */
+	public static int getDigits(Rectangle area, Size size) {
+		double pixelSize = Math.min(area.getWidth() / size.getWidth(), area.getHeight() / size.getHeight());
+
+		return Math.max(20, (int) Math.ceil(-Math.log10(pixelSize)) + 15);
+	}
+
+	/**
+	 * Computes the orbit of the center of the area. If that escapes before
+	 * maxIterations, the points halfway to the corners and edges are tried as
+	 * well and the one with the longest orbit is taken: orbits that end early
+	 * make the pixels rebase often (and lose the precision that the
+	 * reference provides).
+	 */
+	public static ReferenceOrbit find(Rectangle area, Size size, int maxIterations, double bailoutSquared) {
+		int digits = getDigits(area, size);
+		BigDecimal centerX = area.getCenterX();
+		BigDecimal centerY = area.getCenterY();
+		ReferenceOrbit best = new ReferenceOrbit(centerX, centerY, maxIterations, bailoutSquared, digits);
+
+		for (int i = -1; i <= 1 && best.length <= maxIterations; i++)
+			for (int j = -1; j <= 1 && best.length <= maxIterations; j++) {
+				if (i == 0 && j == 0)
+					continue;
+
+				ReferenceOrbit candidate = new ReferenceOrbit(centerX.add(BigDecimal.valueOf(i * area.getWidth() / 4)), centerY.add(BigDecimal.valueOf(j
+						* area.getHeight() / 4)), maxIterations, bailoutSquared, digits);
+
+				if (candidate.length > best.length)
+					best = candidate;
+			}
+
+		return best;
+	}
+
+	/**
+	 * The area relative to the reference point, i.e. the area of dc.
+	 */
+	public Rectangle getRelativeArea(Rectangle area) {
+		double x = area.getCenterX().subtract(referenceX).doubleValue() - area.getWidth() / 2;
+		double y = area.getCenterY().subtract(referenceY).doubleValue() - area.getHeight() / 2;
+
+		return new Rectangle(x, y, area.getWidth(), area.getHeight());
+	}
+
+	/**
+	 * Determines the iterations that the pixels of the given area (relative
+	 * to the reference, see {@link #getRelativeArea(Rectangle)}) may skip
+	 * using the series approximation. The series is used as long as its
+	 * cubic term stays below tolerance times the linear one and it agrees
+	 * (within tolerance) with the perturbation of the corners of the area,
+	 * which are iterated alongside it. The corners must not need to rebase
+	 * either (see iteratePerturbed() in Multibrot.cl).
+	 */
+	public void approximate(Rectangle relativeArea, double tolerance) {
+		double[] probes = new double[] { relativeArea.getX(), relativeArea.getY(), relativeArea.getX() + relativeArea.getWidth(), relativeArea.getY(),
+				relativeArea.getX(), relativeArea.getY() + relativeArea.getHeight(), relativeArea.getX() + relativeArea.getWidth(),
+				relativeArea.getY() + relativeArea.getHeight() };
+		double[] dz = new double[probes.length];
+		double radius = 0;
+
+		for (int p = 0; p < probes.length; p += 2)
+			radius = Math.max(radius, Math.hypot(probes[p], probes[p + 1]));
+
+		// the coefficients times radius, radius^2 and radius^3
+		double ax = 0, ay = 0, bx = 0, by = 0, cx = 0, cy = 0;
+
+		series = new double[] { 0, 0, 0, 0, 0, 0, radius, 0 };
+		skip = 0;
+
+		if (radius == 0)
+			return;
+
+		for (int n = 0; n + 1 < length - 1; n++) {
+			double zx = orbit[2 * n];
+			double zy = orbit[2 * n + 1];
+
+			// A' = 2 Z A + 1, B' = 2 Z B + A^2, C' = 2 Z C + 2 A B
+			double nextAx = 2 * (zx * ax - zy * ay) + radius;
+			double nextAy = 2 * (zx * ay + zy * ax);
+			double nextBx = 2 * (zx * bx - zy * by) + ax * ax - ay * ay;
+			double nextBy = 2 * (zx * by + zy * bx) + 2 * ax * ay;
+			double nextCx = 2 * (zx * cx - zy * cy) + 2 * (ax * bx - ay * by);
+			double nextCy = 2 * (zx * cy + zy * cx) + 2 * (ax * by + ay * bx);
+
+			if (Math.hypot(nextCx, nextCy) > tolerance * Math.hypot(nextAx, nextAy))
+				break;
+
+			boolean valid = true;
+
+			for (int p = 0; p < probes.length && valid; p += 2) {
+				double dcx = probes[p];
+				double dcy = probes[p + 1];
+
+				// dz' = (2 Z + dz) dz + dc
+				double x = 2 * zx + dz[p];
+				double y = 2 * zy + dz[p + 1];
+				double dzx = x * dz[p] - y * dz[p + 1] + dcx;
+				double dzy = x * dz[p + 1] + y * dz[p] + dcy;
+
+				dz[p] = dzx;
+				dz[p + 1] = dzy;
+
+				// the series at u = dc / radius
+				double ux = dcx / radius;
+				double uy = dcy / radius;
+				double u2x = ux * ux - uy * uy;
+				double u2y = 2 * ux * uy;
+				double u3x = u2x * ux - u2y * uy;
+				double u3y = u2x * uy + u2y * ux;
+				double sx = nextAx * ux - nextAy * uy + nextBx * u2x - nextBy * u2y + nextCx * u3x - nextCy * u3y;
+				double sy = nextAx * uy + nextAy * ux + nextBx * u2y + nextBy * u2x + nextCx * u3y + nextCy * u3x;
+
+				double zNextX = orbit[2 * n + 2] + dzx;
+				double zNextY = orbit[2 * n + 3] + dzy;
+
+				valid = Math.hypot(sx - dzx, sy - dzy) <= tolerance * Math.hypot(dzx, dzy)
+						&& Math.hypot(zNextX, zNextY) >= Math.hypot(dzx, dzy);
+			}
+
+			if (!valid)
+				break;
+
+			ax = nextAx;
+			ay = nextAy;
+			bx = nextBx;
+			by = nextBy;
+			cx = nextCx;
+			cy = nextCy;
+			skip = n + 1;
+		}
+
+		series = new double[] { ax, ay, bx, by, cx, cy, radius, 0 };
+	}
+
+	/**
+	 * Re and im of Z_0 to Z_(length-1).
+	 */
+	public double[] getOrbit() {
+		return orbit;
+	}
+
+	/**
+	 * The amount of points of the orbit: maxIterations + 1 or up to
+	 * (including) the first point outside of the bailout.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * A_skip * r, B_skip * r^2, C_skip * r^3 and (r, 0) as complex numbers for
+	 * the largest |dc| r, see {@link #approximate(Rectangle, double)}.
+	 */
+	public double[] getSeries() {
+		return series;
+	}
+
+	/**
+	 * The iterations that the series approximation skips.
+	 */
+	public int getSkip() {
+		return skip;
+	}
+
+	public int getDigits() {
+		return digits;
+	}
+
+	@Override
+	public String toString() {
+		return referenceX + " " + referenceY;
+	}
+}
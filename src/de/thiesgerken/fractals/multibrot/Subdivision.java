@@ -0,0 +1,174 @@
+package de.thiesgerken.fractals.multibrot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mariani-Silver subdivision of a part of an image: the part is split into
+ * tiles and only the borders of the tiles are computed. If all pixels on the
+ * border of a rectangle have the same value, its interior is filled with
+ * that value, otherwise it is split into four rectangles whose new borders
+ * are computed next. Rectangles below a minimal size are computed
+ * completely.
+ *
+ * This is only correct if the regions of equal values (most importantly the
+ * set itself) have no holes, which is the case for the multibrot sets with
+ * integer exponents k >= 2, see {@link Multibrot#isSimplyConnected()}.
+ *
+ * All pixels of one level of the subdivision are computed at once by
+ * {@link #compute(int[], int)}, pixels are given as their index y * width +
+ * x inside of the part.
+ */
+abstract class Subdivision {
+	/* size of the tiles the part is split into first */
+	private static final int TILE_SIZE = 64;
+
+	/* rectangles with less rows or columns are computed completely */
+	private static final int MIN_SIZE = 6;
+
+	private final int width;
+	private final int height;
+	private final boolean[] known;
+	private final int[] points;
+	private int count;
+	private long filled;
+
+	public Subdivision(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.known = new boolean[width * height];
+		this.points = new int[width * height];
+	}
+
+	/**
+	 * Computes the first count pixels of points and stores their values.
+	 * Returns the time spent by the kernel in ns.
+	 */
+	protected abstract long compute(int[] points, int count) throws Exception;
+
+	/**
+	 * Whether the pixels a and b (which have been computed or filled) have the
+	 * same value.
+	 */
+	protected abstract boolean equal(int a, int b);
+
+	/**
+	 * Sets pixel to to the value of pixel from.
+	 */
+	protected abstract void fill(int from, int to);
+
+	/**
+	 * Runs the subdivision on the whole part. Returns the time spent by the
+	 * kernels in ns.
+	 */
+	public long run() throws Exception {
+		List<int[]> rectangles = new ArrayList<int[]>();
+
+		// rectangles are given as {x0, y0, x1, y1} (inclusive), neighbours
+		// share their borders
+		for (int y0 = 0; y0 == 0 || y0 < height - 1; y0 += TILE_SIZE)
+			for (int x0 = 0; x0 == 0 || x0 < width - 1; x0 += TILE_SIZE)
+				rectangles.add(new int[] { x0, y0, Math.min(x0 + TILE_SIZE, width - 1), Math.min(y0 + TILE_SIZE, height - 1) });
+
+		long time = 0;
+
+		while (!rectangles.isEmpty()) {
+			count = 0;
+
+			for (int[] r : rectangles)
+				addBorder(r);
+
+			if (count > 0)
+				time += compute(points, count);
+
+			List<int[]> next = new ArrayList<int[]>();
+
+			for (int[] r : rectangles) {
+				// nothing left inside?
+				if (r[2] - r[0] < 2 || r[3] - r[1] < 2)
+					continue;
+
+				if (isUniform(r))
+					fillInterior(r);
+				else if (r[2] - r[0] < MIN_SIZE || r[3] - r[1] < MIN_SIZE) {
+					// compute the interior row by row (as rectangles without
+					// an interior)
+					for (int y = r[1] + 1; y < r[3]; y++)
+						next.add(new int[] { r[0] + 1, y, r[2] - 1, y });
+				} else {
+					int mx = (r[0] + r[2]) / 2;
+					int my = (r[1] + r[3]) / 2;
+
+					next.add(new int[] { r[0], r[1], mx, my });
+					next.add(new int[] { mx, r[1], r[2], my });
+					next.add(new int[] { r[0], my, mx, r[3] });
+					next.add(new int[] { mx, my, r[2], r[3] });
+				}
+			}
+
+			rectangles = next;
+		}
+
+		return time;
+	}
+
+	private void add(int x, int y) {
+		int index = y * width + x;
+
+		if (!known[index]) {
+			known[index] = true;
+			points[count++] = index;
+		}
+	}
+
+	/**
+	 * Adds the pixels on the border of r that have not been computed yet.
+	 */
+	private void addBorder(int[] r) {
+		for (int x = r[0]; x <= r[2]; x++) {
+			add(x, r[1]);
+			add(x, r[3]);
+		}
+
+		for (int y = r[1] + 1; y < r[3]; y++) {
+			add(r[0], y);
+			add(r[2], y);
+		}
+	}
+
+	private boolean isUniform(int[] r) {
+		int first = r[1] * width + r[0];
+
+		for (int x = r[0]; x <= r[2]; x++)
+			if (!equal(first, r[1] * width + x) || !equal(first, r[3] * width + x))
+				return false;
+
+		for (int y = r[1] + 1; y < r[3]; y++)
+			if (!equal(first, y * width + r[0]) || !equal(first, y * width + r[2]))
+				return false;
+
+		return true;
+	}
+
+	private void fillInterior(int[] r) {
+		int first = r[1] * width + r[0];
+
+		for (int y = r[1] + 1; y < r[3]; y++)
+			for (int x = r[0] + 1; x < r[2]; x++) {
+				int index = y * width + x;
+
+				if (!known[index]) {
+					known[index] = true;
+					fill(first, index);
+					filled++;
+				}
+			}
+	}
+
+	/**
+	 * The amount of pixels that have been filled instead of computed.
+	 */
+	public long getFilledPixels() {
+		return filled;
+	}
+}
@@ -0,0 +1,113 @@
+package de.thiesgerken.fractals.multibrot.test;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.thiesgerken.fractals.multibrot.DoubleWordComplex;
+
+/**
+ * Compares the double-word operations with exact arithmetic on BigDecimals.
+ * The errors are bounded by small multiples of u^2 = 2^-106 (relative to the
+ * result for additions, relative to |z|^2 resp. |z|^k for the products,
+ * whose parts may cancel), far below the 2^-53 of plain doubles.
+ */
+public class DoubleWordComplexTest {
+	private static final double U2 = 0x1p-106;
+	private static final int COUNT = 10000;
+
+	private final Random random = new Random(42);
+
+	/**
+	 * A random double-word with |hi| about 2^-8 to 2^8 and |lo| <= ulp(hi) / 2.
+	 */
+	private double[] randomDoubleWord() {
+		double hi = (2 * random.nextDouble() - 1) * Math.scalb(1d, random.nextInt(17) - 8);
+		double lo = (random.nextDouble() - 0.5) * Math.ulp(hi);
+
+		return new double[] { hi, lo };
+	}
+
+	private DoubleWordComplex randomComplex() {
+		double[] re = randomDoubleWord();
+		double[] im = randomDoubleWord();
+
+		return new DoubleWordComplex(re[0], re[1], im[0], im[1]);
+	}
+
+	private static BigDecimal exact(double hi, double lo) {
+		return new BigDecimal(hi).add(new BigDecimal(lo));
+	}
+
+	private static void assertError(String message, BigDecimal expected, double hi, double lo, double bound) {
+		BigDecimal error = exact(hi, lo).subtract(expected).abs();
+
+		assertTrue(message + ": error " + error.doubleValue() + " > " + bound, error.compareTo(new BigDecimal(bound)) <= 0);
+		assertTrue(message + ": not normalized", Math.abs(lo) <= Math.ulp(hi) / 2);
+	}
+
+	@Test
+	public void testAdd() {
+		for (int i = 0; i < COUNT; i++) {
+			DoubleWordComplex a = randomComplex();
+			DoubleWordComplex b = randomComplex();
+
+			// every fourth sum cancels almost completely
+			if (i % 4 == 0)
+				b.set(-a.reHi, b.reLo, -a.imHi, b.imLo);
+
+			BigDecimal re = exact(a.reHi, a.reLo).add(exact(b.reHi, b.reLo));
+			BigDecimal im = exact(a.imHi, a.imLo).add(exact(b.imHi, b.imLo));
+
+			a.add(b);
+
+			assertError("re", re, a.reHi, a.reLo, 4 * U2 * Math.abs(re.doubleValue()));
+			assertError("im", im, a.imHi, a.imLo, 4 * U2 * Math.abs(im.doubleValue()));
+		}
+	}
+
+	@Test
+	public void testSquare() {
+		for (int i = 0; i < COUNT; i++) {
+			DoubleWordComplex z = randomComplex();
+			BigDecimal x = exact(z.reHi, z.reLo);
+			BigDecimal y = exact(z.imHi, z.imLo);
+			double absSquared = x.multiply(x).add(y.multiply(y)).doubleValue();
+
+			z.square();
+
+			assertError("re", x.multiply(x).subtract(y.multiply(y)), z.reHi, z.reLo, 16 * U2 * absSquared);
+			assertError("im", x.multiply(y).multiply(BigDecimal.valueOf(2)), z.imHi, z.imLo, 16 * U2 * absSquared);
+		}
+	}
+
+	@Test
+	public void testPow() {
+		for (int k = 2; k <= 7; k++)
+			for (int i = 0; i < COUNT / 10; i++) {
+				DoubleWordComplex z = randomComplex();
+				BigDecimal x = exact(z.reHi, z.reLo);
+				BigDecimal y = exact(z.imHi, z.imLo);
+				double abs = Math.sqrt(x.multiply(x).add(y.multiply(y)).doubleValue());
+
+				// (x + iy)^k by repeated multiplication
+				BigDecimal re = x;
+				BigDecimal im = y;
+
+				for (int j = 1; j < k; j++) {
+					BigDecimal t = re.multiply(x).subtract(im.multiply(y));
+					im = re.multiply(y).add(im.multiply(x));
+					re = t;
+				}
+
+				z.pow(k);
+
+				double bound = 16 * k * U2 * Math.pow(abs, k);
+				assertError("re of z^" + k, re, z.reHi, z.reLo, bound);
+				assertError("im of z^" + k, im, z.imHi, z.imLo, bound);
+			}
+	}
+}
@@ -0,0 +1,157 @@
+package de.thiesgerken.fractals.multibrot.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.thiesgerken.fractals.multibrot.IntervalCertification;
+import de.thiesgerken.fractals.util.Rectangle;
+
+/**
+ * Checks that {@link IntervalCertification} fills only pixels whose points do
+ * not escape, by iterating a few points of every filled pixel far beyond
+ * maxIterations.
+ */
+public class IntervalCertificationTest {
+	private static final int SIZE = 128;
+	private static final int MAX_ITERATIONS = 500;
+	private static final int CHECK_ITERATIONS = 5000;
+
+	/**
+	 * Runs the certification and returns for every pixel whether it has been
+	 * filled, checking that all other pixels have been computed exactly once.
+	 */
+	private static boolean[] certify(Rectangle area, double bailoutSquared, double exponent, boolean invert) throws Exception {
+		final boolean[] filled = new boolean[SIZE * SIZE];
+		final int[] computed = new int[SIZE * SIZE];
+
+		IntervalCertification certification = new IntervalCertification(SIZE, SIZE, area, MAX_ITERATIONS, bailoutSquared, exponent, invert) {
+			@Override
+			protected long compute(int[] points, int count) {
+				for (int i = 0; i < count; i++)
+					computed[points[i]]++;
+
+				return 0;
+			}
+
+			@Override
+			protected void fillInterior(int index) {
+				filled[index] = true;
+			}
+		};
+
+		certification.run();
+
+		for (int i = 0; i < filled.length; i++)
+			assertEquals("pixel " + i, filled[i] ? 0 : 1, computed[i]);
+
+		return filled;
+	}
+
+	/**
+	 * Whether z^k + c escapes within CHECK_ITERATIONS from z = 0.
+	 */
+	private static boolean escapes(double cx, double cy, int k, boolean invert, double bailoutSquared) {
+		if (invert) {
+			double a = cx * cx + cy * cy;
+			cx = cx / a;
+			cy = -cy / a;
+		}
+
+		double zx = 0;
+		double zy = 0;
+
+		for (int n = 0; n < CHECK_ITERATIONS; n++) {
+			double x = zx;
+			double y = zy;
+
+			for (int i = 1; i < k; i++) {
+				double t = x * zx - y * zy;
+				y = x * zy + y * zx;
+				x = t;
+			}
+
+			zx = x + cx;
+			zy = y + cy;
+
+			if (zx * zx + zy * zy >= bailoutSquared)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Certifies the area and checks the corners and the center of every filled
+	 * pixel. Returns the amount of filled pixels.
+	 */
+	private static int checkFilledPixels(Rectangle area, double bailoutSquared, int exponent, boolean invert) throws Exception {
+		boolean[] filled = certify(area, bailoutSquared, exponent, invert);
+		int count = 0;
+
+		for (int y = 0; y < SIZE; y++)
+			for (int x = 0; x < SIZE; x++) {
+				if (!filled[y * SIZE + x])
+					continue;
+
+				count++;
+
+				for (double dy = -0.5; dy <= 0.5; dy += 0.5)
+					for (double dx = -0.5; dx <= 0.5; dx += 0.5) {
+						double cx = area.getX() + area.getWidth() * (x + dx) / SIZE;
+						double cy = area.getY() + area.getHeight() * (y + dy) / SIZE;
+
+						assertFalse("(" + cx + ", " + cy + ") escapes, but pixel (" + x + ", " + y + ") has been filled",
+								escapes(cx, cy, exponent, invert, bailoutSquared));
+					}
+			}
+
+		return count;
+	}
+
+	@Test
+	public void testStandardSet() throws Exception {
+		assertTrue(checkFilledPixels(new Rectangle(-2.1, -1.5, 3, 3), 4, 2, false) > 0);
+		assertTrue(checkFilledPixels(new Rectangle(-2.1, -1.5, 3, 3), 100, 2, false) > 0);
+	}
+
+	@Test
+	public void testBoundary() throws Exception {
+		// the neck between the main cardioid and the period 2 bulb, and a
+		// part of seahorse valley
+		checkFilledPixels(new Rectangle(-0.8, -0.05, 0.1, 0.1), 4, 2, false);
+		checkFilledPixels(new Rectangle(-0.76, 0.08, 0.02, 0.02), 4, 2, false);
+	}
+
+	@Test
+	public void testHigherExponents() throws Exception {
+		assertTrue(checkFilledPixels(new Rectangle(-1.5, -1.5, 3, 3), 4, 3, false) > 0);
+		assertTrue(checkFilledPixels(new Rectangle(-1.5, -1.5, 3, 3), 4, 4, false) > 0);
+	}
+
+	@Test
+	public void testInvert() throws Exception {
+		assertTrue(checkFilledPixels(new Rectangle(-1.5, -2.5, 5, 5), 4, 2, true) > 0);
+	}
+
+	/**
+	 * Tiny areas around points that escape only after many iterations (close
+	 * to the cusp of the cardioid and to the neck) must not be filled at all.
+	 */
+	@Test
+	public void testSlowlyEscapingPoints() throws Exception {
+		double[][] points = new double[][] { { 0.26, 0 }, { 0.2501, 0 }, { -0.75, 0.01 }, { -0.75, 0.001 } };
+
+		for (double[] c : points) {
+			double size = 1E-6;
+			assertTrue(escapes(c[0], c[1], 2, false, 4));
+
+			boolean[] filled = certify(new Rectangle(c[0] - size / 2, c[1] - size / 2, size, size), 4, 2, false);
+
+			for (boolean f : filled)
+				assertFalse("pixel near (" + c[0] + ", " + c[1] + ") has been filled", f);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package de.thiesgerken.fractals.multibrot.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+import de.thiesgerken.fractals.Fractal;
+import de.thiesgerken.fractals.backend.Backends;
+import de.thiesgerken.fractals.multibrot.MultibrotRendererQuality;
+import de.thiesgerken.fractals.util.Rectangle;
+import de.thiesgerken.fractals.util.Size;
+
+/**
+ * Renders images on the java engine at once and in parts of several heights,
+ * which must not change a single count.
+ */
+public class MultibrotPartsTest {
+	private static final Size SIZE = new Size(96, 72);
+	private static final int[] PART_HEIGHTS = new int[] { 5, 16, 31 };
+
+	private static MultibrotRendererQuality createRenderer(Rectangle area, String precision, int superSampling, boolean perturbation, int partHeight) {
+		MultibrotRendererQuality brot = new MultibrotRendererQuality();
+
+		brot.setDevice(Backends.createJavaDevice(2));
+		brot.setSize(SIZE);
+		brot.setArea(area);
+		brot.setMaxIterations(500);
+		brot.setPrecision(precision);
+		brot.setSuperSampling(new Size(superSampling, superSampling));
+		brot.setPerturbation(perturbation);
+		brot.setDesiredPartSize(partHeight * SIZE.getWidth());
+
+		return brot;
+	}
+
+	private static void checkParts(Rectangle area, String precision, int superSampling, boolean perturbation) throws Exception {
+		MultibrotRendererQuality whole = createRenderer(area, precision, superSampling, perturbation, 0);
+		whole.calculate();
+
+		for (int partHeight : PART_HEIGHTS) {
+			MultibrotRendererQuality parts = createRenderer(area, precision, superSampling, perturbation, partHeight);
+			parts.calculate();
+
+			for (int y = 0; y < SIZE.getHeight(); y++)
+				for (int x = 0; x < SIZE.getWidth(); x++)
+					assertEquals(precision + ", parts of " + partHeight + " rows, pixel (" + x + ", " + y + ")", whole.getCount(x, y),
+							parts.getCount(x, y), 0);
+		}
+	}
+
+	@Test
+	public void testPrecisions() throws Exception {
+		Rectangle area = new Rectangle(-2.1, -1.5, 3, 3);
+
+		for (String precision : new String[] { Fractal.FP32, Fractal.FP64, Fractal.FLOAT_FLOAT, Fractal.DOUBLE_DOUBLE })
+			checkParts(area, precision, 1, false);
+	}
+
+	@Test
+	public void testSupersampling() throws Exception {
+		checkParts(new Rectangle(-0.7453, 0.1127, 0.0065, 0.0065), Fractal.FP64, 2, false);
+	}
+
+	@Test
+	public void testDeepZoom() throws Exception {
+		Rectangle area = new Rectangle(new BigDecimal("-0.743643887037158704752191506114774"), new BigDecimal("0.131825904205311970493132056385139"), 1E12);
+
+		checkParts(area, Fractal.DOUBLE_DOUBLE, 1, false);
+		checkParts(area, Fractal.FP64, 1, true);
+	}
+}
@@ -0,0 +1,37 @@
+package de.thiesgerken.fractals.newton;
+
+/**
+ * A function on complex numbers as generated by {@link FunctionCompiler}.
+ * The result of {@link #evaluate(double, double)} is stored in {@link #re}
+ * and {@link #im}, so instances must not be shared between threads.
+ */
+public abstract class ComplexFunction {
+	public double re;
+	public double im;
+
+	/**
+	 * Evaluates the function at x + iy.
+	 */
+	public abstract void evaluate(double x, double y);
+
+	/**
+	 * Port of carg in Newton.cl, can be called by compiled functions.
+	 */
+	public static double carg(double x, double y) {
+		if (x * x + y * y < 1E-5)
+			return Math.PI / 2;
+
+		if (x > 0)
+			return Math.atan(y / x);
+		else if (x < 0 && y >= 0)
+			return Math.atan(y / x) + Math.PI;
+		else if (x < 0 && y < 0)
+			return Math.atan(y / x) - Math.PI;
+		else if (x == 0 && y > 0)
+			return Math.PI / 2;
+		else if (x == 0 && y < 0)
+			return -Math.PI / 2;
+		else
+			return 0;
+	}
+}
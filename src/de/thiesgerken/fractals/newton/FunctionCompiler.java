@@ -0,0 +1,836 @@
+package de.thiesgerken.fractals.newton;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles the functions of Newton's method, given in the OpenCL syntax of
+ * Newton.cl, into jvm bytecode. The result is a subclass of
+ * {@link ComplexFunction} whose evaluate method only uses local variables of
+ * type double, has no branches and does not allocate anything, so the jit
+ * compiler can turn it into plain floating point code.
+ *
+ * Supported are the variable z, number literals, M_PI, the operators + - * /
+ * (componentwise like for OpenCL vectors, scalars are converted to vectors if
+ * needed), unary minus, the swizzles .x and .y, the casts (fp2)(a, b),
+ * (fp2) a and (fp) a and the functions cmul, cdiv, cinv, cpow (with an
+ * integer literal as exponent), cexp, csin, ccos and carg. All calculations
+ * use 64bit floats.
+ */
+public class FunctionCompiler {
+	private static final String SUPER_CLASS = "de/thiesgerken/fractals/newton/ComplexFunction";
+	private static final String MATH_CLASS = "java/lang/Math";
+
+	/* opcodes */
+	private static final int LDC2_W = 0x14;
+	private static final int DLOAD = 0x18;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int DSTORE = 0x39;
+	private static final int DADD = 0x63;
+	private static final int DSUB = 0x67;
+	private static final int DMUL = 0x6b;
+	private static final int DDIV = 0x6f;
+	private static final int DNEG = 0x77;
+	private static final int RETURN = 0xb1;
+	private static final int PUTFIELD = 0xb5;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+	private static final int WIDE = 0xc4;
+
+	/* locals 1 to 4 hold the arguments x and y */
+	private static final int X = 1;
+	private static final int Y = 3;
+
+	private static int classCount = 0;
+
+	private final String expression;
+	private int position;
+
+	private final ConstantPool pool = new ConstantPool();
+	private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+	private int nextLocal = 5;
+
+	/**
+	 * A scalar or a vector, stored in local variables (re == im for scalars).
+	 */
+	private static class Value {
+		public final int re;
+		public final int im;
+		public final boolean vector;
+
+		public Value(int re, int im, boolean vector) {
+			this.re = re;
+			this.im = im;
+			this.vector = vector;
+		}
+	}
+
+	private FunctionCompiler(String expression) {
+		this.expression = expression;
+	}
+
+	/**
+	 * Compiles the expression (in terms of z) into a new class. Every class is
+	 * defined by a class loader of its own, so it can be unloaded once it is no
+	 * longer used.
+	 */
+	public static Class<? extends ComplexFunction> compile(String expression) throws Exception {
+		String name;
+
+		synchronized (FunctionCompiler.class) {
+			name = "de/thiesgerken/fractals/newton/CompiledFunction" + (++classCount);
+		}
+
+		byte[] bytes = new FunctionCompiler(expression).generate(name);
+
+		return new FunctionLoader(FunctionCompiler.class.getClassLoader()).define(name.replace('/', '.'), bytes);
+	}
+
+	private static class FunctionLoader extends ClassLoader {
+		public FunctionLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		public Class<? extends ComplexFunction> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length).asSubclass(ComplexFunction.class);
+		}
+	}
+
+	private byte[] generate(String name) throws Exception {
+		Value result = toVector(parseExpression());
+		skipWhitespace();
+
+		if (position < expression.length())
+			throw error("unexpected '" + expression.charAt(position) + "'");
+
+		emit(ALOAD_0);
+		load(result.re);
+		emit(PUTFIELD);
+		emitShort(pool.fieldRef(SUPER_CLASS, "re", "D"));
+		emit(ALOAD_0);
+		load(result.im);
+		emit(PUTFIELD);
+		emitShort(pool.fieldRef(SUPER_CLASS, "im", "D"));
+		emit(RETURN);
+
+		if (code.size() > 65535 || nextLocal > 65535)
+			throw new Exception("The function '" + expression + "' is too long.");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		// the constant pool has to be complete before it is written
+		int thisClass = pool.classRef(name);
+		int superClass = pool.classRef(SUPER_CLASS);
+		int constructorName = pool.utf8("<init>");
+		int constructorType = pool.utf8("()V");
+		int superConstructor = pool.methodRef(SUPER_CLASS, "<init>", "()V");
+		int evaluateName = pool.utf8("evaluate");
+		int evaluateType = pool.utf8("(DD)V");
+		int codeName = pool.utf8("Code");
+
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(51);
+		pool.write(out);
+
+		// public final class name extends ComplexFunction
+		out.writeShort(0x0031);
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(0);
+		out.writeShort(0);
+
+		out.writeShort(2);
+
+		// public name() { super(); }
+		out.writeShort(0x0001);
+		out.writeShort(constructorName);
+		out.writeShort(constructorType);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + 5);
+		out.writeShort(1);
+		out.writeShort(1);
+		out.writeInt(5);
+		out.writeByte(ALOAD_0);
+		out.writeByte(INVOKESPECIAL);
+		out.writeShort(superConstructor);
+		out.writeByte(RETURN);
+		out.writeShort(0);
+		out.writeShort(0);
+
+		// public void evaluate(double x, double y)
+		out.writeShort(0x0001);
+		out.writeShort(evaluateName);
+		out.writeShort(evaluateType);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + code.size());
+		out.writeShort(12);
+		out.writeShort(nextLocal);
+		out.writeInt(code.size());
+		code.writeTo(out);
+		out.writeShort(0);
+		out.writeShort(0);
+
+		out.writeShort(0);
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+
+	/* parser, which emits the code for each part right away */
+
+	private Value parseExpression() throws Exception {
+		Value value = parseTerm();
+
+		while (true) {
+			if (accept('+'))
+				value = binary(DADD, value, parseTerm());
+			else if (accept('-'))
+				value = binary(DSUB, value, parseTerm());
+			else
+				return value;
+		}
+	}
+
+	private Value parseTerm() throws Exception {
+		Value value = parseUnary();
+
+		while (true) {
+			if (accept('*'))
+				value = binary(DMUL, value, parseUnary());
+			else if (accept('/'))
+				value = binary(DDIV, value, parseUnary());
+			else
+				return value;
+		}
+	}
+
+	private Value parseUnary() throws Exception {
+		if (accept('-'))
+			return negate(parseUnary());
+		else if (accept('+'))
+			return parseUnary();
+		else
+			return parsePostfix();
+	}
+
+	private Value parsePostfix() throws Exception {
+		Value value = parsePrimary();
+
+		while (accept('.')) {
+			String swizzle = parseIdentifier();
+
+			if (!value.vector)
+				throw error("swizzle of a scalar");
+
+			if ("x".equals(swizzle))
+				value = new Value(value.re, value.re, false);
+			else if ("y".equals(swizzle))
+				value = new Value(value.im, value.im, false);
+			else
+				throw error("unknown swizzle '" + swizzle + "'");
+		}
+
+		return value;
+	}
+
+	private Value parsePrimary() throws Exception {
+		skipWhitespace();
+
+		if (position >= expression.length())
+			throw error("unexpected end of the function");
+
+		char c = expression.charAt(position);
+
+		if (Character.isDigit(c) || c == '.')
+			return constant(parseNumber());
+
+		if (Character.isLetter(c) || c == '_') {
+			String identifier = parseIdentifier();
+
+			if ("z".equals(identifier))
+				return new Value(X, Y, true);
+			else if ("M_PI".equals(identifier))
+				return constant(Math.PI);
+			else
+				return parseFunction(identifier);
+		}
+
+		expect('(');
+
+		// casts (fp), (fp2) and their float/double variants
+		int start = position;
+		skipWhitespace();
+
+		if (position < expression.length() && Character.isLetter(expression.charAt(position))) {
+			String type = parseIdentifier();
+
+			if (accept(')')) {
+				if ("fp2".equals(type) || "float2".equals(type) || "double2".equals(type))
+					return parseVectorCast();
+				else if ("fp".equals(type) || "float".equals(type) || "double".equals(type)) {
+					Value value = parseUnary();
+
+					if (value.vector)
+						throw error("a vector can not be converted to a scalar");
+
+					return value;
+				}
+			}
+		}
+
+		position = start;
+
+		Value value = parseExpression();
+		expect(')');
+
+		return value;
+	}
+
+	private Value parseVectorCast() throws Exception {
+		skipWhitespace();
+
+		if (position >= expression.length() || expression.charAt(position) != '(')
+			return toVector(parseUnary());
+
+		expect('(');
+		Value re = parseExpression();
+
+		if (!accept(',')) {
+			expect(')');
+			return toVector(re);
+		}
+
+		Value im = parseExpression();
+		expect(')');
+
+		if (re.vector || im.vector)
+			throw error("the components of a vector literal must be scalars");
+
+		return new Value(re.re, im.re, true);
+	}
+
+	private Value parseFunction(String name) throws Exception {
+		expect('(');
+
+		Value result;
+
+		if ("cpow".equals(name)) {
+			Value z = toVector(parseExpression());
+			expect(',');
+			result = cpow(z, parseInteger());
+		} else {
+			Value a = toVector(parseExpression());
+
+			if ("cmul".equals(name)) {
+				expect(',');
+				result = cmul(a, toVector(parseExpression()));
+			} else if ("cdiv".equals(name)) {
+				expect(',');
+				result = cdiv(a, toVector(parseExpression()));
+			} else if ("cinv".equals(name))
+				result = cinv(a);
+			else if ("cexp".equals(name))
+				result = cexp(a);
+			else if ("csin".equals(name))
+				result = csin(a);
+			else if ("ccos".equals(name))
+				result = ccos(a);
+			else if ("carg".equals(name))
+				result = carg(a);
+			else
+				throw error("unknown function '" + name + "'");
+		}
+
+		expect(')');
+		return result;
+	}
+
+	private double parseNumber() throws Exception {
+		skipWhitespace();
+		int start = position;
+
+		while (position < expression.length()) {
+			char c = expression.charAt(position);
+
+			if (Character.isDigit(c) || c == '.')
+				position++;
+			else if ((c == 'e' || c == 'E') && position + 1 < expression.length()) {
+				position++;
+
+				if (expression.charAt(position) == '+' || expression.charAt(position) == '-')
+					position++;
+			} else
+				break;
+		}
+
+		double value;
+
+		try {
+			value = Double.parseDouble(expression.substring(start, position));
+		} catch (NumberFormatException e) {
+			throw error("invalid number '" + expression.substring(start, position) + "'");
+		}
+
+		// float literals are rounded like in OpenCL
+		if (position < expression.length() && (expression.charAt(position) == 'f' || expression.charAt(position) == 'F')) {
+			position++;
+			value = (float) value;
+		}
+
+		return value;
+	}
+
+	private int parseInteger() throws Exception {
+		boolean negative = accept('-');
+		skipWhitespace();
+		int start = position;
+
+		while (position < expression.length() && Character.isDigit(expression.charAt(position)))
+			position++;
+
+		if (start == position)
+			throw error("the exponent of cpow must be an integer literal");
+
+		int value = Integer.parseInt(expression.substring(start, position));
+		return negative ? -value : value;
+	}
+
+	private String parseIdentifier() throws Exception {
+		skipWhitespace();
+		int start = position;
+
+		while (position < expression.length() && (Character.isLetterOrDigit(expression.charAt(position)) || expression.charAt(position) == '_'))
+			position++;
+
+		if (start == position)
+			throw error("identifier expected");
+
+		return expression.substring(start, position);
+	}
+
+	private void skipWhitespace() {
+		while (position < expression.length() && Character.isWhitespace(expression.charAt(position)))
+			position++;
+	}
+
+	private boolean accept(char c) {
+		skipWhitespace();
+
+		if (position < expression.length() && expression.charAt(position) == c) {
+			position++;
+			return true;
+		}
+
+		return false;
+	}
+
+	private void expect(char c) throws Exception {
+		if (!accept(c))
+			throw error("'" + c + "' expected");
+	}
+
+	private Exception error(String message) {
+		return new Exception("Unable to compile the function '" + expression + "': " + message + " at position " + position + ".");
+	}
+
+	/* operations, see Newton.cl */
+
+	private Value constant(double value) {
+		int slot = allocate();
+
+		emit(LDC2_W);
+		emitShort(pool.doubleConstant(value));
+		store(slot);
+
+		return new Value(slot, slot, false);
+	}
+
+	private Value toVector(Value value) {
+		return value.vector ? value : new Value(value.re, value.re, true);
+	}
+
+	private Value binary(int opcode, Value a, Value b) {
+		int re = allocate();
+		load(a.re);
+		load(b.re);
+		emit(opcode);
+		store(re);
+
+		if (!a.vector && !b.vector)
+			return new Value(re, re, false);
+
+		int im = allocate();
+		load(a.im);
+		load(b.im);
+		emit(opcode);
+		store(im);
+
+		return new Value(re, im, true);
+	}
+
+	private Value negate(Value a) {
+		int re = allocate();
+		load(a.re);
+		emit(DNEG);
+		store(re);
+
+		if (!a.vector)
+			return new Value(re, re, false);
+
+		int im = allocate();
+		load(a.im);
+		emit(DNEG);
+		store(im);
+
+		return new Value(re, im, true);
+	}
+
+	private Value cmul(Value a, Value b) {
+		int re = allocate();
+		load(a.re);
+		load(b.re);
+		emit(DMUL);
+		load(a.im);
+		load(b.im);
+		emit(DMUL);
+		emit(DSUB);
+		store(re);
+
+		int im = allocate();
+		load(a.re);
+		load(b.im);
+		emit(DMUL);
+		load(a.im);
+		load(b.re);
+		emit(DMUL);
+		emit(DADD);
+		store(im);
+
+		return new Value(re, im, true);
+	}
+
+	private int squaredLength(Value a) {
+		int slot = allocate();
+		load(a.re);
+		load(a.re);
+		emit(DMUL);
+		load(a.im);
+		load(a.im);
+		emit(DMUL);
+		emit(DADD);
+		store(slot);
+
+		return slot;
+	}
+
+	private Value cinv(Value a) {
+		int denominator = squaredLength(a);
+
+		int re = allocate();
+		load(a.re);
+		load(denominator);
+		emit(DDIV);
+		store(re);
+
+		int im = allocate();
+		load(a.im);
+		emit(DNEG);
+		load(denominator);
+		emit(DDIV);
+		store(im);
+
+		return new Value(re, im, true);
+	}
+
+	private Value cdiv(Value a, Value b) {
+		int denominator = squaredLength(b);
+
+		int re = allocate();
+		load(a.re);
+		load(b.re);
+		emit(DMUL);
+		load(a.im);
+		load(b.im);
+		emit(DMUL);
+		emit(DADD);
+		load(denominator);
+		emit(DDIV);
+		store(re);
+
+		int im = allocate();
+		load(a.im);
+		load(b.re);
+		emit(DMUL);
+		load(a.re);
+		load(b.im);
+		emit(DMUL);
+		emit(DSUB);
+		load(denominator);
+		emit(DDIV);
+		store(im);
+
+		return new Value(re, im, true);
+	}
+
+	/**
+	 * Unrolled version of the loop in Newton.cl.
+	 */
+	private Value cpow(Value z, int exponent) {
+		if (exponent == 0)
+			return new Value(constant(1).re, constant(0).re, true);
+
+		Value result = z;
+
+		for (int i = 1; i < Math.abs(exponent); i++)
+			result = cmul(result, z);
+
+		if (exponent < 0)
+			result = cinv(result);
+
+		return result;
+	}
+
+	private Value cexp(Value a) {
+		int factor = allocate();
+		load(a.re);
+		invokeMath("exp");
+		store(factor);
+
+		int re = allocate();
+		load(factor);
+		load(a.im);
+		invokeMath("cos");
+		emit(DMUL);
+		store(re);
+
+		int im = allocate();
+		load(factor);
+		load(a.im);
+		invokeMath("sin");
+		emit(DMUL);
+		store(im);
+
+		return new Value(re, im, true);
+	}
+
+	private Value csin(Value a) {
+		int re = allocate();
+		load(a.re);
+		invokeMath("sin");
+		load(a.im);
+		invokeMath("cosh");
+		emit(DMUL);
+		store(re);
+
+		int im = allocate();
+		load(a.re);
+		invokeMath("cos");
+		load(a.im);
+		invokeMath("sinh");
+		emit(DMUL);
+		store(im);
+
+		return new Value(re, im, true);
+	}
+
+	private Value ccos(Value a) {
+		int re = allocate();
+		load(a.re);
+		invokeMath("cos");
+		load(a.im);
+		invokeMath("cosh");
+		emit(DMUL);
+		store(re);
+
+		int im = allocate();
+		load(a.re);
+		invokeMath("sin");
+		emit(DNEG);
+		load(a.im);
+		invokeMath("sinh");
+		emit(DMUL);
+		store(im);
+
+		return new Value(re, im, true);
+	}
+
+	private Value carg(Value a) {
+		int slot = allocate();
+		load(a.re);
+		load(a.im);
+		emit(INVOKESTATIC);
+		emitShort(pool.methodRef(SUPER_CLASS, "carg", "(DD)D"));
+		store(slot);
+
+		return new Value(slot, slot, false);
+	}
+
+	/* code generation */
+
+	private int allocate() {
+		int slot = nextLocal;
+		nextLocal += 2;
+		return slot;
+	}
+
+	private void invokeMath(String name) {
+		emit(INVOKESTATIC);
+		emitShort(pool.methodRef(MATH_CLASS, name, "(D)D"));
+	}
+
+	private void load(int slot) {
+		access(DLOAD, slot);
+	}
+
+	private void store(int slot) {
+		access(DSTORE, slot);
+	}
+
+	private void access(int opcode, int slot) {
+		if (slot < 256) {
+			emit(opcode);
+			emit(slot);
+		} else {
+			emit(WIDE);
+			emit(opcode);
+			emitShort(slot);
+		}
+	}
+
+	private void emit(int b) {
+		code.write(b);
+	}
+
+	private void emitShort(int s) {
+		code.write(s >> 8);
+		code.write(s);
+	}
+
+	/**
+	 * The constant pool of the generated class, equal entries are shared.
+	 */
+	private static class ConstantPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> entries = new HashMap<String, Integer>();
+		private int count = 1;
+
+		private int add(String key, int size) {
+			Integer index = entries.get(key);
+
+			if (index != null)
+				return index;
+
+			entries.put(key, count);
+			count += size;
+
+			return count - size;
+		}
+
+		private boolean isNew(String key) {
+			return !entries.containsKey(key);
+		}
+
+		public int utf8(String value) {
+			String key = "utf8 " + value;
+
+			try {
+				if (isNew(key)) {
+					out.writeByte(1);
+					out.writeUTF(value);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+
+			return add(key, 1);
+		}
+
+		public int classRef(String name) {
+			String key = "class " + name;
+			int nameIndex = utf8(name);
+
+			if (isNew(key)) {
+				out(7);
+				outShort(nameIndex);
+			}
+
+			return add(key, 1);
+		}
+
+		private int nameAndType(String name, String type) {
+			String key = "nat " + name + " " + type;
+			int nameIndex = utf8(name);
+			int typeIndex = utf8(type);
+
+			if (isNew(key)) {
+				out(12);
+				outShort(nameIndex);
+				outShort(typeIndex);
+			}
+
+			return add(key, 1);
+		}
+
+		private int memberRef(int tag, String owner, String name, String type) {
+			String key = tag + " " + owner + " " + name + " " + type;
+			int ownerIndex = classRef(owner);
+			int natIndex = nameAndType(name, type);
+
+			if (isNew(key)) {
+				out(tag);
+				outShort(ownerIndex);
+				outShort(natIndex);
+			}
+
+			return add(key, 1);
+		}
+
+		public int fieldRef(String owner, String name, String type) {
+			return memberRef(9, owner, name, type);
+		}
+
+		public int methodRef(String owner, String name, String type) {
+			return memberRef(10, owner, name, type);
+		}
+
+		public int doubleConstant(double value) {
+			String key = "double " + Double.doubleToRawLongBits(value);
+
+			if (isNew(key)) {
+				out(6);
+
+				try {
+					out.writeDouble(value);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+			// doubles take two entries
+			return add(key, 2);
+		}
+
+		private void out(int b) {
+			bytes.write(b);
+		}
+
+		private void outShort(int s) {
+			bytes.write(s >> 8);
+			bytes.write(s);
+		}
+
+		public void write(DataOutputStream stream) throws IOException {
+			stream.writeShort(count);
+			out.flush();
+			bytes.writeTo(stream);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package de.thiesgerken.fractals.newton;
+
+import de.thiesgerken.fractals.backend.java.JavaKernel2D;
+import de.thiesgerken.fractals.util.ParallelRows;
+
+/**
+ * The 'newton' kernel of Newton.cl for the java backend, using the function
+ * and its derivative as compiled by {@link FunctionCompiler}. It takes the
+ * same arguments as its OpenCL counterpart and always uses 64bit floats.
+ * Like that, it computes the pixels of the point list (for the adaptive
+ * supersampling) on a 1D range.
+ */
+class JavaNewtonKernel extends JavaKernel2D {
+	private final Class<? extends ComplexFunction> function;
+	private final Class<? extends ComplexFunction> derivative;
+
+	/* the arguments of the current launch */
+	private int[] size;
+	private double[] area;
+	private int maxIterations;
+	private double epsilon;
+	private int samples;
+	private double[] sampleOffsets;
+	private int[] image;
+	private int[] points;
+
+	public JavaNewtonKernel(Class<? extends ComplexFunction> function, Class<? extends ComplexFunction> derivative) {
+		this.function = function;
+		this.derivative = derivative;
+	}
+
+	private static ComplexFunction instantiate(Class<? extends ComplexFunction> c) {
+		try {
+			return c.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected void prepare() {
+		size = getInts(0);
+		area = getDoubles(1);
+		maxIterations = getInt(2);
+		epsilon = getDouble(3);
+		samples = getInts(4)[0] * getInts(4)[1];
+		sampleOffsets = getSampleOffsets();
+		image = getIntBuffer(5);
+		points = getInt(7) != 0 ? getIntBuffer(6) : null;
+	}
+
+	private double[] getSampleOffsets() {
+		Object offsets = getBuffer(8);
+
+		if (offsets instanceof double[])
+			return (double[]) offsets;
+
+		float[] floats = (float[]) offsets;
+		double[] result = new double[floats.length];
+
+		for (int i = 0; i < floats.length; i++)
+			result[i] = floats[i];
+
+		return result;
+	}
+
+	@Override
+	protected void runRow(int y) {
+		if (y >= size[1])
+			return;
+
+		// the results of the functions are stored in their fields, so every row
+		// needs instances of its own
+		ComplexFunction f = instantiate(function);
+		ComplexFunction df = instantiate(derivative);
+
+		for (int x = 0; x < size[0]; x++)
+			image[y * size[0] + x] = computePixel(x, y, f, df);
+	}
+
+	@Override
+	public long run1D(int globalWorkSize, int localWorkSize) {
+		return run(globalWorkSize, new ParallelRows.RowKernel() {
+			@Override
+			public void computeRow(int i) {
+				runItem(i);
+			}
+		});
+	}
+
+	private void runItem(int i) {
+		if (i >= getInt(7))
+			return;
+
+		image[i] = computePixel(points[i] % size[0], points[i] / size[0], instantiate(function), instantiate(derivative));
+	}
+
+	private int computePixel(int x, int y, ComplexFunction f, ComplexFunction df) {
+		double pxCount = samples;
+		double red = 0, green = 0, blue = 0;
+
+		for (int sample = 0; sample < samples; sample++) {
+			// a single sample is taken at the center of the pixel
+			double posX = x - 0.5 + (samples == 1 ? 0.5 : sampleOffsets[2 * sample]);
+			double posY = y - 0.5 + (samples == 1 ? 0.5 : sampleOffsets[2 * sample + 1]);
+
+			double zx = area[0] + area[2] * posX / size[0];
+			double zy = area[1] + area[3] - area[3] * posY / size[1];
+
+			int n = 0;
+			f.evaluate(zx, zy);
+
+			while (n < maxIterations && f.re * f.re + f.im * f.im > epsilon) {
+				df.evaluate(zx, zy);
+
+				// z = z - cdiv(f(z), df(z))
+				double denominator = df.re * df.re + df.im * df.im;
+				double re = (f.re * df.re + f.im * df.im) / denominator;
+				double im = (f.im * df.re - f.re * df.im) / denominator;
+
+				zx = zx - re;
+				zy = zy - im;
+				f.evaluate(zx, zy);
+
+				n++;
+			}
+
+			double h = (ComplexFunction.carg(zx, zy) + Math.PI) % (2 * Math.PI);
+			double s = 1 - Math.sqrt(zx * zx + zy * zy) % 10 / 10;
+			double v = Math.min(1, 1 - (double) (3.5f * n) / maxIterations);
+
+			int hi = (int) (h * 3 / Math.PI);
+			double fraction = h * 3 / Math.PI - hi;
+			double p = v * (1 - s);
+			double q = v * (1 - s * fraction);
+			double t = v * (1 - s * (1 - fraction));
+
+			double r, g, b;
+
+			if (hi == 1) {
+				r = q;
+				g = v;
+				b = p;
+			} else if (hi == 2) {
+				r = p;
+				g = v;
+				b = t;
+			} else if (hi == 3) {
+				r = p;
+				g = q;
+				b = v;
+			} else if (hi == 4) {
+				r = t;
+				g = p;
+				b = v;
+			} else if (hi == 5) {
+				r = v;
+				g = p;
+				b = q;
+			} else {
+				r = v;
+				g = t;
+				b = p;
+			}
+
+			red += 255 * r / pxCount;
+			green += 255 * g / pxCount;
+			blue += 255 * b / pxCount;
+		}
+
+		return (int) blue + ((int) green << 8) + ((int) red << 16);
+	}
+}
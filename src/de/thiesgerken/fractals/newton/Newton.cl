@@ -116,41 +116,58 @@ inline fp2 df(fp2 z) {
  //	return 3*cpow(z,2);
 }
 
-kernel void newton ( const int2 size, const fp4 area, const int maxIterations, const fp epsilon, const int2 supersampling, global int* image ) {
-	int x = get_global_id(0);
-	int y = get_global_id(1);
+kernel void newton ( const int2 size, const fp4 area, const int maxIterations, const fp epsilon, const int2 supersampling, global int* image,
+					  global const int* points, const int pointCount, global const fp2* sampleOffsets ) {
+	int x, y, index;
+
+	if (pointCount) {
+		// only the given pixels (for the adaptive supersampling), launched on
+		// a 1D range
+		index = get_global_id(0);
+
+		if (index >= pointCount)
+			return;
+
+		x = points[index] % size.x;
+		y = points[index] / size.x;
+	} else {
+		x = get_global_id(0);
+		y = get_global_id(1);
 	
-	if ( x >= size.x || y >= size.y)
-		return;
+		if ( x >= size.x || y >= size.y)
+			return;
+
+		index = y*size.x + x;
+	}
 
 	fp3 color = (fp3)0; 
-	fp pxCount = supersampling.x*supersampling.y;
+	int samples = supersampling.x*supersampling.y;
+	fp pxCount = samples;
 
-	for (int sx = 0; sx < supersampling.x; sx++)
-		for (int sy = 0; sy < supersampling.y; sy++) {
-		
-			fp2 pos = (fp2) (x-0.5+((fp)1/supersampling.x * (sx+0.5)),
-					 		 y-0.5+((fp)1/supersampling.y * (sy+0.5)));
+	for (int s = 0; s < samples; s++) {
+		// a single sample is taken at the center of the pixel
+		fp2 offset = samples == 1 ? (fp2) (0.5, 0.5) : sampleOffsets[s];
+		fp2 pos = (fp2) (x - 0.5 + offset.x, y - 0.5 + offset.y);
 
-			fp2 z = (fp2) (area.x + area.z * pos.x / size.x, area.y + area.w - area.w * pos.y / size.y);
-			
-			int n = 0;
-			fp2 fz = f(z);
+		fp2 z = (fp2) (area.x + area.z * pos.x / size.x, area.y + area.w - area.w * pos.y / size.y);
+		
+		int n = 0;
+		fp2 fz = f(z);
 	
-			while ( n < maxIterations && fz.x*fz.x + fz.y*fz.y > epsilon) {
-				z = z - cdiv(fz , df(z));
-				fz = f(z);
+		while ( n < maxIterations && fz.x*fz.x + fz.y*fz.y > epsilon) {
+			z = z - cdiv(fz , df(z));
+			fz = f(z);
 
-				n++;
-			}
+			n++;
+		}
 
-			fp3 subColor = 255*hsvtorgb(fmod((carg(z) + M_PI),2*M_PI), 1-fmod(length(z),10)/10, min((fp) 1, 1 - (fp)(3.5f*n) / maxIterations));
+		fp3 subColor = 255*hsvtorgb(fmod((carg(z) + M_PI),2*M_PI), 1-fmod(length(z),10)/10, min((fp) 1, 1 - (fp)(3.5f*n) / maxIterations));
 
-			// BGR vs. RGB	
-			color.z += subColor.x / pxCount;
-			color.y += subColor.y / pxCount;
-			color.x += subColor.z / pxCount;
-		}
+		// BGR vs. RGB	
+		color.z += subColor.x / pxCount;
+		color.y += subColor.y / pxCount;
+		color.x += subColor.z / pxCount;
+	}
 			
-	image[get_global_id(1)*size.x + get_global_id(0)] = (int)color.x + ((int)color.y << 8) + ((int)color.z << 16);
+	image[index] = (int)color.x + ((int)color.y << 8) + ((int)color.z << 16);
 }
\ No newline at end of file
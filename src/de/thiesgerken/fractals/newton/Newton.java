@@ -1,40 +1,54 @@
 package de.thiesgerken.fractals.newton;
 
-import static com.jogamp.opencl.CLCommandQueue.Mode.PROFILING_MODE;
-import static com.jogamp.opencl.CLEvent.ProfilingCommand.END;
-import static com.jogamp.opencl.CLEvent.ProfilingCommand.START;
-import static com.jogamp.opencl.CLMemory.Mem.WRITE_ONLY;
 import static java.awt.image.BufferedImage.TYPE_INT_RGB;
 import static java.lang.System.out;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
-import java.nio.IntBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.jogamp.opencl.CLBuffer;
-import com.jogamp.opencl.CLContext;
-import com.jogamp.opencl.CLEvent;
-import com.jogamp.opencl.CLEventList;
-import com.jogamp.opencl.CLKernel;
-import com.jogamp.opencl.CLProgram.CompilerOptions;
-
 import de.thiesgerken.fractals.Fractal;
+import de.thiesgerken.fractals.MemoryPlan;
+import de.thiesgerken.fractals.PartRenderer;
+import de.thiesgerken.fractals.backend.ComputeBuffer;
+import de.thiesgerken.fractals.backend.ComputeEvent;
+import de.thiesgerken.fractals.backend.ComputeKernel;
+import de.thiesgerken.fractals.backend.PartPipeline;
+import de.thiesgerken.fractals.backend.ProgramSource;
+import de.thiesgerken.fractals.backend.WorkSizeTuner;
+import de.thiesgerken.fractals.backend.java.JavaKernel;
+import de.thiesgerken.fractals.backend.java.JavaKernelFactory;
+import de.thiesgerken.fractals.util.EdgeDetection;
 import de.thiesgerken.fractals.util.Formatter;
 import de.thiesgerken.fractals.util.Rectangle;
+import de.thiesgerken.fractals.util.Resources;
+import de.thiesgerken.fractals.util.SamplePattern;
 import de.thiesgerken.fractals.util.Size;
 
-public class Newton extends Fractal {
+public class Newton extends Fractal implements PartRenderer {
 	protected final static Logger logger = Logger.getLogger(Newton.class.getName());
-	protected CLKernel kernel;
+	protected ComputeKernel kernel;
+	protected ComputeBuffer[] imageBuffers;
+	protected ComputeBuffer pointsBuffer;
+	protected ComputeBuffer samplesBuffer;
+	protected PartPipeline pipeline;
+	protected int[] imageData;
+
+	/* name of the kernel for the WorkSizeTuner */
+	private static final String KERNEL_NAME = "Newton.newton";
+
+	/* lower bound for the height of strips when rendering on several devices */
+	private static final int MIN_STRIP_HEIGHT = 16;
 
 	/* User-defined parameters */
 	protected Size superSampling;
+	protected String samplePattern;
 	protected Rectangle area;
 	protected int maxIterations;
 	protected double epsilon;
 	protected int desiredPartSize;
+	protected double adaptiveThreshold;
 	private String function;
 	private String derivative;
 
@@ -108,6 +122,43 @@ public class Newton extends Fractal {
 		this.superSampling = superSampling;
 	}
 
+	public String getSamplePattern() {
+		return samplePattern;
+	}
+
+	/**
+	 * Selects where the samples of the supersampling are placed inside of the
+	 * pixels, one of {@link SamplePattern#NAMES}.
+	 */
+	public void setSamplePattern(String samplePattern) {
+		if (!samplePattern.equals(this.samplePattern))
+			isConfigured = false;
+
+		this.samplePattern = samplePattern;
+	}
+
+	public double getAdaptiveThreshold() {
+		return adaptiveThreshold;
+	}
+
+	/**
+	 * Sets the threshold of the adaptive supersampling: images are rendered
+	 * with one sample per pixel first, then only pixels whose color differs
+	 * from one of their neighbours by more than the threshold (in any
+	 * channel) are rendered again with the full supersampling. Zero
+	 * supersamples every pixel.
+	 */
+	public void setAdaptiveThreshold(double adaptiveThreshold) {
+		if (adaptiveThreshold != this.adaptiveThreshold)
+			isConfigured = false;
+
+		this.adaptiveThreshold = adaptiveThreshold;
+	}
+
+	public boolean useAdaptiveSupersampling() {
+		return adaptiveThreshold > 0 && superSampling.getWidth() * superSampling.getHeight() > 1;
+	}
+
 	public int getDesiredPartSize() {
 		return desiredPartSize;
 	}
@@ -123,6 +174,7 @@ public class Newton extends Fractal {
 		this.maxIterations = 120;
 		this.epsilon = 1E-6;
 		this.superSampling = new Size(1, 1);
+		this.samplePattern = SamplePattern.GRID;
 		this.function = "cpow(z,3)-(fp2)(1,0)";
 		this.derivative = "3*cpow(z,2)";
 	}
@@ -132,25 +184,17 @@ public class Newton extends Fractal {
 	}
 
 	@Override
-	protected void initCL() throws Exception {
-		if (device == null)
-			throw new Exception("device must not be null");
-
-		if (isInitialized)
-			return;
-
-		logger.log(Level.INFO, "Initializing CL for device " + device.getName());
-
-		context = CLContext.create(device);
-		cl = context.getCL();
-		queue = device.createCommandQueue(PROFILING_MODE);
-		program = context.createProgram(read(getClass().getResourceAsStream("Newton.cl")).replace("%% F %%", function).replace("%% DF %%", derivative));
-
-		probe = new CLEventList(1);
-
-		isInitialized = true;
-		isCompiled = false;
-		isConfigured = false;
+	protected ProgramSource getProgramSource() throws Exception {
+		return new ProgramSource("Newton", Resources.read(getClass().getResourceAsStream("Newton.cl")).replace("%% F %%", function).replace("%% DF %%", derivative),
+				new JavaKernelFactory() {
+					@Override
+					public JavaKernel createKernel(String name) throws Exception {
+						if ("newton".equals(name))
+							return new JavaNewtonKernel(FunctionCompiler.compile(function), FunctionCompiler.compile(derivative));
+						else
+							return null;
+					}
+				});
 	}
 
 	@Override
@@ -160,64 +204,50 @@ public class Newton extends Fractal {
 
 		logger.log(Level.INFO, "Setting kernel arguments");
 
-		kernel.setForce32BitArgs(!fp64);
-
-		setArg(kernel.getID(), 0, new int[] { size.getWidth(), size.getHeight() });
-		setArg(kernel.getID(), 1, new double[] { area.getX(), area.getY(), area.getWidth(), area.getHeight() });
+		kernel.setArg(0, new int[] { size.getWidth(), size.getHeight() });
+		kernel.setArg(1, new double[] { area.getX(), area.getY(), area.getWidth(), area.getHeight() });
 		kernel.setArg(2, maxIterations);
 		kernel.setArg(3, epsilon * epsilon);
-		setArg(kernel.getID(), 4, new int[] { superSampling.getWidth(), superSampling.getHeight() });
-
-		isConfigured = true;
-	}
+		kernel.setArg(4, useAdaptiveSupersampling() ? new int[] { 1, 1 } : new int[] { superSampling.getWidth(), superSampling.getHeight() });
 
-	@Override
-	protected void buildKernel() throws Exception {
-		if (isCompiled)
-			return;
+		if (samplesBuffer != null && !samplesBuffer.isReleased())
+			samplesBuffer.release();
 
-		if (fp64 && !device.isDoubleFPAvailable())
-			throw new Exception("the selected device does not have 64bit floating point support");
+		double[] offsets = SamplePattern.create(samplePattern, superSampling);
+		samplesBuffer = context.createFPBuffer(offsets.length, fp64);
 
-		logger.log(Level.INFO, "Compiling kernel for " + (fp64 ? "64" : "32") + "-bit floats");
-
-		configure = program.prepare();
+		if (fp64)
+			samplesBuffer.write(offsets, 0, offsets.length);
+		else
+			samplesBuffer.write(SamplePattern.toFloats(offsets), 0, offsets.length);
 
-		if (fp64) {
-			configure.withDefine("FP64");
+		kernel.setArg(8, samplesBuffer);
 
-			if (device.isExtensionAvailable("cl_amd_fp64"))
-				configure.withDefine("AMDFP64");
-		}
-
-		configure.forDevice(device);
-		configure.withOption(CompilerOptions.FAST_RELAXED_MATH).build();
+		isConfigured = true;
+	}
 
-		kernel = program.createCLKernel("newton");
+	@Override
+	protected void createKernels() throws Exception {
+		// the kernel of the previously built function
+		if (kernel != null && !kernel.isReleased())
+			kernel.release();
 
-		isCompiled = true;
-		isConfigured = false;
+		kernel = program.createKernel("newton");
 	}
 
 	@Override
 	public void release() {
 		logger.log(Level.INFO, "Releasing resources");
 
-		if (kernel != null && !kernel.isReleased())
-			kernel.release();
-
-		if (queue != null && !queue.isReleased())
-			queue.release();
+		freeImageBuffers();
 
-		if (program != null && !program.isReleased())
-			program.release();
+		if (samplesBuffer != null && !samplesBuffer.isReleased())
+			samplesBuffer.release();
 
-		if (context != null && !context.isReleased())
-			context.release();
+		if (kernel != null && !kernel.isReleased())
+			kernel.release();
 
-		isCompiled = false;
-		isConfigured = false;
-		isInitialized = false;
+		releaseContext();
 	}
 
 	public BufferedImage createImage() throws Exception {
@@ -225,68 +255,245 @@ public class Newton extends Fractal {
 
 		long overallTime = System.nanoTime();
 
-		initCL();
+		int desiredHeight = 0;
+
+		if (desiredPartSize > 0)
+			desiredHeight = (desiredPartSize + size.getWidth() - 1) / size.getWidth();
+
+		// the image on the host and per part the colors on the device
+		int normalPartHeight = new MemoryPlan("the image (" + size + " px)").addHostMemory(4L * size.getWidth() * size.getHeight())
+				.addPartBuffer(4L * size.getWidth()).addPartBuffer(useAdaptiveSupersampling() ? 4L * size.getWidth() : 0).plan(getAllDevices(), size.getHeight(), desiredHeight);
+
+		BufferedImage image = new BufferedImage(size.getWidth(), size.getHeight(), TYPE_INT_RGB);
+		imageData = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+		try {
+			if (!coDevices.isEmpty()) {
+				renderOnAllDevices(size.getHeight(), MIN_STRIP_HEIGHT, normalPartHeight, size.getWidth(), "rows");
+
+				if (useAdaptiveSupersampling())
+					refineEdges(normalPartHeight);
+			} else {
+				int parts = (size.getHeight() + normalPartHeight - 1) / normalPartHeight;
+
+				prepareParts(this, normalPartHeight);
+
+				long time = 0;
+
+				for (int y = 0; y < parts; y++) {
+					int partHeight = (y == parts - 1 ? size.getHeight() - y * normalPartHeight : normalPartHeight);
+
+					logger.log(Level.INFO, "-- Calculation of part " + (y + 1) + " of " + parts + " (" + size.getWidth() + "x" + partHeight + " px) --");
+
+					time += renderPart(this, y * normalPartHeight, partHeight);
+				}
+
+				time += flushParts(this);
+
+				if (useAdaptiveSupersampling())
+					time += refineEdges(normalPartHeight);
+
+				logger.log(Level.INFO, "Calculation took " + Formatter.formatTime(time) + " and "
+						+ Formatter.formatSize(imageBuffers.length * imageBuffers[0].getSize()) + " of device memory.");
+
+				if (parts > 1)
+					out.println();
+			}
+		} finally {
+			imageData = null;
+			freeImageBuffers();
+		}
+
+		logger.log(Level.INFO, "Rendering took a total of " + Formatter.formatTime(System.nanoTime() - overallTime) + ".");
+
+		return image;
+	}
+
+	@Override
+	public Fractal createHelper() {
+		return new Newton();
+	}
+
+	@Override
+	protected void copyParametersTo(Fractal other) {
+		super.copyParametersTo(other);
+
+		Newton newton = (Newton) other;
+		newton.setArea(area);
+		newton.setMaxIterations(maxIterations);
+		newton.setEpsilon(epsilon);
+		newton.setSuperSampling(superSampling);
+		newton.setSamplePattern(samplePattern);
+		newton.setAdaptiveThreshold(adaptiveThreshold);
+		newton.setFunction(function);
+		newton.setDerivative(derivative);
+		newton.setDesiredPartSize(desiredPartSize);
+	}
+
+	@Override
+	public void prepareParts(Fractal target, int maxHeight) throws Exception {
+		initContext();
 		buildKernel();
 		setKernelArguments();
 
-		BufferedImage image = new BufferedImage(size.getWidth(), size.getHeight(), TYPE_INT_RGB);
-		int[] imageData = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		freeImageBuffers();
 
-		int maxPartSize;
+		final int[] targetData = ((Newton) target).imageData;
+		final int width = size.getWidth();
 
-		if (desiredPartSize <= 0)
-			maxPartSize = size.getHeight() * size.getWidth();
-		else if (desiredPartSize % size.getWidth() == 0)
-			maxPartSize = desiredPartSize;
-		else
-			maxPartSize = desiredPartSize + size.getWidth() - (desiredPartSize % size.getWidth());
+		imageBuffers = new ComputeBuffer[getPipelineSlots(target, size.getHeight(), maxHeight)];
+
+		for (int i = 0; i < imageBuffers.length; i++)
+			imageBuffers[i] = context.createIntBuffer(Math.min(size.getHeight(), maxHeight) * width);
 
-		int parts = (int) Math.ceil((double) size.getHeight() * size.getWidth() / maxPartSize);
-		int normalPartHeight = maxPartSize / size.getWidth();
+		// the pixels of the adaptive supersampling (or a placeholder, which the
+		// kernel does not access), zero pixels render whole parts
+		pointsBuffer = context.createIntBuffer(useAdaptiveSupersampling() ? Math.min(size.getHeight(), maxHeight) * width : 1);
+		kernel.setArg(6, pointsBuffer);
+		kernel.setArg(7, 0);
 
-		CLBuffer<IntBuffer> imageBuffer = context.createIntBuffer(Math.min(size.getHeight() * size.getWidth(), maxPartSize), WRITE_ONLY);
-		kernel.setArg(5, imageBuffer);
+		tuneKernel(imageBuffers[0]);
 
-		for (int y = 0; y < parts; y++) {
-			int partHeight = (y == parts - 1 ? size.getHeight() - y * normalPartHeight : normalPartHeight);
+		pipeline = new PartPipeline(device.getName(), imageBuffers.length) {
+			@Override
+			protected void enqueue(int slot, int offsetY, int height) {
+				// calculate optimal sizes for the local and global work groups
+				Size localWorkSize = calculateLocal2DWorkSize(KERNEL_NAME, new Size(width, height));
+				Size globalWorkSize = calculateGlobal2DWorkSize(KERNEL_NAME, new Size(width, height));
 
-			logger.log(Level.INFO, "-- Calculation of part " + (y + 1) + " of " + parts + " (" + size.getWidth() + "x" + partHeight + " px) --");
+				// overwrite the settings for width and area
+				setPartArguments(offsetY, height);
+				kernel.setArg(5, imageBuffers[slot]);
 
-			// calculate optimal sizes for the local and global work groups
-			Size localWorkSize = calculateLocal2DWorkSize(new Size(size.getWidth(), partHeight));
-			Size globalWorkSize = calculateGlobal2DWorkSize(new Size(size.getWidth(), partHeight));
+				ComputeEvent event = addKernel(kernel.enqueue2D(globalWorkSize, localWorkSize, null));
+				addTransfer(imageBuffers[slot].enqueueRead(event));
+			}
 
-			// overwrite the settings for width and area
-			setArg(kernel.getID(), 0, new int[] { size.getWidth(), partHeight });
-			setArg(kernel.getID(), 1, new double[] { area.getX(), area.getY() + y * area.getHeight() * normalPartHeight / size.getHeight(), area.getWidth(),
-					area.getHeight() * partHeight / size.getHeight() });
+			@Override
+			protected void collect(int slot, int offsetY, int height) {
+				imageBuffers[slot].copyTo(targetData, width * offsetY, width * height);
+			}
+		};
+	}
+
+	/**
+	 * Sets the size and the area of the kernel to the part of the given
+	 * height at offsetY.
+	 */
+	private void setPartArguments(int offsetY, int height) {
+		kernel.setArg(0, new int[] { size.getWidth(), height });
+		kernel.setArg(1, new double[] { area.getX(), area.getY() + area.getHeight() * (size.getHeight() - offsetY - height) / size.getHeight(),
+				area.getWidth(), area.getHeight() * height / size.getHeight() });
+	}
 
-			probe.release();
+	/**
+	 * Renders the pixels whose color differs from one of their neighbours
+	 * again with the full supersampling on the device of this instance, in
+	 * parts of at most partHeight rows. Returns the time spent by the kernel
+	 * in ns.
+	 */
+	private long refineEdges(int partHeight) {
+		final int width = size.getWidth();
+		final int[] data = imageData;
+
+		int[] edges = new EdgeDetection(width, size.getHeight()) {
+			@Override
+			protected boolean differ(int a, int b) {
+				return getColorDistance(data[a], data[b]) > adaptiveThreshold;
+			}
+		}.find();
+
+		kernel.setArg(4, new int[] { superSampling.getWidth(), superSampling.getHeight() });
+		kernel.setArg(5, imageBuffers[0]);
+
+		int[] points = new int[partHeight * width];
+		int[] results = new int[partHeight * width];
+		long time = 0;
+
+		for (int i = 0; i < edges.length;) {
+			int offsetY = edges[i] / width / partHeight * partHeight;
+			int height = Math.min(partHeight, size.getHeight() - offsetY);
+			int count = 0;
+
+			while (i < edges.length && edges[i] < (offsetY + height) * width)
+				points[count++] = edges[i++] - offsetY * width;
+
+			setPartArguments(offsetY, height);
+			pointsBuffer.write(points, 0, count);
+			kernel.setArg(7, count);
+
+			time += kernel.run1D(calculateGlobal1DWorkSize(count), calculateLocal1DWorkSize(count));
+			imageBuffers[0].read(results, 0, count);
+
+			for (int j = 0; j < count; j++)
+				data[offsetY * width + points[j]] = results[j];
+		}
 
-			queue.put2DRangeKernel(kernel, 0, 0, globalWorkSize.getWidth(), globalWorkSize.getHeight(), localWorkSize.getWidth(), localWorkSize.getHeight(),
-					probe);
-			queue.finish();
+		kernel.setArg(4, new int[] { 1, 1 });
+		kernel.setArg(7, 0);
 
-			CLEvent event = probe.getEvent(0);
-			long start = event.getProfilingInfo(START);
-			long end = event.getProfilingInfo(END);
-			logger.log(Level.INFO, "Calculation took " + Formatter.formatTime(end - start) + " and " + Formatter.formatSize(imageBuffer.getCLSize())
-					+ " of device memory.");
+		long pixels = (long) width * size.getHeight();
+		int samples = superSampling.getWidth() * superSampling.getHeight();
 
-			logger.log(Level.INFO, "Copying results to image");
+		logger.log(Level.INFO, "Adaptive supersampling refined " + edges.length + " px (" + Math.round(100d * edges.length / pixels) + "%), "
+				+ String.format("%.2f", (double) (pixels + (long) edges.length * samples) / pixels) + " instead of " + samples + " samples per pixel");
 
-			queue.putReadBuffer(imageBuffer, true);
-			imageBuffer.getBuffer().get(imageData, size.getWidth() * normalPartHeight * y, size.getWidth() * partHeight);
-			imageBuffer.getBuffer().rewind();
+		return time;
+	}
+
+	/**
+	 * Tunes the local work size of the newton kernel (if necessary) on the
+	 * center of the image.
+	 */
+	private void tuneKernel(ComputeBuffer buffer) {
+		if (!WorkSizeTuner.needsTuning(device, KERNEL_NAME, fp64))
+			return;
+
+		Size sample = getTuningSampleSize(buffer.getLength());
+
+		kernel.setArg(0, new int[] { sample.getWidth(), sample.getHeight() });
+		kernel.setArg(1, new double[] { area.getX() + area.getWidth() * (size.getWidth() - sample.getWidth()) / 2 / size.getWidth(),
+				area.getY() + area.getHeight() * (size.getHeight() - sample.getHeight()) / 2 / size.getHeight(),
+				area.getWidth() * sample.getWidth() / size.getWidth(), area.getHeight() * sample.getHeight() / size.getHeight() });
+		kernel.setArg(5, buffer);
+
+		WorkSizeTuner.tune2D(device, KERNEL_NAME, fp64, kernel, sample);
+	}
+
+	@Override
+	public long renderPart(Fractal target, int offsetY, int height) throws Exception {
+		return pipeline.submit(offsetY, height);
+	}
+
+	@Override
+	public long flushParts(Fractal target) throws Exception {
+		long time = pipeline.flush();
+		pipeline.logTimings();
+
+		return time;
+	}
+
+	@Override
+	public void finishParts(Fractal target) throws Exception {
+	}
+
+	private void freeImageBuffers() {
+		if (pipeline != null) {
+			pipeline.release();
+			pipeline = null;
 		}
 
-		if (parts > 1)
-			out.println();
+		if (imageBuffers != null)
+			for (ComputeBuffer buffer : imageBuffers)
+				if (buffer != null && !buffer.isReleased())
+					buffer.release();
 
-		logger.log(Level.INFO, "Rendering took a total of " + Formatter.formatTime(System.nanoTime() - overallTime) + ".");
+		imageBuffers = null;
 
-		imageBuffer.release();
-		return image;
+		if (pointsBuffer != null && !pointsBuffer.isReleased())
+			pointsBuffer.release();
+
+		pointsBuffer = null;
 	}
 
 	protected void printParameters() {
@@ -297,6 +504,8 @@ public class Newton extends Fractal {
 		sb.append("maxIterations = " + maxIterations);
 		sb.append(", size = " + size);
 		sb.append(", superSampling = " + superSampling);
+		sb.append(", samplePattern = " + samplePattern);
+		sb.append(", adaptiveThreshold = " + adaptiveThreshold);
 		sb.append(", area = " + area);
 		sb.append(", epsilon = " + epsilon);
 		sb.append(", fp64 = " + fp64);
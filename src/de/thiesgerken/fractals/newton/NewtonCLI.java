@@ -23,6 +23,7 @@ import de.thiesgerken.commandlineparser.ValueArgument;
 import de.thiesgerken.fractals.FractalCLI;
 import de.thiesgerken.fractals.util.Formatter;
 import de.thiesgerken.fractals.util.Rectangle;
+import de.thiesgerken.fractals.util.SamplePattern;
 import de.thiesgerken.fractals.util.Size;
 
 public class NewtonCLI extends FractalCLI {
@@ -36,6 +37,8 @@ private ValueArgument<Integer> partSizeArgument;
 	private ValueArgument<Integer> maxIterationsArgument;
 	private ValueArgument<Double> epsilonArgument;
 	private ValueArgument<Size> superSamplingArgument;
+	private ValueArgument<Double> adaptiveArgument;
+	private EnumArgument patternArgument;
 	private ValueArgument<Rectangle> areaArgument;
 	private SwitchArgument saveCommandlineArgument;
 
@@ -86,6 +89,13 @@ private ValueArgument<Integer> partSizeArgument;
 		sb.append(" -e " + newton.getEpsilon());
 		sb.append(" -a \"" + newton.getArea().toString() + "\"");
 		sb.append(" --supersampling " + newton.getSuperSampling().toString());
+
+		if (!newton.getSamplePattern().equals(SamplePattern.GRID))
+			sb.append(" --pattern " + newton.getSamplePattern());
+
+		if (newton.getAdaptiveThreshold() > 0)
+			sb.append(" --adaptive " + newton.getAdaptiveThreshold());
+
 		sb.append(" --function \"" + newton.getFunction().toString() + "\"");
 		sb.append(" --derivative \"" + newton.getDerivative().toString() + "\"");
 		
@@ -100,8 +110,7 @@ private ValueArgument<Integer> partSizeArgument;
 
 		Newton newton = new Newton();
 
-		newton.setDevice(deviceArgument.getValue());
-		newton.setUse64bitFloats(fp64Argument.wasParsed());
+		setDeviceParameters(newton);
 
 		if (sizeArgument.wasParsed())
 			newton.setSize(sizeArgument.getValue());
@@ -115,6 +124,12 @@ private ValueArgument<Integer> partSizeArgument;
 		if (superSamplingArgument.wasParsed())
 			newton.setSuperSampling(superSamplingArgument.getValue());
 
+		if (patternArgument.wasParsed())
+			newton.setSamplePattern(patternArgument.getValue());
+
+		if (adaptiveArgument.wasParsed())
+			newton.setAdaptiveThreshold(adaptiveArgument.getValue());
+
 		if ( functionArgument.wasParsed())
 			newton.setFunction(functionArgument.getValue());
 		
@@ -201,8 +216,13 @@ private ValueArgument<Integer> partSizeArgument;
 	}
 
 	public Argument[] getArguments() {
-		return new Argument[] { deviceArgument, fp64Argument, sizeArgument, outputArgument, formatArgument, partSizeArgument, maxIterationsArgument,
-				epsilonArgument, superSamplingArgument, areaArgument, saveCommandlineArgument, functionArgument, derivativeArgument };
+		return new Argument[] { deviceArgument, threadsArgument, fp64Argument, precisionArgument, sizeArgument, outputArgument, formatArgument, partSizeArgument, maxIterationsArgument,
+				epsilonArgument, superSamplingArgument, patternArgument, adaptiveArgument, areaArgument, saveCommandlineArgument, functionArgument, derivativeArgument };
+	}
+
+	@Override
+	protected boolean supportsJavaEngine() {
+		return true;
 	}
 
 	private static void saveCommandLine(String outputFile, Newton newton) throws IOException {
@@ -262,7 +282,7 @@ private ValueArgument<Integer> partSizeArgument;
 				"function",
 				"",
 				false,
-				"Function in z in Newton's method. Must be specified in OpenCL-Syntax. Additional available functions: cmul, cdiv, cinv, cpow, cexp, csin, ccos, carg. Default is \"cpow(z,3)-(fp2)(1,0)\".") {
+				"Function in z in Newton's method. Must be specified in OpenCL-Syntax. Additional available functions: cmul, cdiv, cinv, cpow, cexp, csin, ccos, carg. The java engine supports z, numbers, M_PI, + - * /, .x, .y, (fp2)(a,b) and these functions (with an integer literal as exponent of cpow). Default is \"cpow(z,3)-(fp2)(1,0)\".") {
 			@Override
 			protected String convert(String value) throws ParseException {
 				if (value == null || value.isEmpty())
@@ -322,7 +342,7 @@ private ValueArgument<Integer> partSizeArgument;
 		};
 
 		superSamplingArgument = new ValueArgument<Size>("supersampling", "", false,
-				"Amount of subpixels per pixel in the form 'wxh' for positive integers w and h or a single square number. Defaults to '1'.") {
+				"Amount of subpixels per pixel in the form 'wxh' for positive integers w and h or a single positive integer n (a square number means a sqrt(n)xsqrt(n) grid). Defaults to '1'.") {
 			@Override
 			protected Size convert(String value) throws ParseException {
 				try {
@@ -334,12 +354,34 @@ private ValueArgument<Integer> partSizeArgument;
 				try {
 					int val = Formatter.parseInt(value);
 					int sval = (int) Math.sqrt(val);
-					if (val <= 0 || sval * sval != val)
+					if (val <= 0)
 						throw new Exception();
 
-					return new Size(sval, sval);
+					// only the grid pattern uses the dimensions
+					return sval * sval == val ? new Size(sval, sval) : new Size(val, 1);
+				} catch (Exception e) {
+					throw new ParseException("value for argument --supersampling is neither a size nor a positive integer.");
+				}
+			}
+		};
+
+		patternArgument = new EnumArgument("pattern", "", false,
+				"Placement of the subpixels of --supersampling: 'grid' (a regular grid), 'rotated' (a rotated grid), 'halton' (the low-discrepancy halton sequence) or 'bluenoise' (best-candidate blue noise). 'rotated' puts each subpixel in a row and column of its own, and all but 'grid' spread them over many rows and columns, so they need fewer subpixels for the same quality. Defaults to 'grid'.",
+				SamplePattern.NAMES);
+
+		adaptiveArgument = new ValueArgument<Double>("adaptive", "", false,
+				"Supersample adaptively: render one sample per pixel first and then only the pixels whose color differs from one of their neighbours by more than the given amount (0-255) in any channel with the full --supersampling. Defaults to '0', which supersamples every pixel.") {
+			@Override
+			protected Double convert(String value) throws ParseException {
+				try {
+					Double val = Double.parseDouble(value);
+
+					if (val < 0)
+						throw new Exception();
+
+					return val;
 				} catch (Exception e) {
-					throw new ParseException("value for argument --supersample is neither a size nor a square number.");
+					throw new ParseException("value for argument --adaptive must be a non-negative float.");
 				}
 			}
 		};
@@ -0,0 +1,170 @@
+package de.thiesgerken.fractals.newton.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.thiesgerken.fractals.newton.ComplexFunction;
+import de.thiesgerken.fractals.newton.FunctionCompiler;
+
+public class FunctionCompilerTest {
+	private static final double[][] POINTS = new double[][] { { 0.5, 0.25 }, { -1.25, 0.75 }, { 2, -3 }, { -0.1, -0.2 }, { 1, 0 } };
+
+	/**
+	 * Reference implementation of a function using plain complex arithmetic
+	 * on {re, im} pairs.
+	 */
+	private interface Reference {
+		double[] evaluate(double[] z);
+	}
+
+	private static double[] c(double re, double im) {
+		return new double[] { re, im };
+	}
+
+	private static double[] add(double[] a, double[] b) {
+		return c(a[0] + b[0], a[1] + b[1]);
+	}
+
+	private static double[] sub(double[] a, double[] b) {
+		return c(a[0] - b[0], a[1] - b[1]);
+	}
+
+	private static double[] scale(double s, double[] a) {
+		return c(s * a[0], s * a[1]);
+	}
+
+	private static double[] mul(double[] a, double[] b) {
+		return c(a[0] * b[0] - a[1] * b[1], a[0] * b[1] + a[1] * b[0]);
+	}
+
+	private static double[] inv(double[] a) {
+		double d = a[0] * a[0] + a[1] * a[1];
+		return c(a[0] / d, -a[1] / d);
+	}
+
+	private static double[] pow(double[] z, int exponent) {
+		double[] result = c(1, 0);
+
+		for (int i = 0; i < Math.abs(exponent); i++)
+			result = mul(result, z);
+
+		return exponent < 0 ? inv(result) : result;
+	}
+
+	private static void assertCompiles(String expression, Reference reference) throws Exception {
+		ComplexFunction f = FunctionCompiler.compile(expression).getDeclaredConstructor().newInstance();
+
+		for (double[] z : POINTS) {
+			double[] expected = reference.evaluate(z);
+			double tolerance = 1E-12 * Math.max(1, Math.hypot(expected[0], expected[1]));
+
+			f.evaluate(z[0], z[1]);
+
+			assertEquals(expression + " at " + z[0] + "+" + z[1] + "i (re)", expected[0], f.re, tolerance);
+			assertEquals(expression + " at " + z[0] + "+" + z[1] + "i (im)", expected[1], f.im, tolerance);
+		}
+	}
+
+	@Test
+	public void testDefaultFunction() throws Exception {
+		assertCompiles("cpow(z,3)-(fp2)(1,0)", new Reference() {
+			@Override
+			public double[] evaluate(double[] z) {
+				return sub(pow(z, 3), c(1, 0));
+			}
+		});
+	}
+
+	@Test
+	public void testDefaultDerivative() throws Exception {
+		assertCompiles("3*cpow(z,2)", new Reference() {
+			@Override
+			public double[] evaluate(double[] z) {
+				return scale(3, pow(z, 2));
+			}
+		});
+	}
+
+	@Test
+	public void testExamples() throws Exception {
+		assertCompiles("cinv(z-(fp2)(0,0)) + cpow(z,7) - (fp2) (1,0)", new Reference() {
+			@Override
+			public double[] evaluate(double[] z) {
+				return sub(add(inv(z), pow(z, 7)), c(1, 0));
+			}
+		});
+
+		assertCompiles("-cinv(cpow(z-(fp2)(0,0),2))+7*cpow(z,6)", new Reference() {
+			@Override
+			public double[] evaluate(double[] z) {
+				return add(scale(-1, inv(pow(z, 2))), scale(7, pow(z, 6)));
+			}
+		});
+
+		assertCompiles("cpow(z,7) - cpow(z,6) - (fp2) (8, 0)", new Reference() {
+			@Override
+			public double[] evaluate(double[] z) {
+				return sub(sub(pow(z, 7), pow(z, 6)), c(8, 0));
+			}
+		});
+
+		assertCompiles("7*cpow(z,6) - 6*cpow(z,5)", new Reference() {
+			@Override
+			public double[] evaluate(double[] z) {
+				return sub(scale(7, pow(z, 6)), scale(6, pow(z, 5)));
+			}
+		});
+	}
+
+	@Test
+	public void testFunctions() throws Exception {
+		assertCompiles("cdiv(cexp(z), csin(z) + ccos(z)) * z.y", new Reference() {
+			@Override
+			public double[] evaluate(double[] z) {
+				double[] exp = scale(Math.exp(z[0]), c(Math.cos(z[1]), Math.sin(z[1])));
+				double[] sin = c(Math.sin(z[0]) * Math.cosh(z[1]), Math.cos(z[0]) * Math.sinh(z[1]));
+				double[] cos = c(Math.cos(z[0]) * Math.cosh(z[1]), -Math.sin(z[0]) * Math.sinh(z[1]));
+
+				return scale(z[1], mul(exp, inv(add(sin, cos))));
+			}
+		});
+
+		assertCompiles("cmul(z, (fp2)(carg(z), M_PI)) + cpow(z,-2)", new Reference() {
+			@Override
+			public double[] evaluate(double[] z) {
+				return add(mul(z, c(ComplexFunction.carg(z[0], z[1]), Math.PI)), pow(z, -2));
+			}
+		});
+	}
+
+	@Test(expected = Exception.class)
+	public void testNonLiteralExponent() throws Exception {
+		FunctionCompiler.compile("cpow(z,z.x)");
+	}
+
+	@Test(expected = Exception.class)
+	public void testFractionalExponent() throws Exception {
+		FunctionCompiler.compile("cpow(z,2.5)");
+	}
+
+	@Test(expected = Exception.class)
+	public void testUnknownFunction() throws Exception {
+		FunctionCompiler.compile("cosc(z)");
+	}
+
+	@Test(expected = Exception.class)
+	public void testUnclosedParenthesis() throws Exception {
+		FunctionCompiler.compile("cpow(z,3");
+	}
+
+	@Test(expected = Exception.class)
+	public void testMissingOperand() throws Exception {
+		FunctionCompiler.compile("z +");
+	}
+
+	@Test(expected = Exception.class)
+	public void testTrailingInput() throws Exception {
+		FunctionCompiler.compile("(fp2)(1,0))");
+	}
+}
@@ -0,0 +1,84 @@
+package de.thiesgerken.fractals.util;
+
+/**
+ * Finds the pixels of an image that differ from one of their eight
+ * neighbours, e.g. to supersample only those. Pixels are given as their index
+ * y * width + x.
+ */
+public abstract class EdgeDetection {
+	private final int width;
+	private final int height;
+
+	public EdgeDetection(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Whether the pixels a and b differ by more than the threshold.
+	 */
+	protected abstract boolean differ(int a, int b);
+
+	/**
+	 * Returns all pixels that differ from at least one of their neighbours, in
+	 * ascending order.
+	 */
+	public int[] find() {
+		boolean[] edge = new boolean[width * height];
+		int count = 0;
+
+		// compare every pair of neighbours once: to the right and the three
+		// pixels below
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++) {
+				int index = y * width + x;
+
+				for (int dy = 0; dy <= 1; dy++)
+					for (int dx = -1; dx <= 1; dx++) {
+						if (dy == 0 && dx <= 0)
+							continue;
+
+						int nx = x + dx;
+						int ny = y + dy;
+
+						if (nx < 0 || nx >= width || ny >= height)
+							continue;
+
+						int neighbour = ny * width + nx;
+
+						if ((!edge[index] || !edge[neighbour]) && differ(index, neighbour)) {
+							if (!edge[index]) {
+								edge[index] = true;
+								count++;
+							}
+
+							if (!edge[neighbour]) {
+								edge[neighbour] = true;
+								count++;
+							}
+						}
+					}
+			}
+
+		int[] result = new int[count];
+		count = 0;
+
+		for (int i = 0; i < edge.length; i++)
+			if (edge[i])
+				result[count++] = i;
+
+		return result;
+	}
+
+	/**
+	 * The largest difference of the color channels of two rgb values.
+	 */
+	public static int getColorDistance(int a, int b) {
+		int distance = 0;
+
+		for (int shift = 0; shift < 24; shift += 8)
+			distance = Math.max(distance, Math.abs(((a >> shift) & 255) - ((b >> shift) & 255)));
+
+		return distance;
+	}
+}
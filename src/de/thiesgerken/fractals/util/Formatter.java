@@ -49,6 +49,14 @@ public class Formatter {
 			return time + "ns";
 	}
 
+	/**
+	 * Formats the amount of pixels that were computed in the given time (in
+	 * nanoseconds) as megapixels per second.
+	 */
+	public static String formatThroughput(long pixels, long time) {
+		return new DecimalFormat("#.##", new DecimalFormatSymbols(Locale.ROOT)).format(time == 0 ? 0 : pixels * 1E3 / time) + " Mpx/s";
+	}
+
 	public static int parseInt(String val) throws NumberFormatException {
 		double factor = 1;
 
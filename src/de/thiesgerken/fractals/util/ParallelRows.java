@@ -0,0 +1,70 @@
+package de.thiesgerken.fractals.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Distributes the rows of an image over a {@link ForkJoinPool}. Ranges of
+ * rows are split in halves until a single row remains, so that idle workers
+ * can steal the remaining work of busy ones (rows near the set are much more
+ * expensive than others).
+ */
+public class ParallelRows {
+
+	public interface RowKernel {
+		void computeRow(int y);
+	}
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a pool with the given amount of threads, or one thread per
+	 * available processor if threads is less than one.
+	 */
+	public ParallelRows(int threads) {
+		if (threads < 1)
+			threads = Runtime.getRuntime().availableProcessors();
+
+		pool = new ForkJoinPool(threads);
+	}
+
+	public int getThreadCount() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Calls the kernel for every row in [0, rows) and blocks until all rows
+	 * have been computed.
+	 */
+	public void forEachRow(int rows, RowKernel kernel) {
+		pool.invoke(new RowTask(kernel, 0, rows));
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private static class RowTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final RowKernel kernel;
+		private final int start;
+		private final int end;
+
+		public RowTask(RowKernel kernel, int start, int end) {
+			this.kernel = kernel;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start == 1)
+				kernel.computeRow(start);
+			else if (end > start) {
+				int middle = (start + end) >>> 1;
+				invokeAll(new RowTask(kernel, start, middle), new RowTask(kernel, middle, end));
+			}
+		}
+	}
+}
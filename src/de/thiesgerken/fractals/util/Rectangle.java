@@ -1,16 +1,32 @@
 package de.thiesgerken.fractals.util;
 
+import java.math.BigDecimal;
+
+/**
+ * An area of the complex plane, given by its bottom left corner and its
+ * size. Areas for deep zooms are given by a center in arbitrary precision
+ * and a zoom instead (see {@link #Rectangle(BigDecimal, BigDecimal, double)}),
+ * the corner is then only the nearest double.
+ */
 public class Rectangle {
+	/** the height of the area at zoom 1 (the height of the default area) */
+	public static final double UNZOOMED_HEIGHT = 3;
+
 	private double x;
 	private double y;
 	private double width;
 	private double height;
 
+	/* the exact center, null if the area is given by its corner */
+	private BigDecimal centerX;
+	private BigDecimal centerY;
+
 	public double getHeight() {
 		return height;
 	}
 
 	public void setHeight(double height) {
+		moveCenter(0, (height - this.height) / 2);
 		this.height = height;
 	}
 
@@ -19,6 +35,7 @@ public class Rectangle {
 	}
 
 	public void setWidth(double width) {
+		moveCenter((width - this.width) / 2, 0);
 		this.width = width;
 	}
 
@@ -27,6 +44,7 @@ public class Rectangle {
 	}
 
 	public void setX(double x) {
+		moveCenter(x - this.x, 0);
 		this.x = x;
 	}
 
@@ -35,9 +53,17 @@ public class Rectangle {
 	}
 
 	public void setY(double y) {
+		moveCenter(0, y - this.y);
 		this.y = y;
 	}
 
+	private void moveCenter(double dx, double dy) {
+		if (centerX != null) {
+			centerX = centerX.add(BigDecimal.valueOf(dx));
+			centerY = centerY.add(BigDecimal.valueOf(dy));
+		}
+	}
+
 	public Rectangle(double x, double y, double width, double height) {
 		this.x = x;
 		this.y = y;
@@ -45,8 +71,74 @@ public class Rectangle {
 		this.height = height;
 	}
 
+	/**
+	 * A square of height {@link #UNZOOMED_HEIGHT} / zoom around the given
+	 * center.
+	 */
+	public Rectangle(BigDecimal centerX, BigDecimal centerY, double zoom) {
+		this.width = UNZOOMED_HEIGHT / zoom;
+		this.height = width;
+		this.x = centerX.doubleValue() - width / 2;
+		this.y = centerY.doubleValue() - height / 2;
+		this.centerX = centerX;
+		this.centerY = centerY;
+	}
+
+	/**
+	 * Whether the area has been given by an exact center, see
+	 * {@link #Rectangle(BigDecimal, BigDecimal, double)}.
+	 */
+	public boolean hasExactCenter() {
+		return centerX != null;
+	}
+
+	public BigDecimal getCenterX() {
+		return centerX != null ? centerX : BigDecimal.valueOf(x).add(BigDecimal.valueOf(width / 2));
+	}
+
+	public BigDecimal getCenterY() {
+		return centerY != null ? centerY : BigDecimal.valueOf(y).add(BigDecimal.valueOf(height / 2));
+	}
+
+	/**
+	 * The left edge in arbitrary precision: that of the exact center if there
+	 * is one, x itself otherwise.
+	 */
+	public BigDecimal getExactX() {
+		return centerX != null ? centerX.subtract(new BigDecimal(width / 2)) : new BigDecimal(x);
+	}
+
+	public BigDecimal getExactY() {
+		return centerY != null ? centerY.subtract(new BigDecimal(height / 2)) : new BigDecimal(y);
+	}
+
+	public double getZoom() {
+		return UNZOOMED_HEIGHT / height;
+	}
+
+	/**
+	 * Parses an area in one of the forms of {@link #toString()}, already split
+	 * into its parts.
+	 */
+	public static Rectangle parse(String[] parts) {
+		if (parts.length == 4 && parts[0].equals("center"))
+			return new Rectangle(new BigDecimal(parts[1]), new BigDecimal(parts[2]), Double.parseDouble(parts[3]));
+
+		if (parts.length != 4)
+			throw new IllegalArgumentException("an area consists of four values");
+
+		return new Rectangle(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), Double.parseDouble(parts[3]));
+	}
+
+	/**
+	 * 'x y width height', or 'center re im zoom' if the area has been given
+	 * by an exact center.
+	 */
 	@Override
 	public String toString() {
+		if (centerX != null && width == height)
+			return "center " + centerX + " " + centerY + " " + getZoom();
+
 		return x + " " + y + " " + width + " " + height;
 	}
 }
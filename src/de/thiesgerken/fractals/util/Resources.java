@@ -0,0 +1,30 @@
+package de.thiesgerken.fractals.util;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+public class Resources {
+
+	/**
+	 * Reads the whole stream (e.g. the source of an OpenCL program) as UTF-8
+	 * and closes it.
+	 */
+	public static String read(InputStream stream) throws Exception {
+		char[] buffer = new char[2048];
+		StringBuilder out = new StringBuilder();
+		Reader in = new InputStreamReader(stream, "UTF-8");
+		try {
+			for (;;) {
+				int rsz = in.read(buffer, 0, buffer.length);
+				if (rsz < 0)
+					break;
+				out.append(buffer, 0, rsz);
+			}
+		} finally {
+			in.close();
+		}
+
+		return out.toString();
+	}
+}
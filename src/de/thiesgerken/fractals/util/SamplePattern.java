@@ -0,0 +1,209 @@
+package de.thiesgerken.fractals.util;
+
+import java.util.Random;
+
+/**
+ * Positions of the subpixels inside of a pixel for supersampling, given as
+ * offsets (x0, y0, x1, y1, ...) in [0, 1) from the corner of the pixel. The
+ * kernels receive them as a buffer and use the center of the pixel if there
+ * is just a single sample.
+ *
+ * Apart from the regular grid, all patterns support arbitrary sample counts
+ * and spread the samples over many rows and columns (the rotated grid puts
+ * every sample in a row and column of its own), which removes the aliasing
+ * along nearly horizontal and vertical structures with much fewer samples.
+ */
+public class SamplePattern {
+	/**
+	 * w x h samples on a regular grid, in the order of the old supersampling
+	 * loops (column by column)
+	 */
+	public static final String GRID = "grid";
+
+	/**
+	 * a rotated grid (the rank-1 lattice with the largest distance between
+	 * its samples)
+	 */
+	public static final String ROTATED = "rotated";
+
+	/** the halton sequence in bases 2 and 3 */
+	public static final String HALTON = "halton";
+
+	/** blue noise by best-candidate sampling with a fixed seed */
+	public static final String BLUE_NOISE = "bluenoise";
+
+	public static final String[] NAMES = new String[] { GRID, ROTATED, HALTON, BLUE_NOISE };
+
+	/**
+	 * Creates the offsets of the given pattern for supersampling.getWidth() *
+	 * supersampling.getHeight() samples (only the grid uses the dimensions).
+	 */
+	public static double[] create(String pattern, Size supersampling) {
+		int count = supersampling.getWidth() * supersampling.getHeight();
+
+		if (count == 1 || GRID.equals(pattern))
+			return createGrid(supersampling.getWidth(), supersampling.getHeight());
+
+		double[] offsets;
+
+		if (ROTATED.equals(pattern))
+			offsets = createLattice(count);
+		else if (HALTON.equals(pattern))
+			offsets = createHalton(count);
+		else if (BLUE_NOISE.equals(pattern))
+			offsets = createBlueNoise(count);
+		else
+			throw new IllegalArgumentException("Unknown sample pattern '" + pattern + "'.");
+
+		center(offsets);
+
+		return offsets;
+	}
+
+	private static double[] createGrid(int width, int height) {
+		double[] offsets = new double[2 * width * height];
+
+		for (int sx = 0, i = 0; sx < width; sx++)
+			for (int sy = 0; sy < height; sy++, i += 2) {
+				offsets[i] = 1.0 / width * (sx + 0.5);
+				offsets[i + 1] = 1.0 / height * (sy + 0.5);
+			}
+
+		return offsets;
+	}
+
+	/**
+	 * Sample i at ((i + 0.5) / n, (i * g + 0.5) / n mod 1) for the generator g
+	 * that maximizes the smallest (toroidal) distance between two samples.
+	 * Only generators coprime to n put every sample in a row of its own.
+	 */
+	private static double[] createLattice(int count) {
+		int best = 1;
+		double bestDistance = 0;
+
+		for (int g = 1; g < count; g++) {
+			if (gcd(g, count) != 1)
+				continue;
+
+			double distance = Double.MAX_VALUE;
+
+			// the lattice is the same as seen from any of its points
+			for (int i = 1; i < count; i++) {
+				double dx = wrap((double) i / count);
+				double dy = wrap((double) (i * g % count) / count);
+				distance = Math.min(distance, dx * dx + dy * dy);
+			}
+
+			if (distance > bestDistance) {
+				bestDistance = distance;
+				best = g;
+			}
+		}
+
+		double[] offsets = new double[2 * count];
+
+		for (int i = 0; i < count; i++) {
+			offsets[2 * i] = (i + 0.5) / count;
+			offsets[2 * i + 1] = ((long) i * best % count + 0.5) / count;
+		}
+
+		return offsets;
+	}
+
+	private static double[] createHalton(int count) {
+		double[] offsets = new double[2 * count];
+
+		for (int i = 0; i < count; i++) {
+			offsets[2 * i] = radicalInverse(i + 1, 2);
+			offsets[2 * i + 1] = radicalInverse(i + 1, 3);
+		}
+
+		return offsets;
+	}
+
+	private static double radicalInverse(int i, int base) {
+		double result = 0;
+		double digit = 1.0 / base;
+
+		for (; i > 0; i /= base, digit /= base)
+			result += (i % base) * digit;
+
+		return result;
+	}
+
+	/**
+	 * Mitchell's best-candidate algorithm on the torus: every sample is the
+	 * one out of several random candidates that is farthest from the others.
+	 */
+	private static double[] createBlueNoise(int count) {
+		Random random = new Random(1);
+		double[] offsets = new double[2 * count];
+
+		for (int i = 0; i < count; i++) {
+			double bestDistance = -1;
+
+			for (int c = 0; c < 10 * i + 1; c++) {
+				double x = random.nextDouble();
+				double y = random.nextDouble();
+				double distance = Double.MAX_VALUE;
+
+				for (int j = 0; j < i; j++) {
+					double dx = wrap(x - offsets[2 * j]);
+					double dy = wrap(y - offsets[2 * j + 1]);
+					distance = Math.min(distance, dx * dx + dy * dy);
+				}
+
+				if (distance > bestDistance) {
+					bestDistance = distance;
+					offsets[2 * i] = x;
+					offsets[2 * i + 1] = y;
+				}
+			}
+		}
+
+		return offsets;
+	}
+
+	private static int gcd(int a, int b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+
+	/**
+	 * The distance of two coordinates on the torus, given their difference.
+	 */
+	private static double wrap(double d) {
+		d = Math.abs(d) % 1;
+		return Math.min(d, 1 - d);
+	}
+
+	/**
+	 * Shifts the samples (on the torus) so that their mean is the center of
+	 * the pixel, otherwise the image would be shifted slightly.
+	 */
+	private static void center(double[] offsets) {
+		for (int d = 0; d < 2; d++) {
+			double mean = 0;
+
+			for (int i = d; i < offsets.length; i += 2)
+				mean += offsets[i] / (offsets.length / 2);
+
+			for (int i = d; i < offsets.length; i += 2) {
+				offsets[i] += 0.5 - mean;
+				offsets[i] -= Math.floor(offsets[i]);
+			}
+		}
+	}
+
+	/**
+	 * Converts the offsets (or any other doubles) for a buffer of 32bit
+	 * floats.
+	 */
+	public static float[] toFloats(double[] offsets) {
+		float[] result = new float[offsets.length];
+
+		for (int i = 0; i < offsets.length; i++)
+			result[i] = (float) offsets[i];
+
+		return result;
+	}
+}
@@ -0,0 +1,84 @@
+package de.thiesgerken.fractals.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Hands out horizontal strips of an image to several workers (e.g. devices)
+ * that take the next strip as soon as they are done with the last one, so
+ * faster workers automatically render more of the image. The strips get
+ * smaller towards the end (each one is a fraction of the remaining rows), so
+ * that all workers finish at about the same time.
+ */
+public class StripQueue {
+
+	public static class Strip {
+		private final int offsetY;
+		private final int height;
+
+		public Strip(int offsetY, int height) {
+			this.offsetY = offsetY;
+			this.height = height;
+		}
+
+		public int getOffsetY() {
+			return offsetY;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		@Override
+		public String toString() {
+			return "rows " + offsetY + " to " + (offsetY + height - 1);
+		}
+	}
+
+	private final int rows;
+	private final int workers;
+	private final int minHeight;
+	private final int maxHeight;
+	private final Deque<Strip> returned = new ArrayDeque<Strip>();
+	private int next;
+
+	/**
+	 * Creates a queue for the given amount of rows. Strips are never higher
+	 * than maxHeight and (except for the last one) never lower than minHeight.
+	 */
+	public StripQueue(int rows, int workers, int minHeight, int maxHeight) {
+		this.rows = rows;
+		this.workers = Math.max(1, workers);
+		this.maxHeight = Math.max(1, maxHeight);
+		this.minHeight = Math.max(1, Math.min(minHeight, this.maxHeight));
+		this.next = 0;
+	}
+
+	/**
+	 * Returns the next strip or null if all rows have been handed out.
+	 */
+	public synchronized Strip next() {
+		if (!returned.isEmpty())
+			return returned.poll();
+
+		if (next >= rows)
+			return null;
+
+		int remaining = rows - next;
+		int height = Math.max(minHeight, Math.min(maxHeight, (remaining + 2 * workers - 1) / (2 * workers)));
+		height = Math.min(height, remaining);
+
+		Strip strip = new Strip(next, height);
+		next += height;
+
+		return strip;
+	}
+
+	/**
+	 * Puts back a strip that could not be rendered, it is handed out again
+	 * before any new strips.
+	 */
+	public synchronized void putBack(Strip strip) {
+		returned.push(strip);
+	}
+}
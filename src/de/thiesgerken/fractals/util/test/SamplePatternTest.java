@@ -0,0 +1,75 @@
+package de.thiesgerken.fractals.util.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.thiesgerken.fractals.util.SamplePattern;
+import de.thiesgerken.fractals.util.Size;
+
+public class SamplePatternTest {
+	@Test
+	public void testOffsets() {
+		for (String pattern : SamplePattern.NAMES)
+			for (int count = 1; count <= 32; count++) {
+				double[] offsets = SamplePattern.create(pattern, new Size(count, 1));
+				double meanX = 0;
+				double meanY = 0;
+
+				assertEquals(pattern + " " + count, 2 * count, offsets.length);
+
+				for (int i = 0; i < offsets.length; i++)
+					assertTrue(pattern + " " + count + ": " + offsets[i], offsets[i] >= 0 && offsets[i] < 1);
+
+				for (int i = 0; i < count; i++) {
+					meanX += offsets[2 * i] / count;
+					meanY += offsets[2 * i + 1] / count;
+				}
+
+				// otherwise the image would be shifted
+				assertEquals(pattern + " " + count, 0.5, meanX, 1E-9);
+				assertEquals(pattern + " " + count, 0.5, meanY, 1E-9);
+			}
+	}
+
+	@Test
+	public void testGrid() {
+		double[] offsets = SamplePattern.create(SamplePattern.GRID, new Size(2, 3));
+
+		assertEquals(12, offsets.length);
+
+		// column by column
+		assertEquals(0.25, offsets[0], 1E-15);
+		assertEquals(1.0 / 6, offsets[1], 1E-15);
+		assertEquals(0.25, offsets[2], 1E-15);
+		assertEquals(0.5, offsets[3], 1E-15);
+		assertEquals(0.75, offsets[6], 1E-15);
+	}
+
+	@Test
+	public void testRotatedRowsAndColumns() {
+		for (int count = 2; count <= 64; count++) {
+			double[] offsets = SamplePattern.create(SamplePattern.ROTATED, new Size(count, 1));
+			boolean[] columns = new boolean[count];
+			boolean[] rows = new boolean[count];
+
+			for (int i = 0; i < count; i++) {
+				int column = (int) (offsets[2 * i] * count);
+				int row = (int) (offsets[2 * i + 1] * count);
+
+				assertFalse(count + " samples: column " + column + " twice", columns[column]);
+				assertFalse(count + " samples: row " + row + " twice", rows[row]);
+
+				columns[column] = true;
+				rows[row] = true;
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownPattern() {
+		SamplePattern.create("jittered", new Size(2, 2));
+	}
+}
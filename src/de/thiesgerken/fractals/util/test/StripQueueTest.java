@@ -0,0 +1,62 @@
+package de.thiesgerken.fractals.util.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.thiesgerken.fractals.util.StripQueue;
+import de.thiesgerken.fractals.util.StripQueue.Strip;
+
+public class StripQueueTest {
+	@Test
+	public void testCoversAllRows() {
+		int[][] settings = new int[][] { { 1000, 4, 8, 64 }, { 1000, 1, 1, 1000 }, { 7, 16, 8, 64 }, { 513, 3, 16, 16 }, { 0, 2, 1, 8 } };
+
+		for (int[] s : settings) {
+			StripQueue queue = new StripQueue(s[0], s[1], s[2], s[3]);
+			int next = 0;
+			int previousHeight = Integer.MAX_VALUE;
+			Strip strip;
+
+			while ((strip = queue.next()) != null) {
+				assertEquals("strips are handed out in order", next, strip.getOffsetY());
+				assertTrue("strips get lower towards the end", strip.getHeight() <= previousHeight);
+				assertTrue(strip.getHeight() <= s[3]);
+				assertTrue(strip.getHeight() >= Math.min(s[2], s[0] - next));
+
+				next += strip.getHeight();
+				previousHeight = strip.getHeight();
+			}
+
+			assertEquals(s[0], next);
+			assertNull(queue.next());
+		}
+	}
+
+	@Test
+	public void testPutBack() {
+		StripQueue queue = new StripQueue(100, 2, 10, 10);
+		Strip first = queue.next();
+		Strip second = queue.next();
+
+		queue.putBack(first);
+		queue.putBack(second);
+
+		assertSame(second, queue.next());
+		assertSame(first, queue.next());
+		assertEquals(20, queue.next().getOffsetY());
+
+		Strip strip;
+		Strip last = null;
+
+		while ((strip = queue.next()) != null)
+			last = strip;
+
+		queue.putBack(last);
+		assertSame(last, queue.next());
+		assertNull(queue.next());
+	}
+}